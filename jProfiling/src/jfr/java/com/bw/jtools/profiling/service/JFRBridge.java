@@ -0,0 +1,137 @@
+package com.bw.jtools.profiling.service;
+
+import com.bw.jtools.profiling.ClassProfilingInformation;
+import com.bw.jtools.profiling.MethodProfilingInformation;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits the JFR events of {@link JFRService}.<br>
+ * The only class that references the JFR API, it is loaded by reflection if the API is available.
+ */
+final class JFRBridge implements JFRService.Bridge
+{
+	@Name("com.bw.jtools.profiling.MethodCall")
+	@Label("Profiled Method Call")
+	@Category("jProfiling")
+	@Description("Measured call of a profiled method that exceeded the threshold of the JFR service.")
+	@StackTrace(false)
+	static final class MethodCallEvent extends Event
+	{
+		@Label("Class")
+		String className;
+
+		@Label("Method")
+		String methodName;
+
+		@Label("Measured Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long value;
+	}
+
+	@Name("com.bw.jtools.profiling.MethodStatistics")
+	@Label("Profiled Method Statistics")
+	@Category("jProfiling")
+	@Description("Aggregated values of a profiled method since the last reset.")
+	@Period("60 s")
+	@StackTrace(false)
+	static final class MethodStatisticsEvent extends Event
+	{
+		@Label("Class")
+		String className;
+
+		@Label("Method")
+		String methodName;
+
+		@Label("Calls")
+		long calls;
+
+		@Label("Measured Calls")
+		long sampledCalls;
+
+		@Label("Total Time")
+		@Description("Sum of all calls, extrapolated if calls are sampled.")
+		@Timespan(Timespan.NANOSECONDS)
+		long total;
+
+		@Label("Self Time")
+		@Description("Total time without the time of profiled callees.")
+		@Timespan(Timespan.NANOSECONDS)
+		long self;
+
+		@Label("Mean Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long mean;
+
+		@Label("Minimum Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long min;
+
+		@Label("Maximum Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long max;
+	}
+
+	private final Runnable statisticsHook = this::emitStatistics;
+
+	JFRBridge()
+	{
+		FlightRecorder.addPeriodicEvent(MethodStatisticsEvent.class, statisticsHook);
+	}
+
+	@Override
+	public void slowCall(MethodProfilingInformation mi, long[] used)
+	{
+		MethodCallEvent e = new MethodCallEvent();
+		if ( e.isEnabled() )
+		{
+			e.className = mi.clazz == null ? null : mi.clazz.name;
+			e.methodName = mi.name;
+			e.value = used[0];
+			e.commit();
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		FlightRecorder.removePeriodicEvent(statisticsHook);
+	}
+
+	/**
+	 * Emits the statistics of all called methods.
+	 * Called by the flight recorder with the period of the event.
+	 */
+	private void emitStatistics()
+	{
+		for ( ClassProfilingInformation ci : ClassProfilingInformation.getClasses() )
+		{
+			for ( MethodProfilingInformation mi : ci.getMethods() )
+			{
+				final MethodStatistics s = MethodStatistics.collect(mi);
+				if ( s.getCalls() == 0 )
+				{
+					continue;
+				}
+				MethodStatisticsEvent e = new MethodStatisticsEvent();
+				e.className = s.getClassName();
+				e.methodName = s.getMethodName();
+				e.calls = s.getCalls();
+				e.sampledCalls = s.getSampledCalls();
+				e.total = s.getTotal();
+				e.self = s.getSelf();
+				e.mean = s.getMean();
+				e.min = s.getMin();
+				e.max = s.getMax();
+				e.commit();
+			}
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import com.bw.jtools.profiling.measurement.MeasurementValue;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the accumulation modes of {@link ProfilingInformation#addCall(MeasurementValue, boolean)}
+ * with all available cores hammering on the same method.<br>
+ * The secondary result "lostCalls" shows the calls that were not recorded because of races.<br>
+ * Run with "gradle :jProfiling:jmh".
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class AddCallBenchmark
+{
+    @Param({ "SHARED", "STRIPED", "DENSE" })
+    public ProfilingInformation.AccumulationMode mode;
+
+    MethodProfilingInformation mi;
+
+    final List<ThreadState> threads = new CopyOnWriteArrayList<>();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ThreadState
+    {
+        final MeasurementValue value = new MeasurementValue(new long[] { 1000 });
+
+        /**
+         * Calls of this thread in the current iteration.
+         */
+        long calls;
+
+        /**
+         * Lost calls of all threads, only set for the first thread, as JMH sums the counters.
+         */
+        public long lostCalls;
+
+        @Setup(Level.Iteration)
+        public void register(AddCallBenchmark benchmark)
+        {
+            calls = 0;
+            benchmark.threads.add(this);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        ProfilingInformation.setAccumulationMode(mode);
+        mi = ClassProfilingInformation.getClassInformation("Benchmark").getMethodInformation("addCall");
+        mi.clear();
+        threads.clear();
+    }
+
+    /**
+     * Called after all threads finished their calls and before the counters are reported.
+     */
+    @TearDown(Level.Iteration)
+    public void countLostCalls()
+    {
+        mi.collect();
+        long expected = 0;
+        for (ThreadState ts : threads)
+        {
+            expected += ts.calls;
+        }
+        if (!threads.isEmpty())
+        {
+            threads.get(0).lostCalls = expected - mi.calls;
+        }
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void addCall(ThreadState ts)
+    {
+        ++ts.calls;
+        mi.addCall(ts.value, true);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of {@link CallEventRecorder} on the hot path of {@link MethodProfiling#enter(MethodProfilingInformation)}
+ * and {@link MethodProfiling#exit(MethodProfilingInformation, long)}, while a drainer thread consumes the events.<br>
+ * The secondary results "events" and "dropped" show the drained and the dropped events.<br>
+ * Run with "gradle :jProfiling:jmh".
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CallEventBenchmark
+{
+    @Param({ "false", "true" })
+    public boolean recording;
+
+    MethodProfilingInformation mi;
+    Thread drainer;
+    volatile boolean draining;
+    long events;
+    long dropped;
+
+    final List<ThreadState> threads = new CopyOnWriteArrayList<>();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ThreadState
+    {
+        /**
+         * Events of all threads, only set for the first thread, as JMH sums the counters.
+         */
+        public long events;
+        public long dropped;
+
+        @Setup(Level.Iteration)
+        public void register(CallEventBenchmark benchmark)
+        {
+            benchmark.threads.add(this);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void resolve()
+    {
+        mi = ClassProfilingInformation.getClassInformation("CallEventBenchmark").getMethodInformation("event");
+    }
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        threads.clear();
+        events = 0;
+        dropped = 0;
+        CallEventRecorder.setEnabled(recording);
+        draining = true;
+        drainer = new Thread(() ->
+        {
+            final CallEventRecorder.Sink sink = new CallEventRecorder.Sink()
+            {
+                @Override
+                public void event(long threadId, String threadName, int method, int type, long time)
+                {
+                    ++events;
+                }
+
+                @Override
+                public void dropped(long threadId, String threadName, long count)
+                {
+                    dropped += count;
+                }
+            };
+            while (draining)
+            {
+                CallEventRecorder.drain(sink);
+                try
+                {
+                    Thread.sleep(1);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+            }
+            CallEventRecorder.drain(sink);
+        });
+        drainer.start();
+    }
+
+    /**
+     * Called after all threads finished their calls and before the counters are reported.
+     */
+    @TearDown(Level.Iteration)
+    public void countEvents() throws InterruptedException
+    {
+        CallEventRecorder.setEnabled(false);
+        draining = false;
+        drainer.join();
+        if (!threads.isEmpty())
+        {
+            threads.get(0).events = events;
+            threads.get(0).dropped = dropped;
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void enterExit(ThreadState ts)
+    {
+        MethodProfiling.exit(mi, MethodProfiling.enter(mi));
+    }
+}
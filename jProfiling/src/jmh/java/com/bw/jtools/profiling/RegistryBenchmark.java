@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the registry of {@link ClassProfilingInformation} with 256 threads.<br>
+ * "lookup" resolves existing classes and methods, "firstTouch" creates new classes and methods,
+ * "iterate" walks the live views like a renderer does while another thread registers methods.<br>
+ * Registered methods are never removed, so the creating benchmarks are bounded:
+ * each invocation of "firstTouch" creates one batch of {@link #NEW_CLASSES} new classes with a new name prefix
+ * and is measured as single shot. The writer of "iterate" pauses between registrations.
+ * As the registry grows during "iterate", the secondary results "visited" and "registered"
+ * show the number of visited methods and registrations per iteration.<br>
+ * Run with "gradle :jProfiling:jmh".
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class RegistryBenchmark
+{
+    static final int CLASSES = 64;
+    static final int METHODS = 16;
+
+    /**
+     * Number of classes created by one invocation of "firstTouch", each with {@link #METHODS} methods.
+     */
+    static final int NEW_CLASSES = 16;
+
+    /**
+     * Pause of the writer of "iterate" between two registrations, see {@link Blackhole#consumeCPU(long)}.
+     */
+    static final long WRITER_TOKENS = 10000;
+
+    final String[] classNames = new String[CLASSES];
+    final String[] methodNames = new String[METHODS];
+    final AtomicInteger batches = new AtomicInteger();
+    final AtomicInteger registrations = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class ThreadState
+    {
+        int next = (int) Thread.currentThread().getId();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class IterateCounters
+    {
+        public long visited;
+        public long registered;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            visited = 0;
+            registered = 0;
+        }
+    }
+
+    @Setup
+    public void setup()
+    {
+        for (int c = 0; c < CLASSES; ++c)
+        {
+            classNames[c] = "RegistryBenchmark" + c;
+        }
+        for (int m = 0; m < METHODS; ++m)
+        {
+            methodNames[m] = "method" + m;
+        }
+        for (String cn : classNames)
+        {
+            ClassProfilingInformation ci = ClassProfilingInformation.getClassInformation(cn);
+            for (String mn : methodNames)
+            {
+                ci.getMethodInformation(mn);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(256)
+    public MethodProfilingInformation lookup(ThreadState ts)
+    {
+        final int i = ts.next++;
+        return ClassProfilingInformation.getClassInformation(classNames[i & (CLASSES - 1)])
+                                        .getMethodInformation(methodNames[(i >>> 6) & (METHODS - 1)]);
+    }
+
+    @Benchmark
+    @Threads(256)
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(NEW_CLASSES * METHODS)
+    public void firstTouch(Blackhole bh)
+    {
+        // Each batch gets an own prefix, so all classes and methods are new.
+        final String prefix = "RegistryBenchmarkNew" + batches.getAndIncrement() + '_';
+        for (int c = 0; c < NEW_CLASSES; ++c)
+        {
+            final ClassProfilingInformation ci = ClassProfilingInformation.getClassInformation(prefix + c);
+            for (String mn : methodNames)
+            {
+                bh.consume(ci.getMethodInformation(mn));
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("iterate")
+    @GroupThreads(255)
+    public void iterateViews(IterateCounters counters, Blackhole bh)
+    {
+        long visited = 0;
+        for (ClassProfilingInformation ci : ClassProfilingInformation.getClasses())
+        {
+            for (MethodProfilingInformation mi : ci.getMethods())
+            {
+                bh.consume(mi.index);
+                ++visited;
+            }
+        }
+        counters.visited += visited;
+    }
+
+    @Benchmark
+    @Group("iterate")
+    @GroupThreads(1)
+    public MethodProfilingInformation iterateRegister(IterateCounters counters)
+    {
+        Blackhole.consumeCPU(WRITER_TOKENS);
+        final int i = registrations.getAndIncrement();
+        ++counters.registered;
+        return ClassProfilingInformation.getClassInformation("RegistryBenchmarkIterate" + (i >>> 4))
+                                        .getMethodInformation(methodNames[i & (METHODS - 1)]);
+    }
+}
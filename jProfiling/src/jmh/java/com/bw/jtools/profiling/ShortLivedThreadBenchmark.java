@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spawns a million short-living threads, each executing one profiled call.<br>
+ * Measures the creation costs of the per-thread state.
+ * With "profiled" false, profiling is disabled and the result is the baseline of the thread creation.<br>
+ * Run with "gradle :jProfiling:jmh".
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@State(Scope.Benchmark)
+public class ShortLivedThreadBenchmark
+{
+    @Param({ "1000000" })
+    public int tasks;
+
+    /**
+     * Number of threads that run in parallel.
+     */
+    @Param({ "256" })
+    public int parallel;
+
+    @Param({ "false", "true" })
+    public boolean profiled;
+
+    MethodProfilingInformation mi;
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        mi = ClassProfilingInformation.getClassInformation("ShortLivedThreadBenchmark").getMethodInformation("task");
+        MethodProfiling.setEnabled(profiled);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown()
+    {
+        MethodProfiling.setEnabled(true);
+    }
+
+    @Benchmark
+    public void spawn() throws InterruptedException
+    {
+        final Runnable task = () -> MethodProfiling.exit(mi, MethodProfiling.enter(mi));
+        final Thread[] running = new Thread[parallel];
+        for (int i = 0; i < tasks; ++i)
+        {
+            final int p = i % parallel;
+            if (running[p] != null)
+            {
+                running[p].join();
+            }
+            running[p] = new Thread(task);
+            running[p].start();
+        }
+        for (Thread t : running)
+        {
+            if (t != null)
+            {
+                t.join();
+            }
+        }
+    }
+}
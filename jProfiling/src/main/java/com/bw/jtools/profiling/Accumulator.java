@@ -0,0 +1,297 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+
+import java.util.Arrays;
+
+/**
+ * Accumulated values of calls.<br>
+ * Used as buffer for one epoch of a {@link ProfilingInformation} and as base for the values of all previous epochs.
+ */
+final class Accumulator
+{
+    int calls;
+    int recursiveCalls;
+    int sampledCalls;
+
+    /**
+     * Sum of all measured calls. Null as long as no call was measured.
+     */
+    long[] sum;
+
+    /**
+     * Values of the call with the minimal/maximal first dimension.
+     */
+    long[] min;
+    long[] max;
+
+    /**
+     * Cells for striped accumulation, indexed by {@link ThreadProfilingInformation#slot}.<br>
+     * Each cell is written only by the owning thread. Layout see {@link #CELL_CALLS}.
+     */
+    private volatile long[][] cells;
+
+    /**
+     * Padding in front and at end of each cell to keep cells of different threads
+     * on different cache-lines.
+     */
+    private static final int CELL_PADDING = 8;
+    private static final int CELL_CALLS = CELL_PADDING;
+    private static final int CELL_RECURSIVE = CELL_PADDING+1;
+    private static final int CELL_SAMPLED = CELL_PADDING+2;
+    private static final int CELL_VALUES = CELL_PADDING+3;
+
+    /**
+     * Adds a measured call.
+     * @param values The measured values.
+     * @param notRecursive True if this call was not recursive.
+     * @param slot The {@link ThreadProfilingInformation#slot} of the calling thread for striped accumulation,
+     *             -1 for shared accumulation.
+     */
+    void addCall( final long[] values, boolean notRecursive, int slot )
+    {
+        if ( slot >= 0 )
+        {
+            addStripedCall( slot, values, notRecursive );
+            return;
+        }
+        // Parallel access to this method from different thread would lead - in worst case - to a small numeric error, but not to some crash.
+        // So synchronisation can be skipped in favour of performance.
+        if ( notRecursive ) {
+            ++calls;
+            ++sampledCalls;
+            final long[] s = sum;
+            final long[] mn = min;
+            final long[] mx = max;
+            final int n = values.length;
+            if ( s == null || mn == null || mx == null || s.length != n || mn.length != n || mx.length != n )
+            {
+                min = values.clone();
+                max = values.clone();
+                sum = values.clone();
+            }
+            else {
+                for ( int i = 0 ; i<n ; ++i )
+                {
+                    s[i] += values[i];
+                }
+                if ( values[0] > mx[0] ) System.arraycopy(values, 0, mx, 0, n);
+                if ( values[0] < mn[0] ) System.arraycopy(values, 0, mn, 0, n);
+            }
+        } else {
+            ++recursiveCalls;
+        }
+    }
+
+    /**
+     * Adds a call that was not measured.
+     * @param notRecursive True if this call was not recursive.
+     * @param slot The {@link ThreadProfilingInformation#slot} of the calling thread for striped accumulation,
+     *             -1 for shared accumulation.
+     */
+    void addUnsampledCall( boolean notRecursive, int slot )
+    {
+        if ( slot >= 0 )
+        {
+            final long[] cell = getCell( slot, AbstractMeasurementSource.currentSource.getDimensions() );
+            ++cell[notRecursive ? CELL_CALLS : CELL_RECURSIVE];
+        }
+        else if ( notRecursive )
+        {
+            ++calls;
+        }
+        else
+        {
+            ++recursiveCalls;
+        }
+    }
+
+    private void addStripedCall( final int slot, final long[] values, boolean notRecursive )
+    {
+        final long[] cell = getCell( slot, values.length );
+        if ( notRecursive )
+        {
+            ++cell[CELL_CALLS];
+            ++cell[CELL_SAMPLED];
+            final int n = values.length;
+            final int minIdx = CELL_VALUES+n;
+            final int maxIdx = minIdx+n;
+            for ( int i=0 ; i<n ; ++i )
+            {
+                cell[CELL_VALUES+i] += values[i];
+            }
+            if ( values[0] < cell[minIdx] ) System.arraycopy(values, 0, cell, minIdx, n);
+            if ( values[0] > cell[maxIdx] ) System.arraycopy(values, 0, cell, maxIdx, n);
+        }
+        else
+        {
+            ++cell[CELL_RECURSIVE];
+        }
+    }
+
+    /**
+     * Gets or creates the cell of a thread.<br>
+     * Cells are kept over epochs, so a thread allocates its cell only once.
+     * If the number of dimensions changed, the cell is replaced.
+     * @param slot The slot of the thread.
+     * @param dimensions Number of dimensions of the measurement values.
+     * @return The cell, never null.
+     */
+    private long[] getCell( final int slot, final int dimensions )
+    {
+        long[][] cs = cells;
+        if ( cs != null && slot < cs.length )
+        {
+            final long[] cell = cs[slot];
+            if ( cell != null && cell.length == CELL_VALUES + 3*dimensions + CELL_PADDING ) return cell;
+        }
+        synchronized ( this )
+        {
+            cs = cells;
+            if ( cs == null )
+            {
+                cs = new long[Math.max(slot+1, 8)][];
+            }
+            else if ( slot >= cs.length )
+            {
+                long[][] ncs = new long[Math.max(slot+1, cs.length*2)][];
+                System.arraycopy(cs, 0, ncs, 0, cs.length);
+                cs = ncs;
+            }
+            long[] cell = cs[slot];
+            if ( cell == null || cell.length != CELL_VALUES + 3*dimensions + CELL_PADDING )
+            {
+                // The cell is created by the owning thread, so it's allocated inside its local allocation buffer.
+                cell = new long[CELL_VALUES + 3*dimensions + CELL_PADDING];
+                clearCell(cell);
+                cs[slot] = cell;
+            }
+            cells = cs;
+            return cell;
+        }
+    }
+
+    /**
+     * Adds all values of this accumulator to an other one.<br>
+     * Values with a different number of dimensions than the target replace the target values,
+     * as the measurement source was switched.
+     * @param target The accumulator to add to.
+     */
+    void addTo( Accumulator target )
+    {
+        target.calls += calls;
+        target.recursiveCalls += recursiveCalls;
+        target.sampledCalls += sampledCalls;
+        target.addValues( sum, min, max );
+
+        final long[][] cs = cells;
+        if ( cs != null )
+        {
+            for ( long[] cell : cs )
+            {
+                if ( cell != null )
+                {
+                    final int n = (cell.length - CELL_VALUES - CELL_PADDING)/3;
+                    target.calls += (int)cell[CELL_CALLS];
+                    target.recursiveCalls += (int)cell[CELL_RECURSIVE];
+                    target.sampledCalls += (int)cell[CELL_SAMPLED];
+                    if ( cell[CELL_SAMPLED] > 0 )
+                    {
+                        target.addValues( Arrays.copyOfRange(cell, CELL_VALUES, CELL_VALUES+n),
+                                          Arrays.copyOfRange(cell, CELL_VALUES+n, CELL_VALUES+2*n),
+                                          Arrays.copyOfRange(cell, CELL_VALUES+2*n, CELL_VALUES+3*n));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds measured values.
+     * @param s The sum, null if no call was measured.
+     * @param mn The minimum.
+     * @param mx The maximum.
+     */
+    void addValues( long[] s, long[] mn, long[] mx )
+    {
+        if ( s == null )
+        {
+            return;
+        }
+        if ( sum == null || sum.length != s.length )
+        {
+            sum = s.clone();
+            min = mn.clone();
+            max = mx.clone();
+        }
+        else
+        {
+            for ( int i=0 ; i<s.length ; ++i )
+            {
+                sum[i] += s[i];
+            }
+            if ( mn[0] < min[0] ) System.arraycopy(mn, 0, min, 0, mn.length);
+            if ( mx[0] > max[0] ) System.arraycopy(mx, 0, max, 0, mx.length);
+        }
+    }
+
+    /**
+     * Resets the values of a cell.
+     * @param cell The cell.
+     */
+    private static void clearCell( long[] cell )
+    {
+        final int n = (cell.length - CELL_VALUES - CELL_PADDING)/3;
+        Arrays.fill(cell, CELL_CALLS, CELL_VALUES+n, 0);
+        Arrays.fill(cell, CELL_VALUES+n, CELL_VALUES+2*n, Long.MAX_VALUE);
+        Arrays.fill(cell, CELL_VALUES+2*n, CELL_VALUES+3*n, Long.MIN_VALUE);
+    }
+
+    /**
+     * Resets all values.<br>
+     * Cells are reset in place, so threads don't need to allocate them again.
+     */
+    void clear()
+    {
+        synchronized ( this )
+        {
+            final long[][] cs = cells;
+            if ( cs != null )
+            {
+                for ( long[] cell : cs )
+                {
+                    if ( cell != null ) clearCell(cell);
+                }
+            }
+        }
+        calls = 0;
+        recursiveCalls = 0;
+        sampledCalls = 0;
+        sum = null;
+        min = null;
+        max = null;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional recorder of the individual enter- and exit-events of profiled calls.<br>
+ * Events are recorded by {@link MethodProfiling#enter(MethodProfilingInformation)} and
+ * {@link MethodProfiling#exit(MethodProfilingInformation, long)} into a ring of the current thread.
+ * Each ring has exactly one producer (its thread) and one consumer (the drainer, see {@link #drain(Sink)}),
+ * so neither side needs a lock. If a ring is full, the event is dropped and counted, recording never waits.<br>
+ * An event consists of the time (System.nanoTime), the {@link MethodProfilingInformation#index} and the type.
+ * The thread is given by the ring.<br>
+ * The recorder is disabled by default, see {@link #setEnabled(boolean)}. Normally it is controlled by
+ * {@link com.bw.jtools.profiling.service.CallEventService}, that writes the events to a binary file.
+ */
+public final class CallEventRecorder
+{
+    /**
+     * Type of an event at the start of a call.
+     */
+    public static final int ENTER = 0;
+
+    /**
+     * Type of an event at the end of a call.
+     */
+    public static final int EXIT = 1;
+
+    /**
+     * Receiver of drained events.
+     */
+    public static interface Sink
+    {
+        /**
+         * Called for each drained event, in order of recording for each thread.
+         * @param threadId The id of the thread.
+         * @param threadName The name of the thread at the time the ring was created.
+         * @param method The {@link MethodProfilingInformation#index} of the method.
+         * @param type {@link #ENTER} or {@link #EXIT}.
+         * @param time The time in nanoseconds, see System.nanoTime.
+         */
+        public void event(long threadId, String threadName, int method, int type, long time);
+
+        /**
+         * Called if events of a thread were dropped since the last drain because the ring was full.
+         * @param threadId The id of the thread.
+         * @param threadName The name of the thread.
+         * @param count The number of dropped events.
+         */
+        public void dropped(long threadId, String threadName, long count);
+    }
+
+    /**
+     * Single-producer single-consumer ring of one thread.
+     */
+    static final class EventRing
+    {
+        final long threadId;
+        final String threadName;
+        private final WeakReference<Thread> thread;
+
+        /**
+         * Two longs for each event: time and (method index &lt;&lt; 1 | type).
+         */
+        private final long[] buffer;
+        private final int mask;
+
+        /**
+         * Position of the next event to write. Published by the producer with ordered stores.
+         */
+        private final AtomicLong head = new AtomicLong();
+
+        /**
+         * Position of the next event to read. Published by the consumer with ordered stores.
+         */
+        private final AtomicLong tail = new AtomicLong();
+
+        /**
+         * Number of dropped events. Only written by the producer.
+         */
+        private final AtomicLong dropped = new AtomicLong();
+
+        /**
+         * Producer-local copies, to avoid reads of shared state.
+         */
+        private long producerHead;
+        private long producerTail;
+
+        /**
+         * Number of dropped events already reported to the consumer.
+         */
+        private long reportedDropped;
+
+        EventRing(Thread t, int capacity)
+        {
+            threadId = t.getId();
+            threadName = t.getName();
+            thread = new WeakReference<>(t);
+            buffer = new long[2 * capacity];
+            mask = capacity - 1;
+        }
+
+        /**
+         * Adds an event. Must only be called by the owning thread.
+         */
+        void add(int method, int type, long time)
+        {
+            final long h = producerHead;
+            if (h - producerTail > mask)
+            {
+                producerTail = tail.get();
+                if (h - producerTail > mask)
+                {
+                    dropped.lazySet(dropped.get() + 1);
+                    return;
+                }
+            }
+            final int i = ((int) h & mask) << 1;
+            buffer[i] = time;
+            buffer[i + 1] = ((long) method << 1) | type;
+            producerHead = h + 1;
+            head.lazySet(h + 1);
+        }
+
+        /**
+         * Passes all available events to the sink. Must only be called by the consumer.
+         * @return True if the ring is empty and the thread has ended.
+         */
+        boolean drain(Sink sink)
+        {
+            final Thread t = thread.get();
+            final boolean ended = (t == null || !t.isAlive());
+            final long h = head.get();
+            long p = tail.get();
+            while (p < h)
+            {
+                final int i = ((int) p & mask) << 1;
+                final long e = buffer[i + 1];
+                sink.event(threadId, threadName, (int) (e >>> 1), (int) (e & 1), buffer[i]);
+                ++p;
+            }
+            tail.lazySet(p);
+            final long d = dropped.get();
+            if (d != reportedDropped)
+            {
+                sink.dropped(threadId, threadName, d - reportedDropped);
+                reportedDropped = d;
+            }
+            return ended && head.get() == p;
+        }
+    }
+
+    private static volatile boolean enabled = false;
+    private static volatile int bufferSize = 8192;
+
+    private static final ConcurrentLinkedQueue<EventRing> rings = new ConcurrentLinkedQueue<>();
+
+    private CallEventRecorder()
+    {
+    }
+
+    /**
+     * Enables or disables the recording.<br>
+     * Calls that are active during the switch may have only one of their events recorded.
+     * @param enable True to enable.
+     */
+    public static void setEnabled(boolean enable)
+    {
+        enabled = enable;
+    }
+
+    /**
+     * Checks if events are recorded.
+     * @return True if enabled.
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Sets the capacity of the ring of each thread.<br>
+     * Only used for rings of threads that record their first event after the call.
+     * @param events The number of events, rounded up to a power of 2.
+     */
+    public static void setBufferSize(int events)
+    {
+        int n = 2;
+        while (n < events && n < (1 << 28))
+        {
+            n <<= 1;
+        }
+        bufferSize = n;
+    }
+
+    /**
+     * Gets the capacity of the ring of each thread.
+     * @return The number of events.
+     */
+    public static int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * Records an event of the current thread.<br>
+     * Calls of methods that are not registered are ignored.
+     * @param ti The information of the current thread.
+     * @param mi The method.
+     * @param type {@link #ENTER} or {@link #EXIT}.
+     */
+    static void record(ThreadProfilingInformation ti, MethodProfilingInformation mi, int type)
+    {
+        if (!mi.registered)
+        {
+            return;
+        }
+        EventRing r = ti.events;
+        if (r == null)
+        {
+            ti.events = r = new EventRing(Thread.currentThread(), bufferSize);
+            rings.add(r);
+        }
+        r.add(mi.index, type, System.nanoTime());
+    }
+
+    /**
+     * Passes all recorded events to a sink.<br>
+     * Rings of ended threads are released after they are drained.
+     * Must not be called by multiple threads in parallel.
+     * @param sink The sink.
+     */
+    public static void drain(Sink sink)
+    {
+        Iterator<EventRing> it = rings.iterator();
+        while (it.hasNext())
+        {
+            if (it.next().drain(sink))
+            {
+                it.remove();
+            }
+        }
+    }
+}
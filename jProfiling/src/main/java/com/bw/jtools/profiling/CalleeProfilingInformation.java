@@ -43,4 +43,10 @@ public final class CalleeProfilingInformation extends ProfilingInformation
      * The called method.
      */
     public final MethodProfilingInformation callee;
+
+    /**
+     * True if calls via this relation were executed by an other thread on behalf of the caller,
+     * see {@link ProfilingExecutors}. The time of these calls is not part of the time of the caller.
+     */
+    public volatile boolean asynchronous;
 }
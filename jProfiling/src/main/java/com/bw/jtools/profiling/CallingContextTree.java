@@ -0,0 +1,578 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import com.bw.jtools.profiling.callgraph.CallEdge;
+import com.bw.jtools.profiling.callgraph.CallNode;
+import com.bw.jtools.profiling.callgraph.NodeDetail;
+import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+import com.bw.jtools.profiling.measurement.DateTimeValue;
+import com.bw.jtools.profiling.measurement.MeasurementValue;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Calling-context tree of one thread.<br>
+ * In contrast to {@link MethodProfilingInformation#callees}, each node of a calling-context tree
+ * represents a unique call path. So the values of a method are only shown under the callers that caused them.<br>
+ * Each thread maintains its own tree without synchronization. {@link #getCallGraph(boolean)} merges
+ * the trees of all threads. Values of running threads are read without synchronization,
+ * so the snapshot may miss the current calls.<br>
+ * To keep the memory bounded, the number of nodes is limited by a budget, see {@link #setNodeBudget(int)}.
+ * If a tree exceeds the budget, the nodes with the lowest values are folded into an "other" node of their parent.
+ * Threads compact their tree if they have no active profiled call, new paths are directly added to
+ * "other" if a tree reaches twice the budget.<br>
+ * {@link #clear()} starts a new generation. Each thread resets its own tree with the next call and
+ * resolves the nodes of its active calls again, trees of older generations are ignored.<br>
+ * The mode is disabled by default, see {@link #setEnabled(boolean)}.
+ */
+public final class CallingContextTree
+{
+    /**
+     * Method index of "other" nodes.
+     */
+    static final int OTHER = -1;
+
+    /**
+     * A node of the tree, representing a unique call path.
+     */
+    static final class Node
+    {
+        private static final Node[] EMPTY = new Node[0];
+
+        /**
+         * The {@link MethodProfilingInformation#index} or {@link #OTHER}.
+         */
+        final int method;
+        final Node parent;
+        int calls;
+        int sampledCalls;
+        long[] sum;
+        Node[] children = EMPTY;
+        private boolean kept;
+
+        Node(Node parent, int method)
+        {
+            this.parent = parent;
+            this.method = method;
+        }
+
+        /**
+         * Adds a call.
+         * @param used The measured values or null if the call was not sampled.
+         */
+        void add(long[] used)
+        {
+            ++calls;
+            if (used != null)
+            {
+                ++sampledCalls;
+                long[] s = sum;
+                if (s == null || s.length != used.length)
+                {
+                    sum = used.clone();
+                }
+                else
+                {
+                    for (int i = 0; i < used.length; ++i)
+                    {
+                        s[i] += used[i];
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds the values of an other node.
+         * @param other The node to add.
+         */
+        void add(Node other)
+        {
+            calls += other.calls;
+            sampledCalls += other.sampledCalls;
+            final long[] os = other.sum;
+            if (os != null)
+            {
+                if (sum == null || sum.length != os.length)
+                {
+                    sum = os.clone();
+                }
+                else
+                {
+                    for (int i = 0; i < os.length; ++i)
+                    {
+                        sum[i] += os[i];
+                    }
+                }
+            }
+        }
+
+        Node findChild(int method)
+        {
+            for (Node c : children)
+            {
+                if (c.method == method)
+                {
+                    return c;
+                }
+            }
+            return null;
+        }
+
+        Node addChild(int method)
+        {
+            Node c = new Node(this, method);
+            Node[] cs = Arrays.copyOf(children, children.length + 1);
+            cs[cs.length - 1] = c;
+            children = cs;
+            return c;
+        }
+
+        long getValue()
+        {
+            return sum == null ? 0 : sum[0];
+        }
+
+        void clear()
+        {
+            calls = 0;
+            sampledCalls = 0;
+            sum = null;
+            children = EMPTY;
+        }
+    }
+
+    private static volatile boolean enabled = false;
+    private static volatile int nodeBudget = 10000;
+
+    /**
+     * Incremented by {@link #clear()}.
+     */
+    private static volatile int generation = 0;
+
+    private static final List<CallingContextTree> trees = new ArrayList<>();
+    private static CallingContextTree retired = new CallingContextTree(null);
+
+    /**
+     * Number of trees that triggers the release of trees of ended threads, see {@link #create()}.
+     */
+    private static int retireThreshold = 64;
+
+    private final WeakReference<Thread> thread;
+    final Node root = new Node(null, OTHER);
+    private int nodeCount = 0;
+
+    /**
+     * The generation the tree belongs to, only written by the owning thread, see {@link #resetIfCleared()}.
+     */
+    private volatile int treeGeneration;
+
+    private CallingContextTree(Thread thread)
+    {
+        this.thread = new WeakReference<>(thread);
+        this.treeGeneration = generation;
+    }
+
+    /**
+     * Enables or disables the recording of calling-context trees.<br>
+     * Should be set before profiling starts, as calls that are active during the switch are not recorded.
+     * @param enable True to enable.
+     */
+    public static void setEnabled(boolean enable)
+    {
+        enabled = enable;
+    }
+
+    /**
+     * Checks if calling-context trees are recorded.
+     * @return True if enabled.
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Sets the maximum number of nodes per thread and for the merged tree.
+     * @param budget The number of nodes.
+     */
+    public static void setNodeBudget(int budget)
+    {
+        nodeBudget = Math.max(1, budget);
+    }
+
+    /**
+     * Gets the node budget.
+     * @return The maximum number of nodes.
+     */
+    public static int getNodeBudget()
+    {
+        return nodeBudget;
+    }
+
+    /**
+     * Creates and registers the tree for the current thread.<br>
+     * With many short-living threads, trees of ended threads are released from time to time.
+     * @return The new tree.
+     */
+    static CallingContextTree create()
+    {
+        CallingContextTree t = new CallingContextTree(Thread.currentThread());
+        synchronized (trees)
+        {
+            if (trees.size() >= retireThreshold)
+            {
+                retireTerminated(nodeBudget);
+                retireThreshold = Math.max(64, 2 * trees.size());
+            }
+            trees.add(t);
+        }
+        return t;
+    }
+
+    /**
+     * Merges the trees of ended threads into the common tree and releases them.<br>
+     * Caller has to synchronize on {@link #trees}.
+     * @param budget The node budget of the common tree.
+     */
+    private static void retireTerminated(int budget)
+    {
+        boolean changed = false;
+        Iterator<CallingContextTree> it = trees.iterator();
+        while (it.hasNext())
+        {
+            CallingContextTree t = it.next();
+            final Thread th = t.thread.get();
+            if (th == null || !th.isAlive())
+            {
+                it.remove();
+                if (t.treeGeneration == generation)
+                {
+                    merge(retired.root, t.root);
+                    changed = true;
+                }
+            }
+        }
+        if (changed)
+        {
+            retired.nodeCount = compact(retired.root, budget);
+        }
+    }
+
+    /**
+     * Resets the tree if {@link #clear()} was called since the last reset.<br>
+     * Must only be called by the owning thread.
+     * @return True if the tree was reset, so all nodes of active calls have to be resolved again.
+     */
+    boolean resetIfCleared()
+    {
+        final int g = generation;
+        if (treeGeneration == g)
+        {
+            return false;
+        }
+        root.clear();
+        nodeCount = 0;
+        treeGeneration = g;
+        return true;
+    }
+
+    /**
+     * Gets or creates the node for a call of a method.<br>
+     * Must only be called by the owning thread.
+     * @param parent The node of the caller or null for a top-level call.
+     * @param method The index of the called method.
+     * @return The node.
+     */
+    Node getChild(Node parent, int method)
+    {
+        if (parent == null)
+        {
+            parent = root;
+        }
+        else if (parent.method == OTHER && parent != root)
+        {
+            // Folded paths have no children.
+            return parent;
+        }
+        Node c = parent.findChild(method);
+        if (c == null)
+        {
+            if (nodeCount >= 2 * nodeBudget)
+            {
+                c = parent.findChild(OTHER);
+                if (c == null)
+                {
+                    c = parent.addChild(OTHER);
+                    ++nodeCount;
+                }
+            }
+            else
+            {
+                c = parent.addChild(method);
+                ++nodeCount;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Compacts the tree if the budget is exceeded.<br>
+     * Must only be called by the owning thread if no call is active.
+     */
+    void compactIfNeeded()
+    {
+        if (nodeCount > nodeBudget)
+        {
+            nodeCount = compact(root, nodeBudget);
+        }
+    }
+
+    /**
+     * Folds the nodes with lowest values into "other" nodes.
+     * @param root The root of the tree.
+     * @param budget The maximum number of nodes.
+     * @return The new number of nodes.
+     */
+    private static int compact(Node root, int budget)
+    {
+        List<Node> nodes = new ArrayList<>();
+        collect(root, nodes);
+        if (nodes.size() <= budget)
+        {
+            return nodes.size();
+        }
+        nodes.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+        // Each parent needs an "other" node, so keep some room for them.
+        final int keep = Math.max(1, budget / 2);
+        root.kept = true;
+        int kept = 0;
+        boolean changed = true;
+        // A node can only be kept if its parent is kept. Values are inclusive, so parents are normally sorted first.
+        while (changed && kept < keep)
+        {
+            changed = false;
+            for (Node n : nodes)
+            {
+                if (!n.kept && kept < keep && n.parent.kept)
+                {
+                    n.kept = true;
+                    ++kept;
+                    changed = true;
+                }
+            }
+        }
+        int count = fold(root);
+        for (Node n : nodes)
+        {
+            n.kept = false;
+        }
+        root.kept = false;
+        return count;
+    }
+
+    private static void collect(Node n, List<Node> nodes)
+    {
+        for (Node c : n.children)
+        {
+            nodes.add(c);
+            collect(c, nodes);
+        }
+    }
+
+    /**
+     * Replaces all children that are not kept by an "other" node.
+     * @param n The node to process.
+     * @return The number of nodes below n.
+     */
+    private static int fold(Node n)
+    {
+        Node other = null;
+        List<Node> cs = new ArrayList<>(n.children.length);
+        for (Node c : n.children)
+        {
+            if (c.kept && c.method != OTHER)
+            {
+                cs.add(c);
+            }
+            else
+            {
+                if (other == null)
+                {
+                    other = new Node(n, OTHER);
+                }
+                other.add(c);
+            }
+        }
+        int count = 0;
+        for (Node c : cs)
+        {
+            count += 1 + fold(c);
+        }
+        if (other != null)
+        {
+            cs.add(other);
+            ++count;
+        }
+        n.children = cs.toArray(new Node[cs.size()]);
+        return count;
+    }
+
+    /**
+     * Merges a tree into an other one.
+     * @param target The node to merge into.
+     * @param source The node to merge.
+     */
+    private static void merge(Node target, Node source)
+    {
+        for (Node c : source.children)
+        {
+            Node t = target.findChild(c.method);
+            if (t == null)
+            {
+                t = target.addChild(c.method);
+            }
+            t.add(c);
+            merge(t, c);
+        }
+    }
+
+    /**
+     * Merges the trees of all threads and converts the result into a call graph.<br>
+     * Trees of terminated threads are merged into a common tree and released.
+     * @param classNames If true, the class names are added to the node names.
+     * @return The root node of the call graph.
+     */
+    public static CallNode getCallGraph(boolean classNames)
+    {
+        return toCallGraph(merge(), classNames, ClassProfilingInformation.getProfilingStartTime(), Calendar.getInstance());
+    }
+
+    /**
+     * Merges the trees of all threads into a new tree that is compacted to the node budget.<br>
+     * Trees of terminated threads are merged into a common tree and released.
+     * @return The root of the merged tree.
+     */
+    static Node merge()
+    {
+        final int budget = nodeBudget;
+        final Node merged = new Node(null, OTHER);
+        synchronized (trees)
+        {
+            retireTerminated(budget);
+            final int g = generation;
+            for (CallingContextTree t : trees)
+            {
+                if (t.treeGeneration == g)
+                {
+                    merge(merged, t.root);
+                }
+            }
+            merge(merged, retired.root);
+        }
+        compact(merged, budget);
+        return merged;
+    }
+
+    /**
+     * Converts a merged tree into a call graph.
+     * @param merged The root of the tree, see {@link #merge()}.
+     * @param classNames If true, the class names are added to the node names.
+     * @param start Start of the covered period.
+     * @param end End of the covered period.
+     * @return The root node of the call graph.
+     */
+    static CallNode toCallGraph(Node merged, boolean classNames, Calendar start, Calendar end)
+    {
+        CallNode r = new CallNode("Application", 0, null);
+        r.details.add(new NodeDetail(NodeDetail.DETAIL_START, new DateTimeValue(start)));
+        r.details.add(new NodeDetail(NodeDetail.DETAIL_END, new DateTimeValue(end)));
+        addEdges(r, merged, classNames);
+        return r;
+    }
+
+    private static void addEdges(CallNode target, Node source, boolean classNames)
+    {
+        for (Node c : source.children)
+        {
+            final MeasurementValue v = getExtrapolatedSum(c);
+            CallNode node = new CallNode(getName(c, classNames), c.calls, v);
+            if (c.method != OTHER)
+            {
+                node.method = c.method;
+            }
+            addEdges(node, c, classNames);
+            target.edges.add(new CallEdge(v, c.calls, node));
+        }
+    }
+
+    private static MeasurementValue getExtrapolatedSum(Node n)
+    {
+        if (n.sum == null)
+        {
+            return null;
+        }
+        final long[] v = n.sum.clone();
+        if (n.sampledCalls > 0 && n.sampledCalls < n.calls)
+        {
+            final double f = n.calls / (double) n.sampledCalls;
+            for (int i = 0; i < v.length; ++i)
+            {
+                v[i] = (long) (v[i] * f);
+            }
+        }
+        return AbstractMeasurementSource.createValue(v);
+    }
+
+    private static String getName(Node n, boolean classNames)
+    {
+        final MethodProfilingInformation mi = n.method == OTHER ? null : MethodProfilingInformation.getMethodInformation(n.method);
+        if (mi == null)
+        {
+            return "other";
+        }
+        return (classNames && mi.clazz != null) ? mi.clazz.name + '.' + mi.name : mi.name;
+    }
+
+    /**
+     * Clears all trees.<br>
+     * Trees of running threads are not touched, they are ignored until the owning thread resets
+     * its tree with the next call, see {@link #resetIfCleared()}. Calls that are active during the clear are
+     * recorded into the new tree if they end.
+     */
+    public static void clear()
+    {
+        synchronized (trees)
+        {
+            ++generation;
+            retired = new CallingContextTree(null);
+        }
+    }
+}
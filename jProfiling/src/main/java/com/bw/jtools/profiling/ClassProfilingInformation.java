@@ -23,10 +23,17 @@
  */
 package com.bw.jtools.profiling;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Holds profiling information about a class during run-time.
+ * Holds profiling information about a class during run-time.<br>
+ * The registry of classes and methods is lock-free for lookups. Creation of missing entries
+ * only locks the affected hash-bin, not the whole registry.
  */
 public final class ClassProfilingInformation extends IdentifiableProfilingInformation
 {
@@ -42,11 +49,15 @@ public final class ClassProfilingInformation extends IdentifiableProfilingInform
      */
     public static boolean SIMPLE_NAMES = true;
 
-    private final static Map<String,ClassProfilingInformation> classInfo = new HashMap<>(50);
+    private final static ConcurrentHashMap<String,ClassProfilingInformation> classInfo = new ConcurrentHashMap<>(64);
 
-    private final Map<String,MethodProfilingInformation> methods = new HashMap<>(15);
+    private static final Collection<ClassProfilingInformation> classView = Collections.unmodifiableCollection(classInfo.values());
 
-    private static Calendar startOfProfiling = Calendar.getInstance();
+    private final ConcurrentHashMap<String,MethodProfilingInformation> methods = new ConcurrentHashMap<>(16);
+
+    private final Collection<MethodProfilingInformation> methodView = Collections.unmodifiableCollection(methods.values());
+
+    private static volatile Calendar startOfProfiling = Calendar.getInstance();
 
     /**
      * Creates a new Class Information object.
@@ -59,28 +70,32 @@ public final class ClassProfilingInformation extends IdentifiableProfilingInform
 
     /**
      * Get all class profiling information.
-     * @return The list of class information.
+     * @return A copy of the list of class information.
      */
     public static List<ClassProfilingInformation> getClassInformation( )
     {
-        synchronized( classInfo ) {
-            List<ClassProfilingInformation> l = new ArrayList<>(classInfo.size());
-            l.addAll(classInfo.values());
-            return l;
-        }
+        return new ArrayList<>(classView);
     }
 
     /**
-     * Clear all profiling information from class/method information.
+     * Gets a live view of all class profiling information.<br>
+     * Iteration needs no lock and no copy. It is weakly consistent:
+     * classes that are created during the iteration may be missing.
+     * @return The unmodifiable view.
+     */
+    public static Collection<ClassProfilingInformation> getClasses( )
+    {
+        return classView;
+    }
+
+    /**
+     * Clear all profiling information from class/method information.<br>
+     * Same as a snapshot with reset, see {@link ProfilingSnapshot#take(boolean)}.
      */
     public static void clearProfilingInformation( )
     {
-        synchronized( classInfo ) {
-            startOfProfiling = Calendar.getInstance();
-            for ( ClassProfilingInformation ci : classInfo.values()) {
-                ci.clear();
-            }
-        }
+        ProfilingSnapshot.take(true);
+        CallingContextTree.clear();
     }
 
     /**
@@ -92,72 +107,97 @@ public final class ClassProfilingInformation extends IdentifiableProfilingInform
         return startOfProfiling;
     }
 
+    /**
+     * Sets start date and time, called on reset.
+     * @param time The new start time.
+     */
+    static void setProfilingStartTime( Calendar time )
+    {
+        startOfProfiling = time;
+    }
+
     /**
      * Get the class information for the module/class.<br>
-     * If feasible, use {@link ThreadProfilingInformation#getClassInformation(java.lang.String) }, especially if the thread information instance is already in use.
-     * Use of the thread-local ThreadProfilingInformation-instance can reduce synchronization overhead.
+     * The lookup of existing classes is lock-free, so there is no per-thread cache.
+     * {@link ThreadProfilingInformation#getClassInformation(java.lang.String) } only delegates to this method.
      * @param clazz The class. The simple name if SIMPLE_NAMES is active, otherwise the full name.
      * @return The class information instance.
      */
     public static ClassProfilingInformation getClassInformation( final String clazz )
     {
-        ClassProfilingInformation ci;
-        synchronized( classInfo ) {
-            ci = classInfo.get(clazz);
-            if ( ci == null ) {
-                ci = new ClassProfilingInformation(clazz);
-                classInfo.put( clazz, ci );
-            }
+        ClassProfilingInformation ci = classInfo.get(clazz);
+        if ( ci == null )
+        {
+            ci = classInfo.computeIfAbsent(clazz, ClassProfilingInformation::new);
         }
         return ci;
     }
 
+    /**
+     * Finds the class information for the module/class without creating it.
+     * @param clazz The class name, see {@link #getClassInformation(java.lang.String)}.
+     * @return The class information instance or null if the class is unknown.
+     */
+    public static ClassProfilingInformation findClassInformation( final String clazz )
+    {
+        return classInfo.get(clazz);
+    }
+
     /**
      * Gets all methods .<br>
      * The method is thread-safe.
-     * @return The Methods
+     * @return A copy of the list of methods.
      */
     public List<MethodProfilingInformation> getMethodInformation()
     {
-        synchronized( methods )
-        {
-            ArrayList<MethodProfilingInformation> l = new ArrayList<>(methods.size());
-            l.addAll( methods.values() );
-            return l;
-        }
+        return new ArrayList<>(methodView);
+    }
+
+    /**
+     * Gets a live view of all methods.<br>
+     * Iteration needs no lock and no copy. It is weakly consistent:
+     * methods that are created during the iteration may be missing.
+     * @return The unmodifiable view.
+     */
+    public Collection<MethodProfilingInformation> getMethods()
+    {
+        return methodView;
     }
 
     /**
      * Gets or creates the information object for the method.<br>
-     * The method is thread-safe.
+     * The method is thread-safe, existing methods are found without lock.
+     * Each method is created only once, as the creation allocates a new {@link MethodProfilingInformation#index}.
      * @param methodName The name of the method.
      * @return The Method-Information instance
      */
     public MethodProfilingInformation getMethodInformation(String methodName)
     {
-        synchronized( methods )
+        MethodProfilingInformation mi = methods.get(methodName);
+        if ( mi == null )
         {
-            MethodProfilingInformation mi = methods.get(methodName);
-            if ( mi == null )
-            {
-                mi = new MethodProfilingInformation(this, methodName);
-                methods.put( methodName, mi);
-            }
-            return mi;
+            mi = methods.computeIfAbsent(methodName, n -> new MethodProfilingInformation(this, n));
         }
+        return mi;
+    }
+
+    /**
+     * Finds the information object for the method without creating it.
+     * @param methodName The name of the method.
+     * @return The Method-Information instance or null if the method is unknown.
+     */
+    public MethodProfilingInformation findMethodInformation(String methodName)
+    {
+        return methods.get(methodName);
     }
 
     @Override
     public void clear()
     {
-        synchronized( methods )
+        for ( MethodProfilingInformation mi : methodView )
         {
-            for ( MethodProfilingInformation mi : methods.values() )
-            {
-                mi.clear();
-            }
+            mi.clear();
         }
-
     }
 
 }
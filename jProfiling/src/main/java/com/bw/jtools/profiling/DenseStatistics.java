@@ -0,0 +1,431 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Struct-of-arrays store for {@link ProfilingInformation.AccumulationMode#DENSE}.<br>
+ * Each method and callee-relation gets a dense id on its first call. All counters and values are
+ * kept in primitive columns, indexed by this id. Columns are allocated in chunks that are never moved,
+ * so recording needs no lock and no allocation in steady state.<br>
+ * The store has a bank for each epoch parity and a base bank for the values of all completed epochs.
+ * {@link #merge(int)} moves a finished epoch into the base with a linear scan.<br>
+ * Counters and sums are updated atomically, so no calls get lost. Minimum and maximum rows are only written
+ * if a new extreme value is found, these rare updates are synchronized by the chunk, so rows are never torn.
+ */
+final class DenseStatistics
+{
+    /**
+     * Bank of the values of all completed epochs. Bank 0 and 1 are the epoch buffers.
+     */
+    static final int BASE = 2;
+
+    /**
+     * Maximum number of stored dimensions, additional dimensions are ignored.
+     */
+    static final int MAX_DIMENSIONS = 8;
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 4096;
+
+    /**
+     * Columns of {@link #CHUNK_SIZE} ids.
+     */
+    private static final class Chunk
+    {
+        final AtomicIntegerArray calls = new AtomicIntegerArray(CHUNK_SIZE);
+        final AtomicIntegerArray sampledCalls = new AtomicIntegerArray(CHUNK_SIZE);
+        final AtomicIntegerArray recursiveCalls = new AtomicIntegerArray(CHUNK_SIZE);
+
+        /**
+         * Number of dimensions of the values, 0 if no call was measured.
+         * Only changed while synchronized on the chunk.
+         */
+        final AtomicIntegerArray dimensions = new AtomicIntegerArray(CHUNK_SIZE);
+
+        /**
+         * Value columns by dimension. Columns are created on demand, see {@link #columns}.
+         */
+        final AtomicLongArray[] sum = new AtomicLongArray[MAX_DIMENSIONS];
+        final AtomicLongArray[] min = new AtomicLongArray[MAX_DIMENSIONS];
+        final AtomicLongArray[] max = new AtomicLongArray[MAX_DIMENSIONS];
+
+        /**
+         * Number of created value columns. Written after the columns, so readers see initialized columns.
+         */
+        volatile int columns = 0;
+
+        void ensureColumns( final int n )
+        {
+            if ( columns < n )
+            {
+                createColumns(n);
+            }
+        }
+
+        private synchronized void createColumns( final int n )
+        {
+            for ( int d = columns ; d < n ; ++d )
+            {
+                sum[d] = new AtomicLongArray(CHUNK_SIZE);
+                min[d] = new AtomicLongArray(CHUNK_SIZE);
+                max[d] = new AtomicLongArray(CHUNK_SIZE);
+            }
+            if ( n > columns )
+            {
+                columns = n;
+            }
+        }
+
+        /**
+         * Initializes the values of an id, used for the first measured call or if the measurement source was switched.
+         */
+        synchronized void initValues( final int i, final long[] s, final long[] mn, final long[] mx, final int n )
+        {
+            if ( dimensions.get(i) == n )
+            {
+                // Initialized by an other thread.
+                return;
+            }
+            for ( int d = 0 ; d < n ; ++d )
+            {
+                sum[d].set(i, s == null ? 0 : s[d]);
+                min[d].set(i, mn[d]);
+                max[d].set(i, mx[d]);
+            }
+            dimensions.set(i, n);
+        }
+
+        synchronized void updateMin( final int i, final long[] values, final int n )
+        {
+            if ( dimensions.get(i) == n && values[0] < min[0].get(i) )
+            {
+                for ( int d = 0 ; d < n ; ++d ) min[d].set(i, values[d]);
+            }
+        }
+
+        synchronized void updateMax( final int i, final long[] values, final int n )
+        {
+            if ( dimensions.get(i) == n && values[0] > max[0].get(i) )
+            {
+                for ( int d = 0 ; d < n ; ++d ) max[d].set(i, values[d]);
+            }
+        }
+
+        /**
+         * Copies the values of an id.
+         * @return False if the id has no values with n dimensions.
+         */
+        synchronized boolean getValues( final int i, final long[] s, final long[] mn, final long[] mx, final int n )
+        {
+            if ( dimensions.get(i) != n )
+            {
+                return false;
+            }
+            for ( int d = 0 ; d < n ; ++d )
+            {
+                s[d] = sum[d].get(i);
+                mn[d] = min[d].get(i);
+                mx[d] = max[d].get(i);
+            }
+            return true;
+        }
+
+        synchronized void clear( final int i )
+        {
+            calls.set(i, 0);
+            sampledCalls.set(i, 0);
+            recursiveCalls.set(i, 0);
+            dimensions.set(i, 0);
+        }
+    }
+
+    private static final AtomicInteger idGenerator = new AtomicInteger(0);
+
+    @SuppressWarnings({"unchecked","rawtypes"})
+    private static final AtomicReferenceArray<Chunk>[] banks = new AtomicReferenceArray[]
+            { new AtomicReferenceArray<Chunk>(MAX_CHUNKS), new AtomicReferenceArray<Chunk>(MAX_CHUNKS), new AtomicReferenceArray<Chunk>(MAX_CHUNKS) };
+
+    private static final AtomicReferenceArray<AtomicReferenceArray<ProfilingInformation>> owners = new AtomicReferenceArray<>(MAX_CHUNKS);
+
+    private DenseStatistics()
+    {
+    }
+
+    /**
+     * Allocates the id of a method or callee-relation.<br>
+     * Chunks are created here, so recording never has to check for them.
+     * @param owner The owner of the id.
+     * @return The new id.
+     */
+    static int allocate( final ProfilingInformation owner )
+    {
+        final int id = idGenerator.getAndIncrement();
+        final int c = id >>> CHUNK_BITS;
+        if ( c >= MAX_CHUNKS )
+        {
+            throw new IllegalStateException("Too many profiled methods and callee-relations");
+        }
+        for ( AtomicReferenceArray<Chunk> bank : banks )
+        {
+            if ( bank.get(c) == null )
+            {
+                bank.compareAndSet(c, null, new Chunk());
+            }
+        }
+        AtomicReferenceArray<ProfilingInformation> os = owners.get(c);
+        if ( os == null )
+        {
+            owners.compareAndSet(c, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            os = owners.get(c);
+        }
+        os.set(id & (CHUNK_SIZE-1), owner);
+        return id;
+    }
+
+    /**
+     * Adds a measured call.
+     * @param bank The parity of the epoch.
+     * @param id The id of the method or callee-relation.
+     * @param values The measured values.
+     * @param notRecursive True if this call was not recursive.
+     */
+    static void addCall( final int bank, final int id, final long[] values, boolean notRecursive )
+    {
+        final Chunk c = banks[bank].get(id >>> CHUNK_BITS);
+        final int i = id & (CHUNK_SIZE-1);
+        if ( !notRecursive )
+        {
+            c.recursiveCalls.getAndIncrement(i);
+            return;
+        }
+        c.calls.getAndIncrement(i);
+        c.sampledCalls.getAndIncrement(i);
+        final int n = Math.min(values.length, MAX_DIMENSIONS);
+        c.ensureColumns(n);
+        if ( c.dimensions.get(i) != n )
+        {
+            // First measured call or the measurement source was switched.
+            c.initValues(i, null, values, values, n);
+        }
+        for ( int d = 0 ; d < n ; ++d )
+        {
+            c.sum[d].getAndAdd(i, values[d]);
+        }
+        if ( values[0] < c.min[0].get(i) )
+        {
+            c.updateMin(i, values, n);
+        }
+        if ( values[0] > c.max[0].get(i) )
+        {
+            c.updateMax(i, values, n);
+        }
+    }
+
+    /**
+     * Adds a call that was not measured.
+     * @param bank The parity of the epoch.
+     * @param id The id of the method or callee-relation.
+     * @param notRecursive True if this call was not recursive.
+     */
+    static void addUnsampledCall( final int bank, final int id, boolean notRecursive )
+    {
+        final Chunk c = banks[bank].get(id >>> CHUNK_BITS);
+        final int i = id & (CHUNK_SIZE-1);
+        if ( notRecursive )
+        {
+            c.calls.getAndIncrement(i);
+        }
+        else
+        {
+            c.recursiveCalls.getAndIncrement(i);
+        }
+    }
+
+    /**
+     * Moves the values of a finished epoch into the base bank.<br>
+     * Must only be called by {@link ProfilingSnapshot} after all threads finished recording into the bank.
+     * @param parity The parity of the finished epoch.
+     */
+    static void merge( final int parity )
+    {
+        final int chunks = chunkCount();
+        for ( int k = 0 ; k < chunks ; ++k )
+        {
+            final Chunk src = banks[parity].get(k);
+            final Chunk dst = banks[BASE].get(k);
+            if ( src == null || dst == null )
+            {
+                // Allocation of this chunk is still in progress, no calls recorded yet.
+                continue;
+            }
+            final long[] s = new long[MAX_DIMENSIONS];
+            final long[] mn = new long[MAX_DIMENSIONS];
+            final long[] mx = new long[MAX_DIMENSIONS];
+            for ( int i = 0 ; i < CHUNK_SIZE ; ++i )
+            {
+                final int calls = src.calls.get(i);
+                final int recursiveCalls = src.recursiveCalls.get(i);
+                if ( (calls | recursiveCalls) == 0 )
+                {
+                    continue;
+                }
+                dst.calls.getAndAdd(i, calls);
+                dst.sampledCalls.getAndAdd(i, src.sampledCalls.get(i));
+                dst.recursiveCalls.getAndAdd(i, recursiveCalls);
+                final int n = src.dimensions.get(i);
+                if ( n > 0 && src.getValues(i, s, mn, mx, n) )
+                {
+                    dst.ensureColumns(n);
+                    if ( dst.dimensions.get(i) != n )
+                    {
+                        dst.initValues(i, s, mn, mx, n);
+                    }
+                    else
+                    {
+                        for ( int d = 0 ; d < n ; ++d )
+                        {
+                            dst.sum[d].getAndAdd(i, s[d]);
+                        }
+                        dst.updateMin(i, mn, n);
+                        dst.updateMax(i, mx, n);
+                    }
+                }
+                src.clear(i);
+            }
+        }
+    }
+
+    /**
+     * Adds the values of an id to an accumulator.
+     * @param bank The bank to read.
+     * @param id The id of the method or callee-relation.
+     * @param target The accumulator to add to.
+     */
+    static void addTo( final int bank, final int id, final Accumulator target )
+    {
+        final Chunk c = banks[bank].get(id >>> CHUNK_BITS);
+        final int i = id & (CHUNK_SIZE-1);
+        target.calls += c.calls.get(i);
+        target.sampledCalls += c.sampledCalls.get(i);
+        target.recursiveCalls += c.recursiveCalls.get(i);
+        final int n = c.dimensions.get(i);
+        if ( n > 0 && c.columns >= n )
+        {
+            final long[] s = new long[n];
+            final long[] mn = new long[n];
+            final long[] mx = new long[n];
+            if ( c.getValues(i, s, mn, mx, n) )
+            {
+                target.addValues(s, mn, mx);
+            }
+        }
+    }
+
+    /**
+     * Resets the values of an id.
+     * @param bank The bank to reset.
+     * @param id The id of the method or callee-relation.
+     */
+    static void clear( final int bank, final int id )
+    {
+        banks[bank].get(id >>> CHUNK_BITS).clear(id & (CHUNK_SIZE-1));
+    }
+
+    /**
+     * Gets the methods with the highest sum of the first dimension.<br>
+     * Scans the value columns of all banks, only candidates are resolved to their owners.
+     * Values are read while other threads are recording, so they may be not consistent.
+     * @param count Maximal number of methods.
+     * @return The methods, ordered by descending sum.
+     */
+    static List<MethodProfilingInformation> getTopMethods( final int count )
+    {
+        final MethodProfilingInformation[] top = new MethodProfilingInformation[Math.max(0, count)];
+        final long[] topValues = new long[top.length];
+        int size = 0;
+
+        final int chunks = chunkCount();
+        for ( int k = 0 ; k < chunks && top.length > 0 ; ++k )
+        {
+            final AtomicReferenceArray<ProfilingInformation> os = owners.get(k);
+            if ( os == null )
+            {
+                continue;
+            }
+            final long[] values = new long[CHUNK_SIZE];
+            for ( AtomicReferenceArray<Chunk> bank : banks )
+            {
+                final Chunk c = bank.get(k);
+                if ( c != null && c.columns > 0 )
+                {
+                    final AtomicLongArray s = c.sum[0];
+                    final AtomicIntegerArray dims = c.dimensions;
+                    for ( int i = 0 ; i < CHUNK_SIZE ; ++i )
+                    {
+                        if ( dims.get(i) > 0 ) values[i] += s.get(i);
+                    }
+                }
+            }
+            for ( int i = 0 ; i < CHUNK_SIZE ; ++i )
+            {
+                final long v = values[i];
+                if ( v > 0 && (size < top.length || v > topValues[size-1]) )
+                {
+                    final ProfilingInformation o = os.get(i);
+                    if ( o instanceof MethodProfilingInformation && ((MethodProfilingInformation)o).registered )
+                    {
+                        int p = size < top.length ? size++ : size-1;
+                        while ( p > 0 && topValues[p-1] < v )
+                        {
+                            top[p] = top[p-1];
+                            topValues[p] = topValues[p-1];
+                            --p;
+                        }
+                        top[p] = (MethodProfilingInformation)o;
+                        topValues[p] = v;
+                    }
+                }
+            }
+        }
+        List<MethodProfilingInformation> l = new ArrayList<>(size);
+        for ( int i = 0 ; i < size ; ++i )
+        {
+            l.add(top[i]);
+        }
+        return l;
+    }
+
+    private static int chunkCount()
+    {
+        return Math.min(MAX_CHUNKS, (idGenerator.get() + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import com.bw.jtools.profiling.callgraph.CallEdge;
+import com.bw.jtools.profiling.callgraph.CallNode;
+import com.bw.jtools.profiling.callgraph.NodeDetail;
+import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+import com.bw.jtools.profiling.measurement.DateTimeValue;
+import com.bw.jtools.profiling.measurement.MeasurementValue;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A slow call, kept with its complete nested call tree.<br>
+ * Exemplars are recorded for methods that are configured by {@link ExemplarConfiguration}
+ * and are available via {@link ProfilingSnapshot#getExemplars()}.
+ * Calls of the same method below the same frame are merged, so each frame represents a unique call path
+ * inside of the slow call. Frames of calls skipped by sampling have no value.<br>
+ * Instances are immutable.
+ */
+public final class Exemplar
+{
+    /**
+     * A frame of the call tree.
+     */
+    public static final class Frame
+    {
+        /**
+         * The {@link MethodProfilingInformation#index} of the method.
+         */
+        public final int index;
+
+        /**
+         * Name of the class, possibly null.
+         */
+        public final String className;
+
+        /**
+         * Name of the method.
+         */
+        public final String name;
+
+        private int calls;
+        private long[] values;
+        private final List<Frame> children;
+
+        private Frame(int index, int calls, long[] values, List<Frame> children)
+        {
+            final MethodProfilingInformation mi = MethodProfilingInformation.getMethodInformation(index);
+            this.index = index;
+            this.className = (mi == null || mi.clazz == null) ? null : mi.clazz.name;
+            this.name = mi == null ? "?" : mi.name;
+            this.calls = calls;
+            this.values = values;
+            this.children = children;
+        }
+
+        /**
+         * Gets the number of calls that are merged into this frame.
+         * @return The number of calls.
+         */
+        public int getCalls()
+        {
+            return calls;
+        }
+
+        /**
+         * Gets the sum of the measured values of the calls.
+         * @return The value or null if no call was measured.
+         */
+        public MeasurementValue getValue()
+        {
+            return values == null ? null : AbstractMeasurementSource.createValue(values.clone());
+        }
+
+        /**
+         * Gets the called methods.
+         * @return The unmodifiable list of frames.
+         */
+        public List<Frame> getChildren()
+        {
+            return Collections.unmodifiableList(children);
+        }
+
+        private void merge(Frame other)
+        {
+            calls += other.calls;
+            if (other.values != null)
+            {
+                if (values == null || values.length != other.values.length)
+                {
+                    values = other.values;
+                }
+                else
+                {
+                    for (int i = 0; i < values.length; ++i)
+                    {
+                        values[i] += other.values[i];
+                    }
+                }
+            }
+            for (Frame c : other.children)
+            {
+                addChild(children, c);
+            }
+        }
+
+        private CallNode toCallNode(boolean classNames)
+        {
+            final MeasurementValue v = getValue();
+            CallNode node = new CallNode((classNames && className != null) ? className + '.' + name : name, calls, v);
+            for (Frame c : children)
+            {
+                final CallNode cn = c.toCallNode(classNames);
+                node.edges.add(new CallEdge(cn.value, c.calls, cn));
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Sequence number, ordered by the time the call ended.
+     */
+    public final long sequence;
+
+    /**
+     * Name of the thread that executed the call.
+     */
+    public final String threadName;
+
+    /**
+     * Start of the call in milliseconds since epoch, calculated from the wall time of the call.
+     */
+    public final long startTime;
+
+    /**
+     * True if nested calls were dropped, see {@link ExemplarConfiguration#setMaxFrames(int)}.
+     */
+    public final boolean truncated;
+
+    /**
+     * The slow call.
+     */
+    public final Frame root;
+
+    private Exemplar(long sequence, String threadName, long startTime, boolean truncated, Frame root)
+    {
+        this.sequence = sequence;
+        this.threadName = threadName;
+        this.startTime = startTime;
+        this.truncated = truncated;
+        this.root = root;
+    }
+
+    /**
+     * Converts the exemplar into a call graph.<br>
+     * The root node contains the thread name and the start time, see {@link CallNode#thread}.
+     * @param classNames If true, the class names are added to the node names.
+     * @return The root node.
+     */
+    public CallNode toCallNode(boolean classNames)
+    {
+        CallNode node = root.toCallNode(classNames);
+        node.thread = threadName;
+        Calendar start = Calendar.getInstance();
+        start.setTimeInMillis(startTime);
+        node.details.add(new NodeDetail(NodeDetail.DETAIL_START, new DateTimeValue(start)));
+        return node;
+    }
+
+    /**
+     * Adds a frame to a list of siblings, merges it if a sibling of the same method exists.
+     */
+    private static void addChild(List<Frame> siblings, Frame f)
+    {
+        for (Frame s : siblings)
+        {
+            if (s.index == f.index)
+            {
+                s.merge(f);
+                return;
+            }
+        }
+        siblings.add(f);
+    }
+
+    /**
+     * Creates an exemplar from the trace of a thread.<br>
+     * The trace contains the ended calls in post-order. Each record consists of a header with
+     * stack depth, number of values and method index followed by the values, see {@link ThreadProfilingInformation}.
+     * Records of dropped parents are assigned to the next recorded ancestor.
+     * @param mi The slow method.
+     * @param used The values of the slow call.
+     * @param trace The trace buffer.
+     * @param from Start of the records of nested calls.
+     * @param to End of the records.
+     * @param depth Stack depth of the slow call.
+     * @param truncated True if records were dropped.
+     * @return The exemplar.
+     */
+    static Exemplar create(MethodProfilingInformation mi, long[] used, long[] trace, int from, int to, int depth, boolean truncated)
+    {
+        final List<List<Frame>> levels = new ArrayList<>();
+        int i = from;
+        while (i < to)
+        {
+            final long header = trace[i++];
+            final int level = (int) (header >>> 40) - depth - 1;
+            final int dims = (int) ((header >>> 32) & 0xFF);
+            final long[] values = dims == 0 ? null : new long[dims];
+            if (values != null)
+            {
+                System.arraycopy(trace, i, values, 0, dims);
+                i += dims;
+            }
+            if (level < 0)
+            {
+                continue;
+            }
+            while (levels.size() <= level)
+            {
+                levels.add(new ArrayList<>());
+            }
+            addChild(levels.get(level), new Frame((int) header, 1, values, collect(levels, level + 1)));
+        }
+        final Frame root = new Frame(mi.index, 1, used.clone(), collect(levels, 0));
+        final long startTime = System.currentTimeMillis() - used[0] / 1000000L;
+        return new Exemplar(ExemplarBuffer.nextSequence(), Thread.currentThread().getName(), startTime, truncated, root);
+    }
+
+    /**
+     * Removes all pending frames at or below a level.
+     */
+    private static List<Frame> collect(List<List<Frame>> levels, int level)
+    {
+        final List<Frame> children = new ArrayList<>();
+        for (int l = level; l < levels.size(); ++l)
+        {
+            for (Frame f : levels.get(l))
+            {
+                addChild(children, f);
+            }
+            levels.get(l).clear();
+        }
+        return children;
+    }
+}
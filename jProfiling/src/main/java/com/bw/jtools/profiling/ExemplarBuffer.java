@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded ring of the latest slow-call exemplars, see {@link ExemplarConfiguration}.<br>
+ * Adding is lock-free: a slot is claimed by an atomic sequence and overwrites the oldest exemplar.
+ * Readers never block writers, a reader may miss exemplars that are overwritten during the read.
+ */
+public final class ExemplarBuffer
+{
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private static volatile AtomicReferenceArray<Exemplar> ring = new AtomicReferenceArray<>(64);
+
+    /**
+     * First sequence that is not consumed by a reset, see {@link #reset(long)}.
+     */
+    private static volatile long consumed = 0;
+
+    private ExemplarBuffer()
+    {
+    }
+
+    /**
+     * Sets the number of exemplars to keep.<br>
+     * All stored exemplars are dropped.
+     * @param capacity The capacity.
+     */
+    public static void setCapacity(int capacity)
+    {
+        ring = new AtomicReferenceArray<>(Math.max(1, capacity));
+    }
+
+    /**
+     * Gets the number of exemplars to keep.
+     * @return The capacity.
+     */
+    public static int getCapacity()
+    {
+        return ring.length();
+    }
+
+    /**
+     * Gets the next sequence number.
+     * @return The sequence number.
+     */
+    static long nextSequence()
+    {
+        return sequence.getAndIncrement();
+    }
+
+    /**
+     * Gets the sequence number of the next exemplar.
+     * @return The sequence number.
+     */
+    static long getSequence()
+    {
+        return sequence.get();
+    }
+
+    /**
+     * Adds an exemplar, overwrites the oldest one if the ring is full.
+     * @param e The exemplar.
+     */
+    static void add(Exemplar e)
+    {
+        final AtomicReferenceArray<Exemplar> r = ring;
+        r.set((int) (e.sequence % r.length()), e);
+    }
+
+    /**
+     * Gets the stored exemplars that were added after the last reset.
+     * @return The exemplars, ordered by sequence.
+     */
+    public static List<Exemplar> getExemplars()
+    {
+        return getExemplars(Long.MAX_VALUE);
+    }
+
+    /**
+     * Gets the stored exemplars that were added after the last reset and before a sequence.
+     * @param before The sequence limit (exclusive).
+     * @return The exemplars, ordered by sequence.
+     */
+    static List<Exemplar> getExemplars(long before)
+    {
+        final AtomicReferenceArray<Exemplar> r = ring;
+        final long first = consumed;
+        List<Exemplar> l = new ArrayList<>();
+        for (int i = 0; i < r.length(); ++i)
+        {
+            final Exemplar e = r.get(i);
+            if (e != null && e.sequence >= first && e.sequence < before)
+            {
+                l.add(e);
+            }
+        }
+        l.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        return l;
+    }
+
+    /**
+     * Marks all exemplars before a sequence as consumed.
+     * @param before The sequence limit (exclusive).
+     */
+    static void reset(long before)
+    {
+        if (before > consumed)
+        {
+            consumed = before;
+        }
+    }
+
+    /**
+     * Drops all stored exemplars.
+     */
+    public static void clear()
+    {
+        reset(sequence.get());
+    }
+}
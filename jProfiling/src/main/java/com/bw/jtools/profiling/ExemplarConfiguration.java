@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import com.bw.jtools.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Configuration of slow-call exemplars.<br>
+ * Aggregated values hide single outliers. For configured methods, each call whose first dimension
+ * (wall time in nanoseconds) exceeds a threshold is kept as {@link Exemplar}: the complete nested call tree
+ * of the invocation with the values of each frame and the name of the thread.
+ * Exemplars are stored in a bounded ring, see {@link ExemplarBuffer}.<br>
+ * The threshold can be fixed or automatic. An automatic threshold is the given percentile of the latency
+ * histogram of the method, see {@link MethodProfilingInformation#getHistogram()}.
+ * It is active after {@link #MIN_CALLS} calls and updated every {@link #REFRESH_CALLS} calls.
+ * Rules with automatic thresholds enable the histograms, see {@link ProfilingInformation#setHistogramsEnabled(boolean)}.<br>
+ * Rules are matched against the class name (as stored in {@link ClassProfilingInformation#name})
+ * and the method name, methods without class are matched with an empty class name. The first matching rule wins.<br>
+ * The rule-expression can contain multiple sub-expressions, separated by blank or ';' characters:
+ * <pre>
+ *
+ *     com\.myorg\..*:handle.*:250ms com\.myorg\..*:query.*:p99
+ * </pre>
+ * A threshold is a number with unit "ns", "us", "ms" or "s" (default "ms"), or "p" followed by the percentile.<br>
+ * Remind that calls skipped by sampling can't become exemplars, see {@link SamplingConfiguration}.
+ */
+public final class ExemplarConfiguration
+{
+    /**
+     * Number of calls before an automatic threshold is used.
+     */
+    public static final int MIN_CALLS = 100;
+
+    /**
+     * Number of calls between updates of an automatic threshold.
+     */
+    public static final int REFRESH_CALLS = 1000;
+
+    private static final class Rule
+    {
+        final Pattern classPattern;
+        final Pattern methodPattern;
+        final long threshold;
+        final double percentile;
+
+        Rule(Pattern classPattern, Pattern methodPattern, long threshold, double percentile)
+        {
+            this.classPattern = classPattern;
+            this.methodPattern = methodPattern;
+            this.threshold = threshold;
+            this.percentile = percentile;
+        }
+    }
+
+    private static final List<Rule> rules = new ArrayList<>();
+
+    private static volatile int maxFrames = 4096;
+
+    private ExemplarConfiguration()
+    {
+    }
+
+    /**
+     * Adds a rule with a fixed threshold.<br>
+     * Already existing methods are re-configured.
+     * @param classRegExp Regular expression for the class name.
+     * @param methodRegExp Regular expression for the method name.
+     * @param threshold The threshold in nanoseconds.
+     */
+    public static void addRule(String classRegExp, String methodRegExp, long threshold)
+    {
+        addRule(new Rule(Pattern.compile(classRegExp), Pattern.compile(methodRegExp), Math.max(0, threshold), 0));
+    }
+
+    /**
+     * Adds a rule with an automatic threshold.<br>
+     * Already existing methods are re-configured. Latency histograms are enabled, as they are needed for the threshold.
+     * @param classRegExp Regular expression for the class name.
+     * @param methodRegExp Regular expression for the method name.
+     * @param percentile The percentile of the latency histogram, between 0 and 100 (exclusive).
+     */
+    public static void addPercentileRule(String classRegExp, String methodRegExp, double percentile)
+    {
+        if (!(percentile > 0 && percentile < 100))
+        {
+            throw new IllegalArgumentException("Illegal percentile " + percentile);
+        }
+        ProfilingInformation.setHistogramsEnabled(true);
+        addRule(new Rule(Pattern.compile(classRegExp), Pattern.compile(methodRegExp), Long.MAX_VALUE, percentile));
+    }
+
+    private static void addRule(Rule r)
+    {
+        synchronized (rules)
+        {
+            rules.add(r);
+        }
+        applyAll();
+    }
+
+    /**
+     * Removes all rules.<br>
+     * Already existing methods are re-configured to record no exemplars.
+     */
+    public static void clearRules()
+    {
+        synchronized (rules)
+        {
+            rules.clear();
+        }
+        applyAll();
+    }
+
+    /**
+     * Sets the maximum number of frames recorded per thread for the trees of active slow-call candidates.<br>
+     * If a call has more nested calls, the exemplar is marked as truncated, see {@link Exemplar#truncated}.
+     * @param frames The number of frames.
+     */
+    public static void setMaxFrames(int frames)
+    {
+        maxFrames = Math.max(1, frames);
+    }
+
+    /**
+     * Gets the maximum number of frames recorded per thread.
+     * @return The number of frames.
+     */
+    public static int getMaxFrames()
+    {
+        return maxFrames;
+    }
+
+    /**
+     * Parses a rule-expression and adds the rules.<br>
+     * For the format see class documentation. Illegal sub-expressions are logged and ignored.
+     * @param expression The expression, can be null.
+     */
+    public static void parse(String expression)
+    {
+        if (expression == null)
+        {
+            return;
+        }
+        for (String rule : expression.split("[\\s;]+"))
+        {
+            if (!rule.isEmpty())
+            {
+                final String spec[] = rule.split("(?<!\\\\):");
+                boolean ok = spec.length == 3;
+                if (ok)
+                {
+                    final String threshold = spec[2].trim().toLowerCase(Locale.ROOT);
+                    try
+                    {
+                        if (threshold.startsWith("p"))
+                        {
+                            addPercentileRule(spec[0], spec[1], Double.parseDouble(threshold.substring(1)));
+                        }
+                        else
+                        {
+                            addRule(spec[0], spec[1], parseDuration(threshold));
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        ok = false;
+                    }
+                }
+                if (!ok)
+                {
+                    Log.error("Illegal exemplar expression: " + rule);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses a duration with optional unit.
+     * @param duration The duration, e.g. "250ms".
+     * @return The duration in nanoseconds.
+     */
+    private static long parseDuration(String duration)
+    {
+        long factor = 1000000L;
+        String number = duration;
+        if (duration.endsWith("ns"))
+        {
+            factor = 1L;
+            number = duration.substring(0, duration.length() - 2);
+        }
+        else if (duration.endsWith("us"))
+        {
+            factor = 1000L;
+            number = duration.substring(0, duration.length() - 2);
+        }
+        else if (duration.endsWith("ms"))
+        {
+            number = duration.substring(0, duration.length() - 2);
+        }
+        else if (duration.endsWith("s"))
+        {
+            factor = 1000000000L;
+            number = duration.substring(0, duration.length() - 1);
+        }
+        return (long) (Double.parseDouble(number) * factor);
+    }
+
+    /**
+     * Configures a method according to the first matching rule.
+     * @param mi The method.
+     */
+    static void apply(MethodProfilingInformation mi)
+    {
+        final String className = mi.clazz == null ? "" : mi.clazz.name;
+        synchronized (rules)
+        {
+            for (Rule r : rules)
+            {
+                if (r.classPattern.matcher(className).matches() && r.methodPattern.matcher(mi.name).matches())
+                {
+                    if (r.percentile > 0)
+                    {
+                        mi.setExemplarPercentile(r.percentile);
+                    }
+                    else
+                    {
+                        mi.setExemplarThreshold(r.threshold);
+                    }
+                    return;
+                }
+            }
+        }
+        mi.setExemplarThreshold(Long.MAX_VALUE);
+    }
+
+    private static void applyAll()
+    {
+        final int n = MethodProfilingInformation.getMethodCount();
+        for (int i = 0; i < n; ++i)
+        {
+            final MethodProfilingInformation mi = MethodProfilingInformation.getMethodInformation(i);
+            if (mi != null)
+            {
+                apply(mi);
+            }
+        }
+    }
+}
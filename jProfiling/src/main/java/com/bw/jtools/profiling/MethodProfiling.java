@@ -31,14 +31,41 @@ import com.bw.jtools.profiling.measurement.MeasurementValue;
  */
 public final class MethodProfiling implements AutoCloseable
 {
+    /**
+     * Token of calls that are started while profiling is disabled.
+     */
+    static final long DISABLED = -1;
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * Enables or disables profiling.<br>
+     * Calls that start while profiling is disabled are not recorded at all.
+     * Calls that are active during the switch are finished as started.
+     * @param enable True to enable.
+     */
+    public static void setEnabled(boolean enable)
+    {
+        enabled = enable;
+    }
 
     /**
-     * Start time in nanoseconds.
+     * Checks if profiling is enabled.
+     * @return True if calls are recorded.
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Start time in nanoseconds.<br>
+     * Null if the call is not measured because of sampling, see {@link SamplingConfiguration}.
      */
     public final MeasurementValue startTime;
 
     /**
-     * Used times in nanoseconds. Null if the call is not yet finished.
+     * Used times in nanoseconds. Null if the call is not yet finished or not measured.
      */
     protected MeasurementValue usedTime;
 
@@ -47,9 +74,14 @@ public final class MethodProfiling implements AutoCloseable
      */
     protected final boolean notRecursive;
 
+    /**
+     * False if profiling was disabled when the call started.
+     */
+    private final boolean active;
+
     /**
      * Get the used time in nanoseconds.
-     * @return The used time in nanoseconds or null if the call is not yet finished.
+     * @return The used time in nanoseconds or null if the call is not yet finished or not measured.
      */
     public final MeasurementValue getUsedTime()
     {
@@ -67,10 +99,12 @@ public final class MethodProfiling implements AutoCloseable
      */
     public MethodProfiling()
     {
-        startTime = AbstractMeasurementSource.measure();
         StackTraceElement ste = ReflectionProfilingUtil.getStackTraceElement(ReflectionProfilingUtil.CALLING_METHOD_STACK_INDEX);
-        method = ThreadProfilingInformation.getInstance().getClassInformation(ReflectionProfilingUtil.normalizeClassName(ste.getClassName()) ).getMethodInformation( ste.getMethodName() );
-        notRecursive = this.method.startCall();
+        ThreadProfilingInformation ti = ThreadProfilingInformation.getInstance();
+        method = ti.getClassInformation(ReflectionProfilingUtil.normalizeClassName(ste.getClassName()) ).getMethodInformation( ste.getMethodName() );
+        active = enabled;
+        notRecursive = active && this.method.startCall();
+        startTime = ( active && ti.isSampled(method) ) ? AbstractMeasurementSource.measure() : null;
     }
 
     /**
@@ -80,10 +114,11 @@ public final class MethodProfiling implements AutoCloseable
      */
     public MethodProfiling(final String clazz, final String method)
     {
-        startTime = AbstractMeasurementSource.measure();
         ThreadProfilingInformation ti = ThreadProfilingInformation.getInstance();
         this.method = ti.getClassInformation(clazz).getMethodInformation( method );
-        notRecursive = this.method.startCall();
+        active = enabled;
+        notRecursive = active && this.method.startCall();
+        startTime = ( active && ti.isSampled(this.method) ) ? AbstractMeasurementSource.measure() : null;
     }
 
     /**
@@ -92,25 +127,136 @@ public final class MethodProfiling implements AutoCloseable
      */
     public MethodProfiling(MethodProfilingInformation method)
     {
-        startTime = AbstractMeasurementSource.measure();
         this.method = method;
-        notRecursive = this.method.startCall();
+        active = enabled;
+        notRecursive = active && this.method.startCall();
+        startTime = ( active && ThreadProfilingInformation.getInstance().isSampled(method) ) ? AbstractMeasurementSource.measure() : null;
+    }
+
+    /**
+     * Starts profiling of a call without creating any object.<br>
+     * The returned token has to be passed to {@link #exit(MethodProfilingInformation, long)}
+     * when the call ends, even in case of exceptions:
+     * <pre>
+     *    long token = MethodProfiling.enter(mi);
+     *    try {
+     *       ...
+     *    } finally {
+     *       MethodProfiling.exit(mi, token);
+     *    }
+     * </pre>
+     * Start values are stored in thread-local slots, so a call in steady state allocates nothing.<br>
+     * If sampling is configured for the method, calls that are not selected are only counted,
+     * see {@link SamplingConfiguration}. If enabled, an event is recorded, see {@link CallEventRecorder}.
+     * @param method The method to profile.
+     * @return The token for the call.
+     */
+    public static long enter(MethodProfilingInformation method)
+    {
+        return enabled ? startCall(method) : DISABLED;
+    }
+
+    /**
+     * Starts profiling of a call, regardless of {@link #isEnabled()}.
+     * @param method The method to profile.
+     * @return The frame of the call, see {@link ThreadProfilingInformation#enterFrame(boolean, boolean)}.
+     */
+    static int startCall(MethodProfilingInformation method)
+    {
+        final ThreadProfilingInformation ti = ThreadProfilingInformation.getInstance();
+        final boolean notRecursive = ti.pushMethod(method);
+        if (CallEventRecorder.isEnabled())
+        {
+            CallEventRecorder.record(ti, method, CallEventRecorder.ENTER);
+        }
+        return ti.enterFrame(notRecursive, ti.isSampled(method));
+    }
+
+    /**
+     * Ends profiling of a call started by {@link #enter(MethodProfilingInformation)}.
+     * @param method The profiled method.
+     * @param token The token returned by enter.
+     */
+    public static void exit(MethodProfilingInformation method, long token)
+    {
+        if (token != DISABLED)
+        {
+            endCall(method, (int) token);
+        }
+    }
+
+    /**
+     * Ends profiling of a call started by {@link #startCall(MethodProfilingInformation)}.
+     * @param method The profiled method.
+     * @param frame The frame returned by startCall.
+     */
+    static void endCall(MethodProfilingInformation method, int frame)
+    {
+        final ThreadProfilingInformation ti = ThreadProfilingInformation.getInstance();
+        if (CallEventRecorder.isEnabled())
+        {
+            CallEventRecorder.record(ti, method, CallEventRecorder.EXIT);
+        }
+        final boolean notRecursive = ti.isFrameNotRecursive(frame);
+        if (ti.isFrameSkipped(frame))
+        {
+            ti.exitFrame(frame);
+            method.endUnsampledCall(notRecursive);
+            return;
+        }
+        final long[] used = ti.exitFrame(frame);
+        if (used != null)
+        {
+            method.endCall(used, notRecursive);
+        }
+        else
+        {
+            ti.popMethod(method);
+        }
+    }
+
+    /**
+     * Profiles a exception of a call started by {@link #enter(MethodProfilingInformation)}.<br>
+     * Remind that "exit" needs still to be called.
+     * Not recorded while profiling is disabled.
+     * @param method The profiled method.
+     * @param t The Throwable.
+     */
+    public static void exception(MethodProfilingInformation method, Throwable t)
+    {
+        if (enabled)
+        {
+            method.exceptions++;
+        }
     }
 
     /**
      * Profiles a exception.<br>
      * Remind that "close" needs still to be called - following the AutoClosable pattern.
+     * Not recorded if profiling was disabled when the call started.
      * @param t The Throwable.
      */
     public void exception(Throwable t)
     {
-        method.exceptions++;
+        if (active)
+        {
+            method.exceptions++;
+        }
     }
 
 
     @Override
     public void close()
     {
+        if (!active)
+        {
+            return;
+        }
+        if (startTime == null)
+        {
+            method.endUnsampledCall(notRecursive);
+            return;
+        }
         usedTime = AbstractMeasurementSource.measure();
         usedTime.subtract(startTime);
 
@@ -23,16 +23,67 @@
  */
 package com.bw.jtools.profiling;
 
+import com.bw.jtools.profiling.measurement.LatencyHistogram;
 import com.bw.jtools.profiling.measurement.MeasurementValue;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Holds profiling information about a method or other code-unit during run-time.
  */
 public final class MethodProfilingInformation extends IdentifiableProfilingInformation
 {
+    /**
+     * Listener for calls that exceed a global threshold, see {@link #setSlowCallListener(SlowCallListener, long)}.
+     */
+    public interface SlowCallListener
+    {
+        /**
+         * Called by the calling thread after the call was recorded.<br>
+         * Should be fast and must not throw.
+         * @param mi The called method.
+         * @param used The measured values. The array must not be stored, it can be re-used.
+         */
+        void slowCall(MethodProfilingInformation mi, long[] used);
+    }
+
+    private static volatile SlowCallListener slowCallListener;
+    private static volatile long slowCallThreshold = Long.MAX_VALUE;
+
+    private final static AtomicInteger indexGenerator = new AtomicInteger(0);
+
+    /**
+     * Generates the negative indices of methods that are not registered, so that all indices
+     * below {@link #getMethodCount()} belong to registered methods.
+     */
+    private final static AtomicInteger unregisteredIndexGenerator = new AtomicInteger(0);
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /**
+     * Methods by index, in chunks of {@link #CHUNK_SIZE} entries.<br>
+     * Chunks are never moved, so registration and lookup need no lock.
+     */
+    private final static AtomicReferenceArray<AtomicReferenceArray<MethodProfilingInformation>> methodsByIndex
+            = new AtomicReferenceArray<>(4096);
+
+    /**
+     * Dense index of this method, starting with 0.<br>
+     * Can be used as index in arrays, see {@link #getMethodInformation(int)}.
+     * Methods that are not registered have a negative index.
+     */
+    public final int index;
+
+    /**
+     * False for internal methods that are not part of the profiling results, see {@link #getMethodInformation(int)}.
+     */
+    final boolean registered;
 
     /**
      * The method/code unit name.
@@ -56,6 +107,32 @@ public final class MethodProfilingInformation extends IdentifiableProfilingInfor
      */
     public final Map<Integer, CalleeProfilingInformation> callees;
 
+    /**
+     * Sampling rate, see {@link SamplingConfiguration}.
+     */
+    volatile int sampleRate = 1;
+
+    /**
+     * If true calls are sampled randomly, otherwise each N-th call.
+     */
+    volatile boolean randomSampling = false;
+
+    /**
+     * Threshold of the first dimension for slow-call exemplars, see {@link ExemplarConfiguration}.
+     * Long.MAX_VALUE if no exemplars are recorded.
+     */
+    volatile long exemplarThreshold = Long.MAX_VALUE;
+
+    /**
+     * Percentile of an automatic exemplar threshold or 0 for a fixed threshold.
+     */
+    private volatile double exemplarPercentile = 0;
+
+    /**
+     * Number of calls until an automatic exemplar threshold is updated next.
+     */
+    private int exemplarCountdown = ExemplarConfiguration.MIN_CALLS;
+
     /**
      * C'tor to create a new Method-Information instance.
      * @param clazz The class information the method belongs to.
@@ -66,6 +143,229 @@ public final class MethodProfilingInformation extends IdentifiableProfilingInfor
         this.callees = new HashMap<>(13);
         this.clazz = clazz;
         this.name = name;
+        this.index = indexGenerator.getAndIncrement();
+        this.registered = true;
+        register(this);
+        SamplingConfiguration.apply(this);
+        ExemplarConfiguration.apply(this);
+    }
+
+    /**
+     * C'tor to create a method that is not registered.<br>
+     * The method gets its own negative index, can't be found by {@link #getMethodInformation(int)}, has no class
+     * and is not configured. Calls are not recorded as events or in the calling-context tree.
+     * Used for internal measurements, see {@link OverheadCalibration}.
+     * @param name The name of the method.
+     */
+    MethodProfilingInformation(final String name)
+    {
+        this.callees = new HashMap<>(13);
+        this.clazz = null;
+        this.name = name;
+        this.index = unregisteredIndexGenerator.decrementAndGet();
+        this.registered = false;
+    }
+
+    private static void register(MethodProfilingInformation mi)
+    {
+        final int c = mi.index >>> CHUNK_BITS;
+        if ( c >= methodsByIndex.length() )
+        {
+            throw new IllegalStateException("Too many profiled methods");
+        }
+        AtomicReferenceArray<MethodProfilingInformation> chunk = methodsByIndex.get(c);
+        if ( chunk == null )
+        {
+            methodsByIndex.compareAndSet(c, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            chunk = methodsByIndex.get(c);
+        }
+        chunk.set(mi.index & (CHUNK_SIZE-1), mi);
+    }
+
+    /**
+     * Gets a method by its index.<br>
+     * The method is lock-free.
+     * @param index The index of the method, see {@link #index}.
+     * @return The method or null if the index is not assigned.
+     */
+    public static MethodProfilingInformation getMethodInformation(int index)
+    {
+        if ( index < 0 || (index >>> CHUNK_BITS) >= methodsByIndex.length() )
+        {
+            return null;
+        }
+        final AtomicReferenceArray<MethodProfilingInformation> chunk = methodsByIndex.get(index >>> CHUNK_BITS);
+        return chunk == null ? null : chunk.get(index & (CHUNK_SIZE-1));
+    }
+
+    /**
+     * Gets the number of registered methods.<br>
+     * All indices of registered methods are lower than this value.
+     * @return The number of methods.
+     */
+    public static int getMethodCount()
+    {
+        return indexGenerator.get();
+    }
+
+    /**
+     * Gets the methods with the highest sum of the first dimension.<br>
+     * In mode {@link ProfilingInformation.AccumulationMode#DENSE} this is a linear scan over the value columns,
+     * otherwise all methods are collected and sorted.
+     * Values are read while other threads are recording, so they may be not consistent.
+     * @param count Maximal number of methods.
+     * @return The methods, ordered by descending sum.
+     */
+    public static List<MethodProfilingInformation> getTopMethods(int count)
+    {
+        if ( getAccumulationMode() == AccumulationMode.DENSE )
+        {
+            return DenseStatistics.getTopMethods(count);
+        }
+        final Map<MethodProfilingInformation, Long> values = new HashMap<>();
+        for ( ClassProfilingInformation ci : ClassProfilingInformation.getClasses() )
+        {
+            for ( MethodProfilingInformation mi : ci.getMethods() )
+            {
+                final ProfilingSnapshot.Values v = mi.getValues();
+                if ( v.sum != null && v.sum.values[0] > 0 )
+                {
+                    values.put(mi, v.sum.values[0]);
+                }
+            }
+        }
+        List<MethodProfilingInformation> l = new ArrayList<>(values.keySet());
+        l.sort((a, b) -> Long.compare(values.get(b), values.get(a)));
+        return l.size() > count ? new ArrayList<>(l.subList(0, Math.max(0, count))) : l;
+    }
+
+    /**
+     * Sets the listener for slow calls.<br>
+     * The listener is called for each measured, not recursive call of any method whose
+     * first dimension is at least the threshold.
+     * @param listener The listener or null to remove it.
+     * @param threshold The threshold of the first dimension.
+     */
+    public static void setSlowCallListener(SlowCallListener listener, long threshold)
+    {
+        slowCallThreshold = Long.MAX_VALUE;
+        slowCallListener = listener;
+        if (listener != null)
+        {
+            slowCallThreshold = Math.max(0, threshold);
+        }
+    }
+
+    /**
+     * Gets the listener for slow calls.
+     * @return The listener or null.
+     */
+    public static SlowCallListener getSlowCallListener()
+    {
+        return slowCallListener;
+    }
+
+    /**
+     * Sets the sampling of this method.<br>
+     * Normally configured by {@link SamplingConfiguration}.
+     * @param rate The sampling rate N, values &lt;= 1 disable sampling.
+     * @param random If true calls are selected randomly with probability 1/N, otherwise each N-th call is measured.
+     */
+    public void setSampling(int rate, boolean random)
+    {
+        randomSampling = random;
+        sampleRate = Math.max(1, rate);
+    }
+
+    /**
+     * Gets the sampling rate.
+     * @return The rate N. 1 if all calls are measured.
+     */
+    public int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    /**
+     * Checks if random sampling is used.
+     * @return True if calls are selected randomly.
+     */
+    public boolean isRandomSampling()
+    {
+        return randomSampling;
+    }
+
+    /**
+     * Sets a fixed threshold for slow-call exemplars.<br>
+     * Normally configured by {@link ExemplarConfiguration}.
+     * @param threshold The threshold of the first dimension, Long.MAX_VALUE disables exemplars.
+     */
+    public void setExemplarThreshold(long threshold)
+    {
+        exemplarPercentile = 0;
+        exemplarThreshold = threshold;
+    }
+
+    /**
+     * Sets an automatic threshold for slow-call exemplars.<br>
+     * Normally configured by {@link ExemplarConfiguration}.
+     * Needs latency histograms, see {@link ProfilingInformation#setHistogramsEnabled(boolean)}.
+     * @param percentile The percentile of the latency histogram.
+     */
+    public void setExemplarPercentile(double percentile)
+    {
+        exemplarThreshold = Long.MAX_VALUE;
+        exemplarCountdown = ExemplarConfiguration.MIN_CALLS;
+        exemplarPercentile = percentile;
+    }
+
+    /**
+     * Gets the current threshold for slow-call exemplars.
+     * @return The threshold of the first dimension, Long.MAX_VALUE if no exemplars are recorded.
+     */
+    public long getExemplarThreshold()
+    {
+        return exemplarThreshold;
+    }
+
+    /**
+     * Gets the percentile of an automatic exemplar threshold.
+     * @return The percentile or 0 if the threshold is fixed.
+     */
+    public double getExemplarPercentile()
+    {
+        return exemplarPercentile;
+    }
+
+    /**
+     * Updates an automatic exemplar threshold from the latency histogram.<br>
+     * The histogram is only evaluated every {@link ExemplarConfiguration#REFRESH_CALLS} calls.
+     * The countdown is not synchronized, races between threads only shift the next update.
+     */
+    private void updateExemplarThreshold()
+    {
+        if (--exemplarCountdown > 0)
+        {
+            return;
+        }
+        final double percentile = exemplarPercentile;
+        final LatencyHistogram h = getHistogram();
+        if (percentile <= 0 || h == null)
+        {
+            exemplarCountdown = ExemplarConfiguration.REFRESH_CALLS;
+            return;
+        }
+        if (h.getTotalCount() < ExemplarConfiguration.MIN_CALLS)
+        {
+            // Not enough calls or histogram was cleared.
+            exemplarCountdown = ExemplarConfiguration.MIN_CALLS;
+            exemplarThreshold = Long.MAX_VALUE;
+        }
+        else
+        {
+            exemplarCountdown = ExemplarConfiguration.REFRESH_CALLS;
+            exemplarThreshold = h.getValueAtPercentile(percentile);
+        }
     }
 
     /**
@@ -109,18 +409,157 @@ public final class MethodProfilingInformation extends IdentifiableProfilingInfor
      */
     public void endCall(MeasurementValue usedValue, boolean notRecursive)
     {
-        addCall(usedValue, notRecursive );
+        endCall(usedValue.values, notRecursive);
+    }
+
+    /**
+     * Ends a call of this method.<br>
+     * Same as {@link #endCall(MeasurementValue, boolean)}, but works with the plain values.
+     * The values are not stored, the array can be re-used by the caller.<br>
+     * Values of recursive calls are only counted, as the time is already part of the outer call.
+     *
+     * @param usedValue The used measurement values.
+     * @param notRecursive True if this call was not recursive.
+     */
+    public void endCall(long[] usedValue, boolean notRecursive)
+    {
+        endCall(usedValue, notRecursive, null);
+    }
+
+    /**
+     * Ends a call of this method with a caller from an other thread.<br>
+     * Same as {@link #endCall(long[], boolean)}, but if no profiled method is on the stack of the current thread,
+     * the call is added as callee of the given caller and the relation is marked as
+     * {@link CalleeProfilingInformation#asynchronous}. Used for tasks that are executed on behalf of an
+     * other thread, see {@link ProfilingExecutors}.
+     *
+     * @param usedValue The used measurement values.
+     * @param notRecursive True if this call was not recursive.
+     * @param caller The caller, can be null.
+     */
+    public void endCall(long[] usedValue, boolean notRecursive, MethodProfilingInformation caller)
+    {
+        ThreadProfilingInformation ti = ThreadProfilingInformation.getInstance();
+        ti.addContextCall(this, usedValue);
+        if (ti.isTracing())
+        {
+            ti.traceCall(this, usedValue);
+        }
+        ti.popMethod(this);
+        MethodProfilingInformation mi = ti.getCurrentMethod();
+        CalleeProfilingInformation ci;
+        if (mi != null)
+        {
+            ci = mi.getCalleeInformation(this);
+        }
+        else if (caller != null)
+        {
+            ci = caller.getCalleeInformation(this);
+            if (!ci.asynchronous)
+            {
+                ci.asynchronous = true;
+            }
+        }
+        else
+        {
+            ci = null;
+        }
+
+        final int partition = ThreadPartitions.getPartition(ti);
+
+        final long time = isRollingWindowsEnabled() ? ti.getExitTime(true) : 0;
+
+        // Method and callee are recorded in the same epoch, so snapshots are consistent.
+        final int parity = ti.beginRecording();
+        try
+        {
+            addCall(parity, ti.slot, usedValue, notRecursive, time);
+            if (ci != null)
+            {
+                ci.addCall(parity, ti.slot, usedValue, notRecursive, time);
+            }
+            if (partition >= 0)
+            {
+                getPartition(partition).addCall(parity, ti.slot, usedValue, notRecursive, time);
+                if (ci != null)
+                {
+                    ci.getPartition(partition).addCall(parity, ti.slot, usedValue, notRecursive, time);
+                }
+            }
+        }
+        finally
+        {
+            ti.endRecording();
+        }
+        if (exemplarPercentile > 0 && notRecursive)
+        {
+            updateExemplarThreshold();
+        }
+        if (usedValue[0] >= slowCallThreshold && notRecursive && registered)
+        {
+            final SlowCallListener l = slowCallListener;
+            if (l != null)
+            {
+                l.slowCall(this, usedValue);
+            }
+        }
+    }
+
+    /**
+     * Ends a call of this method that was not measured because of sampling.<br>
+     * The method is popped from thread stack and the call is counted.
+     *
+     * @param notRecursive True if this call was not recursive.
+     */
+    public void endUnsampledCall(boolean notRecursive)
+    {
+        ThreadProfilingInformation ti = ThreadProfilingInformation.getInstance();
+        ti.addContextCall(this, null);
+        if (ti.isTracing())
+        {
+            ti.traceCall(this, null);
+        }
+        ti.popMethod(this);
+        MethodProfilingInformation mi = ti.getCurrentMethod();
+        CalleeProfilingInformation ci = (mi != null) ? mi.getCalleeInformation(this) : null;
+
+        final int partition = ThreadPartitions.getPartition(ti);
+
+        final long time = isRollingWindowsEnabled() ? ti.getExitTime(false) : 0;
 
-        if ( notRecursive )
+        final int parity = ti.beginRecording();
+        try
         {
-            ThreadProfilingInformation ti = ThreadProfilingInformation.getInstance();
-            ti.popMethod(this);
-            MethodProfilingInformation mi = ti.getCurrentMethod();
-            if (mi != null)
+            addUnsampledCall(parity, ti.slot, notRecursive, time);
+            if (ci != null)
             {
-                CalleeProfilingInformation ci = mi.getCalleeInformation(this);
-                ci.addCall(usedValue, notRecursive);
+                ci.addUnsampledCall(parity, ti.slot, notRecursive, time);
             }
+            if (partition >= 0)
+            {
+                getPartition(partition).addUnsampledCall(parity, ti.slot, notRecursive, time);
+                if (ci != null)
+                {
+                    ci.getPartition(partition).addUnsampledCall(parity, ti.slot, notRecursive, time);
+                }
+            }
+        }
+        finally
+        {
+            ti.endRecording();
+        }
+    }
+
+    /**
+     * Gets a copy of all callee information.<br>
+     * The method is thread-safe, in contrast to iteration of {@link #callees}.
+     * @return The list of callees.
+     */
+    public List<CalleeProfilingInformation> getCallees()
+    {
+        synchronized (callees)
+        {
+            return new ArrayList<>(callees.values());
         }
     }
 
@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+import com.bw.jtools.profiling.measurement.MeasurementValue;
+
+import java.util.Arrays;
+
+/**
+ * Measures the overhead of the profiling itself.<br>
+ * For tiny methods the measured values are dominated by the cost of
+ * {@link MethodProfiling#enter(MethodProfilingInformation)} and
+ * {@link MethodProfiling#exit(MethodProfilingInformation, long)}.
+ * The calibration profiles an empty method inside an other method and determines two values:
+ * <ul>
+ * <li>{@link #inner}: The part of the overhead that is measured as time of the called method itself.</li>
+ * <li>{@link #outer}: The complete overhead of a profiled call, as seen by the calling method.</li>
+ * </ul>
+ * The values depend on the current measurement source, accumulation mode and JIT state.<br>
+ * Calibration runs some hundred thousand profiled calls, so it is only done on explicit request,
+ * see {@link #calibrate()}. If the measurement source was switched, the calibration is no longer valid.
+ */
+public final class OverheadCalibration
+{
+    /**
+     * Overhead per call that is part of the measurement of the method itself.
+     */
+    public final MeasurementValue inner;
+
+    /**
+     * Overhead per call that is added to the measurement of the calling method.
+     */
+    public final MeasurementValue outer;
+
+    /**
+     * The measurement source that was used for calibration.
+     */
+    public final AbstractMeasurementSource source;
+
+    private static final int CALLS = 10000;
+    private static final int ROUNDS = 50;
+
+    private static volatile OverheadCalibration calibration;
+
+    private OverheadCalibration(AbstractMeasurementSource source, long[] inner, long[] outer)
+    {
+        this.source = source;
+        this.inner = new MeasurementValue(inner, source.getHeader());
+        this.outer = new MeasurementValue(outer, source.getHeader());
+    }
+
+    /**
+     * Gets the current calibration.<br>
+     * Calibration is not started by this method, see {@link #calibrate()}.
+     * @return The calibration or null if no calibration exists for the current measurement source.
+     */
+    public static OverheadCalibration getCalibration()
+    {
+        final OverheadCalibration c = calibration;
+        return (c == null || c.source != AbstractMeasurementSource.currentSource) ? null : c;
+    }
+
+    /**
+     * Runs the calibration.<br>
+     * Calibration is done in a separate thread to keep the stack of the current thread clean.
+     * Works also if profiling is disabled, see {@link MethodProfiling#setEnabled(boolean)}.
+     * Takes some milliseconds.
+     * @return The new calibration.
+     */
+    public static synchronized OverheadCalibration calibrate()
+    {
+        final OverheadCalibration[] result = new OverheadCalibration[1];
+        Thread t = new Thread(() -> result[0] = runCalibration(), "ProfilingCalibration");
+        t.setDaemon(true);
+        t.start();
+        try
+        {
+            t.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (result[0] != null)
+        {
+            calibration = result[0];
+        }
+        return result[0] != null ? result[0] : new OverheadCalibration(AbstractMeasurementSource.currentSource, new long[1], new long[1]);
+    }
+
+    private static OverheadCalibration runCalibration()
+    {
+        // The methods are not registered, so they will not show up in the profiling results.
+        final MethodProfilingInformation outerMethod = new MethodProfilingInformation("$ProfilingCalibration.outer");
+        final MethodProfilingInformation innerMethod = new MethodProfilingInformation("$ProfilingCalibration.inner");
+
+        final AbstractMeasurementSource source = AbstractMeasurementSource.currentSource;
+        long[] in = null;
+        long[] out = null;
+        for (int r = 0; r < ROUNDS; ++r)
+        {
+            outerMethod.clear();
+            innerMethod.clear();
+            // The switch of MethodProfiling is bypassed, the calibration shall also work if profiling is disabled.
+            final int frame = MethodProfiling.startCall(outerMethod);
+            for (int i = 0; i < CALLS; ++i)
+            {
+                MethodProfiling.endCall(innerMethod, MethodProfiling.startCall(innerMethod));
+            }
+            MethodProfiling.endCall(outerMethod, frame);
+            outerMethod.collect();
+            innerMethod.collect();
+            if (innerMethod.sum == null || outerMethod.sum == null)
+            {
+                continue;
+            }
+            // The minimum of all rounds is used, as other rounds are disturbed by JIT, GC or scheduling.
+            in = min(in, innerMethod.sum.values);
+            out = min(out, outerMethod.sum.values);
+        }
+        if (in == null || source != AbstractMeasurementSource.currentSource)
+        {
+            return null;
+        }
+        for (int i = 0; i < in.length; ++i)
+        {
+            in[i] /= CALLS;
+            out[i] /= CALLS;
+        }
+        return new OverheadCalibration(source, in, out);
+    }
+
+    private static long[] min(long[] current, long[] values)
+    {
+        if (current == null || current.length != values.length)
+        {
+            return values.clone();
+        }
+        if (values[0] < current[0])
+        {
+            System.arraycopy(values, 0, current, 0, values.length);
+        }
+        return current;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "inner " + Arrays.toString(inner.values) + ", outer " + Arrays.toString(outer.values);
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Propagates the profiling context of a thread to tasks that are executed by other threads.<br>
+ * A wrapped task captures the profiled method that is active on the submitting thread. On execution the task is
+ * profiled as callee of this method, so it doesn't appear as disconnected top-level call.
+ * The time between submission and start is recorded separately as method "&lt;queued&gt;" of the task.
+ * Both are marked as asynchronous callees, see {@link CalleeProfilingInformation#asynchronous}, so their time is not
+ * subtracted from the net time of the submitting method:
+ * <pre>
+ *    ExecutorService executor = ProfilingExecutors.wrap( Executors.newFixedThreadPool(4) );
+ *    CompletableFuture.runAsync( ProfilingExecutors.wrap( task ) );
+ * </pre>
+ * Tasks are profiled as method "run" or "call" of their class. For lambdas, the class that defines the lambda is used.
+ * Remind that the queue time only has a value in the first dimension (wall time), as other dimensions
+ * can't be compared across threads.
+ */
+public final class ProfilingExecutors
+{
+    private ProfilingExecutors()
+    {
+    }
+
+    /**
+     * Name suffix of the methods that record the queue time.
+     */
+    public static final String QUEUED = " <queued>";
+
+    /**
+     * Context of a task, captured on submission.
+     */
+    private static final class TaskContext
+    {
+        final MethodProfilingInformation caller;
+        final MethodProfilingInformation method;
+        final MethodProfilingInformation queued;
+        final long submitted;
+
+        TaskContext(MethodProfilingInformation method)
+        {
+            this.caller = ThreadProfilingInformation.getInstance().getCurrentMethod();
+            this.method = method;
+            this.queued = method.clazz == null ? null : method.clazz.getMethodInformation(method.name + QUEUED);
+            this.submitted = System.nanoTime();
+        }
+
+        /**
+         * Records the queue time and starts the profiled call.
+         * @param ti The thread information of the executing thread.
+         * @return The frame for {@link #end(ThreadProfilingInformation, int)}, -1 if profiling is disabled.
+         */
+        int begin(ThreadProfilingInformation ti)
+        {
+            if (!MethodProfiling.isEnabled())
+            {
+                return -1;
+            }
+            if (queued != null)
+            {
+                final long[] wait = new long[AbstractMeasurementSource.currentSource.getDimensions()];
+                wait[0] = System.nanoTime() - submitted;
+                queued.endCall(wait, queued.startCall(), caller);
+            }
+            return ti.enterFrame(ti.pushMethod(method));
+        }
+
+        /**
+         * Ends the profiled call.
+         * @param ti The thread information of the executing thread.
+         * @param frame The frame returned by {@link #begin(ThreadProfilingInformation)}.
+         */
+        void end(ThreadProfilingInformation ti, int frame)
+        {
+            if (frame < 0)
+            {
+                return;
+            }
+            final boolean notRecursive = ti.isFrameNotRecursive(frame);
+            final long[] used = ti.exitFrame(frame);
+            if (used != null)
+            {
+                method.endCall(used, notRecursive, caller);
+            }
+            else
+            {
+                ti.popMethod(method);
+            }
+        }
+    }
+
+    private static final class ProfiledRunnable implements Runnable
+    {
+        private final Runnable task;
+        private final TaskContext context;
+
+        ProfiledRunnable(Runnable task, MethodProfilingInformation method)
+        {
+            this.task = task;
+            this.context = new TaskContext(method);
+        }
+
+        @Override
+        public void run()
+        {
+            final ThreadProfilingInformation ti = ThreadProfilingInformation.getInstance();
+            final int frame = context.begin(ti);
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                context.method.exceptions++;
+                throw t;
+            }
+            finally
+            {
+                context.end(ti, frame);
+            }
+        }
+    }
+
+    private static final class ProfiledCallable<V> implements Callable<V>
+    {
+        private final Callable<V> task;
+        private final TaskContext context;
+
+        ProfiledCallable(Callable<V> task, MethodProfilingInformation method)
+        {
+            this.task = task;
+            this.context = new TaskContext(method);
+        }
+
+        @Override
+        public V call() throws Exception
+        {
+            final ThreadProfilingInformation ti = ThreadProfilingInformation.getInstance();
+            final int frame = context.begin(ti);
+            try
+            {
+                return task.call();
+            }
+            catch (Throwable t)
+            {
+                context.method.exceptions++;
+                throw t;
+            }
+            finally
+            {
+                context.end(ti, frame);
+            }
+        }
+    }
+
+    /**
+     * Future of a wrapped task, executed without further wrapping.
+     */
+    private static final class ProfiledFutureTask<V> extends FutureTask<V>
+    {
+        ProfiledFutureTask(Callable<V> callable)
+        {
+            super(callable);
+        }
+
+        ProfiledFutureTask(Runnable runnable, V result)
+        {
+            super(runnable, result);
+        }
+    }
+
+    private static final class ProfilingExecutor implements Executor
+    {
+        private final Executor executor;
+
+        ProfilingExecutor(Executor executor)
+        {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable command)
+        {
+            executor.execute(command instanceof ProfiledFutureTask ? command : wrap(command));
+        }
+    }
+
+    private static final class ProfilingExecutorService extends AbstractExecutorService
+    {
+        private final ExecutorService executor;
+
+        ProfilingExecutorService(ExecutorService executor)
+        {
+            this.executor = executor;
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value)
+        {
+            return new ProfiledFutureTask<>(wrap(runnable), value);
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable)
+        {
+            return new ProfiledFutureTask<>(wrap(callable));
+        }
+
+        @Override
+        public void execute(Runnable command)
+        {
+            executor.execute(command instanceof ProfiledFutureTask ? command : wrap(command));
+        }
+
+        @Override
+        public void shutdown()
+        {
+            executor.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            return executor.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown()
+        {
+            return executor.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated()
+        {
+            return executor.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+        {
+            return executor.awaitTermination(timeout, unit);
+        }
+    }
+
+    /**
+     * Gets the method information of a task.
+     * @param task The task.
+     * @param method The name of the method.
+     * @return The method information.
+     */
+    private static MethodProfilingInformation getTaskMethod(Object task, String method)
+    {
+        String name = task.getClass().getName();
+        final int lambda = name.indexOf("$$Lambda");
+        if (lambda > 0)
+        {
+            name = name.substring(0, lambda);
+        }
+        return ClassProfilingInformation.getClassInformation(ReflectionProfilingUtil.normalizeClassName(name)).getMethodInformation(method);
+    }
+
+    /**
+     * Wraps a task to execute it with the profiling context of the current thread.<br>
+     * Has to be called by the submitting thread.
+     * @param task The task.
+     * @return The wrapped task.
+     */
+    public static Runnable wrap(Runnable task)
+    {
+        return wrap(task, getTaskMethod(task, "run"));
+    }
+
+    /**
+     * Wraps a task to execute it with the profiling context of the current thread.<br>
+     * Has to be called by the submitting thread.
+     * @param task The task.
+     * @param method The method to profile the task.
+     * @return The wrapped task.
+     */
+    public static Runnable wrap(Runnable task, MethodProfilingInformation method)
+    {
+        return task instanceof ProfiledRunnable ? task : new ProfiledRunnable(task, method);
+    }
+
+    /**
+     * Wraps a task to execute it with the profiling context of the current thread.<br>
+     * Has to be called by the submitting thread.
+     * @param task The task.
+     * @param <V> The result type.
+     * @return The wrapped task.
+     */
+    public static <V> Callable<V> wrap(Callable<V> task)
+    {
+        return wrap(task, getTaskMethod(task, "call"));
+    }
+
+    /**
+     * Wraps a task to execute it with the profiling context of the current thread.<br>
+     * Has to be called by the submitting thread.
+     * @param task The task.
+     * @param method The method to profile the task.
+     * @param <V> The result type.
+     * @return The wrapped task.
+     */
+    public static <V> Callable<V> wrap(Callable<V> task, MethodProfilingInformation method)
+    {
+        return task instanceof ProfiledCallable ? task : new ProfiledCallable<>(task, method);
+    }
+
+    /**
+     * Wraps an executor. All tasks are wrapped on submission.
+     * @param executor The executor.
+     * @return The wrapping executor.
+     */
+    public static Executor wrap(Executor executor)
+    {
+        return executor instanceof ExecutorService ? wrap((ExecutorService) executor) : new ProfilingExecutor(executor);
+    }
+
+    /**
+     * Wraps an executor service. All tasks are wrapped on submission.
+     * @param executor The executor service.
+     * @return The wrapping executor service.
+     */
+    public static ExecutorService wrap(ExecutorService executor)
+    {
+        return executor instanceof ProfilingExecutorService ? executor : new ProfilingExecutorService(executor);
+    }
+}
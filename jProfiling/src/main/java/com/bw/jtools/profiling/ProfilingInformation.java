@@ -23,39 +23,195 @@
  */
 package com.bw.jtools.profiling;
 
+import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+import com.bw.jtools.profiling.measurement.LatencyHistogram;
 import com.bw.jtools.profiling.measurement.MeasurementValue;
+import com.bw.jtools.profiling.measurement.RollingWindow;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Base for profiling information instances.
+ * Base for profiling information instances.<br>
+ * Calls are recorded into internal buffers, see {@link AccumulationMode}. The public value fields
+ * ({@link #calls}, {@link #sampledCalls}, {@link #recursiveCalls}, {@link #sum}, {@link #minMeasurement} and {@link #maxMeasurement})
+ * are not live: they are only refreshed by {@link #collect()}. Code that reads the fields directly
+ * has to call {@link #collect()} first or use the consistent values of {@link ProfilingSnapshot}.
+ * Code that may run concurrently to other readers, like services, should use {@link #getValues()},
+ * which doesn't modify the shared fields.
  */
 public class ProfilingInformation
 {
 
     /**
-     * The sum of all callS.
+     * Modes how calls are accumulated.
+     */
+    public static enum AccumulationMode {
+
+        /**
+         * All threads update the same fields without synchronization.<br>
+         * Fastest on few cores, but parallel calls may get lost.
+         */
+        SHARED,
+
+        /**
+         * Each thread updates its own cell. Cells are merged by {@link #collect()}.<br>
+         * Counts are exact and threads don't write to shared cache-lines.
+         */
+        STRIPED,
+
+        /**
+         * Values are stored in primitive columns, indexed by dense ids of methods and callee-relations.<br>
+         * Snapshots and top-N queries scan contiguous memory instead of single objects, see {@link MethodProfilingInformation#getTopMethods(int)}.
+         * Columns are updated atomically, so counts are exact, but parallel calls to the same method contend on its cells.
+         */
+        DENSE;
+    }
+
+    private static AccumulationMode accumulationMode = AccumulationMode.SHARED;
+
+    /**
+     * Sets the accumulation mode.<br>
+     * Should be set before profiling starts, as already gathered values are not converted.
+     * @param mode The mode to use.
+     */
+    public static void setAccumulationMode( AccumulationMode mode )
+    {
+        accumulationMode = mode;
+    }
+
+    /**
+     * The current accumulation mode.
+     * @return The current mode.
+     */
+    public static AccumulationMode getAccumulationMode()
+    {
+        return accumulationMode;
+    }
+
+    private static boolean histogramsEnabled = false;
+
+    /**
+     * Enables or disables latency histograms.<br>
+     * Histograms cost ~5kB per method and callee-relation. All threads update the same histogram
+     * with an atomic increment, so histograms add contended writes on hot methods. Disabled by default.
+     * @param enabled If true, histograms are recorded.
+     */
+    public static void setHistogramsEnabled( boolean enabled )
+    {
+        histogramsEnabled = enabled;
+    }
+
+    /**
+     * Checks if latency histograms are recorded.
+     * @return True if enabled.
+     */
+    public static boolean isHistogramsEnabled()
+    {
+        return histogramsEnabled;
+    }
+
+    private static boolean rollingWindowsEnabled = false;
+
+    /**
+     * Enables or disables statistics of recent calls.<br>
+     * Windows cost ~2kB per method and callee-relation. All threads update the current bucket
+     * with atomic increments, so windows add contended writes on hot methods. Disabled by default.
+     * @param enabled If true, recent calls are recorded in a {@link RollingWindow}.
+     */
+    public static void setRollingWindowsEnabled( boolean enabled )
+    {
+        rollingWindowsEnabled = enabled;
+    }
+
+    /**
+     * Checks if statistics of recent calls are recorded.
+     * @return True if enabled.
+     */
+    public static boolean isRollingWindowsEnabled()
+    {
+        return rollingWindowsEnabled;
+    }
+
+    /**
+     * The sum of all callS.<br>
+     * Like all public value fields, only updated by {@link #collect()}.
+     * For consistent values use {@link ProfilingSnapshot}.
      */
     public MeasurementValue sum = null;
 
    /**
     * The maximum across all calls.
     */
-    public MeasurementValue maxMeasurement = new MeasurementValue( new long[] { Long.MIN_VALUE } );
+    public MeasurementValue maxMeasurement = AbstractMeasurementSource.createValue( new long[] { Long.MIN_VALUE } );
 
     /**
     * The minimum across all calls.
     */
-    public MeasurementValue minMeasurement = new MeasurementValue( new long[] { Long.MAX_VALUE} );
+    public MeasurementValue minMeasurement = AbstractMeasurementSource.createValue( new long[] { Long.MAX_VALUE} );
 
     /**
      * Number of profiled usages.
      */
     public int calls = 0;
 
+    /**
+     * Number of not recursive usages that were measured.<br>
+     * Less than {@link #calls} if sampling is active, see {@link SamplingConfiguration}.
+     */
+    public int sampledCalls = 0;
+
     /**
      * Number of recursive usages.
      */
     public int recursiveCalls = 0;
 
+    /**
+     * Histogram of the first dimension of all not recursive calls.
+     * Created with the first recorded call.
+     */
+    private volatile LatencyHistogram histogram;
+
+    /**
+     * Histogram content at the last reset, see {@link ProfilingSnapshot#take(boolean)}.
+     * The histogram is not double-buffered, so reset is done by subtraction.
+     */
+    private LatencyHistogram histogramBase;
+
+    /**
+     * Statistics of recent not recursive calls.
+     * Created with the first recorded call.
+     */
+    private volatile RollingWindow window;
+
+    /**
+     * Separates readers of the current values from snapshots that move the buffers into the base.<br>
+     * Readers use the read lock, {@link ProfilingSnapshot#take(boolean)} the write lock. Recording doesn't use it.
+     */
+    static final ReentrantReadWriteLock FOLD_LOCK = new ReentrantReadWriteLock();
+
+    /**
+     * Values of all completed epochs. Only modified by snapshots.
+     */
+    private Accumulator base = new Accumulator();
+
+    /**
+     * Buffers of the current and the last epoch, indexed by epoch parity.
+     * See {@link ThreadProfilingInformation#beginRecording()}.
+     */
+    private final Accumulator[] buffers = { new Accumulator(), new Accumulator() };
+
+    /**
+     * Statistics per thread partition, indexed by partition id, see {@link ThreadPartitions}.
+     * Created with the first call of a partition.
+     */
+    private volatile ProfilingInformation[] partitions;
+
+    /**
+     * Id in {@link DenseStatistics} or -1 if nothing was recorded in mode {@link AccumulationMode#DENSE}.
+     */
+    private volatile int denseId = -1;
+
     /**
      * Adds a call.
      * @param measurementValue Measurement value
@@ -63,34 +219,408 @@ public class ProfilingInformation
      */
     public final void addCall( MeasurementValue measurementValue, boolean notRecursive )
     {
-        // Parallel access to this method from different thread would lead - in worst case - to a small numeric error, but not to some crash.
-        // So synchrsonisation can be skipped in favour of performance.
-        if ( notRecursive ) {
-            ++calls;
-            if ( sum == null )
+        addCall( measurementValue.values, notRecursive );
+    }
+
+    /**
+     * Adds a call.<br>
+     * The values are copied, the array can be re-used by the caller.
+     * In steady state no memory is allocated.
+     * @param values The measured values.
+     * @param notRecursive True if this call was not recursive.
+     */
+    public final void addCall( final long[] values, boolean notRecursive )
+    {
+        final ThreadProfilingInformation ti = ThreadProfilingInformation.getInstance();
+        final long time = rollingWindowsEnabled ? System.nanoTime() : 0;
+        try
+        {
+            addCall( ti.beginRecording(), ti.slot, values, notRecursive, time );
+        }
+        finally
+        {
+            ti.endRecording();
+        }
+    }
+
+    /**
+     * Adds a call to the buffer of an epoch.
+     * @param parity The parity of the epoch as returned by {@link ThreadProfilingInformation#beginRecording()}.
+     * @param slot The {@link ThreadProfilingInformation#slot} of the calling thread.
+     * @param values The measured values.
+     * @param notRecursive True if this call was not recursive.
+     * @param time The time of the call end for rolling windows, see {@link ThreadProfilingInformation#getExitTime(boolean)}.
+     */
+    final void addCall( int parity, int slot, final long[] values, boolean notRecursive, long time )
+    {
+        if ( notRecursive && histogramsEnabled )
+        {
+            LatencyHistogram h = histogram;
+            if ( h == null ) h = createHistogram();
+            h.record( values[0] );
+        }
+        if ( notRecursive && rollingWindowsEnabled )
+        {
+            RollingWindow w = window;
+            if ( w == null ) w = createWindow();
+            w.record( time, values[0] );
+        }
+        final AccumulationMode mode = accumulationMode;
+        if ( mode == AccumulationMode.DENSE )
+        {
+            DenseStatistics.addCall( parity, getDenseId(), values, notRecursive );
+        }
+        else
+        {
+            buffers[parity].addCall( values, notRecursive, mode == AccumulationMode.STRIPED ? slot : -1 );
+        }
+    }
+
+    /**
+     * Adds a call that was not measured because of sampling.<br>
+     * The call is only counted.
+     * @param notRecursive True if this call was not recursive.
+     */
+    public final void addUnsampledCall( boolean notRecursive )
+    {
+        final ThreadProfilingInformation ti = ThreadProfilingInformation.getInstance();
+        final long time = rollingWindowsEnabled ? System.nanoTime() : 0;
+        try
+        {
+            addUnsampledCall( ti.beginRecording(), ti.slot, notRecursive, time );
+        }
+        finally
+        {
+            ti.endRecording();
+        }
+    }
+
+    /**
+     * Adds a call that was not measured to the buffer of an epoch.
+     * @param parity The parity of the epoch as returned by {@link ThreadProfilingInformation#beginRecording()}.
+     * @param slot The {@link ThreadProfilingInformation#slot} of the calling thread.
+     * @param notRecursive True if this call was not recursive.
+     * @param time The time of the call end for rolling windows, see {@link ThreadProfilingInformation#getExitTime(boolean)}.
+     */
+    final void addUnsampledCall( int parity, int slot, boolean notRecursive, long time )
+    {
+        if ( notRecursive && rollingWindowsEnabled )
+        {
+            RollingWindow w = window;
+            if ( w == null ) w = createWindow();
+            w.recordUnsampled( time );
+        }
+        final AccumulationMode mode = accumulationMode;
+        if ( mode == AccumulationMode.DENSE )
+        {
+            DenseStatistics.addUnsampledCall( parity, getDenseId(), notRecursive );
+        }
+        else
+        {
+            buffers[parity].addUnsampledCall( notRecursive, mode == AccumulationMode.STRIPED ? slot : -1 );
+        }
+    }
+
+    private int getDenseId()
+    {
+        final int id = denseId;
+        return id >= 0 ? id : allocateDenseId();
+    }
+
+    private synchronized int allocateDenseId()
+    {
+        if ( denseId < 0 )
+        {
+            denseId = DenseStatistics.allocate( this );
+        }
+        return denseId;
+    }
+
+    /**
+     * Gets the sum extrapolated to all calls.<br>
+     * If sampling is active, only {@link #sampledCalls} of {@link #calls} calls were measured.
+     * The sum is scaled accordingly.
+     * @return The extrapolated sum, possibly null if no call was measured.
+     */
+    public MeasurementValue getExtrapolatedSum()
+    {
+        return extrapolate( sum, calls, sampledCalls );
+    }
+
+    /**
+     * Scales a sum of measured calls to all calls.
+     * @param sum The sum of the measured calls, can be null.
+     * @param calls Number of all calls.
+     * @param sampledCalls Number of measured calls.
+     * @return The extrapolated sum or null if sum is null.
+     */
+    static MeasurementValue extrapolate( MeasurementValue sum, int calls, int sampledCalls )
+    {
+        if ( sum == null || sampledCalls <= 0 || sampledCalls >= calls )
+        {
+            return sum;
+        }
+        final long[] v = sum.values.clone();
+        final double f = calls / (double)sampledCalls;
+        for ( int i=0 ; i<v.length ; ++i )
+        {
+            v[i] = (long)(v[i] * f);
+        }
+        return AbstractMeasurementSource.createValue( v );
+    }
+
+    /**
+     * Gets or creates the statistics of a thread partition.
+     * @param partition The partition id.
+     * @return The statistics, never null.
+     */
+    final ProfilingInformation getPartition( int partition )
+    {
+        final ProfilingInformation[] ps = partitions;
+        if ( ps != null && partition < ps.length )
+        {
+            final ProfilingInformation p = ps[partition];
+            if ( p != null ) return p;
+        }
+        return createPartition( partition );
+    }
+
+    private synchronized ProfilingInformation createPartition( int partition )
+    {
+        ProfilingInformation[] ps = partitions;
+        if ( ps == null || partition >= ps.length )
+        {
+            ps = ps == null ? new ProfilingInformation[partition+1] : Arrays.copyOf(ps, partition+1);
+        }
+        else if ( ps[partition] != null )
+        {
+            return ps[partition];
+        }
+        else
+        {
+            ps = ps.clone();
+        }
+        final ProfilingInformation p = new ProfilingInformation();
+        ps[partition] = p;
+        partitions = ps;
+        return p;
+    }
+
+    /**
+     * Gets the statistics of a thread partition if calls were recorded.
+     * @param partition The partition id.
+     * @return The statistics or null.
+     */
+    final ProfilingInformation findPartition( int partition )
+    {
+        final ProfilingInformation[] ps = partitions;
+        return ( ps != null && partition < ps.length ) ? ps[partition] : null;
+    }
+
+    private synchronized RollingWindow createWindow()
+    {
+        if ( window == null )
+        {
+            window = new RollingWindow();
+        }
+        return window;
+    }
+
+    /**
+     * Gets the statistics of recent calls.<br>
+     * The window is live and changes with each new call.
+     * @return The window or null if no call was recorded with rolling windows enabled.
+     */
+    public RollingWindow getRollingWindow()
+    {
+        return window;
+    }
+
+    private synchronized LatencyHistogram createHistogram()
+    {
+        if ( histogram == null )
+        {
+            histogram = new LatencyHistogram();
+        }
+        return histogram;
+    }
+
+    /**
+     * Gets the histogram of the first dimension of all not recursive calls.<br>
+     * The histogram is live and changes with each new call.
+     * Remind that calls before the last reset of a snapshot are also included,
+     * see {@link ProfilingSnapshot.Values#histogram}.
+     * @return The histogram or null if no call was recorded with histograms enabled.
+     */
+    public LatencyHistogram getHistogram()
+    {
+        return histogram;
+    }
+
+    /**
+     * Gets the current values without modifying the public fields.<br>
+     * Calls that are recorded during the read may be missed, but no call is counted twice,
+     * as snapshots can't move buffers during the read. Should be preferred by code that runs
+     * concurrently to other readers.
+     * The histogram is not copied, see {@link #getHistogram()}.
+     * @return The values.
+     */
+    public ProfilingSnapshot.Values getValues()
+    {
+        FOLD_LOCK.readLock().lock();
+        try
+        {
+            return new ProfilingSnapshot.Values( getCurrent(), null, window );
+        }
+        finally
+        {
+            FOLD_LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * Updates the public fields with the current values.<br>
+     * The values are read while other threads are recording, see {@link #getValues()}.
+     * Concurrent updates of the fields are serialized.
+     * For consistent values use {@link ProfilingSnapshot#take(boolean)}.
+     */
+    public void collect()
+    {
+        Accumulator a;
+        FOLD_LOCK.readLock().lock();
+        try
+        {
+            a = getCurrent();
+        }
+        finally
+        {
+            FOLD_LOCK.readLock().unlock();
+        }
+        setFields(a);
+    }
+
+    /**
+     * Sums the base and both buffers.<br>
+     * Caller has to hold {@link #FOLD_LOCK}.
+     * @return The values.
+     */
+    private Accumulator getCurrent()
+    {
+        Accumulator a = new Accumulator();
+        base.addTo(a);
+        buffers[0].addTo(a);
+        buffers[1].addTo(a);
+        final int id = denseId;
+        if ( id >= 0 )
+        {
+            DenseStatistics.addTo( DenseStatistics.BASE, id, a );
+            DenseStatistics.addTo( 0, id, a );
+            DenseStatistics.addTo( 1, id, a );
+        }
+        return a;
+    }
+
+    private synchronized void setFields( Accumulator a )
+    {
+        if ( a.sum != null )
+        {
+            sum = AbstractMeasurementSource.createValue(a.sum);
+            minMeasurement = AbstractMeasurementSource.createValue(a.min);
+            maxMeasurement = AbstractMeasurementSource.createValue(a.max);
+        }
+        else
+        {
+            sum = null;
+            maxMeasurement = AbstractMeasurementSource.createValue( new long[] { Long.MIN_VALUE } );
+            minMeasurement = AbstractMeasurementSource.createValue( new long[] { Long.MAX_VALUE} );
+        }
+        calls = a.calls;
+        sampledCalls = a.sampledCalls;
+        recursiveCalls = a.recursiveCalls;
+    }
+
+    /**
+     * Moves the buffer of a finished epoch into the base and creates a snapshot of the values.<br>
+     * Must only be called by {@link ProfilingSnapshot} after all threads finished recording into the buffer
+     * and while it holds the write lock of {@link #FOLD_LOCK}.
+     * Values in {@link DenseStatistics} were already moved to its base bank by {@link DenseStatistics#merge(int)}.
+     * @param parity The parity of the finished epoch.
+     * @param reset If true the base is cleared after the snapshot.
+     * @return The values.
+     */
+    final ProfilingSnapshot.Values snapshot( int parity, boolean reset )
+    {
+        Accumulator a = new Accumulator();
+        base.addTo(a);
+        buffers[parity].addTo(a);
+        buffers[parity].clear();
+        base = reset ? new Accumulator() : a;
+
+        final int id = denseId;
+        if ( id >= 0 )
+        {
+            // Dense values stay in the store, so they are added to a copy.
+            Accumulator d = new Accumulator();
+            a.addTo(d);
+            DenseStatistics.addTo( DenseStatistics.BASE, id, d );
+            if ( reset )
+            {
+                DenseStatistics.clear( DenseStatistics.BASE, id );
+            }
+            a = d;
+        }
+
+        LatencyHistogram h = null;
+        final LatencyHistogram live = histogram;
+        if ( live != null )
+        {
+            h = live.copy();
+            if ( histogramBase != null )
             {
-                sum = measurementValue.clone();
+                h.subtract( histogramBase );
             }
-            else {
-                sum.add(measurementValue);
+            if ( reset )
+            {
+                histogramBase = live.copy();
             }
-            if ( measurementValue.greaterThan(maxMeasurement) ) maxMeasurement = measurementValue.clone();
-            if ( measurementValue.lessThan(minMeasurement) ) minMeasurement = measurementValue.clone();
-        } else {
-            ++recursiveCalls;
         }
+        final RollingWindow w = window;
+
+        setFields(a);
+        return new ProfilingSnapshot.Values( a, h, w );
     }
 
     /**
-     * Clear profiling information.
+     * Clear profiling information.<br>
+     * Not synchronized with recording threads, for a consistent reset use {@link ProfilingSnapshot#take(boolean)}.
      */
     public void clear()
     {
-        sum = null;
-        maxMeasurement = new MeasurementValue( new long[] { Long.MIN_VALUE } );
-        minMeasurement = new MeasurementValue( new long[] { Long.MAX_VALUE} );
-        calls = 0;
-        recursiveCalls = 0;
+        base.clear();
+        buffers[0].clear();
+        buffers[1].clear();
+        final int id = denseId;
+        if ( id >= 0 )
+        {
+            DenseStatistics.clear( DenseStatistics.BASE, id );
+            DenseStatistics.clear( 0, id );
+            DenseStatistics.clear( 1, id );
+        }
+        final ProfilingInformation[] ps = partitions;
+        if ( ps != null )
+        {
+            for ( ProfilingInformation p : ps )
+            {
+                if ( p != null ) p.clear();
+            }
+        }
+        synchronized ( this )
+        {
+            histogramBase = null;
+            if ( histogram != null ) histogram.clear();
+            if ( window != null ) window.clear();
+        }
+        setFields( base );
     }
 
 }
@@ -46,16 +46,16 @@ public class ProfilingInterceptor
         final ClassProfilingInformation ci = ThreadProfilingInformation.getInstance().getClassInformation(m.getDeclaringClass());
         final MethodProfilingInformation mi = ci.getMethodInformation(m.getName());
 
-        MethodProfiling mp = new MethodProfiling(mi);
+        final long token = MethodProfiling.enter(mi);
         try {
             return ctx.proceed();
         } catch (Exception e) {
-            mp.exception(e);
+            MethodProfiling.exception(mi, e);
             throw e;
         }
         finally
         {
-            mp.close();
+            MethodProfiling.exit(mi, token);
         }
     }
 
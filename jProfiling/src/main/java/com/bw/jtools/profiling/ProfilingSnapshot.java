@@ -0,0 +1,474 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import com.bw.jtools.profiling.callgraph.CallNode;
+import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+import com.bw.jtools.profiling.measurement.LatencyHistogram;
+import com.bw.jtools.profiling.measurement.MeasurementValue;
+import com.bw.jtools.profiling.measurement.RollingWindow;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, consistent view of all profiling information.<br>
+ * Recording threads write into buffers of the current epoch. {@link #take(boolean)} starts a new epoch,
+ * waits until no thread records into the old epoch and moves the old buffers into the snapshot.
+ * So all values of a snapshot belong to the same set of calls, e.g. the calls of a method are equal to the
+ * sum of its callee-relations. Recording threads are never blocked.<br>
+ * If thread partitions are configured, the snapshot contains a snapshot for each partition, see {@link ThreadPartitions}.<br>
+ * If enabled, the snapshot contains the merged calling-context tree, see {@link CallingContextTree}.<br>
+ * Remind that the values of a snapshot must not be modified.
+ */
+public final class ProfilingSnapshot
+{
+    /**
+     * Values of a method or callee-relation.
+     */
+    public static final class Values
+    {
+        /**
+         * Number of not recursive calls.
+         */
+        public final int calls;
+
+        /**
+         * Number of measured calls, see {@link SamplingConfiguration}.
+         */
+        public final int sampledCalls;
+
+        /**
+         * Number of recursive calls.
+         */
+        public final int recursiveCalls;
+
+        /**
+         * Sum of all measured calls, null if no call was measured.
+         */
+        public final MeasurementValue sum;
+
+        /**
+         * Minimum and maximum, null if no call was measured.
+         */
+        public final MeasurementValue minMeasurement;
+        public final MeasurementValue maxMeasurement;
+
+        /**
+         * Histogram of the first dimension, possibly null.
+         * Histograms are not double-buffered, so calls that are recorded during the snapshot may be included.
+         */
+        public final LatencyHistogram histogram;
+
+        /**
+         * Totals of recent calls (calls, measured calls, sum), see {@link RollingWindow#getTotals(long)}.
+         * Null if rolling windows are disabled.
+         */
+        public final long[] recent1m;
+        public final long[] recent5m;
+        public final long[] recent15m;
+
+        Values(Accumulator a, LatencyHistogram histogram, RollingWindow window)
+        {
+            calls = a.calls;
+            sampledCalls = a.sampledCalls;
+            recursiveCalls = a.recursiveCalls;
+            sum = a.sum == null ? null : AbstractMeasurementSource.createValue(a.sum.clone());
+            minMeasurement = a.min == null ? null : AbstractMeasurementSource.createValue(a.min.clone());
+            maxMeasurement = a.max == null ? null : AbstractMeasurementSource.createValue(a.max.clone());
+            this.histogram = histogram;
+            recent1m = window == null ? null : window.getTotals(60000L);
+            recent5m = window == null ? null : window.getTotals(5 * 60000L);
+            recent15m = window == null ? null : window.getTotals(15 * 60000L);
+        }
+
+        /**
+         * Gets the sum extrapolated to all calls.
+         * See {@link ProfilingInformation#getExtrapolatedSum()}.
+         * @return The sum, possibly null.
+         */
+        public MeasurementValue getExtrapolatedSum()
+        {
+            return ProfilingInformation.extrapolate(sum, calls, sampledCalls);
+        }
+    }
+
+    /**
+     * Snapshot of a method.
+     */
+    public static final class MethodSnapshot
+    {
+        /**
+         * The {@link MethodProfilingInformation#index} of the method.
+         */
+        public final int index;
+
+        /**
+         * Name of the class, possibly null.
+         */
+        public final String className;
+
+        /**
+         * Name of the method.
+         */
+        public final String name;
+
+        /**
+         * Number of exceptions. Not part of the epochs, so the value may be not consistent with the calls.
+         */
+        public final int exceptions;
+
+        /**
+         * The values of the method.
+         */
+        public final Values values;
+
+        private final List<CalleeSnapshot> callees = new ArrayList<>();
+
+        private final List<Exemplar> exemplars = new ArrayList<>();
+
+        MethodSnapshot(MethodProfilingInformation mi, Values values)
+        {
+            this.index = mi.index;
+            this.className = mi.clazz == null ? null : mi.clazz.name;
+            this.name = mi.name;
+            this.exceptions = mi.exceptions;
+            this.values = values;
+        }
+
+        /**
+         * Gets the callee-relations.
+         * @return The unmodifiable list of callees.
+         */
+        public List<CalleeSnapshot> getCallees()
+        {
+            return Collections.unmodifiableList(callees);
+        }
+
+        /**
+         * Gets the slow calls of this method, see {@link ExemplarConfiguration}.
+         * @return The unmodifiable list of exemplars, ordered by sequence.
+         */
+        public List<Exemplar> getExemplars()
+        {
+            return Collections.unmodifiableList(exemplars);
+        }
+    }
+
+    /**
+     * Snapshot of a callee-relation.
+     */
+    public static final class CalleeSnapshot
+    {
+        /**
+         * The called method.
+         */
+        public final MethodSnapshot callee;
+
+        /**
+         * The values of the calls via this relation.
+         */
+        public final Values values;
+
+        /**
+         * True if the calls were executed by an other thread, see {@link CalleeProfilingInformation#asynchronous}.
+         */
+        public final boolean asynchronous;
+
+        CalleeSnapshot(MethodSnapshot callee, Values values, boolean asynchronous)
+        {
+            this.callee = callee;
+            this.values = values;
+            this.asynchronous = asynchronous;
+        }
+    }
+
+    /**
+     * The epoch of this snapshot.
+     */
+    public final long epoch;
+
+    /**
+     * Start of the covered period: start of profiling or time of the last reset.
+     */
+    public final Calendar startTime;
+
+    /**
+     * Time of this snapshot.
+     */
+    public final Calendar endTime;
+
+    private final List<MethodSnapshot> methods;
+
+    private final Map<String, ProfilingSnapshot> partitions;
+
+    private final List<Exemplar> exemplars;
+
+    private final CallingContextTree.Node contextTree;
+
+    private ProfilingSnapshot(long epoch, Calendar startTime, Calendar endTime, List<MethodSnapshot> methods,
+                              Map<String, ProfilingSnapshot> partitions, List<Exemplar> exemplars, CallingContextTree.Node contextTree)
+    {
+        this.contextTree = contextTree;
+        this.exemplars = Collections.unmodifiableList(exemplars);
+        this.epoch = epoch;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.methods = Collections.unmodifiableList(methods);
+        this.partitions = Collections.unmodifiableMap(partitions);
+    }
+
+    /**
+     * Takes a snapshot of all methods.<br>
+     * @param reset If true, all values are reset, so the next snapshot contains only calls after this one.
+     * @return The snapshot.
+     */
+    public static synchronized ProfilingSnapshot take(boolean reset)
+    {
+        final long epoch = ThreadProfilingInformation.flipEpoch();
+        final int parity = (int) (epoch & 1);
+        final Calendar start = ClassProfilingInformation.getProfilingStartTime();
+        final Calendar end = Calendar.getInstance();
+        if (reset)
+        {
+            ClassProfilingInformation.setProfilingStartTime(end);
+        }
+
+        List<MethodSnapshot> methods = new ArrayList<>();
+        Map<Integer, MethodSnapshot> byIndex = new HashMap<>();
+        List<MethodProfilingInformation> mis = new ArrayList<>();
+
+        final int partitionCount = ThreadPartitions.getPartitionCount();
+        List<List<MethodSnapshot>> partitionMethods = new ArrayList<>(partitionCount);
+        List<Map<Integer, MethodSnapshot>> partitionByIndex = new ArrayList<>(partitionCount);
+        for (int p = 0; p < partitionCount; ++p)
+        {
+            partitionMethods.add(new ArrayList<>());
+            partitionByIndex.add(new HashMap<>());
+        }
+
+        // Readers of current values must not see the buffers while they are moved into the base.
+        ProfilingInformation.FOLD_LOCK.writeLock().lock();
+        try
+        {
+            DenseStatistics.merge(parity);
+            for (ClassProfilingInformation ci : ClassProfilingInformation.getClasses())
+            {
+                for (MethodProfilingInformation mi : ci.getMethods())
+                {
+                    MethodSnapshot ms = new MethodSnapshot(mi, mi.snapshot(parity, reset));
+                    for (int p = 0; p < partitionCount; ++p)
+                    {
+                        final ProfilingInformation pi = mi.findPartition(p);
+                        if (pi != null)
+                        {
+                            MethodSnapshot pms = new MethodSnapshot(mi, pi.snapshot(parity, reset));
+                            partitionMethods.get(p).add(pms);
+                            partitionByIndex.get(p).put(mi.index, pms);
+                        }
+                    }
+                    if (reset)
+                    {
+                        mi.exceptions = 0;
+                    }
+                    methods.add(ms);
+                    byIndex.put(mi.index, ms);
+                    mis.add(mi);
+                }
+            }
+            for (int i = 0; i < mis.size(); ++i)
+            {
+                final MethodSnapshot ms = methods.get(i);
+                final MethodProfilingInformation mi = mis.get(i);
+                for (CalleeProfilingInformation ci : mi.getCallees())
+                {
+                    Values v = ci.snapshot(parity, reset);
+                    MethodSnapshot callee = byIndex.get(ci.callee.index);
+                    if (callee != null && (v.calls > 0 || v.recursiveCalls > 0))
+                    {
+                        ms.callees.add(new CalleeSnapshot(callee, v, ci.asynchronous));
+                    }
+                    for (int p = 0; p < partitionCount; ++p)
+                    {
+                        final ProfilingInformation pi = ci.findPartition(p);
+                        if (pi != null)
+                        {
+                            Values pv = pi.snapshot(parity, reset);
+                            MethodSnapshot pcaller = partitionByIndex.get(p).get(mi.index);
+                            MethodSnapshot pcallee = partitionByIndex.get(p).get(ci.callee.index);
+                            if (pcaller != null && pcallee != null && (pv.calls > 0 || pv.recursiveCalls > 0))
+                            {
+                                pcaller.callees.add(new CalleeSnapshot(pcallee, pv, ci.asynchronous));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            ProfilingInformation.FOLD_LOCK.writeLock().unlock();
+        }
+
+        Map<String, ProfilingSnapshot> partitions = new LinkedHashMap<>();
+        for (int p = 0; p < partitionCount; ++p)
+        {
+            partitions.put(ThreadPartitions.getPartitionName(p),
+                    new ProfilingSnapshot(epoch, start, end, partitionMethods.get(p), Collections.emptyMap(), Collections.emptyList(), null));
+        }
+
+        // Exemplars are not part of the epochs, the sequence separates them from the next snapshot.
+        final long exemplarLimit = ExemplarBuffer.getSequence();
+        final List<Exemplar> exemplars = ExemplarBuffer.getExemplars(exemplarLimit);
+        if (reset)
+        {
+            ExemplarBuffer.reset(exemplarLimit);
+        }
+        for (Exemplar e : exemplars)
+        {
+            final MethodSnapshot ms = byIndex.get(e.root.index);
+            if (ms != null)
+            {
+                ms.exemplars.add(e);
+            }
+        }
+
+        // The trees are not part of the epochs, calls that end during the merge may be missing or counted twice.
+        CallingContextTree.Node contextTree = null;
+        if (CallingContextTree.isEnabled())
+        {
+            contextTree = CallingContextTree.merge();
+            if (reset)
+            {
+                CallingContextTree.clear();
+            }
+        }
+        return new ProfilingSnapshot(epoch, start, end, methods, partitions, exemplars, contextTree);
+    }
+
+    /**
+     * Gets the names of all thread partitions.
+     * @return The unmodifiable set of names, empty if no partitions are configured.
+     */
+    public Set<String> getPartitionNames()
+    {
+        return partitions.keySet();
+    }
+
+    /**
+     * Gets the snapshot of a thread partition, see {@link ThreadPartitions}.<br>
+     * The partition snapshot contains only methods that were called by threads of the partition.
+     * It can be rendered like a complete snapshot. Exceptions are not partitioned, so they show the combined values.
+     * @param name The name of the partition.
+     * @return The snapshot or null if the partition doesn't exist.
+     */
+    public ProfilingSnapshot getPartition(String name)
+    {
+        return partitions.get(name);
+    }
+
+    /**
+     * Gets all slow-call exemplars that were recorded since the last reset and are still stored.<br>
+     * Exemplars are not partitioned, so partition snapshots contain no exemplars. See {@link ExemplarBuffer}.
+     * @return The unmodifiable list of exemplars, ordered by sequence.
+     */
+    public List<Exemplar> getExemplars()
+    {
+        return exemplars;
+    }
+
+    /**
+     * Gets the calling-context tree that was merged with this snapshot.<br>
+     * Calling-context trees are not partitioned, so partition snapshots contain no tree.
+     * @param classNames If true, the class names are added to the node names.
+     * @return The root node of the call graph or null if calling-context trees are disabled, see {@link CallingContextTree#setEnabled(boolean)}.
+     */
+    public CallNode getCallingContextTree(boolean classNames)
+    {
+        return contextTree == null ? null : CallingContextTree.toCallGraph(contextTree, classNames, startTime, endTime);
+    }
+
+    /**
+     * Gets all methods.
+     * @return The unmodifiable list of methods.
+     */
+    public List<MethodSnapshot> getMethods()
+    {
+        return methods;
+    }
+
+    /**
+     * Gets all called methods that are not called by other methods.<br>
+     * Relations with only recursive calls are ignored. Methods without calls are
+     * ignored, as the weaver registers all instrumented methods in advance.
+     * @return The list of top-level methods.
+     */
+    public List<MethodSnapshot> getTopLevelMethods()
+    {
+        Set<Integer> callees = new HashSet<>();
+        for (MethodSnapshot ms : methods)
+        {
+            for (CalleeSnapshot cs : ms.callees)
+            {
+                if (cs.values.calls > 0)
+                {
+                    callees.add(cs.callee.index);
+                }
+            }
+        }
+        List<MethodSnapshot> l = new ArrayList<>(methods.size() - callees.size());
+        for (MethodSnapshot ms : methods)
+        {
+            if (ms.values.calls > 0 && !callees.contains(ms.index))
+            {
+                l.add(ms);
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Gets a method by its index.
+     * @param index The {@link MethodProfilingInformation#index}.
+     * @return The method snapshot or null.
+     */
+    public MethodSnapshot getMethod(int index)
+    {
+        for (MethodSnapshot ms : methods)
+        {
+            if (ms.index == index)
+            {
+                return ms;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import com.bw.jtools.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Configuration of sampled profiling.<br>
+ * By default each call is measured. For hot methods the overhead can be reduced by measuring
+ * only some of the calls. Calls that are not measured are still counted, so the sum of all calls
+ * can be extrapolated, see {@link ProfilingInformation#getExtrapolatedSum()}.<br>
+ * Two modes are supported:
+ * <ul>
+ * <li>1-in-N: Each thread measures every N-th call of the method.</li>
+ * <li>Random: Each call is measured with a probability of 1/N, decided by a per-thread fast random generator.</li>
+ * </ul>
+ * Rules are matched against the class name (as stored in {@link ClassProfilingInformation#name})
+ * and the method name, methods without class are matched with an empty class name. The first matching rule wins.<br>
+ * Sampling applies to {@link MethodProfiling#enter(MethodProfilingInformation)} and to {@link MethodProfiling} instances.<br>
+ * The rule-expression can contain multiple sub-expressions, separated by blank or ';' characters:
+ * <pre>
+ *
+ *     com\.myorg\..*:get.*:100 com\.myorg\..*:print.*:~20
+ * </pre>
+ * "100" measures every 100th call, "~20" measures calls randomly with probability 1/20.
+ */
+public final class SamplingConfiguration
+{
+    private static final class Rule
+    {
+        final Pattern classPattern;
+        final Pattern methodPattern;
+        final int rate;
+        final boolean random;
+
+        Rule(Pattern classPattern, Pattern methodPattern, int rate, boolean random)
+        {
+            this.classPattern = classPattern;
+            this.methodPattern = methodPattern;
+            this.rate = rate;
+            this.random = random;
+        }
+    }
+
+    private static final List<Rule> rules = new ArrayList<>();
+
+    private SamplingConfiguration()
+    {
+    }
+
+    /**
+     * Adds a sampling rule.<br>
+     * Already existing methods are re-configured.
+     * @param classRegExp Regular expression for the class name.
+     * @param methodRegExp Regular expression for the method name.
+     * @param rate The sampling rate N, values &lt;= 1 disable sampling.
+     * @param random If true calls are selected randomly with probability 1/N, otherwise each N-th call is used.
+     */
+    public static void addRule(String classRegExp, String methodRegExp, int rate, boolean random)
+    {
+        synchronized (rules)
+        {
+            rules.add(new Rule(Pattern.compile(classRegExp), Pattern.compile(methodRegExp), rate, random));
+        }
+        applyAll();
+    }
+
+    /**
+     * Removes all rules.<br>
+     * Already existing methods are re-configured to measure all calls.
+     */
+    public static void clearRules()
+    {
+        synchronized (rules)
+        {
+            rules.clear();
+        }
+        applyAll();
+    }
+
+    /**
+     * Parses a rule-expression and adds the rules.<br>
+     * For the format see class documentation. Illegal sub-expressions are logged and ignored.
+     * @param expression The expression, can be null.
+     */
+    public static void parse(String expression)
+    {
+        if (expression == null)
+        {
+            return;
+        }
+        for (String rule : expression.split("[\\s;]+"))
+        {
+            if (!rule.isEmpty())
+            {
+                final String spec[] = rule.split("(?<!\\\\):");
+                boolean ok = spec.length == 3;
+                if (ok)
+                {
+                    String rate = spec[2].trim();
+                    final boolean random = rate.startsWith("~");
+                    if (random)
+                    {
+                        rate = rate.substring(1);
+                    }
+                    try
+                    {
+                        addRule(spec[0], spec[1], Integer.parseInt(rate), random);
+                    }
+                    catch (Exception e)
+                    {
+                        ok = false;
+                    }
+                }
+                if (!ok)
+                {
+                    Log.error("Illegal sampling expression: " + rule);
+                }
+            }
+        }
+    }
+
+    /**
+     * Configures a method according to the first matching rule.
+     * @param mi The method.
+     */
+    static void apply(MethodProfilingInformation mi)
+    {
+        final String className = mi.clazz == null ? "" : mi.clazz.name;
+        synchronized (rules)
+        {
+            for (Rule r : rules)
+            {
+                if (r.classPattern.matcher(className).matches() && r.methodPattern.matcher(mi.name).matches())
+                {
+                    mi.setSampling(r.rate, r.random);
+                    return;
+                }
+            }
+        }
+        mi.setSampling(1, false);
+    }
+
+    private static void applyAll()
+    {
+        final int n = MethodProfilingInformation.getMethodCount();
+        for (int i = 0; i < n; ++i)
+        {
+            final MethodProfilingInformation mi = MethodProfilingInformation.getMethodInformation(i);
+            if (mi != null)
+            {
+                apply(mi);
+            }
+        }
+    }
+}
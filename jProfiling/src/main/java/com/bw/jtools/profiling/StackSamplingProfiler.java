@@ -0,0 +1,302 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import com.bw.jtools.io.ServiceRunner;
+import com.bw.jtools.profiling.callgraph.CallEdge;
+import com.bw.jtools.profiling.callgraph.CallNode;
+import com.bw.jtools.profiling.callgraph.NodeDetail;
+import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+import com.bw.jtools.profiling.measurement.DateTimeValue;
+import com.bw.jtools.profiling.measurement.MeasurementValue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Statistical profiler that periodically captures the stacks of selected threads.<br>
+ * In contrast to weaving, no instrumentation and no configuration of methods is needed
+ * and the profiled threads have no per-call overhead. The results are estimations: each sample adds
+ * the time since the previous sample to all methods on the captured stack.<br>
+ * The samples are aggregated into a calling-context tree that can be converted into the
+ * call graph model by {@link #getCallGraph(boolean)}, so all call graph renderers can be used:
+ * <pre>
+ *    StackSamplingProfiler sampler = new StackSamplingProfiler();
+ *    sampler.setThreadFilter("main|worker-.*");
+ *    sampler.start(10);
+ *    ...
+ *    String json = new JSONCallGraphRenderer(nf, Options.ADD_CLASSNAMES).render(sampler.getCallGraph(true));
+ * </pre>
+ * Node values are the estimated time in nanoseconds, "calls" are the number of samples.
+ */
+public class StackSamplingProfiler implements ServiceRunner.Service
+{
+    /**
+     * Methods to capture stacks.
+     */
+    public static enum StackSource
+    {
+        /**
+         * Uses {@link ThreadMXBean#dumpAllThreads(boolean, boolean)}. Provides the thread state.
+         */
+        THREAD_MX_BEAN,
+
+        /**
+         * Uses {@link Thread#getAllStackTraces()}.
+         */
+        ALL_STACK_TRACES
+    }
+
+    /**
+     * Node of the calling-context tree.
+     */
+    private static final class SampleNode
+    {
+        final String className;
+        final String methodName;
+        long time;
+        int samples;
+        final Map<String, SampleNode> children = new HashMap<>();
+
+        SampleNode(String className, String methodName)
+        {
+            this.className = className;
+            this.methodName = methodName;
+        }
+
+        SampleNode getChild(StackTraceElement ste)
+        {
+            final String key = ste.getClassName() + '.' + ste.getMethodName();
+            SampleNode child = children.get(key);
+            if (child == null)
+            {
+                child = new SampleNode(ste.getClassName(), ste.getMethodName());
+                children.put(key, child);
+            }
+            return child;
+        }
+    }
+
+    private final ServiceRunner runner = new ServiceRunner(this);
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private SampleNode root = new SampleNode(null, "Application");
+    private Calendar startTime;
+    private long lastSample;
+
+    private volatile Pattern threadFilter;
+    private volatile boolean runnableOnly = true;
+    private volatile int maxDepth = 128;
+    private volatile StackSource stackSource = StackSource.THREAD_MX_BEAN;
+
+    @Override
+    public String getName()
+    {
+        return "StackSampling";
+    }
+
+    /**
+     * Sets the filter for the threads to sample.
+     * @param threadNameRegExp Regular expression for the thread names. Null to sample all threads.
+     */
+    public void setThreadFilter(String threadNameRegExp)
+    {
+        threadFilter = threadNameRegExp == null ? null : Pattern.compile(threadNameRegExp);
+    }
+
+    /**
+     * Controls if only runnable threads are sampled.<br>
+     * If true (default), blocked and waiting threads are ignored and the result estimates CPU usage.
+     * If false, the result estimates wall-clock time.
+     * @param runnableOnly True to ignore threads that are not runnable.
+     */
+    public void setRunnableOnly(boolean runnableOnly)
+    {
+        this.runnableOnly = runnableOnly;
+    }
+
+    /**
+     * Sets the maximum number of captured frames per stack.
+     * Deeper stacks are truncated at the root side.
+     * @param maxDepth The maximum number of frames.
+     */
+    public void setMaxDepth(int maxDepth)
+    {
+        this.maxDepth = Math.max(1, maxDepth);
+    }
+
+    /**
+     * Sets the method to capture stacks.
+     * @param stackSource The source to use.
+     */
+    public void setStackSource(StackSource stackSource)
+    {
+        this.stackSource = stackSource;
+    }
+
+    /**
+     * Starts sampling or changes the interval of a running sampler.
+     * @param intervalMS The interval between two samples in milliseconds.
+     */
+    public void start(int intervalMS)
+    {
+        synchronized (this)
+        {
+            if (startTime == null)
+            {
+                startTime = Calendar.getInstance();
+            }
+        }
+        runner.configureAndStart(0, intervalMS);
+    }
+
+    /**
+     * Stops sampling.
+     */
+    public void stop()
+    {
+        runner.stop();
+        synchronized (this)
+        {
+            lastSample = 0;
+        }
+    }
+
+    /**
+     * Removes all collected samples.
+     */
+    public synchronized void clear()
+    {
+        root = new SampleNode(null, "Application");
+        startTime = Calendar.getInstance();
+    }
+
+    @Override
+    public boolean work()
+    {
+        sample();
+        return true;
+    }
+
+    /**
+     * Captures the stacks of all selected threads once.<br>
+     * Called periodically after {@link #start(int)}, but can also be called manually.
+     */
+    public void sample()
+    {
+        final long now = System.nanoTime();
+        final long self = Thread.currentThread().getId();
+        final Pattern filter = threadFilter;
+        final boolean runnable = runnableOnly;
+
+        synchronized (this)
+        {
+            // The first sample has no predecessor, so it is only counted.
+            final long dt = lastSample == 0 ? 0 : now - lastSample;
+            lastSample = now;
+
+            if (stackSource == StackSource.THREAD_MX_BEAN)
+            {
+                for (ThreadInfo ti : threadMXBean.dumpAllThreads(false, false))
+                {
+                    if (ti != null && ti.getThreadId() != self
+                            && (!runnable || ti.getThreadState() == Thread.State.RUNNABLE)
+                            && (filter == null || filter.matcher(ti.getThreadName()).matches()))
+                    {
+                        addStack(ti.getStackTrace(), dt);
+                    }
+                }
+            }
+            else
+            {
+                for (Map.Entry<Thread, StackTraceElement[]> e : Thread.getAllStackTraces().entrySet())
+                {
+                    final Thread t = e.getKey();
+                    if (t.getId() != self
+                            && (!runnable || t.getState() == Thread.State.RUNNABLE)
+                            && (filter == null || filter.matcher(t.getName()).matches()))
+                    {
+                        addStack(e.getValue(), dt);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addStack(StackTraceElement[] stack, long dt)
+    {
+        if (stack == null || stack.length == 0)
+        {
+            return;
+        }
+        SampleNode node = root;
+        node.time += dt;
+        ++node.samples;
+        // Element 0 is the top of the stack.
+        final int end = Math.max(0, stack.length - maxDepth);
+        for (int i = stack.length - 1; i >= end; --i)
+        {
+            node = node.getChild(stack[i]);
+            node.time += dt;
+            ++node.samples;
+        }
+    }
+
+    /**
+     * Converts the collected samples into a call graph.<br>
+     * The root is a synthetic node with start- and end-time as details, its edges are the thread entry methods.
+     * @param classNames If true, the full class names are added to the node names, otherwise the simple names.
+     * @return The root node.
+     */
+    public synchronized CallNode getCallGraph(boolean classNames)
+    {
+        CallNode r = new CallNode(root.methodName, root.samples, AbstractMeasurementSource.createValue(new long[]{root.time}));
+        if (startTime != null)
+        {
+            r.details.add(new NodeDetail(NodeDetail.DETAIL_START, new DateTimeValue(startTime)));
+        }
+        r.details.add(new NodeDetail(NodeDetail.DETAIL_END, new DateTimeValue(Calendar.getInstance())));
+        addEdges(r, root, classNames);
+        return r;
+    }
+
+    private static void addEdges(CallNode target, SampleNode source, boolean classNames)
+    {
+        for (SampleNode child : source.children.values())
+        {
+            final String name = (classNames
+                                 ? child.className
+                                 : child.className.substring(child.className.lastIndexOf('.') + 1)) + '.' + child.methodName;
+            final MeasurementValue v = AbstractMeasurementSource.createValue(new long[]{child.time});
+            CallNode node = new CallNode(name, child.samples, v);
+            addEdges(node, child, classNames);
+            target.edges.add(new CallEdge(v, child.samples, node));
+        }
+    }
+}
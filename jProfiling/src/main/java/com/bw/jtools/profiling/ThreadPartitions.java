@@ -0,0 +1,255 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling;
+
+import com.bw.jtools.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Classifies threads into partitions, e.g. "request" and "batch" pools.<br>
+ * If partitions are configured, each call is recorded twice: into the combined statistics and into the
+ * statistics of the partition of the current thread. Snapshots contain a call graph for each partition,
+ * see {@link ProfilingSnapshot#getPartition(String)}. Threads without partition are only recorded into the combined statistics.<br>
+ * A thread is classified by its explicit tag, see {@link #tag(String)}, or by the first rule that matches its name.
+ * The partition is resolved once per thread and cached, so the lookup on the hot path is only a compare of a version number.<br>
+ * The rule-expression can contain multiple sub-expressions, separated by blank or ';' characters:
+ * <pre>
+ *
+ *     request:http-nio-.* batch:batch-worker-\d+
+ * </pre>
+ * Remind that renaming a thread doesn't change its partition until the rules are changed.
+ */
+public final class ThreadPartitions
+{
+    private static final class Rule
+    {
+        final int partition;
+        final Pattern threadPattern;
+
+        Rule(int partition, Pattern threadPattern)
+        {
+            this.partition = partition;
+            this.threadPattern = threadPattern;
+        }
+    }
+
+    private static final List<Rule> rules = new ArrayList<>();
+
+    /**
+     * Names of all partitions, indexed by partition id. Partitions are never removed, so ids stay valid.
+     */
+    private static volatile String[] names = new String[0];
+
+    /**
+     * Incremented with each change of the rules, invalidates the cached partitions of the threads.
+     */
+    private static volatile int version = 0;
+
+    /**
+     * Set if any rule or tag was ever configured. Recording checks this first.
+     */
+    private static volatile boolean enabled = false;
+
+    private ThreadPartitions()
+    {
+    }
+
+    /**
+     * Adds a rule.<br>
+     * All threads are classified again.
+     * @param partition The name of the partition.
+     * @param threadNameRegExp Regular expression for the thread name.
+     */
+    public static void addRule(String partition, String threadNameRegExp)
+    {
+        final Pattern p = Pattern.compile(threadNameRegExp);
+        synchronized (rules)
+        {
+            rules.add(new Rule(getPartitionId(partition), p));
+            enabled = true;
+            ++version;
+        }
+    }
+
+    /**
+     * Removes all rules.<br>
+     * Explicit tags are kept, already recorded partitions stay in the snapshots.
+     */
+    public static void clearRules()
+    {
+        synchronized (rules)
+        {
+            rules.clear();
+            ++version;
+        }
+    }
+
+    /**
+     * Parses a rule-expression and adds the rules.<br>
+     * For the format see class documentation. Illegal sub-expressions are logged and ignored.
+     * @param expression The expression, can be null.
+     */
+    public static void parse(String expression)
+    {
+        if (expression == null)
+        {
+            return;
+        }
+        for (String rule : expression.split("[\\s;]+"))
+        {
+            if (!rule.isEmpty())
+            {
+                final int sep = rule.indexOf(':');
+                boolean ok = sep > 0 && sep < rule.length() - 1;
+                if (ok)
+                {
+                    try
+                    {
+                        addRule(rule.substring(0, sep), rule.substring(sep + 1));
+                    }
+                    catch (Exception e)
+                    {
+                        ok = false;
+                    }
+                }
+                if (!ok)
+                {
+                    Log.error("Illegal partition expression: " + rule);
+                }
+            }
+        }
+    }
+
+    /**
+     * Assigns the current thread explicitly to a partition.<br>
+     * The tag overrides all rules.
+     * @param partition The name of the partition or null to use the rules again.
+     */
+    public static void tag(String partition)
+    {
+        final ThreadProfilingInformation ti = ThreadProfilingInformation.getInstance();
+        if (partition == null)
+        {
+            ti.partitionTag = -1;
+        }
+        else
+        {
+            ti.partitionTag = getPartitionId(partition);
+            enabled = true;
+        }
+        ti.partitionVersion = -1;
+    }
+
+    /**
+     * Gets the names of all partitions.
+     * @return The names, indexed by partition id.
+     */
+    public static List<String> getPartitionNames()
+    {
+        return Arrays.asList(names.clone());
+    }
+
+    /**
+     * Gets the name of a partition.
+     * @param partition The partition id.
+     * @return The name.
+     */
+    static String getPartitionName(int partition)
+    {
+        return names[partition];
+    }
+
+    /**
+     * Gets the number of partitions.
+     * @return The number of partitions, all ids are lower.
+     */
+    static int getPartitionCount()
+    {
+        return names.length;
+    }
+
+    private static int getPartitionId(String partition)
+    {
+        synchronized (rules)
+        {
+            final String[] ns = names;
+            for (int i = 0; i < ns.length; ++i)
+            {
+                if (ns[i].equals(partition))
+                {
+                    return i;
+                }
+            }
+            final String[] nns = Arrays.copyOf(ns, ns.length + 1);
+            nns[ns.length] = partition;
+            names = nns;
+            return ns.length;
+        }
+    }
+
+    /**
+     * Gets the partition of a thread.<br>
+     * Called on each recorded call, the classification is cached in the thread information.
+     * @param ti The thread information of the current thread.
+     * @return The partition id or -1 if the thread has no partition.
+     */
+    static int getPartition(ThreadProfilingInformation ti)
+    {
+        if (!enabled)
+        {
+            return -1;
+        }
+        final int v = version;
+        if (ti.partitionVersion != v)
+        {
+            ti.partition = classify(ti.partitionTag);
+            ti.partitionVersion = v;
+        }
+        return ti.partition;
+    }
+
+    private static int classify(int tag)
+    {
+        if (tag >= 0)
+        {
+            return tag;
+        }
+        final String name = Thread.currentThread().getName();
+        synchronized (rules)
+        {
+            for (Rule r : rules)
+            {
+                if (r.threadPattern.matcher(name).matches())
+                {
+                    return r.partition;
+                }
+            }
+        }
+        return -1;
+    }
+}
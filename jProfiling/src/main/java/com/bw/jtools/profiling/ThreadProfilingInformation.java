@@ -23,10 +23,26 @@
  */
 package com.bw.jtools.profiling;
 
-import java.util.*;
+import com.bw.jtools.Log;
+import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Holds Thread Information during run-time.
+ * Holds Thread Information during run-time.<br>
+ * The state is kept minimal, so that millions of short-living threads can be profiled:
+ * all buffers are allocated with the first call that needs them, lookups use the global
+ * lock-free registry of {@link ClassProfilingInformation} and registration needs no lock.
+ * If a thread ends, its instance is released and the {@link #slot} is re-used by new threads.
  */
 public final class ThreadProfilingInformation
 {
@@ -41,12 +57,175 @@ public final class ThreadProfilingInformation
         }
     }
 
-    private final Map<String, ClassProfilingInformation> threadClassInfo = new HashMap<>(50);
+    /**
+     * Registration of an instance, enqueued if the thread has ended.
+     */
+    private static final class Registration extends WeakReference<ThreadProfilingInformation>
+    {
+        final int slot;
+
+        Registration(ThreadProfilingInformation ti)
+        {
+            super(ti, terminated);
+            slot = ti.slot;
+        }
+    }
+
     private final static ThreadLocalProfilingInformation INSTANCE = new ThreadLocalProfilingInformation();
+    private final static AtomicInteger slotGenerator = new AtomicInteger(0);
+
+    /**
+     * Slots of ended threads.
+     */
+    private final static ConcurrentLinkedQueue<Integer> freeSlots = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Registrations of ended threads, see {@link #releaseTerminated()}.
+     */
+    private final static ReferenceQueue<ThreadProfilingInformation> terminated = new ReferenceQueue<>();
+
+    /**
+     * All thread information instances, used to wait for finished recording.
+     */
+    private final static Set<Registration> threads = ConcurrentHashMap.newKeySet();
+
+    private static final int[] NO_INTS = new int[0];
+    private static final long[] NO_LONGS = new long[0];
+    private static final MethodProfilingInformation[] NO_METHODS = new MethodProfilingInformation[0];
+
+    /**
+     * The current recording epoch, see {@link #beginRecording()}.
+     */
+    private static volatile long epoch = 0;
+
+    /**
+     * Maximal time in nanoseconds a snapshot waits for a thread to finish recording, see {@link #flipEpoch()}.
+     */
+    static final long FLIP_TIMEOUT_NANOS = 1000000000L;
+
+    /**
+     * The epoch this thread is currently recording in or -1.
+     */
+    private volatile long recordingEpoch = -1;
+
+    /**
+     * Partition of this thread and the rule version it was resolved for, see {@link ThreadPartitions}.
+     */
+    int partition = -1;
+    int partitionVersion = -1;
+
+    /**
+     * Explicit partition of this thread or -1, see {@link ThreadPartitions#tag(String)}.
+     */
+    int partitionTag = -1;
+
+    /**
+     * Ring of call events of this thread, created with the first event, see {@link CallEventRecorder}.
+     */
+    CallEventRecorder.EventRing events;
+
+    /**
+     * Dense index of this thread, used to select per-thread cells.<br>
+     * Slots of ended threads are re-used, so the number of slots is bound by the number of
+     * parallel threads. See {@link ProfilingInformation.AccumulationMode#STRIPED}.
+     */
+    public final int slot;
 
     private ThreadProfilingInformation()
     {
+        releaseTerminated();
+        final Integer free = freeSlots.poll();
+        slot = free != null ? free : slotGenerator.getAndIncrement();
+        threads.add(new Registration(this));
+        random = (System.nanoTime() ^ (0x9E3779B97F4A7C15L * (slot + 1))) | 1;
+    }
+
+    /**
+     * Releases registrations of ended threads and frees their slots.<br>
+     * The instance of a thread is only collected if the thread has ended, so no other thread
+     * can still write into cells of the slot.
+     */
+    private static void releaseTerminated()
+    {
+        Reference<? extends ThreadProfilingInformation> r;
+        while ((r = terminated.poll()) != null)
+        {
+            final Registration reg = (Registration) r;
+            if (threads.remove(reg))
+            {
+                freeSlots.add(reg.slot);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of allocated slots.<br>
+     * All slots are lower than this value.
+     * @return The number of slots.
+     */
+    static int getSlotCount()
+    {
+        return slotGenerator.get();
+    }
+
+    /**
+     * Starts recording of values.<br>
+     * The values have to be recorded into the buffer of the returned parity. {@link #endRecording()} has to be called
+     * in a finally block after the values are recorded, otherwise snapshots wait for this thread.
+     * While a thread records, a snapshot of the epoch waits, recording never waits.
+     * @return The parity of the current epoch (0 or 1).
+     */
+    int beginRecording()
+    {
+        long e;
+        do
+        {
+            e = epoch;
+            recordingEpoch = e;
+        } while (e != epoch);
+        return (int) (e & 1);
+    }
+
+    /**
+     * Ends recording of values, see {@link #beginRecording()}.
+     */
+    void endRecording()
+    {
+        recordingEpoch = -1;
+    }
+
+    /**
+     * Starts a new epoch and waits until all threads finished recording into the old one.<br>
+     * The wait for a thread is limited to {@link #FLIP_TIMEOUT_NANOS}, values of a thread that doesn't finish
+     * in time may be missed by the snapshot.
+     * Must only be called by {@link ProfilingSnapshot}.
+     * @return The old epoch.
+     */
+    static long flipEpoch()
+    {
+        final long old = epoch;
+        epoch = old + 1;
 
+        releaseTerminated();
+        // Threads that register during the iteration already record into the new epoch.
+        for (Registration r : threads)
+        {
+            final ThreadProfilingInformation ti = r.get();
+            if (ti != null)
+            {
+                final long start = System.nanoTime();
+                while (ti.recordingEpoch == old)
+                {
+                    if (System.nanoTime() - start > FLIP_TIMEOUT_NANOS)
+                    {
+                        Log.error("Thread with profiling slot " + ti.slot + " did not finish recording, snapshot may be inconsistent.");
+                        break;
+                    }
+                    Thread.yield();
+                }
+            }
+        }
+        return old;
     }
 
     /**
@@ -73,23 +252,309 @@ public final class ThreadProfilingInformation
      * Gets the class information for a class.<br>
      * Remind that {@link ClassProfilingInformation#SIMPLE_NAMES} is true
      * the class name should be the simple name without package-prefix.
+     * The lookup uses the global registry, as it needs no lock, a thread-local cache would only cost memory.
      *
      * @param clazz The name of the class.
      * @return The class information, never null.
      */
     public ClassProfilingInformation getClassInformation(final String clazz)
     {
-        ClassProfilingInformation ci = threadClassInfo.get(clazz);
-        if (ci == null)
+        return ClassProfilingInformation.getClassInformation(clazz);
+    }
+
+    /**
+     * Measurement frames of active calls, see {@link #enterFrame(boolean, boolean)}.<br>
+     * Each frame contains a header (dimensions, sampling- and recursion flag) followed by the start values.
+     */
+    private long[] frames = NO_LONGS;
+    private int frameTop = 0;
+    private long[] usedValues = new long[1];
+
+    /**
+     * End time of the last measured frame and whether it was not yet used, see {@link #getExitTime(boolean)}.
+     */
+    private long exitTime;
+    private boolean exitTimeFresh;
+
+    /**
+     * Starts a measurement frame and stores the current measurement into it.<br>
+     * Doesn't allocate memory in steady state.
+     * @param notRecursive True if the call is not recursive.
+     * @return The index of the frame, used as token for {@link #exitFrame(int)}.
+     */
+    public int enterFrame(boolean notRecursive)
+    {
+        return enterFrame(notRecursive, true);
+    }
+
+    /**
+     * Starts a frame. Only sampled frames store the current measurement.<br>
+     * Doesn't allocate memory in steady state.
+     * @param notRecursive True if the call is not recursive.
+     * @param sampled True if the call shall be measured.
+     * @return The index of the frame, used as token for {@link #exitFrame(int)}.
+     */
+    public int enterFrame(boolean notRecursive, boolean sampled)
+    {
+        final int dims = sampled ? AbstractMeasurementSource.currentSource.getDimensions() : 0;
+        final int frame = frameTop;
+        final int end = frame + 1 + dims;
+        if (end > frames.length)
+        {
+            frames = Arrays.copyOf(frames, Math.max(Math.max(end, 16), 2 * frames.length));
+        }
+        frames[frame] = (dims << 2) | (sampled ? 2 : 0) | (notRecursive ? 1 : 0);
+        frameTop = end;
+        if (sampled)
+        {
+            AbstractMeasurementSource.measure(frames, frame + 1);
+        }
+        return frame;
+    }
+
+    /**
+     * Ends a measurement frame and calculates the used values.<br>
+     * All frames above the given one are also removed.
+     * @param frame The token returned by {@link #enterFrame(boolean)}.
+     * @return The used values (valid until the next call) or null if the frame is not valid or not sampled.
+     */
+    public long[] exitFrame(int frame)
+    {
+        if (frame < 0 || frame >= frameTop)
+        {
+            return null;
+        }
+        final long header = frames[frame];
+        if ((header & 2) == 0)
+        {
+            frameTop = frame;
+            return null;
+        }
+        final int dims = (int) (header >> 2);
+        long[] used = usedValues;
+        if (used.length != dims)
+        {
+            usedValues = used = new long[dims];
+        }
+        frameTop = frame;
+        if (AbstractMeasurementSource.currentSource.getDimensions() != dims)
+        {
+            // Measurement source was switched during the call.
+            return null;
+        }
+        AbstractMeasurementSource.measure(used, 0);
+        exitTime = used[0];
+        exitTimeFresh = true;
+        for (int i = 0; i < dims; ++i)
+        {
+            used[i] -= frames[frame + 1 + i];
+        }
+        return used;
+    }
+
+    /**
+     * Gets the time of the current call end for rolling windows, see {@link com.bw.jtools.profiling.measurement.RollingWindow}.<br>
+     * If the first dimension of the measurement source is the wall clock, the end value of the last
+     * measured frame is used, so no additional clock is read. Calls that were not measured because of sampling
+     * use the end of the last measured call of this thread.
+     * @param measured True if the call was measured by {@link #exitFrame(int)}.
+     * @return The time, as returned by {@link System#nanoTime()}.
+     */
+    long getExitTime(boolean measured)
+    {
+        final boolean valid = measured ? exitTimeFresh : exitTime != 0;
+        exitTimeFresh = false;
+        return (valid && AbstractMeasurementSource.currentSource.isWallClock()) ? exitTime : System.nanoTime();
+    }
+
+    /**
+     * Checks if the frame was started by a not recursive call.
+     * Needs to be called before {@link #exitFrame(int)}.
+     * @param frame The token returned by {@link #enterFrame(boolean)}.
+     * @return True if the call was not recursive.
+     */
+    public boolean isFrameNotRecursive(int frame)
+    {
+        return frame >= 0 && frame < frameTop && (frames[frame] & 1) != 0;
+    }
+
+    /**
+     * Checks if the frame is valid but not measured because of sampling.
+     * Needs to be called before {@link #exitFrame(int)}.
+     * @param frame The token returned by {@link #enterFrame(boolean, boolean)}.
+     * @return True if the call is not measured.
+     */
+    public boolean isFrameSkipped(int frame)
+    {
+        return frame >= 0 && frame < frameTop && (frames[frame] & 2) == 0;
+    }
+
+    /**
+     * Open-addressed table (linear probing) of the methods called by this thread.<br>
+     * The size depends only on the methods this thread has called, not on the number of all methods,
+     * so short-living threads stay small.
+     */
+    private MethodProfilingInformation[] methods = NO_METHODS;
+    private int methodCount = 0;
+
+    /**
+     * Number of active calls of each method, parallel to {@link #methods}.
+     */
+    private int[] depth = NO_INTS;
+
+    /**
+     * Countdown for 1-in-N sampling of each method, parallel to {@link #methods}.
+     */
+    private int[] sampleCountdown = NO_INTS;
+
+    private static int hash(MethodProfilingInformation mi)
+    {
+        final int h = mi.index * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Gets the position of a method in the method table.
+     * @param mi The method.
+     * @return The position or -1 if the method was not called by this thread.
+     */
+    private int findMethod(MethodProfilingInformation mi)
+    {
+        final MethodProfilingInformation[] m = methods;
+        if (m.length == 0)
+        {
+            return -1;
+        }
+        final int mask = m.length - 1;
+        int i = hash(mi) & mask;
+        MethodProfilingInformation k;
+        while ((k = m[i]) != null)
+        {
+            if (k == mi)
+            {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the position of a method in the method table, adds the method if needed.
+     * @param mi The method.
+     * @return The position.
+     */
+    private int addMethod(MethodProfilingInformation mi)
+    {
+        int i = findMethod(mi);
+        if (i < 0)
+        {
+            if (2 * (methodCount + 1) > methods.length)
+            {
+                growMethods();
+            }
+            final int mask = methods.length - 1;
+            i = hash(mi) & mask;
+            while (methods[i] != null)
+            {
+                i = (i + 1) & mask;
+            }
+            methods[i] = mi;
+            ++methodCount;
+        }
+        return i;
+    }
+
+    /**
+     * Doubles the method table and updates the positions of the methods on stack.
+     */
+    private void growMethods()
+    {
+        final MethodProfilingInformation[] oldMethods = methods;
+        final int[] oldDepth = depth;
+        final int[] oldCountdown = sampleCountdown;
+        final int n = Math.max(16, 2 * oldMethods.length);
+        methods = new MethodProfilingInformation[n];
+        depth = new int[n];
+        sampleCountdown = new int[n];
+        final int mask = n - 1;
+        for (int o = 0; o < oldMethods.length; ++o)
+        {
+            final MethodProfilingInformation mi = oldMethods[o];
+            if (mi != null)
+            {
+                int i = hash(mi) & mask;
+                while (methods[i] != null)
+                {
+                    i = (i + 1) & mask;
+                }
+                methods[i] = mi;
+                depth[i] = oldDepth[o];
+                sampleCountdown[i] = oldCountdown[o];
+            }
+        }
+        for (int s = 0; s < stackSize; ++s)
+        {
+            stackSlots[s] = findMethod(stack[s]);
+        }
+    }
+
+    /**
+     * State of the xorshift random generator for random sampling.
+     */
+    private long random;
+
+    /**
+     * Decides if the next call of a method shall be measured.<br>
+     * See {@link SamplingConfiguration}.
+     * @param mi The method.
+     * @return True if the call shall be measured.
+     */
+    public boolean isSampled(MethodProfilingInformation mi)
+    {
+        final int rate = mi.sampleRate;
+        if (rate <= 1)
+        {
+            return true;
+        }
+        if (mi.randomSampling)
+        {
+            long x = random;
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            random = x;
+            return ((x >>> 33) % rate) == 0;
+        }
+        final int m = addMethod(mi);
+        if (--sampleCountdown[m] <= 0)
         {
-            ci = ClassProfilingInformation.getClassInformation(clazz);
-            threadClassInfo.put(clazz, ci);
+            sampleCountdown[m] = rate;
+            return true;
         }
-        return ci;
+        return false;
     }
 
-    private List<MethodProfilingInformation> stack = new ArrayList<>(50);
-    private HashSet<Integer> stackIds = new HashSet<>(50);
+    /**
+     * Stack of active methods.
+     */
+    private MethodProfilingInformation[] stack = NO_METHODS;
+    private int stackSize = 0;
+
+    /**
+     * Position in {@link #methods} of each method on stack, parallel to {@link #stack}.
+     */
+    private int[] stackSlots = NO_INTS;
+
+    /**
+     * Calling-context tree of this thread, created with the first call if enabled.
+     */
+    private CallingContextTree contextTree;
+
+    /**
+     * Calling-context nodes of the methods on stack, parallel to {@link #stack}.
+     */
+    private CallingContextTree.Node[] contextStack;
 
     /**
      * Returns the current profiled method on stack.
@@ -97,7 +562,7 @@ public final class ThreadProfilingInformation
      */
     public MethodProfilingInformation getCurrentMethod()
     {
-        return stack.isEmpty() ? null : stack.get(stack.size() - 1);
+        return stackSize == 0 ? null : stack[stackSize - 1];
     }
 
     /**
@@ -107,7 +572,18 @@ public final class ThreadProfilingInformation
      */
     public boolean isOnStack(MethodProfilingInformation mi)
     {
-        return stackIds.contains(mi.ID);
+        return getRecursionDepth(mi) > 0;
+    }
+
+    /**
+     * Gets the number of active calls of a method.
+     * @param mi The method.
+     * @return The number of calls on stack, 0 if the method is not on stack.
+     */
+    public int getRecursionDepth(MethodProfilingInformation mi)
+    {
+        final int m = findMethod(mi);
+        return m < 0 ? 0 : depth[m];
     }
 
     /**
@@ -117,42 +593,274 @@ public final class ThreadProfilingInformation
      */
     public void popMethod(MethodProfilingInformation mi)
     {
-        int s = stack.size();
+        int s = stackSize;
         if (mi != null)
         {
-            while (s > 0)
+            if (getRecursionDepth(mi) > 0)
             {
-                final MethodProfilingInformation smi = stack.remove(--s);
-                stackIds.remove(smi.ID);
-                if (mi == smi)
+                while (s > 0)
                 {
-                    break;
+                    --depth[stackSlots[--s]];
+                    if (stack[s] == mi)
+                    {
+                        break;
+                    }
                 }
             }
         } else if (s > 0)
         {
-            final MethodProfilingInformation smi = stack.remove(--s);
-            stackIds.remove(smi.ID);
+            --depth[stackSlots[--s]];
+        }
+        if (activeTraces > 0)
+        {
+            dropTraces(s);
+        }
+        stackSize = s;
+        if (s == 0 && contextTree != null)
+        {
+            contextTree.compactIfNeeded();
         }
     }
 
     /**
-     * Push a method on stack if not already in.<br>
-     * As recursion is not really possible to track with the current profiling
-     * concept, recursive calls are ignored.
+     * Push a method on stack.<br>
+     * Recursive calls are pushed too, so that their callees are assigned to the correct caller.
      *
      * @param mi The Method.
-     * @return true if method was not on stack.
+     * @return true if method was not on stack, false if the call is recursive.
      */
     public boolean pushMethod(MethodProfilingInformation mi)
     {
-        if (stackIds.add(mi.ID))
+        final int m = addMethod(mi);
+        if (stackSize == stack.length)
         {
-            stack.add(mi);
-            return true;
-        } else
+            stack = Arrays.copyOf(stack, Math.max(8, 2 * stack.length));
+            stackSlots = Arrays.copyOf(stackSlots, stack.length);
+        }
+        stackSlots[stackSize] = m;
+        stack[stackSize++] = mi;
+        if (activeTraces > 0 || mi.exemplarThreshold != Long.MAX_VALUE)
+        {
+            markTrace(mi);
+        }
+        if (CallingContextTree.isEnabled() && mi.registered)
+        {
+            pushContext(mi.index);
+        }
+        else if (contextStack != null && stackSize <= contextStack.length)
+        {
+            contextStack[stackSize - 1] = null;
+        }
+        return 0 == depth[m]++;
+    }
+
+    private void pushContext(int idx)
+    {
+        if (contextTree == null)
+        {
+            contextTree = CallingContextTree.create();
+        }
+        final int s = stackSize;
+        if (contextStack == null || contextStack.length < stack.length)
+        {
+            contextStack = contextStack == null ? new CallingContextTree.Node[stack.length] : Arrays.copyOf(contextStack, stack.length);
+        }
+        if (contextTree.resetIfCleared())
+        {
+            resolveContext(s - 1);
+        }
+        contextStack[s - 1] = contextTree.getChild(getContextParent(s - 1), idx);
+    }
+
+    /**
+     * Gets the calling-context node of the nearest caller that has one.<br>
+     * Methods that are not registered or were called while the tree was disabled have no node.
+     * @param pos The stack position of the callee.
+     * @return The node or null if the callee is a top-level call.
+     */
+    private CallingContextTree.Node getContextParent(int pos)
+    {
+        for (int i = pos - 1; i >= 0; --i)
+        {
+            final CallingContextTree.Node n = contextStack[i];
+            if (n != null)
+            {
+                return n;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolves the calling-context nodes of the methods on stack against the tree after it was reset.
+     * @param n The number of stack entries to resolve.
+     */
+    private void resolveContext(int n)
+    {
+        for (int i = 0; i < n; ++i)
+        {
+            if (contextStack[i] != null)
+            {
+                contextStack[i] = contextTree.getChild(getContextParent(i), stack[i].index);
+            }
+        }
+    }
+
+    /**
+     * Adds a call to the calling-context node of the top method on stack.<br>
+     * Has to be called before the method is popped.
+     * @param mi The method that ends.
+     * @param used The used values or null if the call was not sampled.
+     */
+    void addContextCall(MethodProfilingInformation mi, long[] used)
+    {
+        final int s = stackSize;
+        if (contextStack != null && s > 0 && s <= contextStack.length && stack[s - 1] == mi)
+        {
+            if (contextTree.resetIfCleared())
+            {
+                resolveContext(s);
+            }
+            final CallingContextTree.Node n = contextStack[s - 1];
+            // Inside of a folded path the node is shared with the caller, so the value is already counted.
+            if (n != null && n != getContextParent(s - 1))
+            {
+                n.add(used);
+            }
+        }
+    }
+
+    /**
+     * Trace of ended calls while a slow-call candidate is active, see {@link Exemplar}.<br>
+     * Each record contains a header (stack depth, number of values and method index) followed by the values.
+     */
+    private long[] trace = NO_LONGS;
+    private int traceSize = 0;
+    private int traceFrames = 0;
+    private boolean traceTruncated = false;
+
+    /**
+     * Start of the trace for each method on stack, parallel to {@link #stack}.
+     * -1 if the method is no slow-call candidate. Only valid while traces are active.
+     */
+    private int[] traceMarks = NO_INTS;
+
+    /**
+     * Number of slow-call candidates on stack.
+     */
+    private int activeTraces = 0;
+
+    /**
+     * Checks if a slow-call candidate is active and ended calls need to be traced.
+     * @return True if {@link #traceCall(MethodProfilingInformation, long[])} needs to be called.
+     */
+    boolean isTracing()
+    {
+        return activeTraces > 0;
+    }
+
+    /**
+     * Marks the start of a trace for the top method on stack.
+     * @param mi The method.
+     */
+    private void markTrace(MethodProfilingInformation mi)
+    {
+        final int n = traceMarks.length;
+        if (n < stack.length)
+        {
+            traceMarks = Arrays.copyOf(traceMarks, stack.length);
+            Arrays.fill(traceMarks, n, stack.length, -1);
+        }
+        if (mi.exemplarThreshold != Long.MAX_VALUE)
+        {
+            if (activeTraces++ == 0)
+            {
+                traceSize = 0;
+                traceFrames = 0;
+                traceTruncated = false;
+            }
+            traceMarks[stackSize - 1] = traceSize;
+        }
+        else
+        {
+            traceMarks[stackSize - 1] = -1;
+        }
+    }
+
+    /**
+     * Records an ended call into the trace and creates an exemplar if a slow-call candidate exceeded its threshold.<br>
+     * Has to be called before the method is popped.
+     * @param mi The method that ends.
+     * @param used The used values or null if the call was not sampled.
+     */
+    void traceCall(MethodProfilingInformation mi, long[] used)
+    {
+        final int pos = stackSize - 1;
+        if (pos < 0 || stack[pos] != mi)
+        {
+            return;
+        }
+        final int mark = traceMarks[pos];
+        if (mark >= 0)
+        {
+            traceMarks[pos] = -1;
+            --activeTraces;
+            if (used != null && used.length > 0 && used[0] > mi.exemplarThreshold)
+            {
+                ExemplarBuffer.add(Exemplar.create(mi, used, trace, mark, traceSize, pos, traceTruncated));
+            }
+        }
+        if (activeTraces > 0)
+        {
+            appendTrace(mi.index, pos, used);
+        }
+        else
+        {
+            traceSize = 0;
+        }
+    }
+
+    /**
+     * Ends the traces of all methods above a stack position.<br>
+     * Only needed for calls that are popped without end.
+     * @param s The new stack size.
+     */
+    private void dropTraces(int s)
+    {
+        for (int i = s; i < stackSize && i < traceMarks.length; ++i)
+        {
+            if (traceMarks[i] >= 0)
+            {
+                traceMarks[i] = -1;
+                --activeTraces;
+            }
+        }
+        if (s == 0 || activeTraces <= 0)
+        {
+            activeTraces = 0;
+            traceSize = 0;
+        }
+    }
+
+    private void appendTrace(int index, int depth, long[] used)
+    {
+        if (traceFrames >= ExemplarConfiguration.getMaxFrames())
+        {
+            traceTruncated = true;
+            return;
+        }
+        final int dims = used == null ? 0 : Math.min(used.length, 0xFF);
+        final int end = traceSize + 1 + dims;
+        if (end > trace.length)
+        {
+            trace = Arrays.copyOf(trace, Math.max(Math.max(end, 64), 2 * trace.length));
+        }
+        trace[traceSize] = ((long) depth << 40) | ((long) dims << 32) | (index & 0xFFFFFFFFL);
+        if (dims > 0)
         {
-            return false;
+            System.arraycopy(used, 0, trace, traceSize + 1, dims);
         }
+        traceSize = end;
+        ++traceFrames;
     }
 }
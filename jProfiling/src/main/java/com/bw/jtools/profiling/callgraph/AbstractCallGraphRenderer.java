@@ -33,9 +33,15 @@ import java.util.Set;
 
 import com.bw.jtools.profiling.CalleeProfilingInformation;
 import com.bw.jtools.profiling.ClassProfilingInformation;
+import com.bw.jtools.profiling.Exemplar;
 import com.bw.jtools.profiling.MethodProfilingInformation;
+import com.bw.jtools.profiling.OverheadCalibration;
+import com.bw.jtools.profiling.ProfilingSnapshot;
 import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+import com.bw.jtools.profiling.measurement.CountValue;
 import com.bw.jtools.profiling.measurement.DateTimeValue;
+import com.bw.jtools.profiling.measurement.LatencyHistogram;
+import com.bw.jtools.profiling.measurement.MeasurementHeader;
 import com.bw.jtools.profiling.measurement.MeasurementValue;
 
 /**
@@ -57,6 +63,21 @@ public abstract class AbstractCallGraphRenderer {
                 case ADD_MIN_MAX:
                     showMinMax = true;
                     break;
+                case ADD_PERCENTILES:
+                    showPercentiles = true;
+                    break;
+                case ADD_RECENT:
+                    showRecent = true;
+                    break;
+                case ADD_EXEMPLARS:
+                    showExemplars = true;
+                    break;
+                case CALLING_CONTEXT:
+                    callingContext = true;
+                    break;
+                case COMPENSATE_OVERHEAD:
+                    compensateOverhead = true;
+                    break;
                 case HIGHLIGHT_CRITICAL:
                     highlightCritical = true;
                     break;
@@ -72,18 +93,92 @@ public abstract class AbstractCallGraphRenderer {
     protected NumberFormat nf;
     protected StringBuilder sb = new StringBuilder(1024);
 
+    /**
+     * The dimensions of the values of the graph that is rendered or null if unknown.
+     */
+    protected MeasurementHeader header;
+
+    /**
+     * Finds the header of the first node value in a graph.
+     * @param node The root of the graph.
+     * @return The header or null if no value has a header.
+     */
+    protected static MeasurementHeader findHeader(CallNode node) {
+        if (node.value != null && node.value.header != null) {
+            return node.value.header;
+        }
+        for (CallEdge e : node.edges) {
+            MeasurementHeader h = findHeader(e.callee);
+            if (h != null) {
+                return h;
+            }
+        }
+        return null;
+    }
+
     protected String renderValue(MeasurementValue value) {
+        if (value instanceof CountValue) {
+            return nf.format(value.values[0]);
+        }
         return AbstractMeasurementSource.format(nf, value);
     }
 
     /**
-     * Renders the call graph of one method
+     * Renders the call graph of one method.<br>
+     * Takes a new snapshot without reset, see {@link ProfilingSnapshot}.
      *
      * @param root Root node.
      * @return The call graph graphical description.
      */
     public final String render(MethodProfilingInformation root) {
-        return render(generateNode(root, new GraphStack()));
+        final ProfilingSnapshot.MethodSnapshot ms = ProfilingSnapshot.take(false).getMethod(root.index);
+        if (ms == null) {
+            // Method is not registered.
+            return render(new CallNode(root.name, 0, null));
+        }
+        return render(ms);
+    }
+
+    /**
+     * Renders the call graph of one method of a snapshot.
+     *
+     * @param root Root node.
+     * @return The call graph graphical description.
+     */
+    public final String render(ProfilingSnapshot.MethodSnapshot root) {
+        CallNode node = generateNode(root, new GraphStack());
+        addCalibration(node);
+        return render(node);
+    }
+
+    /**
+     * Renders all top-level methods of a snapshot in one graph.
+     *
+     * @param snapshot The snapshot.
+     * @return The call graph graphical description.
+     */
+    public final String render(ProfilingSnapshot snapshot) {
+        return render(generateGraph(snapshot));
+    }
+
+    /**
+     * Generates the graph of all top-level methods of a snapshot without rendering it.<br>
+     * The graph can be rendered later by {@link #render(CallNode)}, e.g. after
+     * it was reduced by {@link CallGraphDelta}.<br>
+     * With option {@link Options#CALLING_CONTEXT} the calling-context tree of the snapshot is used, if it contains one.
+     * Calling-context nodes contain only calls and values, the other options are not applied.
+     *
+     * @param snapshot The snapshot.
+     * @return The root node of the graph.
+     */
+    public final CallNode generateGraph(ProfilingSnapshot snapshot) {
+        if (callingContext) {
+            final CallNode tree = snapshot.getCallingContextTree(showClassName);
+            if (tree != null) {
+                return tree;
+            }
+        }
+        return generateRoots(snapshot.getTopLevelMethods(), snapshot.startTime, snapshot.endTime);
     }
 
     /**
@@ -94,6 +189,7 @@ public abstract class AbstractCallGraphRenderer {
      */
     public final String render(CallNode root) {
         sb.setLength(0);
+        header = findHeader(root);
         start(root);
         renderNode(root);
         end(root);
@@ -101,47 +197,174 @@ public abstract class AbstractCallGraphRenderer {
     }
 
 
-    private CallNode generateNode(MethodProfilingInformation mi, GraphStack g) {
-        String name;
-        if (showClassName && mi.clazz != null) {
-            name = mi.clazz.name + '.' + mi.name;
+    private String getNodeName(ProfilingSnapshot.MethodSnapshot ms) {
+        if (showClassName && ms.className != null) {
+            return ms.className + '.' + ms.name;
         } else {
-            name = mi.name;
+            return ms.name;
         }
-        CallNode node = new CallNode(name, mi.calls, mi.sum);
+    }
+
+    private CallNode generateNode(ProfilingSnapshot.MethodSnapshot ms, GraphStack g) {
+        final ProfilingSnapshot.Values mv = ms.values;
+        CallNode node = new CallNode(getNodeName(ms), mv.calls, mv.getExtrapolatedSum());
+        node.method = ms.index;
 
-        if (showMinMax) {
-            node.details.add(new NodeDetail(NodeDetail.DETAIL_MINIMUM, mi.minMeasurement));
-            node.details.add(new NodeDetail(NodeDetail.DETAIL_MAXIMUM, mi.maxMeasurement));
+        if (showMinMax && mv.minMeasurement != null) {
+            node.details.add(new NodeDetail(NodeDetail.DETAIL_MINIMUM, mv.minMeasurement));
+            node.details.add(new NodeDetail(NodeDetail.DETAIL_MAXIMUM, mv.maxMeasurement));
+        }
+        if (showPercentiles) {
+            addPercentiles(node, mv.histogram);
+        }
+        if (showRecent) {
+            addRecent(node, mv);
+        }
+        if (showExemplars && !ms.getExemplars().isEmpty()) {
+            node.exemplars = new ArrayList<>(ms.getExemplars().size());
+            for (Exemplar e : ms.getExemplars()) {
+                node.exemplars.add(e.toCallNode(showClassName));
+            }
         }
 
-        CalleeProfilingInformation highlight = null;
+        ProfilingSnapshot.CalleeSnapshot highlight = null;
         if (highlightCritical) {
             MeasurementValue v = null;
-            for (CalleeProfilingInformation ci : mi.callees.values()) {
-                if (v == null || v.lessThan(ci.sum)) {
-                    highlight = ci;
-                    v = ci.sum;
+            for (ProfilingSnapshot.CalleeSnapshot cs : ms.getCallees()) {
+                final MeasurementValue s = cs.values.getExtrapolatedSum();
+                if (s != null && (v == null || v.lessThan(s))) {
+                    highlight = cs;
+                    v = s;
                 }
             }
         }
-        for (CalleeProfilingInformation ci : mi.callees.values()) {
+        for (ProfilingSnapshot.CalleeSnapshot cs : ms.getCallees()) {
+            if (cs.values.calls == 0) {
+                // Only recursive calls, time is already part of the outer call.
+                continue;
+            }
             CallNode callee;
-            if (!g.onStack(ci.callee)) {
-                callee = generateNode(ci.callee, g);
-                g.pop(ci.callee);
+            if (!g.onStack(cs.callee)) {
+                callee = generateNode(cs.callee, g);
+                g.pop(cs.callee);
             } else {
-                callee = null;
+                // Cycle in graph, add leaf without values.
+                callee = new CallNode(getNodeName(cs.callee), 0, null);
+                callee.method = cs.callee.index;
             }
-            CallEdge ce = new CallEdge(ci.sum, ci.calls, callee);
-            ce.hightlight = (highlight == ci);
+            CallEdge ce = new CallEdge(cs.values.getExtrapolatedSum(), cs.values.calls, callee);
+            ce.hightlight = (highlight == cs);
+            ce.asynchronous = cs.asynchronous;
             node.edges.add(ce);
         }
+        if (compensateOverhead) {
+            compensate(node, mv.recursiveCalls);
+        }
         return node;
     }
 
     /**
-     * Renders multiple calls in one graph
+     * Adds number of calls and mean values of recent calls to a node.
+     * @param node The node.
+     * @param values The values with the totals of the rolling window.
+     */
+    protected void addRecent(CallNode node, ProfilingSnapshot.Values values) {
+        addRecent(node, values.recent1m, NodeDetail.DETAIL_CALLS_1M, NodeDetail.DETAIL_MEAN_1M);
+        addRecent(node, values.recent5m, NodeDetail.DETAIL_CALLS_5M, NodeDetail.DETAIL_MEAN_5M);
+        addRecent(node, values.recent15m, NodeDetail.DETAIL_CALLS_15M, NodeDetail.DETAIL_MEAN_15M);
+    }
+
+    private static void addRecent(CallNode node, long[] t, int callsId, int meanId) {
+        if (t == null) {
+            return;
+        }
+        node.details.add(new NodeDetail(callsId, new CountValue(t[0])));
+        if (t[1] > 0) {
+            node.details.add(new NodeDetail(meanId, AbstractMeasurementSource.createValue(new long[]{t[2] / t[1]})));
+        }
+    }
+
+    /**
+     * Adds the calibration result to a node, if overhead compensation is active.<br>
+     * Nothing is added if no calibration was done, see {@link OverheadCalibration#calibrate()}.
+     * @param node The node.
+     */
+    private void addCalibration(CallNode node) {
+        final OverheadCalibration c = compensateOverhead ? OverheadCalibration.getCalibration() : null;
+        if (c != null) {
+            node.details.add(new NodeDetail(NodeDetail.DETAIL_OVERHEAD_INNER, c.inner));
+            node.details.add(new NodeDetail(NodeDetail.DETAIL_OVERHEAD_OUTER, c.outer));
+        }
+    }
+
+    /**
+     * Subtracts the profiling overhead from a node and its edges.<br>
+     * The callee nodes need to be already compensated.
+     * The overhead of a node is the inner overhead of its own calls plus the outer overhead of
+     * all direct callee calls and the overhead inside the callees. As callee nodes
+     * contain all calls of the callee, their overhead is assigned proportional to the edge calls.
+     * Asynchronous callees are not part of the value of the node, so only the edge is compensated.
+     * @param node The node.
+     * @param recursiveCalls Number of recursive calls inside the node.
+     */
+    private void compensate(CallNode node, int recursiveCalls) {
+        if (node.value == null) {
+            return;
+        }
+        final OverheadCalibration c = OverheadCalibration.getCalibration();
+        if (c == null) {
+            return;
+        }
+        final long[] in = c.inner.values;
+        final long[] out = c.outer.values;
+        final int n = node.value.values.length;
+        if (in.length != n) {
+            return;
+        }
+        final long[] overhead = new long[n];
+        for (int i = 0; i < n; ++i) {
+            overhead[i] = node.calls * in[i] + recursiveCalls * out[i];
+        }
+        for (CallEdge e : node.edges) {
+            if (e.value == null) {
+                continue;
+            }
+            final CallNode callee = e.callee;
+            final long[] calleeOverhead = (callee.overhead != null && callee.calls > 0) ? callee.overhead.values : null;
+            for (int i = 0; i < n; ++i) {
+                final long inside = calleeOverhead != null ? (long) (calleeOverhead[i] * (e.calls / (double) callee.calls)) : e.calls * in[i];
+                e.value.values[i] = Math.max(0, e.value.values[i] - inside);
+                if (!e.asynchronous) {
+                    overhead[i] += e.calls * (out[i] - in[i]) + inside;
+                }
+            }
+        }
+        node.details.add(new NodeDetail(NodeDetail.DETAIL_RAW, node.value));
+        final long[] v = node.value.values;
+        for (int i = 0; i < n; ++i) {
+            v[i] = Math.max(0, v[i] - overhead[i]);
+        }
+        node.overhead = AbstractMeasurementSource.createValue(overhead);
+    }
+
+    /**
+     * Adds percentile details to a node.
+     * @param node The node.
+     * @param histogram The histogram, can be null.
+     */
+    protected void addPercentiles(CallNode node, LatencyHistogram histogram) {
+        if (histogram != null && histogram.getTotalCount() > 0) {
+            final long[] p = histogram.getValuesAtPercentiles(50, 90, 99, 99.9);
+            node.details.add(new NodeDetail(NodeDetail.DETAIL_P50, AbstractMeasurementSource.createValue(new long[]{p[0]})));
+            node.details.add(new NodeDetail(NodeDetail.DETAIL_P90, AbstractMeasurementSource.createValue(new long[]{p[1]})));
+            node.details.add(new NodeDetail(NodeDetail.DETAIL_P99, AbstractMeasurementSource.createValue(new long[]{p[2]})));
+            node.details.add(new NodeDetail(NodeDetail.DETAIL_P999, AbstractMeasurementSource.createValue(new long[]{p[3]})));
+        }
+    }
+
+    /**
+     * Renders multiple calls in one graph.<br>
+     * Takes a new snapshot without reset, see {@link ProfilingSnapshot}.
      *
      * @param roots     Roots of the calls.
      * @param startDate Start Date and Time of profiling.
@@ -149,6 +372,18 @@ public abstract class AbstractCallGraphRenderer {
      * @return The call graph graphical description.
      */
     public final String render(List<MethodProfilingInformation> roots, Calendar startDate, Calendar endDate) {
+        final ProfilingSnapshot snapshot = ProfilingSnapshot.take(false);
+        List<ProfilingSnapshot.MethodSnapshot> ms = new ArrayList<>(roots.size());
+        for (MethodProfilingInformation n : roots) {
+            final ProfilingSnapshot.MethodSnapshot m = snapshot.getMethod(n.index);
+            if (m != null) {
+                ms.add(m);
+            }
+        }
+        return render(generateRoots(ms, startDate, endDate));
+    }
+
+    private CallNode generateRoots(List<ProfilingSnapshot.MethodSnapshot> roots, Calendar startDate, Calendar endDate) {
         CallNode fakeRoot = new CallNode("Application", 0, null);
 
         if (startDate != null) {
@@ -157,14 +392,18 @@ public abstract class AbstractCallGraphRenderer {
         if (endDate != null) {
             fakeRoot.details.add(new NodeDetail(NodeDetail.DETAIL_END, new DateTimeValue(endDate)));
         }
-        for (MethodProfilingInformation n : roots) {
+        addCalibration(fakeRoot);
+        for (ProfilingSnapshot.MethodSnapshot n : roots) {
             fakeRoot.edges.add(new CallEdge(null, 0, generateNode(n, new GraphStack())));
         }
-
-        return render(fakeRoot);
+        return fakeRoot;
     }
 
-    private void renderNode(CallNode node) {
+    /**
+     * Renders a node and all its callees.
+     * @param node The node.
+     */
+    protected final void renderNode(CallNode node) {
         startNode(node);
         for (CallEdge e : node.edges) {
             renderEdge(e);
@@ -193,6 +432,31 @@ public abstract class AbstractCallGraphRenderer {
      */
     protected boolean showMinMax = false;
 
+    /**
+     * Option: Add percentiles - if supported by renderer.
+     */
+    protected boolean showPercentiles = false;
+
+    /**
+     * Option: Add statistics of recent calls - if supported by renderer.
+     */
+    protected boolean showRecent = false;
+
+    /**
+     * Option: Add the call trees of slow calls - if supported by renderer.
+     */
+    protected boolean showExemplars = false;
+
+    /**
+     * Option: Use the calling-context tree instead of the callee graph.
+     */
+    protected boolean callingContext = false;
+
+    /**
+     * Option: Subtract the calibrated profiling overhead.
+     */
+    protected boolean compensateOverhead = false;
+
     /**
      * Option: Output should be easily human readable.
      */
@@ -208,16 +472,19 @@ public abstract class AbstractCallGraphRenderer {
         private Set<Integer> idsOnStack = new HashSet<>();
 
         public boolean onStack(MethodProfilingInformation callee) {
-            if (idsOnStack.contains(callee.ID)) {
-                return true;
-            } else {
-                idsOnStack.add(callee.ID);
-                return false;
-            }
+            return !idsOnStack.add(callee.index);
         }
 
         public void pop(MethodProfilingInformation callee) {
-            idsOnStack.remove(callee.ID);
+            idsOnStack.remove(callee.index);
+        }
+
+        public boolean onStack(ProfilingSnapshot.MethodSnapshot callee) {
+            return !idsOnStack.add(callee.index);
+        }
+
+        public void pop(ProfilingSnapshot.MethodSnapshot callee) {
+            idsOnStack.remove(callee.index);
         }
     }
 
@@ -234,8 +501,11 @@ public abstract class AbstractCallGraphRenderer {
             List<MethodProfilingInformation> mis = cli.getMethodInformation();
             count += mis.size();
             for (MethodProfilingInformation mi : mis) {
-                for (CalleeProfilingInformation ci : mi.callees.values()) {
-                    callees.add(ci.callee.ID);
+                for (CalleeProfilingInformation ci : mi.getCallees()) {
+                    ci.collect();
+                    if (ci.calls > 0) {
+                        callees.add(ci.callee.ID);
+                    }
                 }
             }
         }
@@ -52,4 +52,10 @@ public final class CallEdge extends CallBase
      * If true the edge shall be highlighted.
      */
     public boolean hightlight;
+
+    /**
+     * If true the calls were executed by an other thread on behalf of the caller.
+     * The value is not part of the value of the caller and is not subtracted from its net value.
+     */
+    public boolean asynchronous;
 }
@@ -0,0 +1,282 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling.callgraph;
+
+import com.bw.jtools.profiling.measurement.MeasurementValue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduces a sequence of call graphs to keyframes and deltas.<br>
+ * A delta contains only the nodes and edges whose counters (calls or value) changed since the previous graph,
+ * plus the nodes on the path to them. Nodes in a delta carry their absolute values, not differences,
+ * so the full graph is reconstructed by {@link #apply(CallNode, CallNode)}.<br>
+ * Nodes are identified by their path of names from the root, as only the names are available to readers of a delta.
+ * If a node of the previous graph is missing in the current one (e.g. after a reset), or if the name of a node
+ * is ambiguous (siblings with the same name, e.g. methods of different classes without class names, or a
+ * name that now refers to a different {@link CallNode#method}), no delta can be created and a new keyframe is needed.<br>
+ * Remind that details of unchanged nodes (e.g. the statistics of recent calls) are only refreshed by keyframes.
+ */
+public final class CallGraphDelta
+{
+    private final int keyframeInterval;
+    private CallNode previous;
+    private int deltas;
+    private boolean keyframe;
+
+    /**
+     * Creates a new instance.
+     * @param keyframeInterval Maximal number of deltas between two keyframes.
+     *                         If 0 all graphs are keyframes.
+     */
+    public CallGraphDelta(int keyframeInterval)
+    {
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Gets the next graph to output.<br>
+     * The full graph is remembered to create the next delta.
+     * @param graph The full current graph.
+     * @return The graph itself if a keyframe is needed, otherwise the delta.
+     */
+    public CallNode next(CallNode graph)
+    {
+        CallNode delta = null;
+        if (previous != null && deltas < keyframeInterval)
+        {
+            delta = diff(previous, graph);
+        }
+        previous = graph;
+        keyframe = (delta == null);
+        if (keyframe)
+        {
+            deltas = 0;
+            return graph;
+        }
+        ++deltas;
+        return delta;
+    }
+
+    /**
+     * Checks if the last result of {@link #next(CallNode)} was a keyframe.
+     * @return True for a keyframe, false for a delta.
+     */
+    public boolean isKeyframe()
+    {
+        return keyframe;
+    }
+
+    /**
+     * Forces the next graph to be a keyframe.
+     */
+    public void reset()
+    {
+        previous = null;
+        deltas = 0;
+    }
+
+    /**
+     * Creates the delta between two graphs.
+     * @param base The previous graph.
+     * @param current The current graph.
+     * @return The root of the delta or null if a node of base is missing in current or a name is ambiguous.
+     */
+    public static CallNode diff(CallNode base, CallNode current)
+    {
+        if (!base.name.equals(current.name) || base.method != current.method)
+        {
+            return null;
+        }
+        Map<String, CallEdge> baseEdges = mapEdges(base.edges);
+        Map<String, CallEdge> currentEdges = mapEdges(current.edges);
+        if (baseEdges == null || currentEdges == null)
+        {
+            return null;
+        }
+        CallNode delta = copyNode(current);
+        for (String key : baseEdges.keySet())
+        {
+            if (!currentEdges.containsKey(key))
+            {
+                return null;
+            }
+        }
+        for (Map.Entry<String, CallEdge> e : currentEdges.entrySet())
+        {
+            final CallEdge ce = e.getValue();
+            final CallEdge be = baseEdges.get(e.getKey());
+            if (be == null)
+            {
+                // New path, take the complete sub-graph.
+                delta.edges.add(ce);
+            }
+            else
+            {
+                CallNode d = diff(be.callee, ce.callee);
+                if (d == null)
+                {
+                    return null;
+                }
+                if (!d.edges.isEmpty() || !equals(be, ce) || be.asynchronous != ce.asynchronous || !equals(be.callee, ce.callee)
+                        || !equalExemplars(be.callee.exemplars, ce.callee.exemplars))
+                {
+                    CallEdge de = new CallEdge(ce.value, ce.calls, d);
+                    de.hightlight = ce.hightlight;
+                    de.asynchronous = ce.asynchronous;
+                    delta.edges.add(de);
+                }
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Reconstructs a graph from its previous state and a delta.<br>
+     * Unchanged sub-graphs of base are shared with the result.
+     * @param base The previous full graph.
+     * @param delta The delta.
+     * @return The new full graph.
+     */
+    public static CallNode apply(CallNode base, CallNode delta)
+    {
+        CallNode result = copyNode(delta);
+        Map<String, CallEdge> deltaEdges = new LinkedHashMap<>();
+        for (CallEdge e : delta.edges)
+        {
+            deltaEdges.put(e.callee.name, e);
+        }
+        for (CallEdge be : base.edges)
+        {
+            final CallEdge de = deltaEdges.remove(be.callee.name);
+            if (de == null)
+            {
+                result.edges.add(be);
+            }
+            else
+            {
+                CallEdge re = new CallEdge(de.value, de.calls, apply(be.callee, de.callee));
+                re.hightlight = de.hightlight;
+                re.asynchronous = de.asynchronous;
+                result.edges.add(re);
+            }
+        }
+        // Remaining edges are new paths.
+        result.edges.addAll(deltaEdges.values());
+        return result;
+    }
+
+    /**
+     * Copies a node without edges.
+     * The net value is taken from the source as it depends on all edges.
+     */
+    private static CallNode copyNode(CallNode n)
+    {
+        CallNode c = new CallNode(n.name, n.calls, n.value);
+        c.method = n.method;
+        c.netValue = n.getNetMeasurement();
+        if (n.details != null)
+        {
+            c.details.addAll(n.details);
+        }
+        c.exemplars = n.exemplars;
+        c.thread = n.thread;
+        return c;
+    }
+
+    /**
+     * Maps the edges by the name of the callee.<br>
+     * The order of the edges is not stable (e.g. callees are collected from hash maps), so callees
+     * with the same name can't be distinguished.
+     * @return The map or null if callees with the same name exist.
+     */
+    private static Map<String, CallEdge> mapEdges(List<CallEdge> edges)
+    {
+        Map<String, CallEdge> m = new LinkedHashMap<>();
+        for (CallEdge e : edges)
+        {
+            if (m.put(e.callee.name, e) != null)
+            {
+                return null;
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Compares exemplars by the values of their roots.
+     * Exemplars are immutable, so the roots are sufficient.
+     */
+    private static boolean equalExemplars(List<CallNode> a, List<CallNode> b)
+    {
+        final int na = a == null ? 0 : a.size();
+        if (na != (b == null ? 0 : b.size()))
+        {
+            return false;
+        }
+        for (int i = 0; i < na; ++i)
+        {
+            final CallNode ea = a.get(i);
+            final CallNode eb = b.get(i);
+            if (!ea.name.equals(eb.name) || !equals(ea, eb) || !equals(ea.details, eb.details))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(List<NodeDetail> a, List<NodeDetail> b)
+    {
+        if (a.size() != b.size())
+        {
+            return false;
+        }
+        for (int i = 0; i < a.size(); ++i)
+        {
+            if (a.get(i).ID != b.get(i).ID || !equals(a.get(i).value, b.get(i).value))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(CallBase a, CallBase b)
+    {
+        return a.calls == b.calls && equals(a.value, b.value);
+    }
+
+    private static boolean equals(MeasurementValue a, MeasurementValue b)
+    {
+        if (a == null || b == null)
+        {
+            return a == b;
+        }
+        return Arrays.equals(a.values, b.values);
+    }
+}
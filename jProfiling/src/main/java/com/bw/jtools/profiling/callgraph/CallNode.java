@@ -69,11 +69,22 @@ public final class CallNode extends CallBase
         return sb.toString();
     }
 
+    /**
+     * Value of {@link #method} if the method is not known.
+     */
+    public static final int NO_METHOD = Integer.MIN_VALUE;
+
     /**
      * The name of the method/code-unit
      */
     public final String name;
 
+    /**
+     * The index of the method, see {@link com.bw.jtools.profiling.MethodProfilingInformation#index}.<br>
+     * Identifies the method independent of the name, {@link #NO_METHOD} if not known (e.g. for parsed graphs).
+     */
+    public int method = NO_METHOD;
+
     /**
      * Additional details to show.<br>
      * Can be empty or null.
@@ -81,18 +92,36 @@ public final class CallNode extends CallBase
     public List<NodeDetail> details;
 
     /**
-     * The net measurement value (value minus sum of edges)
+     * The net measurement value (value minus sum of synchronous edges)
      */
     public MeasurementValue netValue;
 
+    /**
+     * The estimated profiling overhead that was subtracted from the value.<br>
+     * Only set during generation if overhead compensation is active.
+     */
+    MeasurementValue overhead;
+
     /**
      * The edges to called methods.
      */
     public final List<CallEdge> edges;
 
+    /**
+     * Slow calls of this method, each the root of the complete call tree of one call.<br>
+     * Null if no exemplars are available, see {@link com.bw.jtools.profiling.Exemplar}.
+     */
+    public List<CallNode> exemplars;
+
+    /**
+     * Name of the thread that executed the call.<br>
+     * Only set for the root of an exemplar.
+     */
+    public String thread;
+
     /**
      * Get the used net value.<br>
-     * Net value is the value minus the sum of all callees.
+     * Net value is the value minus the sum of all callees, except {@link CallEdge#asynchronous} callees.
      * @return The net measurement value.
      */
     public final MeasurementValue getNetMeasurement()
@@ -102,7 +131,10 @@ public final class CallNode extends CallBase
             MeasurementValue net = value.clone();
             for (CallEdge e : edges)
             {
-                net.subtract(e.value);
+                if (!e.asynchronous)
+                {
+                    net.subtract(e.value);
+                }
             }
             netValue = net;
         }
@@ -106,18 +106,10 @@ public class FreeMindGraphRenderer extends AbstractCallGraphRenderer
                         appendEscaped("End: ");
                         appendEscaped( ((DateTimeValue)d.value).toISO8601() );
                         break;
-                    case NodeDetail.DETAIL_MINIMUM:
-                        appendEscaped("Minimum: ");
-                        renderValue( d.value );
-                        break;
-                    case NodeDetail.DETAIL_MAXIMUM:
-                        appendEscaped("Maximum: ");
-                        renderValue( d.value );
-                        break;
                     default:
-                        sb.append( d.ID );
-                        appendEscaped(":");
-                        renderValue( d.value );
+                        appendEscaped( NodeDetail.getName(d.ID) );
+                        appendEscaped(": ");
+                        appendEscaped( renderValue( d.value ) );
                         break;
                 }
                 sb.append("</p>");
@@ -139,6 +131,10 @@ public class FreeMindGraphRenderer extends AbstractCallGraphRenderer
             {
                 sb.append("<edge WIDTH=\"4\" DASH=\"SOLID\"/>");
             }
+            else if ( edge.asynchronous )
+            {
+                sb.append("<edge WIDTH=\"1\" DASH=\"DASHES\"/>");
+            }
             else
             {
                 sb.append("<edge WIDTH=\"1\" DASH=\"SOLID\"/>");
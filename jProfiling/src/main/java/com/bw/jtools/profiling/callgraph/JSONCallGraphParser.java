@@ -25,7 +25,9 @@ package com.bw.jtools.profiling.callgraph;
 
 import com.bw.jtools.Log;
 import com.bw.jtools.io.JsonTool;
+import com.bw.jtools.profiling.measurement.CountValue;
 import com.bw.jtools.profiling.measurement.DateTimeValue;
+import com.bw.jtools.profiling.measurement.MeasurementHeader;
 import com.bw.jtools.profiling.measurement.MeasurementValue;
 
 import java.io.LineNumberReader;
@@ -40,7 +42,11 @@ import javax.json.JsonNumber;
  * Parser that reads output from {@link JSONCallGraphRenderer}.<br>
  * This class is designed to be used by offline analyst software that read some
  * log output.<br>
- * The graphs in the input should not have additional new-lines added inside.
+ * The graphs in the input should not have additional new-lines added inside.<br>
+ * Deltas, see {@link CallGraphDelta}, are merged with the previous graph, so all graphs
+ * returned by {@link #getCallGraphs()} are complete. Deltas without preceding keyframe are skipped.<br>
+ * All values get the header of their graph, see {@link MeasurementHeader}. Graphs without header
+ * are formatted by the current measurement source.
  */
 public class JSONCallGraphParser
 {
@@ -94,10 +100,13 @@ public class JSONCallGraphParser
 	StringBuilder graph = new StringBuilder(2048);
 	StringBuilder chunkBuffer = new StringBuilder(2048);
 	String endPattern = null;
+	CallNode lastRoot = null;
+	MeasurementHeader header = null;
 
 	public void reset()
 	{
 		endPattern = null;
+		lastRoot = null;
 		inGraph = false;
 		formatShort = false;
 		graph.setLength(0);
@@ -191,14 +200,20 @@ public class JSONCallGraphParser
 
 	public static class GraphInfo
 	{
-		private GraphInfo(String source, CallNode root)
+		private GraphInfo(String source, CallNode root, boolean delta)
 		{
 			this.source = source;
 			this.root = root;
+			this.delta = delta;
 		}
 
 		public final String source;
 		public final CallNode root;
+
+		/**
+		 * True if the source was a delta. The root is always the reconstructed full graph.
+		 */
+		public final boolean delta;
 	}
 
 	/**
@@ -228,8 +243,20 @@ public class JSONCallGraphParser
 			System.err.println(graph);
 		} else
 		{
-			callGraphs.add(new GraphInfo(graphSource,
-			        parseJsonMethod(JsonTool.getJsonObject(json, formatShort ? "C" : "Call"), formatShort)));
+			header = MeasurementHeader.parse(JsonTool.getJsonString(json, formatShort ? "h" : "header"));
+			CallNode root = parseJsonMethod(JsonTool.getJsonObject(json, formatShort ? "C" : "Call"), formatShort);
+			final boolean delta = JsonTool.getJsonBoolean(json, formatShort ? "d" : "delta", false);
+			if (delta)
+			{
+				if (lastRoot == null)
+				{
+					Log.warn("Skipped call graph delta without keyframe.");
+					return;
+				}
+				root = CallGraphDelta.apply(lastRoot, root);
+			}
+			lastRoot = root;
+			callGraphs.add(new GraphInfo(graphSource, root, delta));
 		}
 	}
 
@@ -245,7 +272,7 @@ public class JSONCallGraphParser
 		{
 			for (JsonValue v : details)
 			{
-				final int id = JsonTool.getJsonInt(v, "id", 0);
+				final int id = JsonTool.getJsonInt(v, formatShort ? "i" : "id", 0);
 				MeasurementValue value = parseMeasurementValue(JsonTool.getJsonValue(v, formatShort ? "v" : "value"));
 				switch (id)
 				{
@@ -254,12 +281,24 @@ public class JSONCallGraphParser
 					value = new DateTimeValue(value.values);
 					break;
 				default:
+					if (value != null && NodeDetail.isCount(id))
+						value = new CountValue(value.values);
 					break;
 				}
 				if (value != null)
 					node.details.add(new NodeDetail(id, value));
 			}
 		}
+		node.thread = JsonTool.getJsonString(js, formatShort ? "o" : "onThread");
+		JsonArray exemplars = JsonTool.getJsonArray(js, formatShort ? "e" : "exemplars");
+		if (exemplars != null)
+		{
+			node.exemplars = new ArrayList<>(exemplars.size());
+			for (JsonValue ev : exemplars)
+			{
+				node.exemplars.add(parseJsonMethod((JsonObject) ev, formatShort));
+			}
+		}
 		JsonArray calls = JsonTool.getJsonArray(js, formatShort ? "u" : "using");
 		if (calls != null)
 		{
@@ -270,6 +309,7 @@ public class JSONCallGraphParser
 				        parseMeasurementValue(JsonTool.getJsonValue(cv, formatShort ? "t" : "time")),
 				        JsonTool.getJsonInt(cv, formatShort ? "c" : "count", 0), callee);
 				edge.hightlight = JsonTool.getJsonBoolean(cv, formatShort ? "h" : "highlight", false);
+				edge.asynchronous = JsonTool.getJsonBoolean(cv, formatShort ? "a" : "async", false);
 				node.edges.add(edge);
 			}
 		}
@@ -287,10 +327,10 @@ public class JSONCallGraphParser
 			{
 				data[i] = ((JsonNumber) ar.get(i)).longValue();
 			}
-			v = new MeasurementValue(data);
+			v = new MeasurementValue(data, header);
 		} else if (value != null)
 		{
-			v = new MeasurementValue(new long[] { JsonTool.getJsonLong(value, "", 0) });
+			v = new MeasurementValue(new long[] { JsonTool.getJsonLong(value, "", 0) }, header);
 		}
 		return v;
 	}
@@ -55,6 +55,11 @@ public class JSONCallGraphRenderer extends AbstractCallGraphRenderer
     protected State state;
     protected Deque<State> stack = new ArrayDeque<>(10);
 
+    /**
+     * True while a delta is rendered.
+     */
+    protected boolean delta = false;
+
     /**
      * Creates a renderer that creates JSON content.
      * @param nf Number format to use.
@@ -74,6 +79,26 @@ public class JSONCallGraphRenderer extends AbstractCallGraphRenderer
         if ( pretty ) prefix = new StringBuilder(20);
     }
 
+    /**
+     * Renders a delta created by {@link CallGraphDelta}.<br>
+     * The output is marked as delta, so {@link JSONCallGraphParser} can reconstruct the full graph
+     * from the previous one.
+     * @param root The root of the delta.
+     * @return The JSON content.
+     */
+    public String renderDelta(CallNode root)
+    {
+        delta = true;
+        try
+        {
+            return render(root);
+        }
+        finally
+        {
+            delta = false;
+        }
+    }
+
     @Override
     protected void start(CallNode root)
     {
@@ -86,6 +111,7 @@ public class JSONCallGraphRenderer extends AbstractCallGraphRenderer
         stack.clear();
         state = State.OBJECT_START;
         element("title", "CallGraph");
+        if ( header != null ) element("header", header.toString());
     }
 
     @Override
@@ -107,6 +133,16 @@ public class JSONCallGraphRenderer extends AbstractCallGraphRenderer
             }
             endArray();
         }
+        if ( node.thread != null ) element("onThread", node.thread );
+        if ( node.exemplars != null && !node.exemplars.isEmpty() )
+        {
+            startArray("exemplars");
+            for ( CallNode e : node.exemplars)
+            {
+                renderNode( e );
+            }
+            endArray();
+        }
         if ( node.value != null )
         {
             addValue("time", node.value );
@@ -127,6 +163,7 @@ public class JSONCallGraphRenderer extends AbstractCallGraphRenderer
     {
         startObject("edge" );
         element("highlight", edge.hightlight);
+        if ( edge.asynchronous ) element("async", true);
         element("count", edge.calls);
         addValue( "time", edge.value);
     }
@@ -140,6 +177,7 @@ public class JSONCallGraphRenderer extends AbstractCallGraphRenderer
     @Override
     protected void end(CallNode root)
     {
+        if ( delta ) element("delta", true);
         element("version", 1.0);
         if ( pretty )
         {
@@ -42,6 +42,45 @@ public class NodeDetail {
     /** Details Maximum. Value: Measurement. */
     public final static int DETAIL_MAXIMUM = 4;
 
+    /** Details 50th percentile (median). Value: First dimension of measurement. */
+    public final static int DETAIL_P50 = 5;
+
+    /** Details 90th percentile. Value: First dimension of measurement. */
+    public final static int DETAIL_P90 = 6;
+
+    /** Details 99th percentile. Value: First dimension of measurement. */
+    public final static int DETAIL_P99 = 7;
+
+    /** Details 99.9th percentile. Value: First dimension of measurement. */
+    public final static int DETAIL_P999 = 8;
+
+    /** Details measured value without overhead compensation. Value: Measurement. */
+    public final static int DETAIL_RAW = 9;
+
+    /** Details calibrated profiling overhead inside a profiled call. Value: Measurement. */
+    public final static int DETAIL_OVERHEAD_INNER = 10;
+
+    /** Details calibrated profiling overhead of a profiled call, as seen by the caller. Value: Measurement. */
+    public final static int DETAIL_OVERHEAD_OUTER = 11;
+
+    /** Details number of calls during the last minute. Value: Count. */
+    public final static int DETAIL_CALLS_1M = 12;
+
+    /** Details mean value of calls during the last minute. Value: First dimension of measurement. */
+    public final static int DETAIL_MEAN_1M = 13;
+
+    /** Details number of calls during the last 5 minutes. Value: Count. */
+    public final static int DETAIL_CALLS_5M = 14;
+
+    /** Details mean value of calls during the last 5 minutes. Value: First dimension of measurement. */
+    public final static int DETAIL_MEAN_5M = 15;
+
+    /** Details number of calls during the last 15 minutes. Value: Count. */
+    public final static int DETAIL_CALLS_15M = 16;
+
+    /** Details mean value of calls during the last 15 minutes. Value: First dimension of measurement. */
+    public final static int DETAIL_MEAN_15M = 17;
+
     /** ID of this detail */
     public final int ID;
 
@@ -53,4 +92,41 @@ public class NodeDetail {
         this.value = value.clone();
     }
 
+    /**
+     * Checks if the value of a detail is a count.
+     * @param id The ID of the detail.
+     * @return True if the value is a {@link com.bw.jtools.profiling.measurement.CountValue}.
+     */
+    public static boolean isCount(int id) {
+        return id == DETAIL_CALLS_1M || id == DETAIL_CALLS_5M || id == DETAIL_CALLS_15M;
+    }
+
+    /**
+     * Gets a human readable name of a detail.
+     * @param id The ID of the detail.
+     * @return The name or the id as string if the id is unknown.
+     */
+    public static String getName(int id) {
+        switch (id) {
+            case DETAIL_START:   return "Start";
+            case DETAIL_END:     return "End";
+            case DETAIL_MINIMUM: return "Minimum";
+            case DETAIL_MAXIMUM: return "Maximum";
+            case DETAIL_P50:     return "Median";
+            case DETAIL_P90:     return "90%";
+            case DETAIL_P99:     return "99%";
+            case DETAIL_P999:    return "99.9%";
+            case DETAIL_RAW:     return "Raw";
+            case DETAIL_OVERHEAD_INNER: return "Overhead inner";
+            case DETAIL_OVERHEAD_OUTER: return "Overhead outer";
+            case DETAIL_CALLS_1M:  return "Calls 1m";
+            case DETAIL_MEAN_1M:   return "Mean 1m";
+            case DETAIL_CALLS_5M:  return "Calls 5m";
+            case DETAIL_MEAN_5M:   return "Mean 5m";
+            case DETAIL_CALLS_15M: return "Calls 15m";
+            case DETAIL_MEAN_15M:  return "Mean 15m";
+            default:             return String.valueOf(id);
+        }
+    }
+
 }
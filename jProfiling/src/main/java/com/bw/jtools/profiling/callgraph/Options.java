@@ -34,6 +34,16 @@ public enum Options
     ADD_CLASSNAMES,
     /** Add minimum and maximum values - if supported by renderer. */
     ADD_MIN_MAX,
+    /** Add percentiles from latency histograms - if supported by renderer. Needs enabled histograms, see {@link com.bw.jtools.profiling.ProfilingInformation#setHistogramsEnabled(boolean)}. */
+    ADD_PERCENTILES,
+    /** Add number of calls and mean values of the last 1, 5 and 15 minutes - if supported by renderer. Needs enabled rolling windows, see {@link com.bw.jtools.profiling.ProfilingInformation#setRollingWindowsEnabled(boolean)}. */
+    ADD_RECENT,
+    /** Add the call trees of slow calls - see {@link com.bw.jtools.profiling.ExemplarConfiguration}. */
+    ADD_EXEMPLARS,
+    /** Uses the calling-context tree of the snapshot instead of the callee graph, if recorded - see {@link com.bw.jtools.profiling.CallingContextTree}. */
+    CALLING_CONTEXT,
+    /** Subtracts the calibrated profiling overhead from the values - see {@link com.bw.jtools.profiling.OverheadCalibration}. Needs an explicit calibration. */
+    COMPENSATE_OVERHEAD,
     /** Creates human readable output - if supported by renderer. */
     PRETTY,
     /** Does nothing */
@@ -25,10 +25,10 @@ package com.bw.jtools.profiling.callgraph;
 
 import com.bw.jtools.collections.ClassNameCompressor;
 import com.bw.jtools.collections.StringPool;
+import com.bw.jtools.profiling.measurement.MeasurementHeader;
 import com.bw.jtools.profiling.measurement.MeasurementValue;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 
 /**
  * Call graph parser that consums output from {@link RawCallGraphRenderer}.<br>
@@ -42,6 +42,10 @@ public class RawCallGraphParser implements  RawCallGraphTypes
     /** The internal buffer. */
     protected byte[] buffer = new byte[4*MAX_STRING_LENGTH];
     protected ClassNameCompressor idPool = new ClassNameCompressor();
+    /** The dimensions of the values of the current graph or null. */
+    protected MeasurementHeader header;
+    /** The format version of the current graph. */
+    protected int version;
 
 
     /**
@@ -51,15 +55,26 @@ public class RawCallGraphParser implements  RawCallGraphTypes
     }
 
     /**
-     * Reads a call-graph.
+     * Reads a call-graph.<br>
+     * Graphs of version 2 are also accepted, their edges are not asynchronous.
      * @return The root.
-     * @throws IOException In case of some i/O- or format-error.
+     * @throws IOException In case of some i/O- or format-error, e.g. if magic bytes or version don't match.
      */
     public CallNode parse(InputStream is ) throws IOException
     {
         pos = 0;
         idPool.reset();
         this.is = is;
+        read( MAGIC.length+1 );
+        for ( int i=0 ; i<MAGIC.length ; ++i )
+        {
+            if ( buffer[i] != MAGIC[i] )
+                throw new IOException("Not a raw call graph.");
+        }
+        version = buffer[MAGIC.length];
+        if ( version != VERSION && version != 2 )
+            throw new IOException("Unsupported raw call graph version "+version+".");
+        header = MeasurementHeader.parse( readString() );
         return readNode();
     }
 
@@ -98,10 +113,14 @@ public class RawCallGraphParser implements  RawCallGraphTypes
     protected CallEdge readEdge() throws IOException
     {
         final boolean highlight = readBoolean();
+        final boolean asynchronous = version >= 3 && readBoolean();
         final int calls = readInt();
         final MeasurementValue value = readValue();
 
-        return new CallEdge(value, calls,readNode() );
+        CallEdge edge = new CallEdge(value, calls,readNode() );
+        edge.hightlight = highlight;
+        edge.asynchronous = asynchronous;
+        return edge;
     }
 
     /**
@@ -119,8 +138,7 @@ public class RawCallGraphParser implements  RawCallGraphTypes
         {
             int len = readInt();
             read(len);
-            idPool.getUncompressed( buffer, 0, len );
-            return new String(buffer, StandardCharsets.UTF_8);
+            return idPool.getUncompressed( buffer, 0, len );
         }
     }
 
@@ -180,27 +198,29 @@ public class RawCallGraphParser implements  RawCallGraphTypes
 
             case SHORT:
                 read(2);
-                return (((short)buffer[0])<< 8) | ((short)buffer[1]);
+                return (short)(((buffer[0] & 0xff)<< 8) | (buffer[1] & 0xff));
 
             case  BYTE:
                 read(1);
                 return buffer[0];
             case INT:
-                return  (((long)buffer[0])<<24) |
-                        (((long)buffer[1])<<16) |
-                        (((long)buffer[2])<< 8) |
-                        (((long)buffer[3]));
+                read(4);
+                return  ((buffer[0] & 0xff)<<24) |
+                        ((buffer[1] & 0xff)<<16) |
+                        ((buffer[2] & 0xff)<< 8) |
+                        ((buffer[3] & 0xff));
 
             case LONG:
+                read(8);
                 return
-                        (((long)buffer[0])<<56) |
-                        (((long)buffer[1])<<48) |
-                        (((long)buffer[2])<<40) |
-                        (((long)buffer[3])<<32) |
-                        (((long)buffer[4])<<24) |
-                        (((long)buffer[5])<<16) |
-                        (((long)buffer[6])<< 8) |
-                        (((long)buffer[7])    );
+                        (((long)buffer[0] & 0xff)<<56) |
+                        (((long)buffer[1] & 0xff)<<48) |
+                        (((long)buffer[2] & 0xff)<<40) |
+                        (((long)buffer[3] & 0xff)<<32) |
+                        (((long)buffer[4] & 0xff)<<24) |
+                        (((long)buffer[5] & 0xff)<<16) |
+                        (((long)buffer[6] & 0xff)<< 8) |
+                        (((long)buffer[7] & 0xff)    );
         }
         throw new IOException("Illegal format at position "+orgPos+")");
     }
@@ -230,7 +250,7 @@ public class RawCallGraphParser implements  RawCallGraphTypes
             {
                 values[idx] = readLong();
             }
-            return new MeasurementValue(values);
+            return new MeasurementValue(values, header);
         } else {
             return null;
         }
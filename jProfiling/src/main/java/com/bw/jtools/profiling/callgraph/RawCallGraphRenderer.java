@@ -41,6 +41,7 @@ import java.util.Deque;
 
 /**
  * Call graph renderer to create binary output.<br>
+ * Each graph starts with {@link #MAGIC}, the format {@link #VERSION} and the measurement header.
  */
 public class RawCallGraphRenderer extends AbstractCallGraphRenderer implements  RawCallGraphTypes
 {
@@ -65,6 +66,10 @@ public class RawCallGraphRenderer extends AbstractCallGraphRenderer implements
     protected void start(CallNode root)
     {
         idPool.reset();
+        System.arraycopy( MAGIC, 0, buffer, 0, MAGIC.length );
+        buffer[MAGIC.length] = VERSION;
+        write( MAGIC.length+1 );
+        writeString( header == null ? null : header.toString() );
     }
 
     @Override
@@ -91,6 +96,7 @@ public class RawCallGraphRenderer extends AbstractCallGraphRenderer implements
     protected void startEdge(CallEdge edge)
     {
         writeBoolean( edge.hightlight );
+        writeBoolean( edge.asynchronous );
         writeInt( edge.calls );
         writeValue( edge.value );
     }
@@ -2,6 +2,14 @@ package com.bw.jtools.profiling.callgraph;
 
 public interface RawCallGraphTypes
 {
+	/** Magic bytes at the start of each graph. */
+	public final static byte[] MAGIC = { 'B', 'W', 'C', 'G' };
+	/**
+	 * Version of the format, written after the magic bytes. Version 2 adds the measurement header,
+	 * version 3 the asynchronous flag of edges.
+	 */
+	public final static byte VERSION = 3;
+
 	public final static byte BOOL_TRUE = 't';
 	public final static byte BOOL_FALSE = 'f';
 	public final static byte BYTE  = 'B';
@@ -27,6 +27,8 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.bw.jtools.profiling.measurement.DateTimeValue;
+
 import com.bw.jtools.reports.ReportElement;
 import com.bw.jtools.reports.ReportList;
 import com.bw.jtools.reports.ReportListElement;
@@ -68,7 +70,7 @@ public class ReportGraphRenderer  extends AbstractCallGraphRenderer
     		ReportList detailList = new ReportList( "Details" );
             for ( NodeDetail d : node.details)
             {
-            	detailList.add( new ReportListElement().add( renderValue( d.value ) ) );
+            	detailList.add( new ReportListElement().add( NodeDetail.getName(d.ID)+": "+renderDetail( d ) ) );
             }
             li.add( detailList );
         }
@@ -85,6 +87,14 @@ public class ReportGraphRenderer  extends AbstractCallGraphRenderer
         }        
 	}
 
+	private String renderDetail( NodeDetail d )
+	{
+		if ( d.value instanceof DateTimeValue )
+			return ((DateTimeValue)d.value).toISO8601();
+		else
+			return renderValue( d.value );
+	}
+
 	@Override
 	protected void endNode(CallNode node)
 	{
@@ -23,7 +23,9 @@
  */
 package com.bw.jtools.profiling.measurement;
 
+import com.bw.jtools.Log;
 import com.bw.jtools.log.OS;
+import com.bw.jtools.persistence.Store;
 
 import java.text.NumberFormat;
 
@@ -45,6 +47,65 @@ public abstract class AbstractMeasurementSource
         }
     }
 
+    /**
+     * Key of the measurement configuration in {@link Store}, see {@link #configureFromStore()}.
+     */
+    public static final String KEY_MEASUREMENT = "profiling.measurement";
+
+    /**
+     * Selects the current measurement source.<br>
+     * The specification is either "nano" ({@link SystemNanoTime}), "thread" ({@link ThreadExecutionTime}),
+     * "allocation" ({@link ThreadAllocation}) or a list of dimensions for a {@link CompositeMeasurementSource},
+     * e.g. "wall,cpu,user,alloc,blocked,waited".<br>
+     * Should be called before profiling starts, as values of different sources can't be combined.
+     * @param spec The specification. If null or empty, the current source is not changed.
+     * @return True if the source was changed.
+     */
+    public static boolean configure(String spec)
+    {
+        if ( spec == null || spec.trim().isEmpty() )
+        {
+            return false;
+        }
+        spec = spec.trim();
+        if ( "nano".equalsIgnoreCase(spec) )
+        {
+            currentSource = new SystemNanoTime();
+        }
+        else if ( "thread".equalsIgnoreCase(spec) )
+        {
+            currentSource = new ThreadExecutionTime();
+        }
+        else if ( "allocation".equalsIgnoreCase(spec) )
+        {
+            currentSource = new ThreadAllocation();
+        }
+        else
+        {
+            try
+            {
+                currentSource = CompositeMeasurementSource.parse(spec);
+            }
+            catch ( IllegalArgumentException e )
+            {
+                Log.warn("Unknown measurement source '" + spec + "': " + e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Selects the current measurement source by the setting {@link #KEY_MEASUREMENT} of {@link Store}.<br>
+     * The store has to be initialized.
+     * @return True if the source was changed.
+     * @see #configure(String)
+     */
+    public static boolean configureFromStore()
+    {
+        return configure(Store.getString(KEY_MEASUREMENT, null));
+    }
+
     /**
      * Convenience method as replacement for currentSource.getMeasurement.
      * @return The current value.
@@ -54,6 +115,29 @@ public abstract class AbstractMeasurementSource
         return currentSource.getMeasurement();
     }
 
+    /**
+     * Convenience method as replacement for currentSource.getMeasurement(long[],int).<br>
+     * Doesn't allocate any memory.
+     * @param target The array to store the current value.
+     * @param offset The index of the first dimension inside the array.
+     */
+    public static void measure(long[] target, int offset)
+    {
+        currentSource.getMeasurement(target, offset);
+    }
+
+    /**
+     * Creates a value with the header of the current source.<br>
+     * Only for values that were measured in this process, parsed values need the header of their input.
+     * @param values The values.
+     * @return The value.
+     */
+    public static MeasurementValue createValue(long[] values)
+    {
+        final AbstractMeasurementSource source = currentSource;
+        return new MeasurementValue( values, source == null ? null : source.getHeader() );
+    }
+
     /**
      * Convenience method as replacement for currentSource.formatValue.
      * @param nf The number format to use.
@@ -62,9 +146,29 @@ public abstract class AbstractMeasurementSource
      */
     public static String format(NumberFormat  nf, MeasurementValue value)
     {
+        if ( value != null && value.header != null )
+        {
+            return value.header.format(nf, value);
+        }
         return currentSource.formatValue(nf,value);
     }
 
+    /**
+     * Formats a value with the names of the dimensions, if the value has a header with more than one dimension.
+     * Otherwise same as {@link #format(NumberFormat, MeasurementValue)}.
+     * @param nf The number format to use.
+     * @param value The value to format.
+     * @return The formatted value.
+     */
+    public static String formatLabeled(NumberFormat  nf, MeasurementValue value)
+    {
+        if ( value != null && value.header != null && value.header.size() > 1 )
+        {
+            return value.header.formatLabeled(nf, value);
+        }
+        return format(nf, value);
+    }
+
     /**
      * Returns a instance that reflects the current value.
      * The first dimension have to be strictly monotone.
@@ -72,6 +176,50 @@ public abstract class AbstractMeasurementSource
      */
     public abstract MeasurementValue getMeasurement();
 
+    /**
+     * Stores the current value into an existing array.<br>
+     * Implementations should override this method to avoid any allocation.
+     * The default implementation uses {@link #getMeasurement()}.
+     * @param target The array to store the value.
+     * @param offset The index of the first dimension inside the array.
+     */
+    public void getMeasurement(long[] target, int offset)
+    {
+        final long[] v = getMeasurement().values;
+        System.arraycopy(v, 0, target, offset, v.length);
+    }
+
+    /**
+     * Gets the number of dimensions of the values from this source.
+     * The default implementation uses {@link #getMeasurement()}.
+     * @return The number of dimensions.
+     */
+    public int getDimensions()
+    {
+        return getMeasurement().values.length;
+    }
+
+    /**
+     * Gets the description of the dimensions of this source.<br>
+     * The default implementation returns null, so values are formatted by {@link #formatValue(NumberFormat, MeasurementValue)}
+     * and the dimensions are not described in the output formats.
+     * @return The header or null.
+     */
+    public MeasurementHeader getHeader()
+    {
+        return null;
+    }
+
+    /**
+     * Checks if the first dimension is the wall clock, as returned by {@link System#nanoTime()}.
+     * @return True if the header describes the first dimension as {@link Dimension#WALL}.
+     */
+    public boolean isWallClock()
+    {
+        final MeasurementHeader h = getHeader();
+        return h != null && h.size() > 0 && h.get(0) == Dimension.WALL;
+    }
+
     /**
      * Returns the formatted value.
      * @param nf The number format to use.
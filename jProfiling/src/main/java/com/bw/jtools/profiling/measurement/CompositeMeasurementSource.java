@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling.measurement;
+
+import com.bw.jtools.Log;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measurement source that records a configurable set of dimensions.<br>
+ * The first dimension is always {@link Dimension#WALL}, as the first dimension has to be strictly monotone.
+ * It is added if missing.<br>
+ * Example, system time, thread time and allocated bytes:
+ * <pre>
+ *     AbstractMeasurementSource.currentSource = CompositeMeasurementSource.parse("wall,cpu,alloc");
+ * </pre>
+ * Dimensions that are not supported by the JVM are recorded as 0.
+ * Remind that {@link Dimension#BLOCKED} and {@link Dimension#WAITED} need thread contention monitoring,
+ * which is enabled by this class. The JVM reports these times only in milliseconds and each read creates
+ * a ThreadInfo object, so the values are read at most once per {@link #CONTENTION_REFRESH_NANOS} per thread
+ * and cached in between. Calls shorter than that may show no or some earlier blocked or waited time.<br>
+ * {@link Dimension#ALLOCATED} is read like in {@link ThreadAllocation}, before Java 14 the bytes allocated by
+ * reading the value are calibrated and subtracted. The ThreadInfo objects of the contention times are not subtracted.
+ */
+public final class CompositeMeasurementSource extends AbstractMeasurementSource
+{
+    private final Dimension[] dimensions;
+    private final MeasurementHeader header;
+    private final ThreadMXBean threadMXBean;
+    private final ThreadAllocationCounter allocationCounter;
+    private final boolean cpuTime;
+    private final boolean contention;
+
+    /**
+     * Minimal interval between two reads of blocked and waited time of a thread, the resolution of the values.
+     */
+    public static final long CONTENTION_REFRESH_NANOS = 1000000L;
+
+    /**
+     * Per thread: wall time of the last read, blocked and waited time in nanoseconds. Blocked time is -1 before the first read.
+     */
+    private final ThreadLocal<long[]> contentionTimes = ThreadLocal.withInitial(() -> new long[] { 0, -1, 0 });
+
+    /**
+     * Creates a source.
+     * @param dimensions The dimensions to record.
+     */
+    public CompositeMeasurementSource(Dimension... dimensions)
+    {
+        List<Dimension> dims = new ArrayList<>(dimensions.length + 1);
+        dims.add(Dimension.WALL);
+        for ( Dimension d : dimensions )
+        {
+            if ( !dims.contains(d) ) dims.add(d);
+        }
+        this.dimensions = dims.toArray(new Dimension[dims.size()]);
+        this.header = MeasurementHeader.of(this.dimensions);
+
+        threadMXBean = ManagementFactory.getThreadMXBean();
+        cpuTime = (dims.contains(Dimension.CPU) || dims.contains(Dimension.USER)) && enableCpuTime();
+        contention = (dims.contains(Dimension.BLOCKED) || dims.contains(Dimension.WAITED)) && enableContention();
+        allocationCounter = dims.contains(Dimension.ALLOCATED) ? ThreadAllocationCounter.create() : null;
+    }
+
+    /**
+     * Creates a source from a list of dimension identifiers, see {@link Dimension#id}.
+     * @param spec The identifiers, separated by ',', ';' or blanks, e.g. "wall,cpu,alloc".
+     * @return The source.
+     * @throws IllegalArgumentException If an identifier is unknown.
+     */
+    public static CompositeMeasurementSource parse(String spec)
+    {
+        List<Dimension> dims = new ArrayList<>();
+        for ( String id : spec.trim().split("[\\s,;]+") )
+        {
+            if ( !id.isEmpty() )
+            {
+                Dimension d = Dimension.forId(id);
+                if ( d == null )
+                {
+                    throw new IllegalArgumentException("Unknown measurement dimension '" + id + "'");
+                }
+                dims.add(d);
+            }
+        }
+        return new CompositeMeasurementSource(dims.toArray(new Dimension[dims.size()]));
+    }
+
+    private boolean enableCpuTime()
+    {
+        try
+        {
+            if ( threadMXBean.isCurrentThreadCpuTimeSupported() )
+            {
+                if ( !threadMXBean.isThreadCpuTimeEnabled() )
+                {
+                    threadMXBean.setThreadCpuTimeEnabled(true);
+                }
+                return true;
+            }
+        }
+        catch ( UnsupportedOperationException | SecurityException e )
+        {
+            Log.warn("Failed to enable Thread-Cpu-Time-Measurement.", e);
+            return false;
+        }
+        Log.warn("JVM doesn't support Thread-Cpu-Time-Measurement.");
+        return false;
+    }
+
+    private boolean enableContention()
+    {
+        try
+        {
+            if ( threadMXBean.isThreadContentionMonitoringSupported() )
+            {
+                if ( !threadMXBean.isThreadContentionMonitoringEnabled() )
+                {
+                    threadMXBean.setThreadContentionMonitoringEnabled(true);
+                }
+                return true;
+            }
+        }
+        catch ( UnsupportedOperationException | SecurityException e )
+        {
+            Log.warn("Failed to enable Thread-Contention-Monitoring.", e);
+            return false;
+        }
+        Log.warn("JVM doesn't support Thread-Contention-Monitoring.");
+        return false;
+    }
+
+    @Override
+    public MeasurementValue getMeasurement()
+    {
+        final long[] v = new long[dimensions.length];
+        getMeasurement(v, 0);
+        return new MeasurementValue(v, header);
+    }
+
+    @Override
+    public void getMeasurement(long[] target, int offset)
+    {
+        long[] times = null;
+        for ( int i = 0 ; i < dimensions.length ; ++i )
+        {
+            long v = 0;
+            switch ( dimensions[i] )
+            {
+                case WALL:
+                    v = System.nanoTime();
+                    break;
+                case CPU:
+                    if ( cpuTime ) v = threadMXBean.getCurrentThreadCpuTime();
+                    break;
+                case USER:
+                    if ( cpuTime ) v = threadMXBean.getCurrentThreadUserTime();
+                    break;
+                case ALLOCATED:
+                    if ( allocationCounter != null ) v = allocationCounter.get();
+                    break;
+                case BLOCKED:
+                case WAITED:
+                    if ( contention )
+                    {
+                        // Wall time is the first dimension and already measured.
+                        if ( times == null ) times = getContentionTimes(target[offset]);
+                        v = dimensions[i] == Dimension.BLOCKED ? times[1] : times[2];
+                    }
+                    break;
+            }
+            target[offset + i] = v;
+        }
+    }
+
+    /**
+     * Gets the blocked and waited time of the current thread, read at most once per {@link #CONTENTION_REFRESH_NANOS}.
+     * @param now The current wall time.
+     * @return The cached times: wall time of the read, blocked and waited time in nanoseconds.
+     */
+    private long[] getContentionTimes(long now)
+    {
+        final long[] times = contentionTimes.get();
+        if ( times[1] < 0 || now - times[0] >= CONTENTION_REFRESH_NANOS )
+        {
+            final ThreadInfo info = threadMXBean.getThreadInfo(Thread.currentThread().getId(), 0);
+            times[1] = info == null ? 0 : 1000000L * info.getBlockedTime();
+            times[2] = info == null ? 0 : 1000000L * info.getWaitedTime();
+            times[0] = now;
+        }
+        return times;
+    }
+
+    @Override
+    public int getDimensions()
+    {
+        return dimensions.length;
+    }
+
+    @Override
+    public MeasurementHeader getHeader()
+    {
+        return header;
+    }
+
+    @Override
+    public String formatValue(NumberFormat nf, MeasurementValue value)
+    {
+        return header.format(nf, value);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling.measurement;
+
+/**
+ * A plain number, e.g. a number of calls.<br>
+ * In contrast to measured values it's not formatted by the measurement source.
+ */
+public class CountValue extends MeasurementValue
+{
+    /**
+     * Creates a new instance.
+     * @param count The count.
+     */
+    public CountValue(long count)
+    {
+        super(new long[]{count}, null);
+    }
+
+    /**
+     * Construct a count from a value array.
+     * @param v Have to contain one value.
+     */
+    public CountValue(long[] v)
+    {
+        super(v, null);
+    }
+
+    @Override
+    public MeasurementValue clone()
+    {
+        return new CountValue(values.clone());
+    }
+}
@@ -16,7 +16,7 @@ public class DateTimeValue extends MeasurementValue {
         super(new long[]
                 {time.get(Calendar.YEAR), time.get(Calendar.MONTH) + 1, time.get(Calendar.DAY_OF_MONTH),
                         time.get(Calendar.HOUR_OF_DAY), time.get(Calendar.MINUTE), time.get(Calendar.SECOND)
-                });
+                }, null);
     }
 
     /**
@@ -24,7 +24,7 @@ public class DateTimeValue extends MeasurementValue {
      * @param v Have to contain 6 values: years,months,days,hours,minutes,seconds.
      */
     public DateTimeValue(long[] v) {
-        super(v);
+        super(v, null);
     }
 
     /**
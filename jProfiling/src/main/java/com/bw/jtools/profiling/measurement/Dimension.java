@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling.measurement;
+
+import java.text.NumberFormat;
+
+/**
+ * Dimensions of measurement values.<br>
+ * Each dimension has an identifier that is used in the header of the output formats,
+ * see {@link MeasurementHeader}.
+ */
+public enum Dimension
+{
+    /**
+     * System time in nanoseconds.
+     */
+    WALL("wall", true),
+
+    /**
+     * CPU time of the current thread in nanoseconds.
+     */
+    CPU("cpu", true),
+
+    /**
+     * User-mode CPU time of the current thread in nanoseconds.
+     */
+    USER("user", true),
+
+    /**
+     * Bytes allocated by the current thread.
+     */
+    ALLOCATED("alloc", false),
+
+    /**
+     * Time the current thread was blocked on monitors in nanoseconds (millisecond resolution).
+     */
+    BLOCKED("blocked", true),
+
+    /**
+     * Time the current thread was waiting in nanoseconds (millisecond resolution).
+     */
+    WAITED("waited", true);
+
+    /**
+     * The identifier used in configurations and output formats.
+     */
+    public final String id;
+
+    /**
+     * True if the values are nanoseconds, false if the values are bytes.
+     */
+    public final boolean time;
+
+    Dimension(String id, boolean time)
+    {
+        this.id = id;
+        this.time = time;
+    }
+
+    /**
+     * Appends a formatted value of this dimension.
+     * @param sb The builder to append to.
+     * @param nf The number format to use.
+     * @param value The value.
+     */
+    public void format(StringBuilder sb, NumberFormat nf, long value)
+    {
+        if ( time )
+        {
+            sb.append(nf.format(value / 1000000000.0)).append('s');
+        }
+        else
+        {
+            ThreadAllocation.formatBytes(sb, nf, value);
+        }
+    }
+
+    /**
+     * Gets a dimension by its identifier.
+     * @param id The identifier, case is ignored.
+     * @return The dimension or null if the identifier is unknown.
+     */
+    public static Dimension forId(String id)
+    {
+        for ( Dimension d : values() )
+        {
+            if ( d.id.equalsIgnoreCase(id) )
+            {
+                return d;
+            }
+        }
+        return null;
+    }
+}
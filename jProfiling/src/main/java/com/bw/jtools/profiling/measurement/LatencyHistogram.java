@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling.measurement;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory log-linear histogram of measured values.<br>
+ * Values are grouped by their magnitude (power of two), each magnitude is split
+ * linearly into {@link #SUB_BUCKETS} buckets. So the relative error of a value
+ * returned by {@link #getValueAtPercentile(double)} is less than 1/{@link #SUB_BUCKETS}.<br>
+ * Values below {@link #SUB_BUCKETS} are stored exactly, values above {@link #MAX_VALUE} are clamped.<br>
+ * Recording is lock-free. Histograms can be merged via {@link #add(LatencyHistogram)}.
+ */
+public final class LatencyHistogram
+{
+    /**
+     * Bits of the linear part of each bucket.
+     */
+    public static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * Number of linear buckets for each magnitude.
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Number of magnitudes. Values are stored up to 2^MAGNITUDES nanoseconds (~18 minutes).
+     */
+    public static final int MAGNITUDES = 40;
+
+    /**
+     * Highest value that can be stored, larger values are clamped.
+     */
+    public static final long MAX_VALUE = (1L << MAGNITUDES) - 1;
+
+    /**
+     * Number of buckets.
+     */
+    public static final int BUCKETS = (MAGNITUDES - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a value.
+     * @param value The value.
+     */
+    public void record(long value)
+    {
+        counts.getAndIncrement(getBucketIndex(value));
+    }
+
+    /**
+     * Adds all counts of an other histogram.
+     * @param other The other histogram.
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            final long c = other.counts.get(i);
+            if (c != 0)
+            {
+                counts.getAndAdd(i, c);
+            }
+        }
+    }
+
+    /**
+     * Subtracts the values of an other histogram.<br>
+     * Used to reset a histogram without loosing values that are recorded in parallel.
+     * Buckets never get negative.
+     * @param other The histogram to subtract, e.g. an earlier copy of this histogram.
+     */
+    public void subtract(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            final long c = other.counts.get(i);
+            if (c != 0)
+            {
+                counts.getAndAdd(i, -Math.min(c, counts.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Creates a copy of this histogram.<br>
+     * Values that are recorded in parallel may be missing.
+     * @return The copy.
+     */
+    public LatencyHistogram copy()
+    {
+        LatencyHistogram h = new LatencyHistogram();
+        h.add(this);
+        return h;
+    }
+
+    /**
+     * Removes all values.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            counts.set(i, 0);
+        }
+    }
+
+    /**
+     * Gets the number of recorded values.
+     * @return The number of values.
+     */
+    public long getTotalCount()
+    {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the value at a percentile.<br>
+     * The returned value is the highest value of the bucket that contains the percentile.
+     * @param percentile The percentile, between 0 and 100.
+     * @return The value or 0 if no value was recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        return getValuesAtPercentiles(percentile)[0];
+    }
+
+    /**
+     * Gets the values at multiple percentiles from the same state of the histogram.
+     * @param percentiles The percentiles, between 0 and 100.
+     * @return The values, 0 if no value was recorded.
+     */
+    public long[] getValuesAtPercentiles(double... percentiles)
+    {
+        final long[] c = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            total += (c[i] = counts.get(i));
+        }
+        final long[] result = new long[percentiles.length];
+        if (total > 0)
+        {
+            for (int p = 0; p < percentiles.length; ++p)
+            {
+                long countAtPercentile = (long) Math.ceil((Math.min(100.0, Math.max(0.0, percentiles[p])) / 100.0) * total);
+                if (countAtPercentile < 1)
+                {
+                    countAtPercentile = 1;
+                }
+                long sum = 0;
+                int i = 0;
+                while (i < BUCKETS - 1 && (sum += c[i]) < countAtPercentile)
+                {
+                    ++i;
+                }
+                result[p] = getHighestValue(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the index of the bucket for a value.
+     * @param value The value.
+     * @return The bucket index.
+     */
+    static int getBucketIndex(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return value < 0 ? 0 : (int) value;
+        }
+        if (value > MAX_VALUE)
+        {
+            value = MAX_VALUE;
+        }
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = magnitude - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Gets the lowest value that is stored in a bucket.
+     * @param index The bucket index.
+     * @return The lowest value.
+     */
+    static long getLowestValue(int index)
+    {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return ((long) (SUB_BUCKETS | (index & (SUB_BUCKETS - 1)))) << shift;
+    }
+
+    /**
+     * Gets the highest value that is stored in a bucket.
+     * @param index The bucket index.
+     * @return The highest value.
+     */
+    static long getHighestValue(int index)
+    {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return getLowestValue(index) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling.measurement;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Describes the dimensions of measurement values.<br>
+ * The header is written to the output formats, so parsers can label and format
+ * each dimension without knowing the measurement source that produced the values.
+ * The textual form is a comma separated list of {@link Dimension#id}, e.g. "wall,cpu,alloc".<br>
+ * Instances are immutable and shared by all values of a source.
+ */
+public final class MeasurementHeader
+{
+    private final Dimension[] dimensions;
+    private final String text;
+
+    private MeasurementHeader(Dimension[] dimensions)
+    {
+        this.dimensions = dimensions;
+        StringBuilder sb = new StringBuilder(30);
+        for ( Dimension d : dimensions )
+        {
+            if ( sb.length() > 0 ) sb.append(',');
+            sb.append(d.id);
+        }
+        this.text = sb.toString();
+    }
+
+    /**
+     * Creates a header.
+     * @param dimensions The dimensions in the order of the values.
+     * @return The header.
+     */
+    public static MeasurementHeader of(Dimension... dimensions)
+    {
+        return new MeasurementHeader(dimensions.clone());
+    }
+
+    /**
+     * Parses the textual form of a header.
+     * @param text The comma separated identifiers.
+     * @return The header or null if text is empty or contains unknown identifiers.
+     */
+    public static MeasurementHeader parse(String text)
+    {
+        if ( text == null || text.trim().isEmpty() )
+        {
+            return null;
+        }
+        List<Dimension> dims = new ArrayList<>();
+        for ( String id : text.trim().split("[\\s,;]+") )
+        {
+            Dimension d = Dimension.forId(id);
+            if ( d == null )
+            {
+                return null;
+            }
+            dims.add(d);
+        }
+        return new MeasurementHeader(dims.toArray(new Dimension[dims.size()]));
+    }
+
+    /**
+     * Gets the number of dimensions.
+     * @return The number of dimensions.
+     */
+    public int size()
+    {
+        return dimensions.length;
+    }
+
+    /**
+     * Gets a dimension.
+     * @param index The index of the dimension.
+     * @return The dimension.
+     */
+    public Dimension get(int index)
+    {
+        return dimensions[index];
+    }
+
+    /**
+     * Formats a value, e.g. "0.12s/0.1s/1.5MiB".<br>
+     * Values with less dimensions (e.g. percentiles) are formatted with the first dimensions of the header.
+     * @param nf The number format to use.
+     * @param value The value.
+     * @return The formatted value.
+     */
+    public String format(NumberFormat nf, MeasurementValue value)
+    {
+        return format(nf, value, false);
+    }
+
+    /**
+     * Formats a value with the identifiers of the dimensions, e.g. "wall 0.12s / cpu 0.1s / alloc 1.5MiB".
+     * @param nf The number format to use.
+     * @param value The value.
+     * @return The formatted value.
+     */
+    public String formatLabeled(NumberFormat nf, MeasurementValue value)
+    {
+        return format(nf, value, true);
+    }
+
+    private String format(NumberFormat nf, MeasurementValue value, boolean labeled)
+    {
+        StringBuilder sb = new StringBuilder(40);
+        if ( value != null )
+        {
+            final int n = Math.min(value.values.length, dimensions.length);
+            for ( int i = 0 ; i < n ; ++i )
+            {
+                if ( i > 0 ) sb.append(labeled ? " / " : "/");
+                if ( labeled ) sb.append(dimensions[i].id).append(' ');
+                dimensions[i].format(sb, nf, value.values[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return (o instanceof MeasurementHeader) && Arrays.equals(dimensions, ((MeasurementHeader)o).dimensions);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(dimensions);
+    }
+
+    /**
+     * Gets the textual form.
+     * @return The comma separated identifiers.
+     */
+    @Override
+    public String toString()
+    {
+        return text;
+    }
+}
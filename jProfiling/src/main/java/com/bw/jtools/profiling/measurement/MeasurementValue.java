@@ -26,7 +26,8 @@ package com.bw.jtools.profiling.measurement;
 /**
  * Holds a measurement value.<br>
  * Holds a value that is produced by some measurement function.<br>
- * The first dimension defines the order relation and have to be strictly monotone.
+ * The first dimension defines the order relation and have to be strictly monotone.<br>
+ * The optional header describes the dimensions, see {@link MeasurementHeader}.
  */
 public class MeasurementValue implements Comparable<MeasurementValue>, Cloneable
 {
@@ -34,18 +35,36 @@ public class MeasurementValue implements Comparable<MeasurementValue>, Cloneable
     public final long[] values;
 
     /**
-     * C'tor to be used by all inheritances.
+     * The description of the dimensions or null if unknown.
+     */
+    public final MeasurementHeader header;
+
+    /**
+     * C'tor for values without header.<br>
+     * Values of the current measurement source should use {@link AbstractMeasurementSource#createValue(long[])},
+     * parsed values the header of their input.
      * @param values The initial value
      */
     public MeasurementValue( final long[] values )
+    {
+        this( values, null );
+    }
+
+    /**
+     * C'tor with explicit header, e.g. for values read from some log.
+     * @param values The initial value
+     * @param header The header or null if unknown.
+     */
+    public MeasurementValue( final long[] values, MeasurementHeader header )
     {
         this.values = values;
+        this.header = header;
     }
 
     @Override
     public MeasurementValue clone()
     {
-        return new MeasurementValue( values.clone() );
+        return new MeasurementValue( values.clone(), header );
     }
 
     /**
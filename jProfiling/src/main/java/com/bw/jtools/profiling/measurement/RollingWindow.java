@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling.measurement;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ring of time buckets to calculate statistics of recent calls.<br>
+ * Each bucket covers {@link #BUCKET_MILLIS} milliseconds, the ring covers 15 minutes.
+ * Buckets are rotated by the recording threads: a thread that detects an outdated bucket replaces it
+ * with a new one by a single compare-and-set, so recording never waits.<br>
+ * The counters are updated atomically, so no calls get lost, but parallel calls of the same
+ * method contend on the current bucket. Rolling windows are therefore disabled by default,
+ * see {@link com.bw.jtools.profiling.ProfilingInformation#setRollingWindowsEnabled(boolean)}.<br>
+ * The bucket is selected by the time of the call end, which is passed by the caller, so recording reads no clock.
+ * Only the first dimension of measurement values is recorded.
+ */
+public final class RollingWindow
+{
+    /**
+     * Duration of one bucket in milliseconds.
+     */
+    public static final long BUCKET_MILLIS = 15000;
+
+    /**
+     * Number of buckets in the ring.
+     */
+    public static final int BUCKETS = 60;
+
+    private static final long BUCKET_NANOS = BUCKET_MILLIS * 1000000L;
+
+    private static final class Bucket
+    {
+        static final AtomicLongFieldUpdater<Bucket> CALLS = AtomicLongFieldUpdater.newUpdater(Bucket.class, "calls");
+        static final AtomicLongFieldUpdater<Bucket> SAMPLED_CALLS = AtomicLongFieldUpdater.newUpdater(Bucket.class, "sampledCalls");
+        static final AtomicLongFieldUpdater<Bucket> SUM = AtomicLongFieldUpdater.newUpdater(Bucket.class, "sum");
+
+        final long epoch;
+        volatile long calls;
+        volatile long sampledCalls;
+        volatile long sum;
+
+        Bucket(long epoch)
+        {
+            this.epoch = epoch;
+        }
+    }
+
+    private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(BUCKETS);
+
+    private Bucket getBucket(final long time)
+    {
+        final long epoch = time / BUCKET_NANOS;
+        final int idx = (int) Math.floorMod(epoch, (long) BUCKETS);
+        Bucket b = buckets.get(idx);
+        // A late call of an older epoch is added to the newer bucket.
+        if (b == null || b.epoch < epoch)
+        {
+            final Bucket nb = new Bucket(epoch);
+            if (buckets.compareAndSet(idx, b, nb))
+            {
+                return nb;
+            }
+            // Some other thread rotated the bucket.
+            b = buckets.get(idx);
+        }
+        return b;
+    }
+
+    /**
+     * Records a measured call.
+     * @param time The time of the call end, as returned by {@link System#nanoTime()}.
+     * @param value The first dimension of the measured value.
+     */
+    public void record(long time, long value)
+    {
+        final Bucket b = getBucket(time);
+        Bucket.CALLS.incrementAndGet(b);
+        Bucket.SAMPLED_CALLS.incrementAndGet(b);
+        Bucket.SUM.addAndGet(b, value);
+    }
+
+    /**
+     * Records a call that was not measured because of sampling.
+     * @param time The time of the call end, as returned by {@link System#nanoTime()}.
+     */
+    public void recordUnsampled(long time)
+    {
+        Bucket.CALLS.incrementAndGet(getBucket(time));
+    }
+
+    /**
+     * Gets the totals of recent calls.<br>
+     * The window is rounded up to full buckets and includes the current, incomplete bucket.
+     * @param windowMillis The duration of the window in milliseconds, at most 15 minutes.
+     * @return Number of calls, number of measured calls and sum of the measured values.
+     */
+    public long[] getTotals(long windowMillis)
+    {
+        final long current = System.nanoTime() / BUCKET_NANOS;
+        final long n = Math.min(BUCKETS, Math.max(1, (windowMillis + BUCKET_MILLIS - 1) / BUCKET_MILLIS));
+        final long[] totals = new long[3];
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            final Bucket b = buckets.get(i);
+            if (b != null && b.epoch > current - n && b.epoch <= current)
+            {
+                totals[0] += b.calls;
+                totals[1] += b.sampledCalls;
+                totals[2] += b.sum;
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Removes all buckets.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            buckets.set(i, null);
+        }
+    }
+}
@@ -30,11 +30,30 @@ import java.text.NumberFormat;
  */
 public final class SystemNanoTime extends AbstractMeasurementSource
 {
+    private static final MeasurementHeader HEADER = MeasurementHeader.of(Dimension.WALL);
 
     @Override
     public MeasurementValue getMeasurement()
     {
-        return new MeasurementValue( new long[] { System.nanoTime()} );
+        return new MeasurementValue( new long[] { System.nanoTime()}, HEADER );
+    }
+
+    @Override
+    public void getMeasurement(long[] target, int offset)
+    {
+        target[offset] = System.nanoTime();
+    }
+
+    @Override
+    public int getDimensions()
+    {
+        return 1;
+    }
+
+    @Override
+    public MeasurementHeader getHeader()
+    {
+        return HEADER;
     }
 
     @Override
@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling.measurement;
+
+import com.bw.jtools.log.OS;
+
+import java.text.NumberFormat;
+
+/**
+ * Measurement source that adds the bytes allocated by the current thread to the thread execution time.<br>
+ * Dimensions are system time in nanoseconds, thread time in nanoseconds (see {@link ThreadExecutionTime})
+ * and allocated bytes.<br>
+ * Uses the HotSpot extension com.sun.management.ThreadMXBean. If this is not available
+ * or allocation measurement is disabled, the allocated bytes are always 0.<br>
+ * Before Java 14 reading the value allocates itself. These bytes are calibrated and subtracted,
+ * see {@link #getMeasurementBias()}.
+ */
+public final class ThreadAllocation extends AbstractMeasurementSource
+{
+    private static final MeasurementHeader HEADER = MeasurementHeader.of(Dimension.WALL, Dimension.CPU, Dimension.ALLOCATED);
+    private final ThreadAllocationCounter counter;
+
+    public ThreadAllocation()
+    {
+        counter = ThreadAllocationCounter.create();
+    }
+
+    /**
+     * Returns true if allocated bytes are measured.
+     * @return True if the JVM supports allocation measurement.
+     */
+    public boolean isAllocationMeasurementUsed()
+    {
+        return counter != null;
+    }
+
+    /**
+     * Gets the bytes allocated by reading the value once.<br>
+     * Since Java 14 reading doesn't allocate. On older JVMs the calibrated number of bytes is subtracted
+     * from each value. If the JVM doesn't allocate the same bytes for each read, the difference remains in the values.
+     * @return The subtracted bytes per read, 0 if nothing is subtracted.
+     */
+    public long getMeasurementBias()
+    {
+        return counter == null ? 0 : counter.getBias();
+    }
+
+    private long getAllocatedBytes()
+    {
+        return counter == null ? 0 : counter.get();
+    }
+
+    @Override
+    public MeasurementValue getMeasurement()
+    {
+        return new MeasurementValue(new long[]
+        {
+            System.nanoTime(), OS.getThreadExecutionTimeNS(), getAllocatedBytes()
+        }, HEADER);
+    }
+
+    @Override
+    public void getMeasurement(long[] target, int offset)
+    {
+        target[offset] = System.nanoTime();
+        target[offset+1] = OS.getThreadExecutionTimeNS();
+        target[offset+2] = getAllocatedBytes();
+    }
+
+    @Override
+    public int getDimensions()
+    {
+        return 3;
+    }
+
+    @Override
+    public MeasurementHeader getHeader()
+    {
+        return HEADER;
+    }
+
+    @Override
+    public String formatValue(NumberFormat nf, MeasurementValue value)
+    {
+        StringBuilder sb = new StringBuilder(40);
+        if ( value != null ) {
+            sb.append(nf.format(value.values[0] / 1000000000.0)).append('s');
+            // Some values (e.g. percentiles) contain only the first dimension.
+            if ( value.values.length > 1 ) {
+                sb.append('/').append(nf.format(value.values[1] / 1000000000.0)).append('s');
+            }
+            if ( value.values.length > 2 ) {
+                sb.append('/');
+                formatBytes(sb, nf, value.values[2]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends a number of bytes with a binary unit (B, KiB, MiB or GiB).
+     * @param sb The builder to append to.
+     * @param nf The number format to use.
+     * @param bytes The number of bytes.
+     */
+    public static void formatBytes(StringBuilder sb, NumberFormat nf, long bytes)
+    {
+        final long abs = Math.abs(bytes);
+        if ( abs < 1024L ) {
+            sb.append(nf.format(bytes)).append('B');
+        } else if ( abs < 1024L*1024L ) {
+            sb.append(nf.format(bytes / 1024.0)).append("KiB");
+        } else if ( abs < 1024L*1024L*1024L ) {
+            sb.append(nf.format(bytes / (1024.0*1024.0))).append("MiB");
+        } else {
+            sb.append(nf.format(bytes / (1024.0*1024.0*1024.0))).append("GiB");
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling.measurement;
+
+import com.bw.jtools.Log;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads the number of bytes allocated by the current thread.<br>
+ * Uses the HotSpot extension com.sun.management.ThreadMXBean.
+ * Since Java 14 "getCurrentThreadAllocatedBytes()" reads the counter without allocating anything. It is
+ * called via a method handle, so this class still runs with Java 8.<br>
+ * On older JVMs only "getThreadAllocatedBytes(long)" is available, which allocates two small arrays on each call.
+ * These bytes are counted after the value was read, so each measured difference would contain the allocation
+ * of one read. The allocation of one read is calibrated on creation (see {@link #getBias()}) and subtracted per read
+ * of the thread. The result is exact as long as the JVM allocates the same number of bytes on each call.
+ */
+final class ThreadAllocationCounter
+{
+    /**
+     * Handle of "getCurrentThreadAllocatedBytes()" or null before Java 14.
+     */
+    private static final MethodHandle CURRENT_THREAD_ALLOCATED_BYTES = findCurrentThreadAllocatedBytes();
+
+    private static final int CALIBRATION_READS = 100;
+
+    private final com.sun.management.ThreadMXBean threadMXBean;
+
+    /**
+     * Bytes allocated by one read, 0 if reading doesn't allocate.
+     */
+    private final long bias;
+
+    /**
+     * Per thread: number of reads, only used if {@link #bias} is not 0.
+     */
+    private final ThreadLocal<long[]> reads = ThreadLocal.withInitial(() -> new long[1]);
+
+    private ThreadAllocationCounter(com.sun.management.ThreadMXBean threadMXBean)
+    {
+        this.threadMXBean = threadMXBean;
+        this.bias = CURRENT_THREAD_ALLOCATED_BYTES == null ? calibrate() : 0;
+    }
+
+    /**
+     * Creates a counter and enables the allocation measurement of the JVM.
+     * @return The counter or null if the JVM doesn't support allocation measurement.
+     */
+    static ThreadAllocationCounter create()
+    {
+        try
+        {
+            final ThreadMXBean tmb = ManagementFactory.getThreadMXBean();
+            if ( tmb instanceof com.sun.management.ThreadMXBean )
+            {
+                com.sun.management.ThreadMXBean mb = (com.sun.management.ThreadMXBean)tmb;
+                if ( mb.isThreadAllocatedMemorySupported() )
+                {
+                    if ( !mb.isThreadAllocatedMemoryEnabled() )
+                    {
+                        mb.setThreadAllocatedMemoryEnabled(true);
+                    }
+                    return new ThreadAllocationCounter(mb);
+                }
+            }
+        }
+        catch ( UnsupportedOperationException | SecurityException | LinkageError e )
+        {
+            Log.warn("Failed to enable Thread-Allocation-Measurement.", e);
+            return null;
+        }
+        Log.warn("JVM doesn't support Thread-Allocation-Measurement.");
+        return null;
+    }
+
+    private static MethodHandle findCurrentThreadAllocatedBytes()
+    {
+        try
+        {
+            return MethodHandles.publicLookup().findVirtual(com.sun.management.ThreadMXBean.class,
+                    "getCurrentThreadAllocatedBytes", MethodType.methodType(long.class));
+        }
+        catch ( NoSuchMethodException | IllegalAccessException | LinkageError e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the bytes allocated by one read that are subtracted from the values.
+     * @return The number of bytes, 0 if reading doesn't allocate.
+     */
+    long getBias()
+    {
+        return bias;
+    }
+
+    /**
+     * Gets the bytes allocated by the current thread so far, without the bytes allocated by previous reads.
+     * @return The number of bytes.
+     */
+    long get()
+    {
+        if ( bias == 0 )
+        {
+            return read();
+        }
+        final long[] r = reads.get();
+        return read() - (r[0]++) * bias;
+    }
+
+    private long read()
+    {
+        if ( CURRENT_THREAD_ALLOCATED_BYTES != null )
+        {
+            try
+            {
+                return (long)CURRENT_THREAD_ALLOCATED_BYTES.invokeExact(threadMXBean);
+            }
+            catch ( Throwable e )
+            {
+                return 0;
+            }
+        }
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Measures the bytes allocated by one read as the minimal difference of consecutive reads.
+     */
+    private long calibrate()
+    {
+        long min = Long.MAX_VALUE;
+        long last = read();
+        for ( int i = 0 ; i < CALIBRATION_READS ; ++i )
+        {
+            final long v = read();
+            min = Math.min(min, v - last);
+            last = v;
+        }
+        return Math.max(0, min);
+    }
+}
@@ -32,6 +32,7 @@ import java.text.NumberFormat;
  */
 public final class ThreadExecutionTime extends AbstractMeasurementSource
 {
+    private static final MeasurementHeader HEADER = MeasurementHeader.of(Dimension.WALL, Dimension.CPU);
 
     @Override
     public MeasurementValue getMeasurement()
@@ -39,16 +40,39 @@ public final class ThreadExecutionTime extends AbstractMeasurementSource
         return new MeasurementValue(new long[]
         {
             System.nanoTime(), OS.getThreadExecutionTimeNS()
-        });
+        }, HEADER);
+    }
+
+    @Override
+    public void getMeasurement(long[] target, int offset)
+    {
+        target[offset] = System.nanoTime();
+        target[offset+1] = OS.getThreadExecutionTimeNS();
+    }
+
+    @Override
+    public int getDimensions()
+    {
+        return 2;
+    }
+
+    @Override
+    public MeasurementHeader getHeader()
+    {
+        return HEADER;
     }
 
     @Override
     public String formatValue(NumberFormat nf, MeasurementValue value)
     {
         StringBuilder sb = new StringBuilder(30);
-        sb
-                .append(nf.format(value.values[0] / 1000000000.0)).append("s/")
-                .append(nf.format(value.values[1] / 1000000000.0)).append('s');
+        if ( value != null ) {
+            sb.append(nf.format(value.values[0] / 1000000000.0)).append('s');
+            // Some values (e.g. percentiles) contain only the first dimension.
+            if ( value.values.length > 1 ) {
+                sb.append('/').append(nf.format(value.values[1] / 1000000000.0)).append('s');
+            }
+        }
         return sb.toString();
     }
 }
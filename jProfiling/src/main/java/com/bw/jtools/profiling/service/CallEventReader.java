@@ -0,0 +1,241 @@
+package com.bw.jtools.profiling.service;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a file of the {@link CallEventService}.<br>
+ * The file is read as stream, only the declarations of threads and methods are kept in memory.
+ * So files of any size can be processed.<br>
+ * Can also be used from command line:<br>
+ * <pre>
+ *  java -cp ... com.bw.jtools.profiling.service.CallEventReader &lt;file&gt; ...
+ * </pre>
+ * Prints all events as text.
+ */
+public class CallEventReader implements Closeable
+{
+	/**
+	 * Receiver of the events.
+	 */
+	public static interface Handler
+	{
+		/**
+		 * Called for each enter- or exit-event.
+		 * @param thread The thread reference, see {@link CallEventReader#getThreadName(int)}.
+		 * @param method The method index, see {@link CallEventReader#getMethodName(int)}.
+		 * @param enter True for the start of a call, false for the end.
+		 * @param time The time in nanoseconds, see {@link CallEventReader#getStartNanos()}.
+		 */
+		public void event(int thread, int method, boolean enter, long time);
+
+		/**
+		 * Called if events of a thread were dropped by the recorder.
+		 * @param thread The thread reference.
+		 * @param count The number of dropped events.
+		 */
+		public void dropped(int thread, long count);
+	}
+
+	private final DataInputStream in;
+	private final long startTime;
+	private final long startNanos;
+	private final List<String> threadNames = new ArrayList<>();
+	private final List<Long> threadIds = new ArrayList<>();
+	private final Map<Integer,String> methodNames = new HashMap<>();
+
+	/**
+	 * Opens a stream and reads the file header.
+	 * @param stream The stream, will be closed by {@link #close()}.
+	 * @throws IOException If the stream can't be read or is no call event file.
+	 */
+	public CallEventReader(InputStream stream) throws IOException
+	{
+		in = new DataInputStream(stream instanceof BufferedInputStream ? stream : new BufferedInputStream(stream, 64*1024));
+		if ( in.readInt() != CallEventService.MAGIC || in.readInt() != CallEventService.VERSION )
+		{
+			in.close();
+			throw new IOException("Unknown file format");
+		}
+		startTime = in.readLong();
+		startNanos = in.readLong();
+	}
+
+	/**
+	 * Gets the wall-clock time of the file start.
+	 * @return The time in milliseconds since epoch.
+	 */
+	public long getStartTime()
+	{
+		return startTime;
+	}
+
+	/**
+	 * Gets the nanoseconds that correspond to {@link #getStartTime()}.<br>
+	 * Event times are relative to an arbitrary origin, only differences are meaningful.
+	 * @return The value of System.nanoTime at start of the file.
+	 */
+	public long getStartNanos()
+	{
+		return startNanos;
+	}
+
+	/**
+	 * Gets the name of a declared thread.
+	 * @param thread The thread reference.
+	 * @return The name or null if not declared.
+	 */
+	public String getThreadName(int thread)
+	{
+		return thread >= 0 && thread < threadNames.size() ? threadNames.get(thread) : null;
+	}
+
+	/**
+	 * Gets the Java id of a declared thread.
+	 * @param thread The thread reference.
+	 * @return The id or -1 if not declared.
+	 */
+	public long getThreadId(int thread)
+	{
+		return thread >= 0 && thread < threadIds.size() ? threadIds.get(thread) : -1;
+	}
+
+	/**
+	 * Gets the name of a declared method.
+	 * @param method The method index.
+	 * @return The name as "class.method" or null if not declared.
+	 */
+	public String getMethodName(int method)
+	{
+		return methodNames.get(method);
+	}
+
+	/**
+	 * Reads all records and passes the events to the handler.<br>
+	 * A truncated last record, e.g. of a file that is still written, is ignored.
+	 * @param handler The handler.
+	 * @throws IOException If the stream can't be read or contains an unknown record.
+	 */
+	public void read(Handler handler) throws IOException
+	{
+		while (true)
+		{
+			final int type = in.read();
+			if ( type < 0 )
+			{
+				return;
+			}
+			try
+			{
+				switch ( type )
+				{
+					case CallEventService.RECORD_THREAD:
+					{
+						final int ref = in.readInt();
+						final long id = in.readLong();
+						final String name = readString();
+						while ( threadNames.size() <= ref )
+						{
+							threadNames.add(null);
+							threadIds.add(-1L);
+						}
+						threadNames.set(ref, name);
+						threadIds.set(ref, id);
+						break;
+					}
+					case CallEventService.RECORD_METHOD:
+					{
+						final int index = in.readInt();
+						methodNames.put(index, readString());
+						break;
+					}
+					case CallEventService.RECORD_ENTER:
+					case CallEventService.RECORD_EXIT:
+					{
+						final int thread = in.readInt();
+						final int method = in.readInt();
+						handler.event(thread, method, type == CallEventService.RECORD_ENTER, in.readLong());
+						break;
+					}
+					case CallEventService.RECORD_DROPPED:
+					{
+						final int thread = in.readInt();
+						handler.dropped(thread, in.readLong());
+						break;
+					}
+					default:
+						throw new IOException("Unknown record type "+type);
+				}
+			}
+			catch ( EOFException e )
+			{
+				return;
+			}
+		}
+	}
+
+	private String readString() throws IOException
+	{
+		final byte[] b = new byte[in.readUnsignedShort()];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	/**
+	 * Prints the events of files.
+	 * @param args The files.
+	 */
+	public static void main(String[] args)
+	{
+		if ( args.length < 1 )
+		{
+			System.err.println("Usage: CallEventReader <file> ...");
+			System.exit(1);
+		}
+		final SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		for ( String file : args )
+		{
+			try (CallEventReader r = new CallEventReader(new FileInputStream(file)))
+			{
+				System.out.println(file+": started "+df.format(new Date(r.getStartTime())));
+				r.read(new Handler()
+				{
+					@Override
+					public void event(int thread, int method, boolean enter, long time)
+					{
+						System.out.println( String.format("%,15d %-20s %s %s", time-r.getStartNanos(),
+								r.getThreadName(thread), enter ? ">" : "<", r.getMethodName(method)) );
+					}
+
+					@Override
+					public void dropped(int thread, long count)
+					{
+						System.out.println( count+" events of "+r.getThreadName(thread)+" dropped");
+					}
+				});
+			}
+			catch (IOException e)
+			{
+				System.err.println("Failed to read "+file+": "+e.getMessage());
+			}
+		}
+	}
+}
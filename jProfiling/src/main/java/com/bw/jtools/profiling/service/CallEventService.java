@@ -0,0 +1,371 @@
+package com.bw.jtools.profiling.service;
+
+import com.bw.jtools.Log;
+import com.bw.jtools.io.ServiceRunner;
+import com.bw.jtools.persistence.MissingPropertyException;
+import com.bw.jtools.persistence.StorageBase;
+import com.bw.jtools.profiling.CallEventRecorder;
+import com.bw.jtools.profiling.MethodProfilingInformation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Profiling Call Event Service.
+ * Executes a thread that drains the events of the {@link CallEventRecorder} into a binary file.<br>
+ * The recorder is enabled while the service runs. If a file reaches the maximal size, it is renamed to
+ * "file.1" (older files to "file.2" and so on) and a new file is started. Each file is self-contained.
+ * Events that were dropped because a ring was full are reported in the file and logged.<br>
+ * Options:
+ * <table><caption></caption>
+ * <tr><td><b>delay</b></td><td>delay in milliseconds between drains. Default is 100.</td></tr>
+ * <tr><td><b>file</b></td><td>path of the event file.</td></tr>
+ * <tr><td><b>maxFileSize</b></td><td>Size in megabytes of a file before it is rotated. Default is 64.</td></tr>
+ * <tr><td><b>maxFiles</b></td><td>Number of rotated files to keep. Default is 4.</td></tr>
+ * <tr><td><b>bufferSize</b></td><td>Number of events in the ring of each thread. Default is 8192.</td></tr>
+ * </table>
+ * <br>
+ * Layout of a file, all numbers are big-endian:
+ * <table><caption></caption>
+ * <tr><td><b>0</b></td><td>int magic 0x6A504556 ("jPEV")</td></tr>
+ * <tr><td><b>4</b></td><td>int version, currently 1</td></tr>
+ * <tr><td><b>8</b></td><td>long wall-clock time in milliseconds since epoch, taken together with the following value</td></tr>
+ * <tr><td><b>16</b></td><td>long System.nanoTime at the same moment, base of all event times</td></tr>
+ * <tr><td style="vertical-align :top;"><b>24</b></td><td>Records, each starts with a byte type:<br>
+ *      {@link #RECORD_THREAD}: int reference, long thread id, short length and UTF-8 bytes of the name.<br>
+ *      {@link #RECORD_METHOD}: int method index, short length and UTF-8 bytes of "class.method".<br>
+ *      {@link #RECORD_ENTER}, {@link #RECORD_EXIT}: int thread reference, int method index, long System.nanoTime.<br>
+ *      {@link #RECORD_DROPPED}: int thread reference, long number of dropped events.<br>
+ *      Threads and methods are declared before their first use in each file.</td></tr>
+ * </table>
+ */
+public class CallEventService
+{
+	static final int MAGIC = 0x6A504556;
+	static final int VERSION = 1;
+
+	static final byte RECORD_THREAD = 1;
+	static final byte RECORD_METHOD = 2;
+	static final byte RECORD_ENTER = 3;
+	static final byte RECORD_EXIT = 4;
+	static final byte RECORD_DROPPED = 5;
+
+	/**
+	 * Runnable to executed in service runner.
+	 */
+	static class Service implements ServiceRunner.Service, CallEventRecorder.Sink
+	{
+		volatile String file;
+		volatile long maxFileSize = 64L*1024*1024;
+		volatile int maxFiles = 4;
+
+		/**
+		 * Set if the configuration was changed, a new file is started by the service thread.
+		 */
+		volatile boolean recreate;
+
+		FileChannel channel;
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(64*1024);
+
+		/**
+		 * Declarations of the current file.
+		 */
+		final Map<Long,Integer> threads = new HashMap<>();
+		final BitSet methods = new BitSet();
+
+		long written;
+		long dropped;
+		long droppedLogged;
+
+		@Override
+		public String getName()
+		{
+			return "CallEvent";
+		}
+
+		@Override
+		public synchronized boolean work()
+		{
+			if ( !CallEventRecorder.isEnabled() )
+			{
+				// Stopped.
+				finish();
+				return false;
+			}
+			try
+			{
+				if ( channel == null || recreate )
+				{
+					recreate = false;
+					open();
+				}
+				CallEventRecorder.drain(this);
+				flush();
+				if ( dropped != droppedLogged )
+				{
+					Log.warn( (dropped-droppedLogged)+" call events dropped, "+dropped+" in total. Increase option bufferSize or reduce delay." );
+					droppedLogged = dropped;
+				}
+				if ( written >= maxFileSize )
+				{
+					rotate();
+				}
+				return true;
+			}
+			catch (IOException | UncheckedIOException e)
+			{
+				Log.error( "Failed to write call events to "+file, e );
+				CallEventRecorder.setEnabled(false);
+				close();
+				return false;
+			}
+		}
+
+		private void open() throws IOException
+		{
+			close();
+			channel = FileChannel.open(new File(file).toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			threads.clear();
+			methods.clear();
+			buffer.clear();
+			written = 0;
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putLong(System.currentTimeMillis());
+			buffer.putLong(System.nanoTime());
+			Log.info( "Writing call events to "+file );
+		}
+
+		/**
+		 * Closes the current file and renames all files.<br>
+		 * The current file becomes "file.1", the oldest of the {@link #maxFiles} rotated files is replaced.
+		 */
+		private void rotate() throws IOException
+		{
+			close();
+			for ( int i=maxFiles ; i>=1 ; --i )
+			{
+				File f = new File(i == 1 ? file : file+"."+(i-1));
+				if ( f.exists() )
+				{
+					File t = new File(file+"."+i);
+					if ( t.exists() && !t.delete() )
+					{
+						throw new IOException("Can't delete "+t);
+					}
+					if ( !f.renameTo(t) )
+					{
+						throw new IOException("Can't rename "+f);
+					}
+				}
+			}
+			open();
+		}
+
+		/**
+		 * Writes the remaining events and closes the file.<br>
+		 * A newly configured file is opened first, e.g. if the service is stopped before it did any work.
+		 * If no file can be written (e.g. after an error), the remaining events are discarded, so that they don't show up in a later file.
+		 */
+		synchronized void finish()
+		{
+			try
+			{
+				if ( recreate && file != null )
+				{
+					recreate = false;
+					open();
+				}
+				CallEventRecorder.drain(channel != null ? this : DISCARD);
+			}
+			catch (IOException | UncheckedIOException e)
+			{
+				Log.error( "Failed to write call events to "+file, e );
+				CallEventRecorder.drain(DISCARD);
+			}
+			close();
+		}
+
+		synchronized void close()
+		{
+			if ( channel != null )
+			{
+				try
+				{
+					flush();
+					channel.close();
+				}
+				catch (IOException e)
+				{
+					Log.error( "Failed to close "+file, e );
+				}
+				channel = null;
+			}
+		}
+
+		private void flush() throws IOException
+		{
+			buffer.flip();
+			while ( buffer.hasRemaining() )
+			{
+				written += channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		/**
+		 * Ensures space in the buffer, flushes if needed.
+		 * Exceptions are passed through the recorder to {@link #work()}.
+		 */
+		private void ensure(int bytes)
+		{
+			if ( buffer.remaining() < bytes )
+			{
+				try
+				{
+					flush();
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+
+		private void putString(String s)
+		{
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			final int len = Math.min(b.length, Math.min(Short.MAX_VALUE, buffer.capacity()-16));
+			ensure(2+len);
+			buffer.putShort((short)len);
+			buffer.put(b, 0, len);
+		}
+
+		private int threadReference(long threadId, String threadName)
+		{
+			Integer ref = threads.get(threadId);
+			if ( ref == null )
+			{
+				ref = threads.size();
+				threads.put(threadId, ref);
+				ensure(13);
+				buffer.put(RECORD_THREAD);
+				buffer.putInt(ref);
+				buffer.putLong(threadId);
+				putString(threadName);
+			}
+			return ref;
+		}
+
+		@Override
+		public void event(long threadId, String threadName, int method, int type, long time)
+		{
+			final int ref = threadReference(threadId, threadName);
+			if ( !methods.get(method) )
+			{
+				methods.set(method);
+				final MethodProfilingInformation mi = MethodProfilingInformation.getMethodInformation(method);
+				ensure(5);
+				buffer.put(RECORD_METHOD);
+				buffer.putInt(method);
+				putString( mi == null ? "?" : (mi.clazz == null ? mi.name : mi.clazz.name+"."+mi.name) );
+			}
+			ensure(17);
+			buffer.put(type == CallEventRecorder.ENTER ? RECORD_ENTER : RECORD_EXIT);
+			buffer.putInt(ref);
+			buffer.putInt(method);
+			buffer.putLong(time);
+		}
+
+		@Override
+		public void dropped(long threadId, String threadName, long count)
+		{
+			final int ref = threadReference(threadId, threadName);
+			ensure(13);
+			buffer.put(RECORD_DROPPED);
+			buffer.putInt(ref);
+			buffer.putLong(count);
+			dropped += count;
+		}
+	}
+
+	/**
+	 * Sink that ignores all events.
+	 */
+	private static final CallEventRecorder.Sink DISCARD = new CallEventRecorder.Sink()
+	{
+		@Override
+		public void event(long threadId, String threadName, int method, int type, long time)
+		{
+		}
+
+		@Override
+		public void dropped(long threadId, String threadName, long count)
+		{
+		}
+	};
+
+	private static ServiceRunner serviceRunner;
+	private static Service service_;
+
+	/**
+	 * Starts call event service or update current options.<br>
+	 * Changes of "file" start a new file.
+	 *
+	 * @param config Map of configuration options. See class comments
+	 */
+	public static synchronized void start(StorageBase config)
+	{
+		try
+		{
+			if (serviceRunner == null)
+			{
+				service_ = new Service();
+				serviceRunner = new ServiceRunner( service_ );
+				serviceRunner.setDelay(100);
+			}
+			// Mandatory arguments
+			final String file = config.getString("file");
+
+			// Optional arguments
+			service_.maxFileSize = 1024L*1024*Math.max(1, config.getInt("maxFileSize", (int)(service_.maxFileSize/(1024*1024))));
+			service_.maxFiles = Math.max(1, config.getInt("maxFiles", service_.maxFiles));
+			CallEventRecorder.setBufferSize(config.getInt("bufferSize", CallEventRecorder.getBufferSize()));
+			if ( !file.equals(service_.file) )
+			{
+				service_.file = file;
+				service_.recreate = true;
+			}
+
+			CallEventRecorder.setEnabled(true);
+			serviceRunner.configureAndStart(config);
+
+		} catch ( MissingPropertyException e )
+		{
+			Log.info("Call Event Service not started due to missing configuration value for "+e.getKey());
+		}
+	}
+
+	/**
+	 * Stop call event service.<br>
+	 * Recording is disabled, remaining events are written and the file is closed.
+	 */
+	public static synchronized void stop()
+	{
+		if ( serviceRunner != null) {
+			CallEventRecorder.setEnabled(false);
+			serviceRunner.stop();
+			service_.finish();
+		}
+	}
+
+}
@@ -0,0 +1,509 @@
+package com.bw.jtools.profiling.service;
+
+import com.bw.jtools.profiling.Exemplar;
+import com.bw.jtools.profiling.callgraph.CallEdge;
+import com.bw.jtools.profiling.callgraph.CallNode;
+import com.bw.jtools.profiling.callgraph.JSONCallGraphParser;
+import com.bw.jtools.profiling.callgraph.NodeDetail;
+import com.bw.jtools.profiling.measurement.DateTimeValue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts call events and slow-call exemplars into the Chrome Trace Event format.<br>
+ * The output can be opened by "chrome://tracing" or the Perfetto UI. Each call becomes a complete event ("X")
+ * on the track of its thread. Call events are shown as process 1, exemplars as process 2.<br>
+ * Call event files of {@link CallEventService} are converted as stream. Only the active calls of threads
+ * with open calls are kept in memory, so recordings of any size are converted in constant memory.
+ * The names of the last {@link #MAX_THREAD_NAMES} threads are remembered, names of other threads are written again.
+ * An exit event is matched with the last enter of the same method in the same thread. Calls that are still active
+ * at the end are written as begin-events ("B"), dropped events as instant-events.<br>
+ * Exemplars have no start time for nested calls, so nested calls are placed one after an other from the start of their caller.
+ * Exemplars from JSON logs have a start time with a resolution of seconds.
+ * Repeated exemplars are detected among the last {@link #MAX_EXEMPLAR_KEYS} exemplars.<br>
+ * Can also be used from command line:<br>
+ * <pre>
+ *  java -cp ... com.bw.jtools.profiling.service.ChromeTraceExporter [-o &lt;output file&gt;] &lt;file&gt; ...
+ * </pre>
+ * Input files are call event files or JSON logs of call graphs with exemplars, see {@link com.bw.jtools.profiling.callgraph.Options#ADD_EXEMPLARS}.
+ * Rotated call event files have to be given in the order of recording, oldest first. Without output file, the result is written to stdout.
+ */
+public class ChromeTraceExporter implements Closeable
+{
+	static final int PID_EVENTS = 1;
+	static final int PID_EXEMPLARS = 2;
+
+	/**
+	 * Number of threads whose names are remembered.
+	 */
+	public static final int MAX_THREAD_NAMES = 1024;
+
+	/**
+	 * Number of exemplars that are remembered to skip repeated exemplars.
+	 * Logs repeat the exemplars of all methods in each graph, so this shall be larger than the exemplars of one graph.
+	 */
+	public static final int MAX_EXEMPLAR_KEYS = 10000;
+
+	/**
+	 * Map that keeps only the recently used entries.
+	 */
+	private static final class RecentMap<K,V> extends LinkedHashMap<K,V>
+	{
+		private static final long serialVersionUID = 1L;
+		private final int max;
+
+		RecentMap(int max)
+		{
+			super(16, 0.75f, true);
+			this.max = max;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K,V> eldest)
+		{
+			return size() > max;
+		}
+	}
+
+	/**
+	 * Active calls of a thread.
+	 */
+	private static final class ThreadState
+	{
+		int[] methods = new int[16];
+		long[] starts = new long[16];
+		String[] names = new String[16];
+		int size;
+
+		void push(int method, String name, long time)
+		{
+			if ( size == methods.length )
+			{
+				methods = Arrays.copyOf(methods, 2*size);
+				starts = Arrays.copyOf(starts, 2*size);
+				names = Arrays.copyOf(names, 2*size);
+			}
+			methods[size] = method;
+			starts[size] = time;
+			names[size] = name;
+			++size;
+		}
+	}
+
+	private final Writer out;
+	private final StringBuilder sb = new StringBuilder(256);
+	private boolean first = true;
+
+	/** Threads with active calls. */
+	private final Map<Long,ThreadState> threads = new HashMap<>();
+	private final Map<Long,String> threadNames = new RecentMap<>(MAX_THREAD_NAMES);
+	private long lastTime = Long.MIN_VALUE;
+	private final Map<String,Integer> exemplarThreads = new HashMap<>();
+	private final Map<String,Boolean> exemplarKeys = new RecentMap<>(MAX_EXEMPLAR_KEYS);
+
+	/**
+	 * Starts the output.
+	 * @param out The writer, will be closed by {@link #close()}.
+	 * @throws IOException If writing fails.
+	 */
+	public ChromeTraceExporter(Writer out) throws IOException
+	{
+		this.out = out;
+		out.write("{\"traceEvents\":[");
+		metadata("process_name", PID_EVENTS, 0, "Call events");
+		metadata("process_name", PID_EXEMPLARS, 0, "Slow-call exemplars");
+	}
+
+	/**
+	 * Converts all events of a call event file.<br>
+	 * Active calls are kept for the next file, so rotated files can be added in order.
+	 * @param reader The reader, positioned after the header.
+	 * @throws IOException If reading or writing fails.
+	 */
+	public void addEvents(final CallEventReader reader) throws IOException
+	{
+		final long base = reader.getStartTime()*1000000L - reader.getStartNanos();
+		try
+		{
+			reader.read(new CallEventReader.Handler()
+			{
+				@Override
+				public void event(int thread, int method, boolean enter, long time)
+				{
+					final long id = reader.getThreadId(thread);
+					final long t = base + time;
+					lastTime = t;
+					nameThread(reader, thread);
+					ThreadState ts = threads.get(id);
+					if ( enter )
+					{
+						if ( ts == null )
+						{
+							ts = new ThreadState();
+							threads.put(id, ts);
+						}
+						String name = reader.getMethodName(method);
+						ts.push(method, name == null ? String.valueOf(method) : name, t);
+					}
+					else if ( ts != null )
+					{
+						int i = ts.size;
+						while ( i > 0 && ts.methods[i-1] != method )
+						{
+							--i;
+						}
+						if ( i > 0 )
+						{
+							// Calls above the matching enter lost their exit, they end with the caller.
+							while ( ts.size >= i )
+							{
+								--ts.size;
+								complete(PID_EVENTS, id, ts.names[ts.size], ts.starts[ts.size], t-ts.starts[ts.size], -1);
+							}
+							if ( ts.size == 0 )
+							{
+								threads.remove(id);
+							}
+						}
+					}
+				}
+
+				@Override
+				public void dropped(int thread, long count)
+				{
+					nameThread(reader, thread);
+					final long t = lastTime == Long.MIN_VALUE ? base + reader.getStartNanos() : lastTime;
+					begin(PID_EVENTS, reader.getThreadId(thread), "dropped events", 'i', t);
+					sb.append(",\"s\":\"t\",\"args\":{\"count\":").append(count).append("}}");
+					flushEvent();
+				}
+			});
+		}
+		catch ( WriteException e )
+		{
+			throw e.io;
+		}
+	}
+
+	/**
+	 * Wraps write errors, as the handler can't throw checked exceptions.
+	 */
+	private static final class WriteException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+		final IOException io;
+
+		WriteException(IOException io)
+		{
+			super(io);
+			this.io = io;
+		}
+	}
+
+	/**
+	 * Writes the name of a thread, if it was not written recently.
+	 */
+	private void nameThread(CallEventReader reader, int thread)
+	{
+		final long id = reader.getThreadId(thread);
+		final String name = reader.getThreadName(thread);
+		final String key = name == null ? "" : name;
+		if ( !key.equals(threadNames.get(id)) )
+		{
+			threadNames.put(id, key);
+			metadata("thread_name", PID_EVENTS, id, name);
+		}
+	}
+
+	/**
+	 * Adds an exemplar that was taken in this process.
+	 * @param e The exemplar.
+	 * @throws IOException If writing fails.
+	 */
+	public void addExemplar(Exemplar e) throws IOException
+	{
+		addExemplar(e.toCallNode(true), e.startTime*1000000L);
+	}
+
+	/**
+	 * Adds an exemplar, e.g. from a parsed JSON log, see {@link CallNode#exemplars}.<br>
+	 * Exemplars that were already added are ignored, as logs repeat exemplars until the next reset.
+	 * @param root The root of the exemplar.
+	 * @throws IOException If writing fails.
+	 */
+	public void addExemplar(CallNode root) throws IOException
+	{
+		long start = 0;
+		if ( root.details != null )
+		{
+			for ( NodeDetail d : root.details )
+			{
+				if ( d.ID == NodeDetail.DETAIL_START && d.value instanceof DateTimeValue )
+				{
+					Calendar c = ((DateTimeValue)d.value).toTime();
+					c.set(Calendar.MILLISECOND, 0);
+					start = c.getTimeInMillis()*1000000L;
+				}
+			}
+		}
+		addExemplar(root, start);
+	}
+
+	private void addExemplar(CallNode root, long start) throws IOException
+	{
+		final String key = root.thread+'|'+root.name+'|'+start+'|'+(root.value == null ? "" : Arrays.toString(root.value.values));
+		if ( exemplarKeys.put(key, Boolean.TRUE) != null )
+		{
+			return;
+		}
+		final String thread = root.thread == null ? "?" : root.thread;
+		Integer tid = exemplarThreads.get(thread);
+		if ( tid == null )
+		{
+			tid = exemplarThreads.size()+1;
+			exemplarThreads.put(thread, tid);
+			metadata("thread_name", PID_EXEMPLARS, tid, thread);
+		}
+		try
+		{
+			addFrame(root, root.calls, tid, start);
+		}
+		catch ( WriteException e )
+		{
+			throw e.io;
+		}
+	}
+
+	private void addFrame(CallNode node, int calls, int tid, long start)
+	{
+		final long duration = node.value == null ? 0 : node.value.values[0];
+		complete(PID_EXEMPLARS, tid, node.name, start, duration, calls);
+		long t = start;
+		for ( CallEdge e : node.edges )
+		{
+			addFrame(e.callee, e.calls, tid, t);
+			if ( e.callee.value != null )
+			{
+				t += e.callee.value.values[0];
+			}
+		}
+	}
+
+	/**
+	 * Writes the active calls as begin-events and ends the output.
+	 * @throws IOException If writing fails.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			for ( Map.Entry<Long,ThreadState> e : threads.entrySet() )
+			{
+				final ThreadState ts = e.getValue();
+				for ( int i=0 ; i<ts.size ; ++i )
+				{
+					begin(PID_EVENTS, e.getKey(), ts.names[i], 'B', ts.starts[i]);
+					sb.append('}');
+					flushEvent();
+				}
+			}
+			threads.clear();
+		}
+		catch ( WriteException e )
+		{
+			throw e.io;
+		}
+		out.write("\n]}\n");
+		out.close();
+	}
+
+	private void complete(int pid, long tid, String name, long start, long duration, int calls)
+	{
+		begin(pid, tid, name, 'X', start);
+		sb.append(",\"dur\":");
+		appendMicros(Math.max(0, duration));
+		if ( calls > 1 )
+		{
+			sb.append(",\"args\":{\"calls\":").append(calls).append('}');
+		}
+		sb.append('}');
+		flushEvent();
+	}
+
+	private void begin(int pid, long tid, String name, char phase, long time)
+	{
+		sb.setLength(0);
+		sb.append(first ? "\n" : ",\n");
+		first = false;
+		sb.append("{\"name\":");
+		appendString(name);
+		sb.append(",\"cat\":\"call\",\"ph\":\"").append(phase).append("\",\"pid\":").append(pid)
+		  .append(",\"tid\":").append(tid).append(",\"ts\":");
+		appendMicros(time);
+	}
+
+	private void metadata(String type, int pid, long tid, String name)
+	{
+		sb.setLength(0);
+		sb.append(first ? "\n" : ",\n");
+		first = false;
+		sb.append("{\"name\":\"").append(type).append("\",\"ph\":\"M\",\"pid\":").append(pid)
+		  .append(",\"tid\":").append(tid).append(",\"args\":{\"name\":");
+		appendString(name);
+		sb.append("}}");
+		flushEvent();
+	}
+
+	private void flushEvent()
+	{
+		try
+		{
+			out.append(sb);
+		}
+		catch ( IOException e )
+		{
+			throw new WriteException(e);
+		}
+	}
+
+	/**
+	 * Appends nanoseconds as microseconds with three decimals.
+	 */
+	private void appendMicros(long nanos)
+	{
+		if ( nanos < 0 )
+		{
+			sb.append('-');
+			nanos = -nanos;
+		}
+		final long f = nanos % 1000;
+		sb.append(nanos / 1000).append('.');
+		if ( f < 100 ) sb.append('0');
+		if ( f < 10 ) sb.append('0');
+		sb.append(f);
+	}
+
+	private void appendString(String text)
+	{
+		if ( text == null )
+		{
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for ( int i=0 ; i<text.length() ; ++i )
+		{
+			final char c = text.charAt(i);
+			switch ( c )
+			{
+				case '"' : sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\b': sb.append("\\b" ); break;
+				case '\f': sb.append("\\f" ); break;
+				case '\n': sb.append("\\n" ); break;
+				case '\r': sb.append("\\r" ); break;
+				case '\t': sb.append("\\t" ); break;
+				default:
+					if ( c < 0x20 )
+						sb.append(String.format("\\u%04x", (int)c));
+					else
+						sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	private static void addExemplars(ChromeTraceExporter exporter, CallNode node) throws IOException
+	{
+		if ( node.exemplars != null )
+		{
+			for ( CallNode e : node.exemplars )
+			{
+				exporter.addExemplar(e);
+			}
+		}
+		for ( CallEdge e : node.edges )
+		{
+			addExemplars(exporter, e.callee);
+		}
+	}
+
+	/**
+	 * Converts files.
+	 * @param args Optional "-o" and the output file, followed by the input files.
+	 */
+	public static void main(String[] args)
+	{
+		String output = null;
+		List<String> files = new ArrayList<>();
+		for ( int i=0 ; i<args.length ; ++i )
+		{
+			if ( "-o".equals(args[i]) && i+1 < args.length )
+			{
+				output = args[++i];
+			}
+			else
+			{
+				files.add(args[i]);
+			}
+		}
+		if ( files.isEmpty() )
+		{
+			System.err.println("Usage: ChromeTraceExporter [-o <output file>] <file> ...");
+			System.exit(1);
+		}
+		try (ChromeTraceExporter exporter = new ChromeTraceExporter(new BufferedWriter(new OutputStreamWriter(
+				output == null ? System.out : new FileOutputStream(output), StandardCharsets.UTF_8), 64*1024)))
+		{
+			for ( String file : files )
+			{
+				InputStream in = new BufferedInputStream(new FileInputStream(file), 64*1024);
+				in.mark(4);
+				final int magic = (in.read() << 24) | (in.read() << 16) | (in.read() << 8) | in.read();
+				in.reset();
+				if ( magic == CallEventService.MAGIC )
+				{
+					try (CallEventReader r = new CallEventReader(in))
+					{
+						exporter.addEvents(r);
+					}
+				}
+				else
+				{
+					JSONCallGraphParser parser = new JSONCallGraphParser();
+					try (InputStreamReader r = new InputStreamReader(in, StandardCharsets.UTF_8))
+					{
+						parser.parse(r);
+					}
+					for ( JSONCallGraphParser.GraphInfo g : parser.getCallGraphs() )
+					{
+						addExemplars(exporter, g.root);
+					}
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println("Failed to export: "+e.getMessage());
+			System.exit(2);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.bw.jtools.profiling.service;
+
+import com.bw.jtools.Log;
+import com.bw.jtools.persistence.StorageBase;
+import com.bw.jtools.profiling.MethodProfilingInformation;
+
+/**
+ * Profiling JFR Service.
+ * Emits profiling data as Java Flight Recorder events:
+ * <ul>
+ * <li>"com.bw.jtools.profiling.MethodCall": a measured call that exceeded the threshold, with class and method name and
+ *     the measured value. Emitted by the calling thread.</li>
+ * <li>"com.bw.jtools.profiling.MethodStatistics": periodic aggregates of each called method since the last reset,
+ *     with number of calls, total, self, mean, minimum and maximum value. The period is controlled by the JFR
+ *     setting "period" of the event, default is 60 seconds.</li>
+ * </ul>
+ * Events are only created while a recording has them enabled, JFR buffering and settings apply as for all events.
+ * Values are the first dimension of the measurement, normally nanoseconds.<br>
+ * JFR classes are only loaded if package "jdk.jfr" is available (Java 11 or 8u262 and newer). The bridge to the
+ * JFR API is compiled to Java 8 bytecode in the separate source set "jfr", which is skipped if the build JDK has no JFR.
+ * On other JVMs or without the bridge the service logs a warning or an error and does nothing.<br>
+ * Options:
+ * <table><caption></caption>
+ * <tr><td><b>threshold</b></td><td>Threshold in microseconds for call events. Default is 10000. A negative value disables call events.</td></tr>
+ * </table>
+ */
+public class JFRService
+{
+	/**
+	 * Implemented by the class that references the JFR API.
+	 */
+	interface Bridge extends MethodProfilingInformation.SlowCallListener
+	{
+		/**
+		 * Removes all registrations from the flight recorder.
+		 */
+		void close();
+	}
+
+	static final String BRIDGE_CLASS = "com.bw.jtools.profiling.service.JFRBridge";
+
+	private static Bridge bridge_;
+
+	/**
+	 * Checks if JFR is available in this JVM.
+	 * @return True if events can be emitted.
+	 */
+	public static boolean isAvailable()
+	{
+		try
+		{
+			Class<?> fr = Class.forName("jdk.jfr.FlightRecorder");
+			return (Boolean)fr.getMethod("isAvailable").invoke(null);
+		}
+		catch ( Throwable e )
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Starts the service.
+	 * If the service is already running, the configuration is updated.
+	 * @param config The configuration.
+	 */
+	public static synchronized void start(StorageBase config)
+	{
+		if ( bridge_ == null )
+		{
+			if ( !isAvailable() )
+			{
+				Log.warn("JFR Service not started, Java Flight Recorder is not available.");
+				return;
+			}
+			try
+			{
+				bridge_ = (Bridge)Class.forName(BRIDGE_CLASS).getDeclaredConstructor().newInstance();
+			}
+			catch ( Throwable e )
+			{
+				Log.error("JFR Service failed to start", e);
+				return;
+			}
+		}
+		final int threshold = config.getInt("threshold", 10000);
+		MethodProfilingInformation.setSlowCallListener(threshold < 0 ? null : bridge_, threshold*1000L);
+		Log.info("JFR Service started");
+	}
+
+	/**
+	 * Stops the service.
+	 */
+	public static synchronized void stop()
+	{
+		if ( bridge_ != null )
+		{
+			if ( MethodProfilingInformation.getSlowCallListener() == bridge_ )
+			{
+				MethodProfilingInformation.setSlowCallListener(null, Long.MAX_VALUE);
+			}
+			bridge_.close();
+			bridge_ = null;
+			Log.info("JFR Service stopped");
+		}
+	}
+}
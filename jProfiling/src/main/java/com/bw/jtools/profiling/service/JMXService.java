@@ -0,0 +1,269 @@
+package com.bw.jtools.profiling.service;
+
+import com.bw.jtools.Log;
+import com.bw.jtools.persistence.StorageBase;
+import com.bw.jtools.profiling.ClassProfilingInformation;
+import com.bw.jtools.profiling.MethodProfiling;
+import com.bw.jtools.profiling.MethodProfilingInformation;
+import com.bw.jtools.profiling.ProfilingSnapshot;
+import com.bw.jtools.profiling.SamplingConfiguration;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Profiling JMX Service.
+ * Registers a {@link ProfilingMXBean} on the platform MBean server.<br>
+ * Options:
+ * <table><caption></caption>
+ * <tr><td><b>name</b></td><td>Object name of the bean. Default is {@value ProfilingMXBean#OBJECT_NAME}.</td></tr>
+ * <tr><td><b>topCount</b></td><td>Number of methods in the top lists. Default is 10.</td></tr>
+ * </table>
+ * The top lists are computed together and cached for {@value Profiling#TOP_CACHE_MILLIS} milliseconds,
+ * so a client that reads all attributes collects the methods only once.
+ */
+public class JMXService
+{
+	/**
+	 * Implementation of the management interface.
+	 */
+	static class Profiling implements ProfilingMXBean
+	{
+		/**
+		 * Time in milliseconds the top lists are re-used.
+		 */
+		static final long TOP_CACHE_MILLIS = 1000;
+
+		/**
+		 * Top lists of one read cycle.
+		 */
+		static final class TopLists
+		{
+			final long time;
+			final List<MethodStatistics> byTotal;
+			final List<MethodStatistics> bySelf;
+			final List<MethodStatistics> byMean;
+
+			TopLists(long time, List<MethodStatistics> byTotal, List<MethodStatistics> bySelf, List<MethodStatistics> byMean)
+			{
+				this.time = time;
+				this.byTotal = byTotal;
+				this.bySelf = bySelf;
+				this.byMean = byMean;
+			}
+		}
+
+		volatile int topCount = 10;
+
+		private volatile TopLists top;
+
+		@Override
+		public Date getStartTime()
+		{
+			return ClassProfilingInformation.getProfilingStartTime().getTime();
+		}
+
+		@Override
+		public int getMethodCount()
+		{
+			return MethodProfilingInformation.getMethodCount();
+		}
+
+		@Override
+		public boolean isEnabled()
+		{
+			return MethodProfiling.isEnabled();
+		}
+
+		@Override
+		public void setEnabled(boolean enabled)
+		{
+			MethodProfiling.setEnabled(enabled);
+		}
+
+		@Override
+		public int getTopCount()
+		{
+			return topCount;
+		}
+
+		@Override
+		public void setTopCount(int count)
+		{
+			topCount = Math.max(1, count);
+			top = null;
+		}
+
+		@Override
+		public List<MethodStatistics> getTopMethodsByTotal()
+		{
+			return getTopLists().byTotal;
+		}
+
+		@Override
+		public List<MethodStatistics> getTopMethodsBySelf()
+		{
+			return getTopLists().bySelf;
+		}
+
+		@Override
+		public List<MethodStatistics> getTopMethodsByMean()
+		{
+			return getTopLists().byMean;
+		}
+
+		/**
+		 * Gets the top lists, computes them if the cached lists are too old.
+		 * @return The top lists.
+		 */
+		private TopLists getTopLists()
+		{
+			final long now = System.currentTimeMillis();
+			TopLists t = top;
+			if ( t == null || now - t.time >= TOP_CACHE_MILLIS || now < t.time )
+			{
+				top = t = computeTopLists(now);
+			}
+			return t;
+		}
+
+		/**
+		 * Collects all measured methods once and sorts them for each list.
+		 * @param now The current time.
+		 * @return The top lists.
+		 */
+		private TopLists computeTopLists(long now)
+		{
+			List<MethodStatistics> l = new ArrayList<>();
+			for ( MethodProfilingInformation mi : MethodProfilingInformation.getTopMethods(MethodProfilingInformation.getMethodCount()) )
+			{
+				l.add(MethodStatistics.collect(mi));
+			}
+			final int count = topCount;
+			return new TopLists(now,
+					getTop(l, Comparator.comparingLong(MethodStatistics::getTotal), count),
+					getTop(l, Comparator.comparingLong(MethodStatistics::getSelf), count),
+					getTop(l, Comparator.comparingLong(MethodStatistics::getMean), count));
+		}
+
+		/**
+		 * Returns the highest methods.
+		 * @param all All methods.
+		 * @param order The order of the values.
+		 * @param count Maximal number of methods.
+		 * @return The top methods, in descending order.
+		 */
+		private static List<MethodStatistics> getTop(List<MethodStatistics> all, Comparator<MethodStatistics> order, int count)
+		{
+			List<MethodStatistics> l = new ArrayList<>(all);
+			l.sort(order.reversed());
+			return l.size() > count ? new ArrayList<>(l.subList(0, count)) : l;
+		}
+
+		@Override
+		public MethodStatistics getMethod(String className, String methodName)
+		{
+			final ClassProfilingInformation ci = ClassProfilingInformation.findClassInformation(className);
+			final MethodProfilingInformation mi = ci == null ? null : ci.findMethodInformation(methodName);
+			return mi == null ? null : MethodStatistics.collect(mi);
+		}
+
+		@Override
+		public List<MethodStatistics> snapshot(boolean reset)
+		{
+			if ( reset )
+			{
+				top = null;
+			}
+			final ProfilingSnapshot s = ProfilingSnapshot.take(reset);
+			List<MethodStatistics> l = new ArrayList<>();
+			for ( ProfilingSnapshot.MethodSnapshot ms : s.getMethods() )
+			{
+				if ( ms.values.calls > 0 )
+				{
+					l.add(MethodStatistics.of(ms));
+				}
+			}
+			return l;
+		}
+
+		@Override
+		public void reset()
+		{
+			ClassProfilingInformation.clearProfilingInformation();
+			top = null;
+		}
+
+		@Override
+		public void changeSampling(String expression)
+		{
+			SamplingConfiguration.clearRules();
+			SamplingConfiguration.parse(expression);
+			Log.info("Sampling changed by JMX to \""+expression+"\"");
+		}
+	}
+
+	private static Profiling bean_;
+	private static ObjectName name_;
+
+	/**
+	 * Starts the service.
+	 * If the service is already running, the configuration is updated.
+	 * @param config The configuration.
+	 */
+	public static synchronized void start(StorageBase config)
+	{
+		final String name = config.getString("name", ProfilingMXBean.OBJECT_NAME);
+		try
+		{
+			final ObjectName on = new ObjectName(name);
+			if ( bean_ != null && !on.equals(name_) )
+			{
+				stop();
+			}
+			if ( bean_ == null )
+			{
+				final Profiling bean = new Profiling();
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(bean, ProfilingMXBean.class, true), on);
+				bean_ = bean;
+				name_ = on;
+				Log.info("JMX Service registered as "+name);
+			}
+			bean_.setTopCount(config.getInt("topCount", bean_.topCount));
+		}
+		catch ( Exception e )
+		{
+			Log.error("JMX Service failed to register "+name, e);
+		}
+	}
+
+	/**
+	 * Stops the service.
+	 */
+	public static synchronized void stop()
+	{
+		if ( bean_ != null )
+		{
+			try
+			{
+				final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				if ( server.isRegistered(name_) )
+				{
+					server.unregisterMBean(name_);
+				}
+			}
+			catch ( Exception e )
+			{
+				Log.error("JMX Service failed to unregister "+name_, e);
+			}
+			bean_ = null;
+			name_ = null;
+		}
+	}
+}
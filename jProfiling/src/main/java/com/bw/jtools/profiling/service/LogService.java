@@ -4,9 +4,9 @@ import com.bw.jtools.Log;
 import com.bw.jtools.io.ServiceRunner;
 import com.bw.jtools.persistence.MissingPropertyException;
 import com.bw.jtools.persistence.StorageBase;
-import com.bw.jtools.profiling.ClassProfilingInformation;
-import com.bw.jtools.profiling.MethodProfilingInformation;
-import com.bw.jtools.profiling.callgraph.AbstractCallGraphRenderer;
+import com.bw.jtools.profiling.ProfilingSnapshot;
+import com.bw.jtools.profiling.callgraph.CallGraphDelta;
+import com.bw.jtools.profiling.callgraph.CallNode;
 import com.bw.jtools.profiling.callgraph.JSONCallGraphRenderer;
 import com.bw.jtools.profiling.callgraph.Options;
 
@@ -14,8 +14,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
-import java.util.Calendar;
-import java.util.List;
 
 /**
  * Profiling Log Service.
@@ -27,6 +25,9 @@ import java.util.List;
  *                      "{0}" has to be used to specify the file-number if more than
  *                      one file is specified.</td></tr>
  * <tr><td><b>nbOfFiles</b></td><td>Number of files.</td></tr>
+ * <tr><td style="vertical-align :top;"><b>keyframeInterval</b></td><td>If greater than 0, only the changes since the last dump are
+ *                      appended to the current file, see {@link CallGraphDelta}. After the given number of deltas a full
+ *                      keyframe is written to the next file. Default is 0, each dump is complete.</td></tr>
  * </table>
  */
 public class LogService
@@ -39,6 +40,10 @@ public class LogService
 		String filePattern;
 		int nbOfFiles;
 		int fileIndex = 0;
+		String currentFile;
+
+		int keyframeInterval = 0;
+		CallGraphDelta delta;
 
 		// Format options
 		boolean pretty = false;
@@ -55,23 +60,41 @@ public class LogService
 		@Override
 		public boolean work()
 		{
-			final List<MethodProfilingInformation> topMethods = AbstractCallGraphRenderer.filterTopLevelCalls(ClassProfilingInformation.getClassInformation());
-			final String json = new JSONCallGraphRenderer(nf,
+			final JSONCallGraphRenderer renderer = new JSONCallGraphRenderer(nf,
 					fullPackageNames ? Options.ADD_CLASSNAMES : Options.NONE,
-					Options.HIGHLIGHT_CRITICAL, Options.ADD_MIN_MAX,
-					pretty ? Options.PRETTY : Options.NONE)
-					.render(topMethods, ClassProfilingInformation.getProfilingStartTime(), Calendar.getInstance());
-
-			final String file = MessageFormat.format(filePattern, fileIndex );
-			++fileIndex;
-			if ( fileIndex > nbOfFiles ) {
-				fileIndex = 1;
+					Options.HIGHLIGHT_CRITICAL, Options.ADD_MIN_MAX, Options.ADD_PERCENTILES, Options.ADD_RECENT, Options.ADD_EXEMPLARS, Options.CALLING_CONTEXT, Options.COMPENSATE_OVERHEAD,
+					pretty ? Options.PRETTY : Options.NONE);
+			final CallNode graph = renderer.generateGraph(ProfilingSnapshot.take(false));
+
+			final String json;
+			boolean append = false;
+			if ( keyframeInterval > 0 )
+			{
+				if ( delta == null ) delta = new CallGraphDelta(keyframeInterval);
+				final CallNode g = delta.next(graph);
+				append = !delta.isKeyframe() && currentFile != null;
+				json = append ? renderer.renderDelta(g) : renderer.render(g);
+			}
+			else
+			{
+				json = renderer.render(graph);
 			}
 
+			if ( !append )
+			{
+				currentFile = MessageFormat.format(filePattern, fileIndex );
+				++fileIndex;
+				if ( fileIndex > nbOfFiles ) {
+					fileIndex = 1;
+				}
+			}
+			final String file = currentFile;
+
 			try
 			{
-				FileWriter w = new FileWriter(file);
+				FileWriter w = new FileWriter(file, append);
 				w.write(json);
+				w.write('\n');
 				w.flush();
 				w.close();
 
@@ -112,6 +135,12 @@ public class LogService
 			service_.nf.setMaximumFractionDigits(config.getInt("fractionDigits", service_.nf.getMaximumFractionDigits()));
 			service_.pretty =(config.getBoolean("json.pretty", service_.pretty ));
 			service_.fullPackageNames =(config.getBoolean("json.packageNames", service_.fullPackageNames ));
+			final int keyframeInterval = config.getInt("keyframeInterval", service_.keyframeInterval);
+			if ( keyframeInterval != service_.keyframeInterval )
+			{
+				service_.keyframeInterval = keyframeInterval;
+				service_.delta = null;
+			}
 
 			serviceRunner.configureAndStart(config);
 
@@ -0,0 +1,274 @@
+package com.bw.jtools.profiling.service;
+
+import com.bw.jtools.profiling.measurement.MeasurementHeader;
+import com.bw.jtools.profiling.measurement.MeasurementValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reads the file of a {@link MappedStatisticsService} of an other local process.<br>
+ * The file is mapped read-only, so polling has no influence on the profiled application.<br>
+ * Can also be used from command line:<br>
+ * <pre>
+ *  java -cp ... com.bw.jtools.profiling.service.MappedStatisticsReader &lt;file&gt; [interval in ms] [number of methods]
+ * </pre>
+ * Prints the methods with the highest sum. If an interval is given, the file is polled until the process is stopped.
+ */
+public class MappedStatisticsReader
+{
+	/**
+	 * Statistics of one method.
+	 */
+	public static final class Entry
+	{
+		public final String name;
+		public final long calls;
+		public final long sampledCalls;
+		public final long recursiveCalls;
+		public final long exceptions;
+
+		/**
+		 * Sum of measured calls. The header is set if published.
+		 */
+		public final MeasurementValue sum;
+
+		Entry(String name, long calls, long sampledCalls, long recursiveCalls, long exceptions, MeasurementValue sum)
+		{
+			this.name = name;
+			this.calls = calls;
+			this.sampledCalls = sampledCalls;
+			this.recursiveCalls = recursiveCalls;
+			this.exceptions = exceptions;
+			this.sum = sum;
+		}
+	}
+
+	private final MappedByteBuffer buffer;
+	private final List<String> names = new ArrayList<>();
+	private int nameTableRead = 0;
+	private MeasurementHeader header;
+	private long updateTime;
+
+	/**
+	 * Maximal time in milliseconds {@link #read()} retries while the content is updated.
+	 */
+	public static final long READ_TIMEOUT_MILLIS = 1000;
+
+	/**
+	 * Maps a statistics file.
+	 * @param file The file, see option "file" of {@link MappedStatisticsService}.
+	 * @throws IOException If the file can't be mapped or has an unknown layout.
+	 */
+	public MappedStatisticsReader(File file) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+		{
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		if ( buffer.capacity() < MappedStatisticsService.NAME_TABLE_START
+				|| buffer.getInt(0) != MappedStatisticsService.MAGIC
+				|| buffer.getInt(4) != MappedStatisticsService.VERSION )
+		{
+			throw new IOException(file+" is no profiling statistics file");
+		}
+	}
+
+	/**
+	 * Gets the measurement header of the sums.
+	 * @return The header or null if not published.
+	 */
+	public MeasurementHeader getHeader()
+	{
+		return header;
+	}
+
+	/**
+	 * Gets the time of the update that was read by the last call of {@link #read()}.
+	 * @return The time in milliseconds since epoch.
+	 */
+	public long getUpdateTime()
+	{
+		return updateTime;
+	}
+
+	/**
+	 * Reads a consistent copy of all published methods.<br>
+	 * Retries as long as the writer updates the content, at most {@link #READ_TIMEOUT_MILLIS}.
+	 * @return The list of methods in order of their index.
+	 * @throws IOException If the file was replaced by the writer (the file has to be mapped again by a new reader)
+	 *                     or if no consistent copy could be read, e.g. because the writer stopped during an update.
+	 */
+	public List<Entry> read() throws IOException
+	{
+		final long start = System.currentTimeMillis();
+		while (true)
+		{
+			if ( buffer.getInt(0) != MappedStatisticsService.MAGIC )
+			{
+				throw new IOException("Statistics file was re-created");
+			}
+			if ( System.currentTimeMillis() - start > READ_TIMEOUT_MILLIS )
+			{
+				throw new IOException("Statistics file is not updated consistently");
+			}
+			final long seq = buffer.getLong(MappedStatisticsService.OFFSET_SEQUENCE);
+			if ( (seq & 1) != 0 )
+			{
+				Thread.yield();
+				continue;
+			}
+			final int namesRead = names.size();
+			final int nameTableReadBefore = nameTableRead;
+			// Content is not read before the sequence.
+			MemoryFences.loadFence();
+			List<Entry> entries = copy();
+			// Sequence is not read again before the content.
+			MemoryFences.loadFence();
+			if ( entries != null && seq == buffer.getLong(MappedStatisticsService.OFFSET_SEQUENCE) )
+			{
+				return entries;
+			}
+			// Names of a torn copy may be invalid.
+			if ( names.size() > namesRead && nameTableReadBefore <= nameTableRead )
+			{
+				names.subList(namesRead, names.size()).clear();
+				nameTableRead = nameTableReadBefore;
+			}
+		}
+	}
+
+	/**
+	 * Copies the content without checking the sequence.
+	 * @return The entries or null if the content is not valid, e.g. because it was modified during the copy.
+	 * @throws IOException If the layout doesn't fit to the mapped file.
+	 */
+	private List<Entry> copy() throws IOException
+	{
+		final int usedSlots = buffer.getInt(MappedStatisticsService.OFFSET_USED_SLOTS);
+		final int slotSize = buffer.getInt(MappedStatisticsService.OFFSET_SLOT_SIZE);
+		final int dimensions = buffer.getInt(MappedStatisticsService.OFFSET_DIMENSIONS);
+		final int nameTable = buffer.getInt(MappedStatisticsService.OFFSET_NAME_TABLE);
+		final int nameTableUsed = buffer.getInt(MappedStatisticsService.OFFSET_NAME_TABLE_USED);
+		final int firstSlot = buffer.getInt(MappedStatisticsService.OFFSET_FIRST_SLOT);
+		if ( usedSlots < 0 || slotSize < 0 || dimensions < 0 || nameTable < 0 || nameTableUsed < 0 || firstSlot < 0
+				|| (long)firstSlot + (long)usedSlots*slotSize > buffer.capacity() || (long)nameTable + nameTableUsed > buffer.capacity() )
+		{
+			throw new IOException("Statistics file was re-created with a different size");
+		}
+		if ( nameTableUsed < nameTableRead )
+		{
+			// Re-created by the writer.
+			names.clear();
+			nameTableRead = 0;
+		}
+
+		updateTime = buffer.getLong(MappedStatisticsService.OFFSET_TIME);
+		final int headerLength = buffer.getShort(MappedStatisticsService.OFFSET_HEADER);
+		if ( headerLength < 0 || headerLength > MappedStatisticsService.HEADER_SIZE-2 )
+		{
+			return null;
+		}
+		header = headerLength > 0 ? MeasurementHeader.parse(readString(MappedStatisticsService.OFFSET_HEADER+2, headerLength)) : null;
+		while ( nameTableRead < nameTableUsed )
+		{
+			final int o = nameTable + nameTableRead;
+			final int len = buffer.getShort(o);
+			if ( len < 0 || o+2+len > nameTable+nameTableUsed )
+			{
+				return null;
+			}
+			names.add(readString(o+2, len));
+			nameTableRead += 2+len;
+		}
+		if ( names.size() < usedSlots )
+		{
+			return null;
+		}
+
+		List<Entry> entries = new ArrayList<>(usedSlots);
+		for ( int i=0 ; i<usedSlots ; ++i )
+		{
+			final int o = firstSlot + i*slotSize;
+			long[] sum = new long[dimensions];
+			for ( int d=0 ; d<dimensions ; ++d )
+			{
+				sum[d] = buffer.getLong(o+MappedStatisticsService.SLOT_SUM+8*d);
+			}
+			entries.add( new Entry( names.get(i),
+					buffer.getLong(o+MappedStatisticsService.SLOT_CALLS),
+					buffer.getLong(o+MappedStatisticsService.SLOT_SAMPLED_CALLS),
+					buffer.getLong(o+MappedStatisticsService.SLOT_RECURSIVE_CALLS),
+					buffer.getLong(o+MappedStatisticsService.SLOT_EXCEPTIONS),
+					new MeasurementValue(sum, header)) );
+		}
+		return entries;
+	}
+
+	private String readString(int offset, int length)
+	{
+		byte[] b = new byte[length];
+		for ( int i=0 ; i<length ; ++i ) b[i] = buffer.get(offset+i);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Command line interface, see class comment.
+	 * @param args The arguments.
+	 * @throws Exception In case of errors.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if ( args.length < 1 )
+		{
+			System.err.println("Usage: MappedStatisticsReader <file> [interval in ms] [number of methods]");
+			System.exit(1);
+		}
+		final File file = new File(args[0]);
+		MappedStatisticsReader reader = new MappedStatisticsReader(file);
+		final long interval = args.length > 1 ? Long.parseLong(args[1]) : 0;
+		final int top = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		final NumberFormat nf = NumberFormat.getInstance();
+
+		do
+		{
+			List<Entry> entries;
+			try
+			{
+				entries = reader.read();
+			}
+			catch ( IOException e )
+			{
+				if ( interval <= 0 ) throw e;
+				// The file was replaced, map the new one.
+				Thread.sleep(interval);
+				reader = new MappedStatisticsReader(file);
+				continue;
+			}
+			Collections.sort(entries, (a, b) -> Long.compare(b.sum.values.length > 0 ? b.sum.values[0] : 0, a.sum.values.length > 0 ? a.sum.values[0] : 0));
+			System.out.println("--- "+new Date(reader.getUpdateTime())+" ---");
+			for ( int i=0 ; i<entries.size() && i<top ; ++i )
+			{
+				final Entry e = entries.get(i);
+				final MeasurementHeader h = reader.getHeader();
+				System.out.println( e.name + ": calls " + nf.format(e.calls)
+						+ (e.recursiveCalls > 0 ? ", recursive " + nf.format(e.recursiveCalls) : "")
+						+ (e.exceptions > 0 ? ", exceptions " + nf.format(e.exceptions) : "")
+						+ ", sum " + (h != null ? h.formatLabeled(nf, e.sum) : nf.format(e.sum.values.length > 0 ? e.sum.values[0] : 0)));
+			}
+			if ( interval > 0 )
+			{
+				Thread.sleep(interval);
+			}
+		} while ( interval > 0 );
+	}
+}
@@ -0,0 +1,305 @@
+package com.bw.jtools.profiling.service;
+
+import com.bw.jtools.Log;
+import com.bw.jtools.io.ServiceRunner;
+import com.bw.jtools.persistence.MissingPropertyException;
+import com.bw.jtools.persistence.StorageBase;
+import com.bw.jtools.profiling.MethodProfilingInformation;
+import com.bw.jtools.profiling.ProfilingSnapshot;
+import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+import com.bw.jtools.profiling.measurement.MeasurementHeader;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Profiling Mapped Statistics Service.
+ * Executes a thread that publishes the counters of all methods into a memory-mapped file.<br>
+ * Other local processes can poll the file without any cost for the profiled application,
+ * see {@link MappedStatisticsReader}. The file is created on start and kept after exit.<br>
+ * The file is never truncated while it is mapped: a new file is written next to it and renamed into place.
+ * Readers of the replaced file see an invalid magic and have to map the file again.<br>
+ * Options:
+ * <table><caption></caption>
+ * <tr><td><b>delay</b></td><td>delay in milliseconds between updates.</td></tr>
+ * <tr><td><b>file</b></td><td>path of the mapped file.</td></tr>
+ * <tr><td><b>maxMethods</b></td><td>Number of method slots. Default is 4096, additional methods are not published.</td></tr>
+ * </table>
+ * <br>
+ * Layout of the file, all numbers are big-endian:
+ * <table><caption></caption>
+ * <tr><td><b>0</b></td><td>int magic 0x6A50524F ("jPRO")</td></tr>
+ * <tr><td><b>4</b></td><td>int version, currently 1</td></tr>
+ * <tr><td><b>8</b></td><td>long sequence. Odd while the content is updated, incremented twice by each update.</td></tr>
+ * <tr><td><b>16</b></td><td>long time of the last update in milliseconds since epoch</td></tr>
+ * <tr><td><b>24</b></td><td>int number of used slots</td></tr>
+ * <tr><td><b>28</b></td><td>int number of slots</td></tr>
+ * <tr><td><b>32</b></td><td>int size of a slot in bytes</td></tr>
+ * <tr><td><b>36</b></td><td>int number of value dimensions in a slot</td></tr>
+ * <tr><td><b>40</b></td><td>int offset of the name table</td></tr>
+ * <tr><td><b>44</b></td><td>int used bytes of the name table</td></tr>
+ * <tr><td><b>48</b></td><td>int capacity of the name table in bytes</td></tr>
+ * <tr><td><b>52</b></td><td>int offset of the first slot</td></tr>
+ * <tr><td style="vertical-align :top;"><b>64</b></td><td>short length and UTF-8 bytes of the measurement header,
+ *                      see {@link MeasurementHeader}. Empty if the measurement source has no header.</td></tr>
+ * <tr><td style="vertical-align :top;"><b>name table</b></td><td>For each used slot in order: short length and
+ *                      UTF-8 bytes of "class.method". Entries are only appended.</td></tr>
+ * <tr><td style="vertical-align :top;"><b>slots</b></td><td>Slot of method {@link MethodProfilingInformation#index} n at
+ *                      offset "first slot + n * slot size": long calls, long sampled calls, long recursive calls,
+ *                      long exceptions, followed by the sum of each dimension.</td></tr>
+ * </table>
+ * Readers have to read the sequence before and after copying the content. The copy is consistent if
+ * both values are equal and even.
+ */
+public class MappedStatisticsService
+{
+	static final int MAGIC = 0x6A50524F;
+	static final int VERSION = 1;
+
+	static final int OFFSET_SEQUENCE = 8;
+	static final int OFFSET_TIME = 16;
+	static final int OFFSET_USED_SLOTS = 24;
+	static final int OFFSET_SLOTS = 28;
+	static final int OFFSET_SLOT_SIZE = 32;
+	static final int OFFSET_DIMENSIONS = 36;
+	static final int OFFSET_NAME_TABLE = 40;
+	static final int OFFSET_NAME_TABLE_USED = 44;
+	static final int OFFSET_NAME_TABLE_SIZE = 48;
+	static final int OFFSET_FIRST_SLOT = 52;
+	static final int OFFSET_HEADER = 64;
+
+	static final int HEADER_SIZE = 64;
+	static final int NAME_TABLE_START = OFFSET_HEADER + HEADER_SIZE;
+	static final int NAME_SIZE_PER_SLOT = 64;
+
+	static final int SLOT_CALLS = 0;
+	static final int SLOT_SAMPLED_CALLS = 8;
+	static final int SLOT_RECURSIVE_CALLS = 16;
+	static final int SLOT_EXCEPTIONS = 24;
+	static final int SLOT_SUM = 32;
+
+	/**
+	 * Runnable to executed in service runner.
+	 */
+	static class Service implements ServiceRunner.Service
+	{
+		volatile String file;
+		volatile int maxMethods = 4096;
+
+		MappedByteBuffer buffer;
+
+		/**
+		 * Set if the configuration was changed, the file is created again by the service thread.
+		 */
+		volatile boolean recreate;
+		int dimensions;
+		int slotSize;
+		int firstSlot;
+		int nameTableUsed;
+		int nameTableSize;
+		int usedSlots;
+		long sequence;
+
+		@Override
+		public String getName()
+		{
+			return "MappedStatistics";
+		}
+
+		@Override
+		public boolean work()
+		{
+			try
+			{
+				if ( buffer == null || recreate )
+				{
+					recreate = false;
+					create();
+				}
+			}
+			catch (IOException e)
+			{
+				Log.error( "Failed to map "+file, e );
+				return false;
+			}
+			update();
+			return true;
+		}
+
+		private void create() throws IOException
+		{
+			final MeasurementHeader header = AbstractMeasurementSource.currentSource.getHeader();
+			dimensions = AbstractMeasurementSource.currentSource.getDimensions();
+			slotSize = SLOT_SUM + 8*dimensions;
+			nameTableSize = NAME_SIZE_PER_SLOT*maxMethods;
+			firstSlot = NAME_TABLE_START + nameTableSize;
+			firstSlot = (firstSlot + 63) & ~63;
+			final long size = firstSlot + (long)slotSize*maxMethods;
+
+			// Truncation of a mapped file crashes the readers (SIGBUS), so a new file is renamed into place.
+			final Path target = Paths.get(file);
+			final Path tmp = target.resolveSibling(target.getFileName()+".tmp");
+			final MappedByteBuffer old = buffer;
+			try (RandomAccessFile raf = new RandomAccessFile(tmp.toFile(), "rw"))
+			{
+				raf.setLength(0);
+				raf.setLength(size);
+				buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+			sequence = 0;
+			usedSlots = 0;
+			nameTableUsed = 0;
+
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putLong(OFFSET_SEQUENCE, sequence);
+			buffer.putInt(OFFSET_SLOTS, maxMethods);
+			buffer.putInt(OFFSET_SLOT_SIZE, slotSize);
+			buffer.putInt(OFFSET_DIMENSIONS, dimensions);
+			buffer.putInt(OFFSET_NAME_TABLE, NAME_TABLE_START);
+			buffer.putInt(OFFSET_NAME_TABLE_SIZE, nameTableSize);
+			buffer.putInt(OFFSET_FIRST_SLOT, firstSlot);
+			byte[] h = (header == null ? "" : header.toString()).getBytes(StandardCharsets.UTF_8);
+			if ( h.length > HEADER_SIZE-2 )
+			{
+				h = new byte[0];
+			}
+			buffer.putShort(OFFSET_HEADER, (short)h.length);
+			for ( int i=0 ; i<h.length ; ++i ) buffer.put(OFFSET_HEADER+2+i, h[i]);
+
+			try
+			{
+				Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			if ( old != null )
+			{
+				// Readers of the old file have to map the new one.
+				old.putInt(0, 0);
+			}
+
+			Log.info( "Publishing profiling statistics to "+file );
+		}
+
+		private void update()
+		{
+			buffer.putLong(OFFSET_SEQUENCE, ++sequence);
+			// Content is not written before the odd sequence.
+			MemoryFences.storeFence();
+
+			final int count = Math.min(maxMethods, MethodProfilingInformation.getMethodCount());
+			int n = usedSlots;
+			while ( n < count )
+			{
+				final MethodProfilingInformation mi = MethodProfilingInformation.getMethodInformation(n);
+				if ( mi == null || !addName(mi) )
+				{
+					// Not registered yet or name table full.
+					break;
+				}
+				++n;
+			}
+			usedSlots = n;
+
+			for ( int i=0 ; i<usedSlots ; ++i )
+			{
+				final MethodProfilingInformation mi = MethodProfilingInformation.getMethodInformation(i);
+				final ProfilingSnapshot.Values v = mi.getValues();
+				final int o = firstSlot + i*slotSize;
+				buffer.putLong(o+SLOT_CALLS, v.calls);
+				buffer.putLong(o+SLOT_SAMPLED_CALLS, v.sampledCalls);
+				buffer.putLong(o+SLOT_RECURSIVE_CALLS, v.recursiveCalls);
+				buffer.putLong(o+SLOT_EXCEPTIONS, mi.exceptions);
+				final long[] sum = v.sum == null ? null : v.sum.values;
+				for ( int d=0 ; d<dimensions ; ++d )
+				{
+					buffer.putLong(o+SLOT_SUM+8*d, (sum != null && d < sum.length) ? sum[d] : 0);
+				}
+			}
+			buffer.putInt(OFFSET_USED_SLOTS, usedSlots);
+			buffer.putInt(OFFSET_NAME_TABLE_USED, nameTableUsed);
+			buffer.putLong(OFFSET_TIME, System.currentTimeMillis());
+
+			// Even sequence is not written before the content.
+			MemoryFences.storeFence();
+			buffer.putLong(OFFSET_SEQUENCE, ++sequence);
+		}
+
+		private boolean addName( MethodProfilingInformation mi )
+		{
+			final String name = mi.clazz == null ? mi.name : mi.clazz.name+"."+mi.name;
+			final byte[] b = name.getBytes(StandardCharsets.UTF_8);
+			final int len = Math.min(b.length, Short.MAX_VALUE);
+			if ( nameTableUsed + 2 + len > nameTableSize )
+			{
+				return false;
+			}
+			final int o = NAME_TABLE_START + nameTableUsed;
+			buffer.putShort(o, (short)len);
+			for ( int i=0 ; i<len ; ++i ) buffer.put(o+2+i, b[i]);
+			nameTableUsed += 2+len;
+			return true;
+		}
+	}
+
+	private static ServiceRunner serviceRunner;
+	private static Service service_;
+
+	/**
+	 * Starts mapped statistics service or update current options.<br>
+	 * Changes of "file" or "maxMethods" re-create the file.
+	 *
+	 * @param config Map of configuration options. See class comments
+	 */
+	public static synchronized void start(StorageBase config)
+	{
+		try
+		{
+			if (serviceRunner == null)
+			{
+				service_ = new Service();
+				serviceRunner = new ServiceRunner( service_ );
+			}
+			// Mandatory arguments
+			final String file = config.getString("file");
+
+			// Optional arguments
+			final int maxMethods = config.getInt("maxMethods", service_.maxMethods);
+			if ( !file.equals(service_.file) || maxMethods != service_.maxMethods )
+			{
+				service_.file = file;
+				service_.maxMethods = maxMethods;
+				service_.recreate = true;
+			}
+
+			serviceRunner.configureAndStart(config);
+
+		} catch ( MissingPropertyException e )
+		{
+			Log.info("Mapped Statistics Service not started due to missing configuration value for "+e.getKey());
+		}
+	}
+
+	/**
+	 * Stop mapped statistics service.<br>
+	 * The file keeps the last published values.
+	 */
+	public static synchronized void stop()
+	{
+		if ( serviceRunner != null) {
+			serviceRunner.stop();
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.bw.jtools.profiling.service;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Memory fences for memory that is shared with other processes, see {@link MappedStatisticsService}.<br>
+ * The Java memory model only orders accesses between threads of the same process, accesses to a mapped
+ * buffer need hardware fences. Uses the fences of "java.lang.invoke.VarHandle" (Java 9+) or of "sun.misc.Unsafe" (Java 8).
+ * If neither is available, the fences do nothing.
+ */
+final class MemoryFences
+{
+	private static final MethodHandle LOAD_FENCE = find("loadLoadFence", "loadFence");
+	private static final MethodHandle STORE_FENCE = find("storeStoreFence", "storeFence");
+
+	private MemoryFences()
+	{
+	}
+
+	/**
+	 * Loads before the fence are not reordered with loads after the fence.
+	 */
+	static void loadFence()
+	{
+		invoke(LOAD_FENCE);
+	}
+
+	/**
+	 * Stores before the fence are not reordered with stores after the fence.
+	 */
+	static void storeFence()
+	{
+		invoke(STORE_FENCE);
+	}
+
+	private static void invoke( MethodHandle fence )
+	{
+		if ( fence != null )
+		{
+			try
+			{
+				fence.invokeExact();
+			}
+			catch ( Throwable e )
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private static MethodHandle find( String varHandleFence, String unsafeFence )
+	{
+		final MethodHandles.Lookup lookup = MethodHandles.lookup();
+		final MethodType type = MethodType.methodType(void.class);
+		try
+		{
+			return lookup.findStatic(Class.forName("java.lang.invoke.VarHandle"), varHandleFence, type);
+		}
+		catch ( ReflectiveOperationException | RuntimeException e )
+		{
+			// Java 8
+		}
+		try
+		{
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Field f = unsafeClass.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			return lookup.findVirtual(unsafeClass, unsafeFence, type).bindTo(f.get(null));
+		}
+		catch ( ReflectiveOperationException | RuntimeException e )
+		{
+			return null;
+		}
+	}
+}
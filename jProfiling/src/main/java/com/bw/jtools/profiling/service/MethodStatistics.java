@@ -0,0 +1,212 @@
+package com.bw.jtools.profiling.service;
+
+import com.bw.jtools.profiling.CalleeProfilingInformation;
+import com.bw.jtools.profiling.MethodProfilingInformation;
+import com.bw.jtools.profiling.ProfilingSnapshot;
+import com.bw.jtools.profiling.measurement.MeasurementValue;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Aggregated values of one method.<br>
+ * Values are the first dimension of the measurement, normally nanoseconds.
+ * Sums are extrapolated if calls are sampled. The self value is the total value without the values of profiled callees.<br>
+ * Mapped to an open data type by {@link ProfilingMXBean}.
+ */
+public final class MethodStatistics
+{
+	private final String className;
+	private final String methodName;
+	private final long calls;
+	private final long sampledCalls;
+	private final int exceptions;
+	private final int sampleRate;
+	private final long total;
+	private final long self;
+	private final long min;
+	private final long max;
+
+	/**
+	 * Creates statistics from values.
+	 * @param className The class name.
+	 * @param methodName The method name.
+	 * @param calls Number of calls.
+	 * @param sampledCalls Number of measured calls.
+	 * @param exceptions Number of exceptions.
+	 * @param sampleRate The sampling rate of the method.
+	 * @param total Sum of all calls.
+	 * @param self Sum of all calls without the callees.
+	 * @param min Minimum of a measured call.
+	 * @param max Maximum of a measured call.
+	 */
+	public MethodStatistics(String className, String methodName, long calls, long sampledCalls, int exceptions,
+							int sampleRate, long total, long self, long min, long max)
+	{
+		this.className = className;
+		this.methodName = methodName;
+		this.calls = calls;
+		this.sampledCalls = sampledCalls;
+		this.exceptions = exceptions;
+		this.sampleRate = sampleRate;
+		this.total = total;
+		this.self = self;
+		this.min = min;
+		this.max = max;
+	}
+
+	/**
+	 * Collects the current values of a method.<br>
+	 * Values are read while other threads are recording, see {@link MethodProfilingInformation#getValues()}.
+	 * @param mi The method.
+	 * @return The statistics.
+	 */
+	public static MethodStatistics collect(MethodProfilingInformation mi)
+	{
+		final ProfilingSnapshot.Values v = mi.getValues();
+		final MeasurementValue sum = v.getExtrapolatedSum();
+		long total = 0;
+		long callees = 0;
+		if ( sum != null )
+		{
+			total = sum.values[0];
+			for ( CalleeProfilingInformation cpi : mi.getCallees() )
+			{
+				callees += getFirst(cpi.getValues().getExtrapolatedSum());
+			}
+		}
+		return new MethodStatistics(mi.clazz == null ? null : mi.clazz.name, mi.name, v.calls, v.sampledCalls, mi.exceptions,
+				mi.getSampleRate(), total, Math.max(0, total - callees),
+				sum == null ? 0 : v.minMeasurement.values[0], sum == null ? 0 : v.maxMeasurement.values[0]);
+	}
+
+	/**
+	 * Creates statistics from a snapshot.
+	 * @param ms The method snapshot.
+	 * @return The statistics.
+	 */
+	public static MethodStatistics of(ProfilingSnapshot.MethodSnapshot ms)
+	{
+		final MeasurementValue sum = ms.values.getExtrapolatedSum();
+		final long total = getFirst(sum);
+		long callees = 0;
+		for ( ProfilingSnapshot.CalleeSnapshot cs : ms.getCallees() )
+		{
+			callees += getFirst(cs.values.getExtrapolatedSum());
+		}
+		final MethodProfilingInformation mi = MethodProfilingInformation.getMethodInformation(ms.index);
+		return new MethodStatistics(ms.className, ms.name, ms.values.calls, ms.values.sampledCalls, ms.exceptions,
+				mi == null ? 1 : mi.getSampleRate(), total, Math.max(0, total - callees),
+				sum == null ? 0 : ms.values.minMeasurement.values[0], sum == null ? 0 : ms.values.maxMeasurement.values[0]);
+	}
+
+	/**
+	 * Re-creates statistics from open data, used by MXBean proxies.
+	 * @param cd The composite data.
+	 * @return The statistics.
+	 */
+	public static MethodStatistics from(CompositeData cd)
+	{
+		return new MethodStatistics((String)cd.get("className"), (String)cd.get("methodName"),
+				(Long)cd.get("calls"), (Long)cd.get("sampledCalls"), (Integer)cd.get("exceptions"), (Integer)cd.get("sampleRate"),
+				(Long)cd.get("total"), (Long)cd.get("self"), (Long)cd.get("min"), (Long)cd.get("max"));
+	}
+
+	private static long getFirst(MeasurementValue v)
+	{
+		return v == null ? 0 : v.values[0];
+	}
+
+	/**
+	 * @return The class name.
+	 */
+	public String getClassName()
+	{
+		return className;
+	}
+
+	/**
+	 * @return The method name.
+	 */
+	public String getMethodName()
+	{
+		return methodName;
+	}
+
+	/**
+	 * @return Number of calls.
+	 */
+	public long getCalls()
+	{
+		return calls;
+	}
+
+	/**
+	 * @return Number of measured calls.
+	 */
+	public long getSampledCalls()
+	{
+		return sampledCalls;
+	}
+
+	/**
+	 * @return Number of exceptions.
+	 */
+	public int getExceptions()
+	{
+		return exceptions;
+	}
+
+	/**
+	 * @return The sampling rate, 1 if all calls are measured.
+	 */
+	public int getSampleRate()
+	{
+		return sampleRate;
+	}
+
+	/**
+	 * @return Sum of all calls.
+	 */
+	public long getTotal()
+	{
+		return total;
+	}
+
+	/**
+	 * @return Sum of all calls without the values of profiled callees.
+	 */
+	public long getSelf()
+	{
+		return self;
+	}
+
+	/**
+	 * @return Mean value of a call, 0 if the method was not called.
+	 */
+	public long getMean()
+	{
+		return calls > 0 ? total / calls : 0;
+	}
+
+	/**
+	 * @return Minimum of a measured call, 0 if no call was measured.
+	 */
+	public long getMin()
+	{
+		return min;
+	}
+
+	/**
+	 * @return Maximum of a measured call, 0 if no call was measured.
+	 */
+	public long getMax()
+	{
+		return max;
+	}
+
+	@Override
+	public String toString()
+	{
+		return className+'.'+methodName+": calls "+calls+", total "+total+", self "+self+", mean "+getMean();
+	}
+}
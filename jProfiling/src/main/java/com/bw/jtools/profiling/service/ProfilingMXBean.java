@@ -0,0 +1,89 @@
+package com.bw.jtools.profiling.service;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Management interface of the profiling, registered by {@link JMXService}.<br>
+ * All values are mapped to open data types, so generic JMX clients like JConsole can show them.
+ * Attributes only collect the values of the methods, no call graph is rendered.
+ */
+public interface ProfilingMXBean
+{
+	/**
+	 * Default object name.
+	 */
+	String OBJECT_NAME = "com.bw.jtools.profiling:type=Profiling";
+
+	/**
+	 * @return Time of the start of profiling or of the last reset.
+	 */
+	Date getStartTime();
+
+	/**
+	 * @return Number of profiled methods.
+	 */
+	int getMethodCount();
+
+	/**
+	 * @return True if calls are recorded.
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Enables or disables recording of calls.
+	 * @param enabled True to enable.
+	 */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * @return The number of methods in the top lists.
+	 */
+	int getTopCount();
+
+	/**
+	 * @param count The number of methods in the top lists.
+	 */
+	void setTopCount(int count);
+
+	/**
+	 * @return The methods with the highest total value.
+	 */
+	List<MethodStatistics> getTopMethodsByTotal();
+
+	/**
+	 * @return The methods with the highest self value.
+	 */
+	List<MethodStatistics> getTopMethodsBySelf();
+
+	/**
+	 * @return The methods with the highest mean value.
+	 */
+	List<MethodStatistics> getTopMethodsByMean();
+
+	/**
+	 * Gets the current values of one method.
+	 * @param className The class name.
+	 * @param methodName The method name.
+	 * @return The values or null if the method is unknown.
+	 */
+	MethodStatistics getMethod(String className, String methodName);
+
+	/**
+	 * Takes a consistent snapshot of all called methods.
+	 * @param reset If true, all values are reset.
+	 * @return The values of all methods that were called.
+	 */
+	List<MethodStatistics> snapshot(boolean reset);
+
+	/**
+	 * Resets all values.
+	 */
+	void reset();
+
+	/**
+	 * Replaces the sampling rules, see {@link com.bw.jtools.profiling.SamplingConfiguration#parse(String)}.
+	 * @param expression The rules, an empty expression measures all calls.
+	 */
+	void changeSampling(String expression);
+}
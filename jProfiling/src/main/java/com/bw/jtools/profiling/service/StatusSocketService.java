@@ -4,9 +4,7 @@ import com.bw.jtools.Log;
 import com.bw.jtools.io.ServiceRunner;
 import com.bw.jtools.persistence.MissingPropertyException;
 import com.bw.jtools.persistence.StorageBase;
-import com.bw.jtools.profiling.ClassProfilingInformation;
-import com.bw.jtools.profiling.MethodProfilingInformation;
-import com.bw.jtools.profiling.callgraph.AbstractCallGraphRenderer;
+import com.bw.jtools.profiling.ProfilingSnapshot;
 import com.bw.jtools.profiling.callgraph.JSONCallGraphRenderer;
 import com.bw.jtools.profiling.callgraph.Options;
 
@@ -15,8 +13,6 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.text.NumberFormat;
-import java.util.Calendar;
-import java.util.List;
 
 public class StatusSocketService
 {
@@ -58,12 +54,11 @@ public class StatusSocketService
 				Socket s= sock.accept();
 				OutputStream os= s.getOutputStream();
 
-				final List<MethodProfilingInformation> topMethods = AbstractCallGraphRenderer.filterTopLevelCalls(ClassProfilingInformation.getClassInformation());
 				final String json = new JSONCallGraphRenderer(nf,
 						fullPackageNames ? Options.ADD_CLASSNAMES : Options.NONE,
-						Options.HIGHLIGHT_CRITICAL, Options.ADD_MIN_MAX,
+						Options.HIGHLIGHT_CRITICAL, Options.ADD_MIN_MAX, Options.ADD_PERCENTILES, Options.ADD_RECENT, Options.ADD_EXEMPLARS, Options.CALLING_CONTEXT, Options.COMPENSATE_OVERHEAD,
 						pretty ? Options.PRETTY : Options.NONE)
-						.render(topMethods, ClassProfilingInformation.getProfilingStartTime(), Calendar.getInstance());
+						.render(ProfilingSnapshot.take(false));
 
 				os.write(json.getBytes());
 				os.flush();
@@ -4,8 +4,6 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.math.RoundingMode;
 import java.text.NumberFormat;
-import java.util.Calendar;
-import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -13,8 +11,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.bw.jtools.profiling.ClassProfilingInformation;
-import com.bw.jtools.profiling.MethodProfilingInformation;
-import com.bw.jtools.profiling.callgraph.AbstractCallGraphRenderer;
+import com.bw.jtools.profiling.ProfilingSnapshot;
 import com.bw.jtools.profiling.callgraph.ReportGraphRenderer;
 import com.bw.jtools.profiling.callgraph.Options;
 import com.bw.jtools.reports.ReportDocument;
@@ -97,11 +94,8 @@ public class ProfilingServlet extends javax.servlet.http.HttpServlet
 		doc.add( new ReportText("Call Graph").setBold() );
 		ReportParagraph p = new ReportParagraph();
 		
-		List<MethodProfilingInformation> topMethods = AbstractCallGraphRenderer
-		        .filterTopLevelCalls(ClassProfilingInformation.getClassInformation());
-		
-		ReportGraphRenderer html = new ReportGraphRenderer(p, nf,  Options.ADD_CLASSNAMES, Options.HIGHLIGHT_CRITICAL, Options.ADD_MIN_MAX );
-		html.render(topMethods, ClassProfilingInformation.getProfilingStartTime(), Calendar.getInstance());
+		ReportGraphRenderer html = new ReportGraphRenderer(p, nf,  Options.ADD_CLASSNAMES, Options.HIGHLIGHT_CRITICAL, Options.ADD_MIN_MAX, Options.ADD_PERCENTILES, Options.ADD_RECENT, Options.COMPENSATE_OVERHEAD );
+		html.render(ProfilingSnapshot.take(false));
 
 		doc.add( p );
 
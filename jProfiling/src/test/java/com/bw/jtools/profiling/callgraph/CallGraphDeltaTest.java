@@ -0,0 +1,207 @@
+package com.bw.jtools.profiling.callgraph;
+
+import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class CallGraphDeltaTest
+{
+	/**
+	 * Creates a node with one measurement dimension.
+	 */
+	static CallNode node(String name, int method, int calls, long value, CallNode... callees)
+	{
+		CallNode n = new CallNode(name, calls, AbstractMeasurementSource.createValue(new long[]{value}));
+		n.method = method;
+		for (CallNode c : callees)
+		{
+			n.edges.add(new CallEdge(c.value, c.calls, c));
+		}
+		return n;
+	}
+
+	/**
+	 * Creates a sequence of growing graphs, as created by consecutive snapshots.
+	 */
+	static List<CallNode> createGraphs()
+	{
+		List<CallNode> graphs = new ArrayList<>();
+		graphs.add(node("Application", 0, 1, 100,
+				node("a", 1, 1, 60, node("c", 3, 2, 20)),
+				node("b", 2, 1, 30)));
+		// Only "b" changed.
+		graphs.add(node("Application", 0, 2, 200,
+				node("a", 1, 1, 60, node("c", 3, 2, 20)),
+				node("b", 2, 2, 70)));
+		// New callee below "a".
+		graphs.add(node("Application", 0, 3, 300,
+				node("a", 1, 2, 120, node("c", 3, 2, 20), node("d", 4, 1, 40)),
+				node("b", 2, 2, 70)));
+		// Nothing changed.
+		graphs.add(node("Application", 0, 3, 300,
+				node("a", 1, 2, 120, node("c", 3, 2, 20), node("d", 4, 1, 40)),
+				node("b", 2, 2, 70)));
+		// Edges in different order, as collected from a hash map.
+		graphs.add(node("Application", 0, 4, 400,
+				node("b", 2, 3, 90),
+				node("a", 1, 3, 180, node("d", 4, 2, 80), node("c", 3, 3, 30))));
+		return graphs;
+	}
+
+	/**
+	 * Compares two graphs, the order of the edges is ignored.
+	 */
+	static void assertGraphEquals(CallNode expected, CallNode actual)
+	{
+		assertEquals(expected.name, actual.name);
+		assertEquals(expected.calls, actual.calls, expected.name);
+		assertTrue(Arrays.equals(expected.value.values, actual.value.values), expected.name);
+		assertEquals(expected.edges.size(), actual.edges.size(), expected.name);
+		Map<String, CallEdge> edges = new HashMap<>();
+		for (CallEdge e : actual.edges)
+		{
+			assertNull(edges.put(e.callee.name, e));
+		}
+		for (CallEdge e : expected.edges)
+		{
+			CallEdge ae = edges.get(e.callee.name);
+			assertNotNull(ae, e.callee.name);
+			assertEquals(e.calls, ae.calls, e.callee.name);
+			assertTrue(Arrays.equals(e.value.values, ae.value.values), e.callee.name);
+			assertGraphEquals(e.callee, ae.callee);
+		}
+	}
+
+	@Test
+	public void keyframeAndDeltas()
+	{
+		CallGraphDelta d = new CallGraphDelta(10);
+		CallNode reconstructed = null;
+		boolean first = true;
+		for (CallNode g : createGraphs())
+		{
+			CallNode out = d.next(g);
+			assertEquals(first, d.isKeyframe());
+			reconstructed = d.isKeyframe() ? out : CallGraphDelta.apply(reconstructed, out);
+			assertGraphEquals(g, reconstructed);
+			first = false;
+		}
+	}
+
+	@Test
+	public void deltaContainsOnlyChanges()
+	{
+		List<CallNode> graphs = createGraphs();
+		CallNode delta = CallGraphDelta.diff(graphs.get(0), graphs.get(1));
+		assertNotNull(delta);
+		assertEquals(1, delta.edges.size());
+		assertEquals("b", delta.edges.get(0).callee.name);
+
+		delta = CallGraphDelta.diff(graphs.get(2), graphs.get(3));
+		assertNotNull(delta);
+		assertTrue(delta.edges.isEmpty());
+	}
+
+	@Test
+	public void keyframeInterval()
+	{
+		CallGraphDelta d = new CallGraphDelta(2);
+		List<CallNode> graphs = createGraphs();
+		boolean[] expected = {true, false, false, true, false};
+		for (int i = 0; i < expected.length; ++i)
+		{
+			d.next(graphs.get(i));
+			assertEquals(expected[i], d.isKeyframe(), "Graph " + i);
+		}
+	}
+
+	@Test
+	public void resetForcesKeyframe()
+	{
+		CallGraphDelta d = new CallGraphDelta(10);
+		List<CallNode> graphs = createGraphs();
+		d.next(graphs.get(0));
+		d.next(graphs.get(1));
+		assertFalse(d.isKeyframe());
+		d.reset();
+		d.next(graphs.get(2));
+		assertTrue(d.isKeyframe());
+		d.next(graphs.get(3));
+		assertFalse(d.isKeyframe());
+	}
+
+	@Test
+	public void missingNodeForcesKeyframe()
+	{
+		CallGraphDelta d = new CallGraphDelta(10);
+		d.next(createGraphs().get(2));
+		// Profiling information was reset, "c" is gone.
+		d.next(node("Application", 0, 1, 10,
+				node("a", 1, 1, 10, node("d", 4, 1, 5))));
+		assertTrue(d.isKeyframe());
+	}
+
+	@Test
+	public void ambiguousNamesForceKeyframe()
+	{
+		// Same method name in different classes, without class names.
+		CallNode g0 = node("Application", 0, 2, 100,
+				node("run", 1, 1, 40),
+				node("run", 2, 1, 60));
+		CallNode g1 = node("Application", 0, 3, 150,
+				node("run", 2, 1, 60),
+				node("run", 1, 2, 90));
+		assertNull(CallGraphDelta.diff(g0, g1));
+
+		// Same name now refers to a different method.
+		CallNode g2 = node("Application", 0, 1, 100, node("run", 1, 1, 40));
+		CallNode g3 = node("Application", 0, 1, 100, node("run", 2, 1, 40));
+		assertNull(CallGraphDelta.diff(g2, g3));
+
+		CallGraphDelta d = new CallGraphDelta(10);
+		d.next(g0);
+		d.next(g1);
+		assertTrue(d.isKeyframe());
+	}
+
+	@Test
+	public void jsonRoundTrip()
+	{
+		for (Options format : new Options[]{Options.NONE, Options.PRETTY})
+		{
+			JSONCallGraphRenderer renderer = new JSONCallGraphRenderer(NumberFormat.getInstance(Locale.ENGLISH), format);
+			CallGraphDelta d = new CallGraphDelta(3);
+			StringBuilder sb = new StringBuilder();
+			List<CallNode> graphs = createGraphs();
+			for (CallNode g : graphs)
+			{
+				CallNode out = d.next(g);
+				sb.append(d.isKeyframe() ? renderer.render(out) : renderer.renderDelta(out)).append('\n');
+			}
+
+			JSONCallGraphParser parser = new JSONCallGraphParser(new StringReader(sb.toString()));
+			JSONCallGraphParser.GraphInfo[] parsed = parser.getCallGraphs();
+			assertEquals(graphs.size(), parsed.length);
+			for (int i = 0; i < parsed.length; ++i)
+			{
+				assertEquals(i != 0 && i != 4, parsed[i].delta, "Graph " + i);
+				assertGraphEquals(graphs.get(i), parsed[i].root);
+			}
+		}
+	}
+}
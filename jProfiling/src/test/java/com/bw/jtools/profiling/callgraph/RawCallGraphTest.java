@@ -0,0 +1,196 @@
+package com.bw.jtools.profiling.callgraph;
+
+import com.bw.jtools.profiling.measurement.Dimension;
+import com.bw.jtools.profiling.measurement.MeasurementHeader;
+import com.bw.jtools.profiling.measurement.MeasurementValue;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class RawCallGraphTest
+{
+	static final MeasurementHeader HEADER = MeasurementHeader.of(Dimension.WALL, Dimension.CPU, Dimension.ALLOCATED);
+
+	static MeasurementValue value(long wall, long cpu, long allocated)
+	{
+		return new MeasurementValue(new long[]{wall, cpu, allocated}, HEADER);
+	}
+
+	static CallEdge edge(CallNode caller, CallNode callee)
+	{
+		CallEdge e = new CallEdge(callee.value, callee.calls, callee);
+		caller.edges.add(e);
+		return e;
+	}
+
+	/**
+	 * Creates a graph with values of three dimensions, details and all edge flags.
+	 */
+	static CallNode createGraph()
+	{
+		CallNode root = new CallNode("Application", 0, null);
+		CallNode run = new CallNode("com.bw.Service.run", 3, value(5000000000L, 4000000000L, 1L << 40));
+		run.details.add(new NodeDetail(NodeDetail.DETAIL_MINIMUM, value(1000, 900, 0)));
+		run.details.add(new NodeDetail(NodeDetail.DETAIL_MAXIMUM, value(3000000000L, 2000000000L, 123456789)));
+		run.details.add(new NodeDetail(NodeDetail.DETAIL_P50, new MeasurementValue(new long[]{200000}, HEADER)));
+		CallNode query = new CallNode("com.bw.Service.query", 7, value(700000, 600000, 4096));
+		CallNode task = new CallNode("com.bw.Task.run", 2, value(90000000, 80000000, 65536));
+		// Cycle in the graph, leaf without values.
+		CallNode cycle = new CallNode("com.bw.Service.run", 0, null);
+
+		edge(root, run);
+		edge(run, query).hightlight = true;
+		edge(run, task).asynchronous = true;
+		edge(query, cycle);
+		return root;
+	}
+
+	static void assertValueEquals(MeasurementValue expected, MeasurementValue actual)
+	{
+		if (expected == null)
+		{
+			assertNull(actual);
+			return;
+		}
+		assertTrue(Arrays.equals(expected.values, actual.values),
+				Arrays.toString(expected.values) + " != " + (actual == null ? null : Arrays.toString(actual.values)));
+		assertEquals(HEADER, actual.header);
+	}
+
+	static void assertGraphEquals(CallNode expected, CallNode actual, boolean withAsync)
+	{
+		assertEquals(expected.name, actual.name);
+		assertEquals(expected.calls, actual.calls, expected.name);
+		assertValueEquals(expected.value, actual.value);
+		assertEquals(expected.details.size(), actual.details.size(), expected.name);
+		for (int i = 0; i < expected.details.size(); ++i)
+		{
+			assertEquals(expected.details.get(i).ID, actual.details.get(i).ID);
+			assertValueEquals(expected.details.get(i).value, actual.details.get(i).value);
+		}
+		assertEquals(expected.edges.size(), actual.edges.size(), expected.name);
+		for (int i = 0; i < expected.edges.size(); ++i)
+		{
+			final CallEdge ee = expected.edges.get(i);
+			final CallEdge ae = actual.edges.get(i);
+			assertEquals(ee.calls, ae.calls);
+			assertEquals(ee.hightlight, ae.hightlight);
+			assertEquals(withAsync && ee.asynchronous, ae.asynchronous);
+			assertValueEquals(ee.value, ae.value);
+			assertGraphEquals(ee.callee, ae.callee, withAsync);
+		}
+	}
+
+	static CallNode parse(byte[] data) throws IOException
+	{
+		return new RawCallGraphParser().parse(new ByteArrayInputStream(data));
+	}
+
+	@Test
+	public void roundTrip() throws IOException
+	{
+		CallNode graph = createGraph();
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RawCallGraphRenderer renderer = new RawCallGraphRenderer(os);
+		renderer.render(graph);
+		assertNull(renderer.getError());
+
+		final byte[] data = os.toByteArray();
+		assertEquals(RawCallGraphTypes.VERSION, data[RawCallGraphTypes.MAGIC.length]);
+		assertGraphEquals(graph, parse(data), true);
+	}
+
+	@Test
+	public void multipleGraphs() throws IOException
+	{
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RawCallGraphRenderer renderer = new RawCallGraphRenderer(os);
+		renderer.render(createGraph());
+		renderer.render(createGraph());
+
+		RawCallGraphParser parser = new RawCallGraphParser();
+		ByteArrayInputStream is = new ByteArrayInputStream(os.toByteArray());
+		assertGraphEquals(createGraph(), parser.parse(is), true);
+		assertGraphEquals(createGraph(), parser.parse(is), true);
+		assertEquals(0, is.available());
+	}
+
+	/**
+	 * Writes version 2 of the format, without the asynchronous flag of edges.
+	 */
+	static final class Version2Renderer extends RawCallGraphRenderer
+	{
+		Version2Renderer(OutputStream os)
+		{
+			super(os);
+		}
+
+		@Override
+		protected void start(CallNode root)
+		{
+			idPool.reset();
+			System.arraycopy(MAGIC, 0, buffer, 0, MAGIC.length);
+			buffer[MAGIC.length] = 2;
+			write(MAGIC.length + 1);
+			writeString(header == null ? null : header.toString());
+		}
+
+		@Override
+		protected void startEdge(CallEdge edge)
+		{
+			writeBoolean(edge.hightlight);
+			writeInt(edge.calls);
+			writeValue(edge.value);
+		}
+	}
+
+	@Test
+	public void readVersion2() throws IOException
+	{
+		CallNode graph = createGraph();
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new Version2Renderer(os).render(graph);
+		assertGraphEquals(graph, parse(os.toByteArray()), false);
+	}
+
+	@Test
+	public void rejectUnknownInput()
+	{
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new RawCallGraphRenderer(os).render(createGraph());
+		final byte[] data = os.toByteArray();
+
+		byte[] version = data.clone();
+		version[RawCallGraphTypes.MAGIC.length] = 1;
+		assertIOException(version);
+
+		byte[] magic = data.clone();
+		magic[0] = 'X';
+		assertIOException(magic);
+
+		assertIOException(Arrays.copyOf(data, data.length - 1));
+	}
+
+	static void assertIOException(byte[] data)
+	{
+		boolean failed = false;
+		try
+		{
+			parse(data);
+		}
+		catch (IOException e)
+		{
+			failed = true;
+		}
+		assertTrue(failed);
+	}
+}
@@ -6,11 +6,12 @@ import java.io.OutputStream;
 import java.math.RoundingMode;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
-import java.util.Calendar;
 import java.util.List;
 
 import com.bw.jtools.profiling.ClassProfilingInformation;
-import com.bw.jtools.profiling.callgraph.AbstractCallGraphRenderer;
+import com.bw.jtools.profiling.ProfilingSnapshot;
+import com.bw.jtools.profiling.callgraph.CallGraphDelta;
+import com.bw.jtools.profiling.callgraph.CallNode;
 import com.bw.jtools.profiling.callgraph.JSONCallGraphRenderer;
 import com.bw.jtools.profiling.callgraph.Options;
 
@@ -31,6 +32,14 @@ public class DumpService {
         public int    nbFiles = 10;
         
         private int    fileIndex = 0;
+
+        /**
+         * Number of deltas between keyframes, 0 disables deltas.
+         */
+        public int    keyframeInterval = 0;
+
+        private CallGraphDelta delta;
+        private String currentFile;
         
         @Override
         public void run() {
@@ -40,16 +49,28 @@ public class DumpService {
                     List<ClassProfilingInformation> classes = ClassProfilingInformation.getClassInformation();
                     if (!classes.isEmpty()) {
                         // Render top-level call graphs
-                        JSONCallGraphRenderer renderer = new JSONCallGraphRenderer(nf, Options.ADD_CLASSNAMES, Options.HIGHLIGHT_CRITICAL, Options.ADD_MIN_MAX);
+                        JSONCallGraphRenderer renderer = new JSONCallGraphRenderer(nf, Options.ADD_CLASSNAMES, Options.HIGHLIGHT_CRITICAL, Options.ADD_MIN_MAX, Options.ADD_PERCENTILES, Options.ADD_RECENT, Options.ADD_EXEMPLARS, Options.CALLING_CONTEXT, Options.COMPENSATE_OVERHEAD);
+                        CallNode graph = renderer.generateGraph(ProfilingSnapshot.take(false));
+                        boolean append = false;
+                        if ( keyframeInterval > 0 ) {
+                            if ( delta == null ) {
+                                delta = new CallGraphDelta(keyframeInterval);
+                            }
+                            graph = delta.next(graph);
+                            append = !delta.isKeyframe() && currentFile != null;
+                        }
                         sb.setLength(0);
-                        sb.append( renderer.render(AbstractCallGraphRenderer.filterTopLevelCalls(classes), ClassProfilingInformation.getProfilingStartTime(), Calendar.getInstance() ) );
+                        sb.append( append ? renderer.renderDelta(graph) : renderer.render(graph) );
                         sb.append("\n");
                         try {
-                            ++fileIndex;
-                            if ( nbFiles <= fileIndex) {
-                                fileIndex = 1;
+                            if ( !append ) {
+                                ++fileIndex;
+                                if ( nbFiles <= fileIndex) {
+                                    fileIndex = 1;
+                                }
+                                currentFile = MessageFormat.format(filePattern, fileIndex );
                             }
-                            OutputStream os = new FileOutputStream( MessageFormat.format(filePattern, fileIndex ),false);
+                            OutputStream os = new FileOutputStream( currentFile, append);
                             try {
                                 os.write( sb.toString().getBytes() );
                             } finally {
@@ -78,18 +99,28 @@ public class DumpService {
     public static synchronized void start(String config) {
         
         // E.g. "2000:10:/logs/profiling{0}.json"
+        // With deltas, keyframe after 30 deltas: "2000:10:/logs/profiling{0}.json:30"
         String[] args = config.split("(?<!\\\\):");
         if ( args != null && args.length>2 ) {
          
             long delayDuration = Long.parseLong(args[0]);
             int nbFiles = Integer.parseInt(args[1]);
             String filePattern = args[2];
+            int keyframeInterval = 0;
+            if ( args.length>3 ) {
+                try {
+                    keyframeInterval = Integer.parseInt(args[3].trim());
+                } catch ( NumberFormatException e ) {
+                    System.err.println("Profiling Dump: Illegal keyframe interval '"+args[3]+"', writing complete dumps.");
+                }
+            }
             
             if ( dumpRunner == null || !dumpRunner.running) {
                 dumpRunner = new Runner();
                 dumpRunner.delay = delayDuration;
                 dumpRunner.filePattern = filePattern;
                 dumpRunner.nbFiles = nbFiles;
+                dumpRunner.keyframeInterval = keyframeInterval;
                 dumpRunner.nf = NumberFormat.getNumberInstance();
                 dumpRunner.nf.setMaximumFractionDigits(5);
                 dumpRunner.nf.setRoundingMode(RoundingMode.HALF_UP);
@@ -100,6 +131,7 @@ public class DumpService {
                 dumpRunner.delay = delayDuration;
                 dumpRunner.filePattern = filePattern;
                 dumpRunner.nbFiles = nbFiles;
+                dumpRunner.keyframeInterval = keyframeInterval;
             }
         }
     }
@@ -24,6 +24,7 @@
 package com.bw.jtools.profiling.weaving;
 
 import com.bw.jtools.profiling.MethodProfiling;
+import com.bw.jtools.profiling.MethodProfilingInformation;
 import net.bytebuddy.asm.Advice;
 
 /**
@@ -32,24 +33,25 @@ import net.bytebuddy.asm.Advice;
 public final class ByteBuddyProfilingCtorAdvice
 {
 
-    @SuppressWarnings({ "resource", "unused" })
+    @SuppressWarnings({ "unused" })
 	@Advice.OnMethodEnter(inline = true)
     static public void adviceEnter(
-            @Advice.Origin("#t") String clazz,
-            @Advice.Origin("#m") String method,
-            @Advice.Local("MP") MethodProfiling mp
+            @MethodIndex int index,
+            @Advice.Local("MI") MethodProfilingInformation mi,
+            @Advice.Local("MT") long token
               )
     {
-        mp = new MethodProfiling(clazz, method);
+        mi = MethodProfilingInformation.getMethodInformation(index);
+        token = MethodProfiling.enter(mi);
     }
 
 
     @Advice.OnMethodExit(inline = true)
-    static public void adviceExitThrown(@Advice.Local("MP") MethodProfiling mp )
+    static public void adviceExitThrown(@Advice.Local("MI") MethodProfilingInformation mi, @Advice.Local("MT") long token )
     {
-        if (mp != null )
+        if (mi != null )
         {
-            mp.close();
+            MethodProfiling.exit(mi, token);
         }
     }
 
@@ -24,6 +24,7 @@
 package com.bw.jtools.profiling.weaving;
 
 import com.bw.jtools.profiling.MethodProfiling;
+import com.bw.jtools.profiling.MethodProfilingInformation;
 import net.bytebuddy.asm.Advice;
 
 /**
@@ -34,23 +35,24 @@ import net.bytebuddy.asm.Advice;
 public final class ByteBuddyProfilingThrowAdvice
 {
 
-    @SuppressWarnings({ "unused", "resource" })
+    @SuppressWarnings({ "unused" })
 	@Advice.OnMethodEnter(inline = true)
     static public void adviceEnter(
-            @Advice.Origin("#t") String clazz,
-            @Advice.Origin("#m") String method,
-            @Advice.Local("$MP$") MethodProfiling mp)
+            @MethodIndex int index,
+            @Advice.Local("$MI$") MethodProfilingInformation mi,
+            @Advice.Local("$MT$") long token)
     {
-        mp = new MethodProfiling(clazz, method);
+        mi = MethodProfilingInformation.getMethodInformation(index);
+        token = MethodProfiling.enter(mi);
     }
 
     @Advice.OnMethodExit(inline = true, onThrowable = Throwable.class)
-    static public void adviceExitThrown(@Advice.Local("$MP$") MethodProfiling mp, @Advice.Thrown Throwable thrown)
+    static public void adviceExitThrown(@Advice.Local("$MI$") MethodProfilingInformation mi, @Advice.Local("$MT$") long token, @Advice.Thrown Throwable thrown)
     {
-        if (mp != null )
+        if (mi != null )
         {
-            if ( thrown != null ) mp.exception(thrown);
-            mp.close();
+            if ( thrown != null ) MethodProfiling.exception(mi, thrown);
+            MethodProfiling.exit(mi, token);
         }
     }
 
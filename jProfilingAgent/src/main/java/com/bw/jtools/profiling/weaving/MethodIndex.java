@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Bernd Wengenroth.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.bw.jtools.profiling.weaving;
+
+import com.bw.jtools.profiling.ClassProfilingInformation;
+import com.bw.jtools.profiling.MethodProfilingInformation;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.implementation.bytecode.assign.Assigner;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds an advice parameter of type int to the {@link MethodProfilingInformation#index}
+ * of the instrumented method.<br>
+ * The method information is created while the class is transformed and the index is woven as constant,
+ * so entering a profiled method needs no class or method lookup.
+ * The advice gets the information by {@link MethodProfilingInformation#getMethodInformation(int)}.
+ * The binding has to be registered by
+ * <pre>
+ *     Advice.withCustomMapping().bind(MethodIndex.class, new MethodIndex.Mapping())
+ * </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface MethodIndex
+{
+    /**
+     * Offset mapping that resolves the method index at weave time.
+     */
+    final class Mapping implements Advice.OffsetMapping
+    {
+        @Override
+        public Target resolve(TypeDescription instrumentedType, MethodDescription instrumentedMethod,
+                              Assigner assigner, Advice.ArgumentHandler argumentHandler, Sort sort)
+        {
+            // Same names as used by @Advice.Origin("#t") and @Advice.Origin("#m").
+            final MethodProfilingInformation mi = ClassProfilingInformation
+                    .getClassInformation(instrumentedType.getName())
+                    .getMethodInformation(instrumentedMethod.getInternalName());
+            return Target.ForStackManipulation.of(Integer.valueOf(mi.index));
+        }
+    }
+}
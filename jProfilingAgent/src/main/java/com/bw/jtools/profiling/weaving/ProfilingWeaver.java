@@ -26,6 +26,13 @@ package com.bw.jtools.profiling.weaving;
 import com.bw.jtools.Log;
 import com.bw.jtools.log.ConsoleLogger;
 import com.bw.jtools.log.FileLogger;
+import com.bw.jtools.profiling.CallingContextTree;
+import com.bw.jtools.profiling.ExemplarConfiguration;
+import com.bw.jtools.profiling.OverheadCalibration;
+import com.bw.jtools.profiling.ProfilingInformation;
+import com.bw.jtools.profiling.SamplingConfiguration;
+import com.bw.jtools.profiling.ThreadPartitions;
+import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
 
 import java.io.InputStreamReader;
 import java.lang.instrument.Instrumentation;
@@ -94,6 +101,72 @@ import static net.bytebuddy.matcher.ElementMatchers.isDeclaredBy;
  *    verbose= true
  * </pre>
  *
+ * <p>
+ * To reduce the overhead on hot paths, calls can be sampled by the optional setting '<i>sampling</i>'.<br>
+ * Each sub-expression has the form <i>class-expression:method-expression:rate</i>.
+ * A rate "N" measures every N-th call of a method, "~N" measures calls randomly with probability 1/N.
+ * All calls are still counted and the sums are extrapolated. See {@link com.bw.jtools.profiling.SamplingConfiguration}.
+ * </p>
+ * <pre>
+ *
+ *    sampling = com\.myorg\..*:get.*:100 com\.myorg\..*:print.*:~20
+ * </pre>
+ *
+ * <p>
+ * With setting '<i>calibrate = true</i>' the overhead of the profiling is measured at startup,
+ * see {@link com.bw.jtools.profiling.OverheadCalibration}.
+ * Reports can only compensate the overhead if calibration was done.
+ * </p>
+ *
+ * <p>
+ * The setting '<i>measurement</i>' selects the measurement source: "nano" (system time), "thread" (system and thread time),
+ * "allocation" (system time, thread time and allocated bytes, see {@link com.bw.jtools.profiling.measurement.ThreadAllocation})
+ * or a list of dimensions, see {@link com.bw.jtools.profiling.measurement.CompositeMeasurementSource}.
+ * If not set, thread time is used if supported by the JVM.
+ * </p>
+ * <pre>
+ *
+ *    measurement = wall,cpu,alloc,blocked
+ * </pre>
+ *
+ * <p>
+ * The optional setting '<i>partitions</i>' records statistics per thread partition in addition to the combined statistics.
+ * Each sub-expression has the form <i>partition:thread-name-expression</i>, see {@link com.bw.jtools.profiling.ThreadPartitions}.
+ * </p>
+ * <pre>
+ *
+ *    partitions = request:http-nio-.* batch:batch-worker-\d+
+ * </pre>
+ *
+ * <p>
+ * The optional setting '<i>exemplars</i>' keeps the complete call trees of slow calls.
+ * Each sub-expression has the form <i>class-expression:method-expression:threshold</i>,
+ * the threshold is a duration or a percentile of the latency histogram, see {@link com.bw.jtools.profiling.ExemplarConfiguration}.
+ * </p>
+ * <pre>
+ *
+ *    exemplars = com\.myorg\..*:handle.*:250ms com\.myorg\..*:query.*:p99
+ * </pre>
+ *
+ * <p>
+ * With setting '<i>histograms = true</i>' a latency histogram is recorded for each method and callee-relation,
+ * see {@link com.bw.jtools.profiling.measurement.LatencyHistogram}. Histograms are needed for percentiles
+ * and add contended writes on hot methods, so they are disabled by default.
+ * Exemplar rules with percentiles enable them automatically.
+ * </p>
+ *
+ * <p>
+ * With setting '<i>rollingWindows = true</i>' the calls of the last 15 minutes are recorded for each method and callee-relation,
+ * see {@link com.bw.jtools.profiling.measurement.RollingWindow}. Like histograms, windows add contended writes on hot methods,
+ * so they are disabled by default.
+ * </p>
+ *
+ * <p>
+ * With setting '<i>callingContext = true</i>' each thread records a calling-context tree,
+ * so the values of a method are shown separately for each call path, see {@link com.bw.jtools.profiling.CallingContextTree}.
+ * The services then report the calling-context tree instead of the callee graph.
+ * </p>
+ *
  * You can use any legal url that is supported by your JVM as path to the file.<br>
  * E.g. if the file is located inside the META-INF-folder of a jar file you can try to use a JAR-url:
  * <pre>
@@ -132,6 +205,46 @@ public class ProfilingWeaver
      */
     public static final String ARG_REGEX = "regex";
 
+    /**
+     * Argument for sampling rules.
+     */
+    public static final String ARG_SAMPLING = "sampling";
+
+    /**
+     * Argument to calibrate the profiling overhead at startup.
+     */
+    public static final String ARG_CALIBRATE = "calibrate";
+
+    /**
+     * Argument to select the measurement source.
+     */
+    public static final String ARG_MEASUREMENT = "measurement";
+
+    /**
+     * Argument for thread partitions.
+     */
+    public static final String ARG_PARTITIONS = "partitions";
+
+    /**
+     * Argument for slow-call exemplars.
+     */
+    public static final String ARG_EXEMPLARS = "exemplars";
+
+    /**
+     * Argument to enable latency histograms.
+     */
+    public static final String ARG_HISTOGRAMS = "histograms";
+
+    /**
+     * Argument to enable rolling windows of recent calls.
+     */
+    public static final String ARG_ROLLING_WINDOWS = "rollingWindows";
+
+    /**
+     * Argument to enable calling-context trees.
+     */
+    public static final String ARG_CALLING_CONTEXT = "callingContext";
+
     /**
      * Argument for verbosity.
      */
@@ -172,7 +285,7 @@ public class ProfilingWeaver
 
         String argPropertyFile = System.getProperty(PROP_PROPERTY_FILE);
         
-        for ( String argName :  Arrays.asList( ARG_REGEX, ARG_VERBOSE, ARG_LOG, ARG_LOG_LEVEL ) ) 
+        for ( String argName :  Arrays.asList( ARG_REGEX, ARG_SAMPLING, ARG_CALIBRATE, ARG_MEASUREMENT, ARG_PARTITIONS, ARG_EXEMPLARS, ARG_HISTOGRAMS, ARG_ROLLING_WINDOWS, ARG_CALLING_CONTEXT, ARG_VERBOSE, ARG_LOG, ARG_LOG_LEVEL ) ) 
         {
             String val = System.getProperty(PROP_PREFIX+argName);
             if (val != null)
@@ -265,11 +378,45 @@ public class ProfilingWeaver
             }
         }
 
+        AbstractMeasurementSource.configure(args.get(ARG_MEASUREMENT));
+
+        SamplingConfiguration.parse(args.get(ARG_SAMPLING));
+
+        ThreadPartitions.parse(args.get(ARG_PARTITIONS));
+
+        if (Boolean.valueOf(args.get(ARG_HISTOGRAMS)))
+        {
+            ProfilingInformation.setHistogramsEnabled(true);
+        }
+
+        if (Boolean.valueOf(args.get(ARG_ROLLING_WINDOWS)))
+        {
+            ProfilingInformation.setRollingWindowsEnabled(true);
+        }
+
+        if (Boolean.valueOf(args.get(ARG_CALLING_CONTEXT)))
+        {
+            CallingContextTree.setEnabled(true);
+        }
+
+        ExemplarConfiguration.parse(args.get(ARG_EXEMPLARS));
+
+        if (Boolean.valueOf(args.get(ARG_CALIBRATE)))
+        {
+            OverheadCalibration c = OverheadCalibration.calibrate();
+            if (verbose)
+            {
+                Log.info("Profiling overhead: " + c);
+            }
+        }
+
         final String regExp = args.get(ARG_REGEX);
 
         if (regExp != null && !regExp.isEmpty())
         {
             AgentBuilder agent = new AgentBuilder.Default();
+            // Methods are resolved at weave time, see MethodIndex.
+            final Advice.WithCustomMapping adviceMapping = Advice.withCustomMapping().bind(MethodIndex.class, new MethodIndex.Mapping());
             if (verbose)
             {
                 agent = agent.with(AgentBuilder.Listener.StreamWriting.toSystemOut());
@@ -346,7 +493,7 @@ public class ProfilingWeaver
                                                    .and(isDeclaredBy(typeDescription))
                                                    .and(ElementMatchers.not( excludeMatch ));
 
-                                    builder = builder.visit(Advice.to(ByteBuddyProfilingThrowAdvice.class).on(matcher) );
+                                    builder = builder.visit(adviceMapping.to(ByteBuddyProfilingThrowAdvice.class).on(matcher) );
 
                                     if ( profileCtors )
                                     {
@@ -359,7 +506,7 @@ public class ProfilingWeaver
                                                        .and(ElementMatchers.isDeclaredBy(typeDescription)) //< Possible?
                                                        .and(ElementMatchers.not( excludeCtorMatch ));
 
-                                        builder = builder.visit(Advice.to(ByteBuddyProfilingCtorAdvice.class).on(ctormatcher) );
+                                        builder = builder.visit(adviceMapping.to(ByteBuddyProfilingCtorAdvice.class).on(ctormatcher) );
                                     }
                                     return builder;
                                 });
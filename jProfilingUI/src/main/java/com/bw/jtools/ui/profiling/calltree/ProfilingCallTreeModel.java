@@ -24,8 +24,10 @@
 package com.bw.jtools.ui.profiling.calltree;
 
 import com.bw.jtools.profiling.callgraph.JSONCallGraphParser;
+import com.bw.jtools.ui.I18N;
 import com.bw.jtools.ui.UITool;
 import javax.swing.tree.DefaultTreeModel;
+import java.text.MessageFormat;
 import java.text.NumberFormat;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -99,6 +101,11 @@ public class ProfilingCallTreeModel extends DefaultTreeModel
             }
         }
 
+        if ( node.node.thread != null )
+        {
+            newText = MessageFormat.format(I18N.getText("callgraph.tree.exemplar"), newText, node.node.thread);
+        }
+
         if ( nameFilter != null )
         {
             StringBuilder sb = new StringBuilder(100);
@@ -26,6 +26,8 @@ package com.bw.jtools.ui.profiling.calltree;
 import com.bw.jtools.profiling.callgraph.CallNode;
 import com.bw.jtools.profiling.callgraph.NodeDetail;
 import com.bw.jtools.profiling.measurement.AbstractMeasurementSource;
+import com.bw.jtools.profiling.measurement.CountValue;
+import com.bw.jtools.profiling.measurement.DateTimeValue;
 import com.bw.jtools.ui.I18N;
 import java.awt.BorderLayout;
 import java.awt.Color;
@@ -91,8 +93,8 @@ public class ProfilingCallTreeRenderer extends DefaultTreeCellRenderer
         {
             info.setText(
                     mf.format( new Object[] { node.calls,
-                        AbstractMeasurementSource.format(nf, node.value),
-                        AbstractMeasurementSource.format(nf, node.getNetMeasurement())} ));
+                        AbstractMeasurementSource.formatLabeled(nf, node.value),
+                        AbstractMeasurementSource.formatLabeled(nf, node.getNetMeasurement())} ));
         }
         else
         {
@@ -108,7 +110,19 @@ public class ProfilingCallTreeRenderer extends DefaultTreeCellRenderer
                 {
                     sb.append(" / ");
                 }
-                sb.append(AbstractMeasurementSource.format(nf, d.value));
+                sb.append(NodeDetail.getName(d.ID)).append(": ");
+                if (d.value instanceof DateTimeValue)
+                {
+                    sb.append(((DateTimeValue) d.value).toISO8601());
+                }
+                else if (d.value instanceof CountValue)
+                {
+                    sb.append(nf.format(d.value.values[0]));
+                }
+                else
+                {
+                    sb.append(AbstractMeasurementSource.formatLabeled(nf, d.value));
+                }
             }
         }
         details.setText(sb.toString());
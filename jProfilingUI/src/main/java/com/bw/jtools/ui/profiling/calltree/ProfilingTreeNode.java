@@ -55,15 +55,23 @@ public final class ProfilingTreeNode extends DefaultMutableTreeNode
     public String text;
 
     /**
-     * Create a new tree node.
+     * Create a new tree node.<br>
+     * Slow-call exemplars of the node are added as first children, in front of the callees.
      * @param node The call node
      * @param nf The number format used to render values.
      */
     public ProfilingTreeNode(CallNode node, NumberFormat nf)
     {
-        super(node.toString(nf), !node.edges.isEmpty());
+        super(node.toString(nf), !node.edges.isEmpty() || (node.exemplars != null && !node.exemplars.isEmpty()));
         id = idGenerator.incrementAndGet();
         this.node = node;
+        if (node.exemplars != null)
+        {
+            for (CallNode e : node.exemplars)
+            {
+                add(new ProfilingTreeNode(e, nf));
+            }
+        }
         for (CallEdge e : node.edges)
         {
             add(new ProfilingTreeNode(e.callee, nf));
@@ -35,13 +35,13 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.NumberFormat;
-import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 
 import com.bw.jtools.profiling.CalleeProfilingInformation;
 import com.bw.jtools.profiling.ClassProfilingInformation;
 import com.bw.jtools.profiling.MethodProfilingInformation;
+import com.bw.jtools.profiling.ProfilingSnapshot;
 import com.bw.jtools.profiling.callgraph.AbstractCallGraphRenderer;
 import com.bw.jtools.profiling.callgraph.FreeMindGraphRenderer;
 import com.bw.jtools.profiling.callgraph.JSONCallGraphParser;
@@ -114,11 +114,13 @@ public final class ProfilingDemoUtils
         {
             for (MethodProfilingInformation mi : ci.getMethodInformation() )
             {
-                System.out.println( ci.name+"."+mi.name+" "+ AbstractMeasurementSource.format( nf, mi.sum )+" Calls "+mi.calls+", Recursive "+mi.recursiveCalls );
-                for (CalleeProfilingInformation cli : mi.callees.values() )
+                mi.collect();
+                System.out.println( ci.name+"."+mi.name+" "+ AbstractMeasurementSource.format( nf, mi.getExtrapolatedSum() )+" Calls "+mi.calls+", Recursive "+mi.recursiveCalls );
+                for (CalleeProfilingInformation cli : mi.getCallees() )
                 {
+                    cli.collect();
                     System.out.println( "   -> "+cli.calls+" x "+cli.callee.clazz.name+"."+cli.callee.name+" "+
-                            AbstractMeasurementSource.currentSource.formatValue( nf, cli.sum ) );
+                            AbstractMeasurementSource.currentSource.formatValue( nf, cli.getExtrapolatedSum() ) );
                 }
             }
         }
@@ -146,8 +148,8 @@ public final class ProfilingDemoUtils
      */
     static public void dumpCall( String prefix, MethodProfilingInformation mi )
     {
-        System.out.println( prefix+mi.name+" "+AbstractMeasurementSource.format(nf,mi.sum) );
-        for ( CalleeProfilingInformation ci : mi.callees.values() ){
+        System.out.println( prefix+mi.name+" "+AbstractMeasurementSource.format(nf,mi.getExtrapolatedSum()) );
+        for ( CalleeProfilingInformation ci : mi.getCallees() ){
             dumpCallEdge("--"+prefix, ci);
         }
     }
@@ -204,9 +206,8 @@ public final class ProfilingDemoUtils
         if ( fileName != null && !fileName.isEmpty() )
         {
 
-            List<MethodProfilingInformation> topMethods = AbstractCallGraphRenderer.filterTopLevelCalls(ClassProfilingInformation.getClassInformation());
-            String mindMap = new JSONCallGraphRenderer(nf, Options.ADD_CLASSNAMES, Options.HIGHLIGHT_CRITICAL, Options.ADD_MIN_MAX, pretty ? Options.PRETTY : Options.NONE )
-                    .render(topMethods, ClassProfilingInformation.getProfilingStartTime(), Calendar.getInstance() );
+            String mindMap = new JSONCallGraphRenderer(nf, Options.ADD_CLASSNAMES, Options.HIGHLIGHT_CRITICAL, Options.ADD_MIN_MAX, Options.ADD_PERCENTILES, Options.ADD_RECENT, Options.COMPENSATE_OVERHEAD, pretty ? Options.PRETTY : Options.NONE )
+                    .render(ProfilingSnapshot.take(false));
 
             Writer w = null;
             try
@@ -244,9 +245,8 @@ public final class ProfilingDemoUtils
         if ( fileName != null && !fileName.isEmpty() )
         {
 
-            List<MethodProfilingInformation> topMethods = AbstractCallGraphRenderer.filterTopLevelCalls(ClassProfilingInformation.getClassInformation());
-            String mindMap = new FreeMindGraphRenderer(nf, Options.ADD_CLASSNAMES, Options.HIGHLIGHT_CRITICAL, Options.ADD_MIN_MAX)
-                    .render(topMethods, ClassProfilingInformation.getProfilingStartTime(), Calendar.getInstance() );
+            String mindMap = new FreeMindGraphRenderer(nf, Options.ADD_CLASSNAMES, Options.HIGHLIGHT_CRITICAL, Options.ADD_MIN_MAX, Options.ADD_PERCENTILES, Options.ADD_RECENT, Options.COMPENSATE_OVERHEAD)
+                    .render(ProfilingSnapshot.take(false));
 
             Writer w = null;
             try